@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+import java.lang.reflect.Method;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.ll.nics.mach.ping.AlertSender;
+import edu.mit.ll.nics.mach.ping.HostPingAlert;
+import edu.mit.ll.nics.mach.ping.HostPingAlert.EndpointType;
+
+/**
+ * Many probe threads recording results at once, as they do when a sweep's probes finish.  With
+ * one endpoint every thread contends for the same record, with many they're spread out as in a
+ * real sweep.  Alerts go to a sender that drops them, so only the bookkeeping is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class AlertContentionBenchmark {
+
+	/** Number of endpoints the threads record results for */
+	@Param({"1", "1000"})
+	public int endpoints;
+	
+	/** The endpoints */
+	private String[] names;
+	
+	/** Instance the results are recorded on */
+	private HostPingAlert hostPingAlert;
+	
+	/** HostPingAlert.updateTimestamp(String, EndpointType, long), which is private */
+	private MethodHandle updateTimestamp;
+	
+	
+	@Setup
+	public void setup() throws Exception {
+		Fixtures.quietLogging();
+		
+		names = new String[endpoints];
+		for(int i = 0; i < endpoints; i++) {
+			names[i] = "http://nics" + i + ".example.com/";
+		}
+		
+		hostPingAlert = new HostPingAlert();
+		// Every failure alerts and every success recovers, so each flapping op sends both
+		hostPingAlert.setFailuresToAlert(1);
+		hostPingAlert.setSuccessesToRecover(1);
+		hostPingAlert.setFlapHighPercent(0);
+		hostPingAlert.setAlertSender(new AlertSender() {
+			@Override
+			public void send(String subscribers, String subject, String message) {
+			}
+		});
+		
+		Method method = HostPingAlert.class.getDeclaredMethod("updateTimestamp", String.class, EndpointType.class, long.class);
+		method.setAccessible(true);
+		updateTimestamp = MethodHandles.lookup().unreflect(method);
+	}
+	
+	
+	/** Steady state of an endpoint that's up */
+	@Benchmark
+	public void updateTimestamp(ThreadIndex index) throws Throwable {
+		updateTimestamp.invoke(hostPingAlert, names[index.next(endpoints)], EndpointType.URL, 1000000L);
+	}
+	
+	
+	/** Steady state of an endpoint that's down, between reminders */
+	@Benchmark
+	public void sendAlert(ThreadIndex index) {
+		hostPingAlert.sendAlert(names[index.next(endpoints)], EndpointType.URL, "timed out");
+	}
+	
+	
+	/** An endpoint going down and back up, so an alert and a recovery are built and sent */
+	@Benchmark
+	public void flapping(ThreadIndex index) throws Throwable {
+		String name = names[index.next(endpoints)];
+		hostPingAlert.sendAlert(name, EndpointType.URL, "timed out");
+		updateTimestamp.invoke(hostPingAlert, name, EndpointType.URL, 1000000L);
+	}
+	
+	
+	/**
+	 * Walks each thread through the endpoints from its own starting point
+	 */
+	@State(Scope.Thread)
+	public static class ThreadIndex {
+		
+		/** Index of the last endpoint this thread recorded a result for */
+		private int position = (int)(Thread.currentThread().getId() * 7919 % 1000003);
+		
+		/**
+		 * @param endpoints Number of endpoints
+		 * @return Index of the endpoint to record the next result for
+		 */
+		int next(int endpoints) {
+			position = (position + 1) % endpoints;
+			return position;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Shared setup for the benchmarks.  Pages are made up of typical markup, repeated out to the
+ * size asked for, so they're searched like real pages rather than random bytes.
+ */
+public final class Fixtures {
+
+	/** Text the benchmarks search for, from the default pagePattern */
+	public static final String MARKER = "I'm feeling lucky";
+	
+	/** Pattern for the MARKER */
+	public static final Pattern PATTERN = Pattern.compile(MARKER);
+	
+	/** Markup repeated to fill a page */
+	private static final String FILLER = 
+		"<div class=\"row\"><a href=\"/sadisplay/incident.seam?id=1042\">Incident 1042</a>" +
+		"<span class=\"status\">Active</span><script type=\"text/javascript\">var cid = 1042;</script></div>\n";
+	
+	private Fixtures() {
+	}
+	
+	
+	/**
+	 * Raises the log level to WARN, so the probes' per-check INFO/DEBUG logging isn't written
+	 * out while they're measured.  Messages not guarded by a level check are still built, as they 
+	 * are in production.
+	 */
+	public static void quietLogging() {
+		Logger.getRootLogger().setLevel(Level.WARN);
+	}
+	
+	
+	/**
+	 * Builds a page
+	 * 
+	 * @param size Size of the page (in bytes)
+	 * @param withMarker Whether the MARKER is included, just before the end of the page
+	 * @return The page, as UTF-8
+	 */
+	public static byte[] page(int size, boolean withMarker) {
+		String head = "<html><head><title>NICS</title></head><body>\n";
+		String tail = (withMarker ? "<input type=\"submit\" value=\"" + MARKER + "\"/>" : "") + "</body></html>\n";
+		
+		StringBuilder sb = new StringBuilder(size + FILLER.length());
+		sb.append(head);
+		while(sb.length() + FILLER.length() + tail.length() <= size) {
+			sb.append(FILLER);
+		}
+		sb.append(tail);
+		
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.benchmarks;
+
+import java.lang.reflect.Method;
+
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.ll.nics.mach.ping.AlertSender;
+import edu.mit.ll.nics.mach.ping.HostPingAlert;
+import edu.mit.ll.nics.mach.ping.loadtest.EndpointFarm;
+
+/**
+ * A whole sweep of healthy endpoints, every page matching and every service accepting, served by
+ * an EndpointFarm on loopback.  Run with the GC profiler to see what a steady-state sweep allocates:
+ * 
+ * <pre>
+ * java -jar host-ping-alert-benchmarks/target/benchmarks.jar SweepBenchmark -prof gc
+ * </pre>
+ * 
+ * <p>gc.alloc.rate.norm is then the bytes allocated per sweep, by every thread, the probe pools
+ * and HTTP client included.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SweepBenchmark {
+
+	/** Number of pages swept */
+	@Param({"200"})
+	public int pages;
+	
+	/** Number of TCP services swept */
+	@Param({"200"})
+	public int services;
+	
+	/** Engine the pages are checked with */
+	@Param({HostPingAlert.HTTP_ENGINE_BLOCKING, HostPingAlert.HTTP_ENGINE_ASYNC})
+	public String httpEngine;
+	
+	/** Serves the endpoints */
+	private EndpointFarm farm;
+	
+	/** Instance swept */
+	private HostPingAlert hostPingAlert;
+	
+	
+	@Setup
+	public void setup() throws Exception {
+		Fixtures.quietLogging();
+		
+		farm = new EndpointFarm(new EndpointFarm.Behavior(), 42);
+		String address = EndpointFarm.getAddress().getHostAddress();
+		String pageList = join("http://" + address + ":", farm.listenHttp(pages), "/");
+		String serviceList = join(address + ":", farm.listenTcp(services), "");
+		farm.start();
+		
+		hostPingAlert = new HostPingAlert();
+		hostPingAlert.setPages(pageList);
+		hostPingAlert.setServices(serviceList);
+		hostPingAlert.setPagePattern(Fixtures.MARKER);
+		hostPingAlert.setSubscribers("benchmark@localhost");
+		hostPingAlert.setStateJournal("");
+		hostPingAlert.setHttpEngine(httpEngine);
+		hostPingAlert.setProbeThreads(50);
+		// Every endpoint in the farm is on the same IP, so per-server limits would hold the whole farm to them
+		hostPingAlert.setMaxProbesPerOrigin(0);
+		hostPingAlert.setOriginProbeRate(0);
+		hostPingAlert.setAlertSender(new AlertSender() {
+			@Override
+			public void send(String subscribers, String subject, String message) {
+			}
+		});
+		
+		// The first sweep initializes everything, so it isn't measured
+		hostPingAlert.process(null);
+	}
+	
+	
+	@TearDown
+	public void tearDown() throws Exception {
+		// Shuts down the probe pools
+		Method destroy = HostPingAlert.class.getDeclaredMethod("destroy");
+		destroy.setAccessible(true);
+		destroy.invoke(hostPingAlert);
+		
+		farm.close();
+	}
+	
+	
+	/** A sweep with every endpoint up, as most are */
+	@Benchmark
+	public void sweep() throws Exception {
+		hostPingAlert.process(null);
+	}
+	
+	
+	/**
+	 * Builds a comma delimited list of endpoints
+	 * 
+	 * @param prefix Text before each port
+	 * @param ports The ports
+	 * @param suffix Text after each port
+	 * @return The list
+	 */
+	private static String join(String prefix, List<Integer> ports, String suffix) {
+		StringBuilder sb = new StringBuilder();
+		for(Integer port : ports) {
+			if(sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(prefix).append(port).append(suffix);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,578 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.mit.ll.nics.mach.ping.benchmarks.Fixtures;
+
+/**
+ * A farm of fake HTTP and TCP endpoints listening on loopback, all served by a single selector
+ * thread, so thousands of them don't need a thread each.  Each HTTP endpoint answers every request
+ * with a page containing Fixtures.MARKER, after the configured latency.  Some requests fail, some
+ * bodies are sent slowly, and some endpoints flap, going down and back up, at the rates configured.
+ *
+ * <p>A flapping HTTP endpoint answers 503 while it's down, a flapping TCP endpoint stops listening.</p>
+ */
+public class EndpointFarm implements Closeable, Runnable {
+
+	/** Loopback address every endpoint listens on */
+	private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+	
+	/** Size of the buffer a request is read into, larger requests are answered when it fills */
+	private static final int REQUEST_BUFFER = 8192;
+	
+	/** Selector every listener and connection is registered with */
+	private final Selector selector;
+	
+	/** Behavior of the endpoints */
+	private final Behavior behavior;
+	
+	/** Decides which requests fail and which bodies are slow.  Only used by the selector thread */
+	private final Random random;
+	
+	/** Responses waiting for their latency to pass, ordered by when they're due */
+	private final PriorityQueue<Connection> delayed = new PriorityQueue<Connection>();
+	
+	/** Every listener */
+	private final List<Listener> listeners = new ArrayList<Listener>();
+	
+	/** Successful response, headers and body */
+	private final byte[] ok;
+	
+	/** Length of the successful response's headers */
+	private final int okHeaderLength;
+	
+	/** Response to a failed request */
+	private final byte[] error = response("500 Internal Server Error", new byte[0]);
+	
+	/** Response while flapped down */
+	private final byte[] unavailable = response("503 Service Unavailable", new byte[0]);
+	
+	/** The selector thread, null until started */
+	private Thread thread;
+	
+	/** Cleared to stop the selector thread */
+	private volatile boolean running = true;
+	
+	
+	/**
+	 * Constructor
+	 *
+	 * @param behavior Behavior of the endpoints
+	 * @param seed Seed for deciding which endpoints flap, and which requests fail or are slow
+	 * @throws IOException If the selector couldn't be opened
+	 */
+	public EndpointFarm(Behavior behavior, long seed) throws IOException {
+		this.behavior = behavior;
+		this.random = new Random(seed);
+		this.selector = Selector.open();
+		
+		byte[] body = Fixtures.page(behavior.bodyBytes, true);
+		this.ok = response("200 OK", body);
+		this.okHeaderLength = ok.length - body.length;
+	}
+	
+	
+	/**
+	 * Opens HTTP endpoints.  Must be called before the farm is started.
+	 *
+	 * @param count Number of endpoints
+	 * @return The ports they're listening on
+	 * @throws IOException If a listener couldn't be opened
+	 */
+	public List<Integer> listenHttp(int count) throws IOException {
+		return listen(count, true);
+	}
+	
+	
+	/**
+	 * Opens TCP endpoints, which accept connections and close them straight away.  Must be called
+	 * before the farm is started.
+	 *
+	 * @param count Number of endpoints
+	 * @return The ports they're listening on
+	 * @throws IOException If a listener couldn't be opened
+	 */
+	public List<Integer> listenTcp(int count) throws IOException {
+		return listen(count, false);
+	}
+	
+	
+	/**
+	 * @return The loopback address the endpoints listen on
+	 */
+	public static InetAddress getAddress() {
+		return LOOPBACK;
+	}
+	
+	
+	/**
+	 * Opens listeners
+	 *
+	 * @param count Number of listeners
+	 * @param http Whether they serve HTTP
+	 * @return The ports they're listening on
+	 * @throws IOException If a listener couldn't be opened
+	 */
+	private List<Integer> listen(int count, boolean http) throws IOException {
+		List<Integer> ports = new ArrayList<Integer>();
+		
+		for(int i = 0; i < count; i++) {
+			boolean flapping = random.nextDouble() < behavior.flapRate;
+			// Spread the flapping endpoints' down periods across the flap period
+			long flapOffset = flapping ? (long)(random.nextDouble() * behavior.flapPeriodMillis) : 0;
+			
+			Listener listener = new Listener(http, flapping, flapOffset);
+			listener.open(0);
+			listeners.add(listener);
+			ports.add(listener.port);
+		}
+		
+		return ports;
+	}
+	
+	
+	/**
+	 * Starts the selector thread
+	 */
+	public void start() {
+		thread = new Thread(this, "endpoint-farm");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	/**
+	 * Stops the selector thread, and closes every listener and connection
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		
+		if(thread != null) {
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		for(SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+	}
+	
+	
+	/**
+	 * Selector loop, accepting connections, reading requests, and writing responses once they're due
+	 */
+	@Override
+	public void run() {
+		long nextFlapCheck = 0;
+		
+		try {
+			while(running) {
+				long now = System.currentTimeMillis();
+				
+				if(behavior.flapPeriodMillis > 0 && now >= nextFlapCheck) {
+					flap(now);
+					nextFlapCheck = now + Math.max(1, behavior.flapPeriodMillis / 20);
+				}
+				
+				while(!delayed.isEmpty() && delayed.peek().due <= now) {
+					Connection connection = delayed.poll();
+					if(connection.key.isValid()) {
+						connection.key.interestOps(SelectionKey.OP_WRITE);
+					}
+				}
+				
+				long wait = (behavior.flapPeriodMillis > 0) ? Math.max(1, nextFlapCheck - now) : 0;
+				if(!delayed.isEmpty()) {
+					long untilDue = Math.max(1, delayed.peek().due - now);
+					wait = (wait == 0) ? untilDue : Math.min(wait, untilDue);
+				}
+				
+				selector.select(wait);
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					
+					try {
+						if(!key.isValid()) {
+							continue;
+						} else if(key.isAcceptable()) {
+							accept(key);
+						} else if(key.isReadable()) {
+							((Connection)key.attachment()).read();
+						} else if(key.isWritable()) {
+							((Connection)key.attachment()).write();
+						}
+					} catch(IOException ioe) {
+						// The prober hung up, or a listener was closed while flapping
+						key.cancel();
+						key.channel().close();
+					}
+				}
+			}
+		} catch(IOException ioe) {
+			if(running) {
+				System.err.println("Endpoint farm stopped: " + ioe);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Opens or closes the flapping TCP listeners, as they come up or go down
+	 *
+	 * @param now The current time (in ms since the epoch)
+	 */
+	private void flap(long now) {
+		for(Listener listener : listeners) {
+			if(!listener.flapping || listener.http) {
+				continue;
+			}
+			
+			boolean down = listener.isDown(now);
+			try {
+				if(down && listener.server != null) {
+					listener.server.close();
+					listener.server = null;
+				} else if(!down && listener.server == null) {
+					listener.open(listener.port);
+				}
+			} catch(IOException ioe) {
+				// Tried again on the next check
+				listener.server = null;
+				System.err.println("Couldn't flap endpoint on port " + listener.port + ": " + ioe);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Accepts a connection.  TCP endpoints close it straight away, HTTP endpoints read a request from it.
+	 *
+	 * @param key The listener's key
+	 * @throws IOException If it couldn't be accepted
+	 */
+	private void accept(SelectionKey key) throws IOException {
+		Listener listener = (Listener)key.attachment();
+		SocketChannel channel = ((ServerSocketChannel)key.channel()).accept();
+		if(channel == null) {
+			return;
+		}
+		
+		if(!listener.http) {
+			channel.close();
+			return;
+		}
+		
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		
+		Connection connection = new Connection(listener, channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+	
+	
+	/**
+	 * Builds an HTTP response
+	 *
+	 * @param status Status code and reason
+	 * @param body The body
+	 * @return The response, headers and body
+	 */
+	private static byte[] response(String status, byte[] body) {
+		byte[] headers = ("HTTP/1.1 " + status + "\r\n" +
+			"Content-Type: text/html; charset=UTF-8\r\n" +
+			"Content-Length: " + body.length + "\r\n" +
+			"Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+		
+		byte[] response = new byte[headers.length + body.length];
+		System.arraycopy(headers, 0, response, 0, headers.length);
+		System.arraycopy(body, 0, response, headers.length, body.length);
+		return response;
+	}
+	
+	
+	/**
+	 * A port the farm listens on
+	 */
+	private class Listener {
+	
+		/** Whether it serves HTTP, rather than just accepting connections */
+		private final boolean http;
+		
+		/** Whether it goes down and back up */
+		private final boolean flapping;
+		
+		/** Offset (in ms) of its flaps into the flap period */
+		private final long flapOffset;
+		
+		/** Its port */
+		private int port;
+		
+		/** Its socket, null while a flapping TCP endpoint is down */
+		private ServerSocketChannel server;
+		
+		private Listener(boolean http, boolean flapping, long flapOffset) {
+			this.http = http;
+			this.flapping = flapping;
+			this.flapOffset = flapOffset;
+		}
+		
+		/**
+		 * Opens its socket
+		 *
+		 * @param port Port to listen on, 0 for any
+		 * @throws IOException If it couldn't be opened
+		 */
+		private void open(int port) throws IOException {
+			server = ServerSocketChannel.open();
+			server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			server.bind(new InetSocketAddress(LOOPBACK, port), 1024);
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT, this);
+			this.port = server.socket().getLocalPort();
+		}
+		
+		/**
+		 * @param now The current time (in ms since the epoch)
+		 * @return Whether it's flapped down, during the second half of each of its flap periods
+		 */
+		private boolean isDown(long now) {
+			return flapping && behavior.flapPeriodMillis > 0 &&
+				(now + flapOffset) % behavior.flapPeriodMillis >= behavior.flapPeriodMillis / 2;
+		}
+	}
+	
+	
+	/**
+	 * A connection to an HTTP endpoint, which reads requests and writes their responses in turn
+	 */
+	private class Connection implements Comparable<Connection> {
+	
+		/** The endpoint */
+		private final Listener listener;
+		
+		/** The connection */
+		private final SocketChannel channel;
+		
+		/** Its key */
+		private SelectionKey key;
+		
+		/** The request being read */
+		private final ByteBuffer request = ByteBuffer.allocate(REQUEST_BUFFER);
+		
+		/** The response being written, null while reading a request */
+		private ByteBuffer response;
+		
+		/** Position in the response the rest of a slow body is held back from, -1 if it isn't slow */
+		private int holdBackAt = -1;
+		
+		/** Time (in ms since the epoch) the response, or the rest of a slow body, is due */
+		private long due;
+		
+		private Connection(Listener listener, SocketChannel channel) {
+			this.listener = listener;
+			this.channel = channel;
+		}
+		
+		/**
+		 * Reads the request, and once its headers are in, queues its response for after the latency
+		 *
+		 * @throws IOException If it couldn't be read, or the prober hung up
+		 */
+		private void read() throws IOException {
+			if(channel.read(request) < 0) {
+				throw new IOException("Connection closed");
+			}
+			
+			if(!headersRead() && request.hasRemaining()) {
+				return;
+			}
+			
+			boolean head = request.get(0) == 'H';
+			request.clear();
+			
+			byte[] chosen;
+			if(listener.isDown(System.currentTimeMillis())) {
+				chosen = unavailable;
+			} else if(random.nextDouble() < behavior.errorRate) {
+				chosen = error;
+			} else {
+				chosen = ok;
+			}
+			
+			response = ByteBuffer.wrap(chosen, 0, (head && chosen == ok) ? okHeaderLength : chosen.length);
+			
+			boolean slow = chosen == ok && !head && random.nextDouble() < behavior.slowBodyRate;
+			holdBackAt = slow ? okHeaderLength + (chosen.length - okHeaderLength) / 2 : -1;
+			
+			key.interestOps(0);
+			due = System.currentTimeMillis() + behavior.latencyMillis;
+			delayed.add(this);
+		}
+		
+		/**
+		 * Writes as much of the response as can be, holding back the second half of a slow body
+		 * until slowBodyMillis have passed
+		 *
+		 * @throws IOException If it couldn't be written, or the prober hung up
+		 */
+		private void write() throws IOException {
+			if(holdBackAt >= 0) {
+				ByteBuffer firstPart = response.duplicate();
+				firstPart.limit(holdBackAt);
+				channel.write(firstPart);
+				response.position(firstPart.position());
+				
+				if(response.position() == holdBackAt) {
+					holdBackAt = -1;
+					key.interestOps(0);
+					due = System.currentTimeMillis() + behavior.slowBodyMillis;
+					delayed.add(this);
+				}
+				return;
+			}
+			
+			channel.write(response);
+			
+			if(!response.hasRemaining()) {
+				// Kept alive for the next request
+				response = null;
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+		
+		/**
+		 * @return Whether the end of the request's headers has been read
+		 */
+		private boolean headersRead() {
+			int end = request.position();
+			return end >= 4 && request.get(end - 4) == '\r' && request.get(end - 3) == '\n' &&
+				request.get(end - 2) == '\r' && request.get(end - 1) == '\n';
+		}
+		
+		@Override
+		public int compareTo(Connection other) {
+			return Long.compare(due, other.due);
+		}
+	}
+	
+	
+	/**
+	 * How the endpoints behave
+	 */
+	public static final class Behavior {
+	
+		/** Time (in ms) before each response is sent */
+		private long latencyMillis;
+		
+		/** Fraction (0-1) of requests answered with a 500 */
+		private double errorRate;
+		
+		/** Fraction (0-1) of bodies whose second half is held back */
+		private double slowBodyRate;
+		
+		/** Time (in ms) the second half of a slow body is held back */
+		private long slowBodyMillis;
+		
+		/** Fraction (0-1) of endpoints that flap */
+		private double flapRate;
+		
+		/** Time (in ms) of each flap, up for the first half and down for the second */
+		private long flapPeriodMillis;
+		
+		/** Size (in bytes) of the page served */
+		private int bodyBytes = 16384;
+		
+		public Behavior latencyMillis(long latencyMillis) {
+			this.latencyMillis = latencyMillis;
+			return this;
+		}
+		
+		public Behavior errorRate(double errorRate) {
+			this.errorRate = errorRate;
+			return this;
+		}
+		
+		public Behavior slowBody(double slowBodyRate, long slowBodyMillis) {
+			this.slowBodyRate = slowBodyRate;
+			this.slowBodyMillis = slowBodyMillis;
+			return this;
+		}
+		
+		public Behavior flapping(double flapRate, long flapPeriodMillis) {
+			this.flapRate = flapRate;
+			this.flapPeriodMillis = flapPeriodMillis;
+			return this;
+		}
+		
+		public Behavior bodyBytes(int bodyBytes) {
+			this.bodyBytes = bodyBytes;
+			return this;
+		}
+		
+		@Override
+		public String toString() {
+			return "latency " + latencyMillis + "ms, " + (errorRate * 100) + "% errors, " +
+				(slowBodyRate * 100) + "% slow bodies (+" + slowBodyMillis + "ms), " +
+				(flapRate * 100) + "% flapping every " + flapPeriodMillis + "ms, " + bodyBytes + " byte pages";
+		}
+	}
+}
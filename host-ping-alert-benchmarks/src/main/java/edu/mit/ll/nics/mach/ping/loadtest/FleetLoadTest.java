@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+import java.lang.reflect.Method;
+
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mit.ll.nics.mach.ping.AlertSender;
+import edu.mit.ll.nics.mach.ping.HostPingAlert;
+import edu.mit.ll.nics.mach.ping.benchmarks.Fixtures;
+
+/**
+ * Runs full monitoring cycles of a HostPingAlert against an EndpointFarm of thousands of fake
+ * endpoints on loopback, reporting how long each sweep took, probes per second, the alerts sent,
+ * heap use, the memory allocated during the sweep and GC.  Alerts go to a stub sender that counts them, in place of email.
+ *
+ * <p>Configured with system properties, e.g.</p>
+ * <pre>
+ * java -Dhttp=5000 -Dtcp=2000 -DlatencyMillis=50 -DerrorRate=0.01 -DhttpEngine=async \
+ *     -cp host-ping-alert-benchmarks/target/benchmarks.jar edu.mit.ll.nics.mach.ping.loadtest.FleetLoadTest
+ * </pre>
+ *
+ * <p>Each endpoint needs a file descriptor for its listener, and another for each connection to it,
+ * so the open file limit (ulimit -n) may need raising for large farms.</p>
+ */
+public class FleetLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		int http = Integer.getInteger("http", 2000);
+		int tcp = Integer.getInteger("tcp", 1000);
+		int cycles = Integer.getInteger("cycles", 5);
+		long periodMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger("period", 60));
+		boolean waitForPeriod = Boolean.getBoolean("waitForPeriod");
+		
+		EndpointFarm.Behavior behavior = new EndpointFarm.Behavior()
+			.latencyMillis(Long.getLong("latencyMillis", 20))
+			.errorRate(Double.parseDouble(System.getProperty("errorRate", "0.01")))
+			.slowBody(Double.parseDouble(System.getProperty("slowBodyRate", "0.01")), Long.getLong("slowBodyMillis", 2000))
+			.flapping(Double.parseDouble(System.getProperty("flapRate", "0.02")), Long.getLong("flapPeriodMillis", 120000))
+			.bodyBytes(Integer.getInteger("bodyBytes", 16384));
+		
+		Fixtures.quietLogging();
+		
+		EndpointFarm farm = new EndpointFarm(behavior, Long.getLong("seed", 42));
+		String pages = join("http://" + EndpointFarm.getAddress().getHostAddress() + ":", farm.listenHttp(http), "/");
+		String services = join(EndpointFarm.getAddress().getHostAddress() + ":", farm.listenTcp(tcp), "");
+		farm.start();
+		
+		CountingSender sender = new CountingSender();
+		
+		HostPingAlert hostPingAlert = new HostPingAlert();
+		hostPingAlert.setPages(pages);
+		hostPingAlert.setServices(services);
+		hostPingAlert.setPagePattern(Fixtures.MARKER);
+		hostPingAlert.setSubscribers("loadtest@localhost");
+		hostPingAlert.setAlertSender(sender);
+		hostPingAlert.setStateJournal("");
+		hostPingAlert.setTimeout(Integer.getInteger("timeout", 5000));
+		hostPingAlert.setMinsBetweenReminders(Integer.getInteger("minsBetweenReminders", 5));
+		hostPingAlert.setFailuresToAlert(Integer.getInteger("failuresToAlert", 3));
+		hostPingAlert.setConfirmRetryDelay(Integer.getInteger("confirmRetryDelay", 1000));
+		hostPingAlert.setFlapHighPercent(Integer.getInteger("flapHighPercent", 40));
+		hostPingAlert.setProbeThreads(Integer.getInteger("probeThreads", 20));
+		hostPingAlert.setSweepDeadline(Integer.getInteger("sweepDeadline", 55));
+		hostPingAlert.setHttpEngine(System.getProperty("httpEngine", HostPingAlert.HTTP_ENGINE_BLOCKING));
+		hostPingAlert.setMaxInFlightPages(Integer.getInteger("maxInFlightPages", 1000));
+		// Every endpoint in the farm is on the same IP, so per-server limits would hold the whole farm to them
+		hostPingAlert.setMaxProbesPerOrigin(Integer.getInteger("maxProbesPerOrigin", 0));
+		hostPingAlert.setOriginProbeRate(Double.parseDouble(System.getProperty("originProbeRate", "0")));
+		hostPingAlert.setDigestEnabled(Boolean.getBoolean("digestEnabled"));
+		
+		System.out.println("Endpoint farm: " + http + " HTTP, " + tcp + " TCP endpoints, " + behavior);
+		System.out.println("Engine: " + hostPingAlert.getHttpEngine() + ", " + hostPingAlert.getProbeThreads() +
+				" probe threads, timer period " + periodMillis + "ms");
+		System.out.println();
+		System.out.println(String.format("%5s %10s %10s %7s %9s %9s %9s %9s %8s %6s",
+				"cycle", "sweep ms", "probes/s", "alerts", "reminders", "recovered", "heap MB", "alloc MB", "GC count", "GC ms"));
+		
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		int endpoints = http + tcp;
+		long totalMillis = 0;
+		long worstMillis = 0;
+		int overruns = 0;
+		
+		try {
+			for(int cycle = 1; cycle <= cycles; cycle++) {
+				long gcCount = gcCount();
+				long gcMillis = gcMillis();
+				long allocated = allocatedBytes();
+				int alerts = sender.alerts.get();
+				int reminders = sender.reminders.get();
+				int recoveries = sender.recoveries.get();
+				
+				long start = System.nanoTime();
+				hostPingAlert.process(null);
+				long sweepMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				
+				totalMillis += sweepMillis;
+				worstMillis = Math.max(worstMillis, sweepMillis);
+				if(sweepMillis > periodMillis) {
+					overruns++;
+				}
+				
+				System.out.println(String.format("%5d %10d %10.0f %7d %9d %9d %9d %9.1f %8d %6d",
+						cycle, sweepMillis, endpoints * 1000.0 / Math.max(1, sweepMillis),
+						sender.alerts.get() - alerts, sender.reminders.get() - reminders, sender.recoveries.get() - recoveries,
+						memory.getHeapMemoryUsage().getUsed() / (1024 * 1024),
+						(allocatedBytes() - allocated) / (1024.0 * 1024),
+						gcCount() - gcCount, gcMillis() - gcMillis));
+				
+				if(waitForPeriod && sweepMillis < periodMillis && cycle < cycles) {
+					Thread.sleep(periodMillis - sweepMillis);
+				}
+			}
+		} finally {
+			// Shuts down the probe pools
+			Method destroy = HostPingAlert.class.getDeclaredMethod("destroy");
+			destroy.setAccessible(true);
+			destroy.invoke(hostPingAlert);
+			
+			farm.close();
+		}
+		
+		System.out.println();
+		System.out.println("Average sweep " + (totalMillis / Math.max(1, cycles)) + "ms, worst " + worstMillis + "ms, " +
+				overruns + " of " + cycles + " sweeps overran the " + periodMillis + "ms period");
+		System.out.println("Sent " + sender.messages.get() + " messages, " + sender.alerts.get() + " alerts, " +
+				sender.reminders.get() + " reminders, " + sender.recoveries.get() + " recoveries");
+	}
+	
+	
+	/**
+	 * Builds a comma delimited list of endpoints
+	 *
+	 * @param prefix Text before each port
+	 * @param ports The ports
+	 * @param suffix Text after each port
+	 * @return The list
+	 */
+	private static String join(String prefix, List<Integer> ports, String suffix) {
+		StringBuilder sb = new StringBuilder();
+		for(Integer port : ports) {
+			if(sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(prefix).append(port).append(suffix);
+		}
+		return sb.toString();
+	}
+	
+	
+	/**
+	 * @return Number of collections by every collector so far
+	 */
+	private static long gcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+	
+	
+	/**
+	 * @return Bytes allocated so far by the threads alive, the probe pools included, or 0 if the JVM 
+	 * 		   doesn't track it
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return 0;
+		}
+		
+		long bytes = 0;
+		for(long allocated : ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			bytes += Math.max(0, allocated);
+		}
+		return bytes;
+	}
+	
+	
+	/**
+	 * @return Time (in ms) spent collecting by every collector so far
+	 */
+	private static long gcMillis() {
+		long millis = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+	
+	
+	/**
+	 * Counts the messages sent, instead of emailing them
+	 */
+	private static class CountingSender implements AlertSender {
+	
+		/** Messages sent, digests count once */
+		private final AtomicInteger messages = new AtomicInteger();
+		
+		/** Alerts, not counting reminders.  A digest counts as a single alert */
+		private final AtomicInteger alerts = new AtomicInteger();
+		
+		/** Reminders */
+		private final AtomicInteger reminders = new AtomicInteger();
+		
+		/** Recoveries */
+		private final AtomicInteger recoveries = new AtomicInteger();
+		
+		@Override
+		public void send(String subscribers, String subject, String message) {
+			messages.incrementAndGet();
+			
+			if(message.startsWith("REMINDER!")) {
+				reminders.incrementAndGet();
+			} else if(message.contains("successfully been pinged")) {
+				recoveries.incrementAndGet();
+			} else {
+				alerts.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton for finding any number of literal strings in a single pass over
+ * some text.  The automaton is immutable once built, and scanning only needs the current state,
+ * so text can be fed to it a character at a time as it's read, and one automaton can be shared
+ * by any number of concurrent scans.
+ * 
+ * <pre>
+ * int state = AhoCorasick.START;
+ * for(char c : text) {
+ *     state = automaton.next(state, c);
+ *     for(int found : automaton.matches(state)) { ... }
+ * }
+ * </pre>
+ */
+public class AhoCorasick {
+
+	/** The state scanning starts in */
+	public static final int START = 0;
+	
+	/** Shared empty match list */
+	private static final int[] NONE = new int[0];
+	
+	/** The strings searched for */
+	private final String[] patterns;
+	
+	/** Characters of each state's transitions, sorted */
+	private final char[][] keys;
+	
+	/** Target state of each state's transitions, in the same order as keys */
+	private final int[][] targets;
+	
+	/** The state for the longest proper suffix of each state that's also in the trie */
+	private final int[] fail;
+	
+	/** Indexes of the patterns ending at each state, including those ending at its suffixes */
+	private final int[][] matches;
+	
+	
+	/**
+	 * Builds the automaton
+	 * 
+	 * @param patterns The strings to search for.  Empty strings are not allowed.
+	 */
+	public AhoCorasick(List<String> patterns) {
+		this.patterns = patterns.toArray(new String[patterns.size()]);
+		
+		// Build the trie
+		List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		List<List<Integer>> ends = new ArrayList<List<Integer>>();
+		trie.add(new TreeMap<Character, Integer>());
+		ends.add(new ArrayList<Integer>());
+		
+		for(int i = 0; i < this.patterns.length; i++) {
+			String pattern = this.patterns[i];
+			if(pattern == null || pattern.isEmpty()) {
+				throw new IllegalArgumentException("Empty pattern at index " + i);
+			}
+			
+			int state = START;
+			for(int j = 0; j < pattern.length(); j++) {
+				Integer next = trie.get(state).get(pattern.charAt(j));
+				if(next == null) {
+					next = trie.size();
+					trie.add(new TreeMap<Character, Integer>());
+					ends.add(new ArrayList<Integer>());
+					trie.get(state).put(pattern.charAt(j), next);
+				}
+				state = next;
+			}
+			ends.get(state).add(i);
+		}
+		
+		int size = trie.size();
+		keys = new char[size][];
+		targets = new int[size][];
+		fail = new int[size];
+		matches = new int[size][];
+		
+		for(int state = 0; state < size; state++) {
+			TreeMap<Character, Integer> children = trie.get(state);
+			keys[state] = new char[children.size()];
+			targets[state] = new int[children.size()];
+			
+			int k = 0;
+			for(Map.Entry<Character, Integer> child : children.entrySet()) {
+				keys[state][k] = child.getKey();
+				targets[state][k] = child.getValue();
+				k++;
+			}
+		}
+		
+		// Breadth first, so each state's suffix state is finished before the state itself
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+		matches[START] = toArray(ends.get(START));
+		for(int child : targets[START]) {
+			fail[child] = START;
+			queue.add(child);
+		}
+		
+		while(!queue.isEmpty()) {
+			int state = queue.remove();
+			
+			List<Integer> found = ends.get(state);
+			int[] inherited = matches[fail[state]];
+			if(found.isEmpty()) {
+				matches[state] = inherited;
+			} else {
+				int[] merged = Arrays.copyOf(toArray(found), found.size() + inherited.length);
+				System.arraycopy(inherited, 0, merged, found.size(), inherited.length);
+				matches[state] = merged;
+			}
+			
+			for(int k = 0; k < keys[state].length; k++) {
+				int child = targets[state][k];
+				fail[child] = next(fail[state], keys[state][k]);
+				queue.add(child);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Moves the automaton on by one character
+	 * 
+	 * @param state The current state, START at the beginning of the text
+	 * @param c The next character of the text
+	 * @return The new state
+	 */
+	public int next(int state, char c) {
+		while(true) {
+			int k = Arrays.binarySearch(keys[state], c);
+			if(k >= 0) {
+				return targets[state][k];
+			}
+			if(state == START) {
+				return START;
+			}
+			state = fail[state];
+		}
+	}
+	
+	
+	/**
+	 * @param state The current state
+	 * @return Indexes of the patterns that end at the last character fed to the automaton.  Must not be modified.
+	 */
+	public int[] matches(int state) {
+		return matches[state];
+	}
+	
+	
+	/**
+	 * @param index Index of a pattern
+	 * @return The pattern
+	 */
+	public String getPattern(int index) {
+		return patterns[index];
+	}
+	
+	
+	/**
+	 * @return The number of patterns
+	 */
+	public int size() {
+		return patterns.length;
+	}
+	
+	
+	private static int[] toArray(List<Integer> list) {
+		if(list.isEmpty()) {
+			return NONE;
+		}
+		
+		int[] array = new int[list.size()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+}
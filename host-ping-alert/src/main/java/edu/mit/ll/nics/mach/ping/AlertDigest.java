@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Gathers alerts into a single digest message per group of subscribers, instead of an email per
+ * endpoint.  Alerts are added as endpoints go down, are reminded about, or recover, and are sent
+ * when the digest is flushed, at the end of each sweep or window.
+ * 
+ * <p>Only the latest alert for an endpoint is kept, so an endpoint that goes down and recovers
+ * within the same window is only reported as recovered.  Alerts in a digest that fails to send 
+ * are kept for the next one, so a recovery isn't lost to a mail server outage.</p>
+ */
+public class AlertDigest {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(AlertDigest.class);
+	
+	/** The kinds of alert in a digest, in the order they're listed */
+	public enum Kind {
+		DOWN("DOWN"),
+		REMINDER("STILL DOWN"),
+		RECOVERED("RECOVERED");
+		
+		/** Heading the alerts are listed under */
+		private final String heading;
+		
+		private Kind(String heading) {
+			this.heading = heading;
+		}
+	}
+	
+	/** Maximum length of an alert's summary, longer ones are cut short */
+	public static final int SUMMARY_CHARS = 200;
+	
+	/** Sender the digests are delivered with */
+	private final AlertSender sender;
+	
+	/** Pending alerts, by subscribers then endpoint */
+	private Map<String, Map<String, PendingAlert>> pending = new LinkedHashMap<String, Map<String, PendingAlert>>();
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param sender Sender the digests are delivered with
+	 */
+	public AlertDigest(AlertSender sender) {
+		this.sender = sender;
+	}
+	
+	
+	/**
+	 * Adds an alert to the next digest sent to the subscribers, replacing any earlier alert 
+	 * for the endpoint
+	 * 
+	 * @param subscribers Comma delimited list of addresses the alert is for
+	 * @param endpoint The endpoint the alert is about
+	 * @param kind The kind of alert
+	 * @param summary Description of the alert, put on one line and cut to SUMMARY_CHARS
+	 */
+	public synchronized void add(String subscribers, String endpoint, Kind kind, String summary) {
+		Map<String, PendingAlert> alerts = pending.get(subscribers);
+		if(alerts == null) {
+			alerts = new LinkedHashMap<String, PendingAlert>();
+			pending.put(subscribers, alerts);
+		}
+		
+		String line = summary.trim().replaceAll("\\s+", " ");
+		if(line.length() > SUMMARY_CHARS) {
+			line = line.substring(0, SUMMARY_CHARS - 3) + "...";
+		}
+		
+		alerts.remove(endpoint);
+		alerts.put(endpoint, new PendingAlert(endpoint, kind, line));
+	}
+	
+	
+	/**
+	 * @return The number of alerts waiting to be sent
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for(Map<String, PendingAlert> alerts : pending.values()) {
+			size += alerts.size();
+		}
+		return size;
+	}
+	
+	
+	/**
+	 * Sends a digest to each group of subscribers with pending alerts.  The alerts in a digest 
+	 * that fails to send are put back, to be sent with the next, unless an endpoint's had a newer 
+	 * alert since.
+	 * 
+	 * @return The number of digests sent
+	 */
+	public int flush() {
+		Map<String, Map<String, PendingAlert>> toSend;
+		synchronized(this) {
+			if(pending.isEmpty()) {
+				return 0;
+			}
+			toSend = pending;
+			pending = new LinkedHashMap<String, Map<String, PendingAlert>>();
+		}
+		
+		int sent = 0;
+		for(Entry<String, Map<String, PendingAlert>> group : toSend.entrySet()) {
+			List<PendingAlert> alerts = new ArrayList<PendingAlert>(group.getValue().values());
+			
+			try {
+				sender.send(group.getKey(), subject(alerts), message(alerts));
+				sent++;
+			} catch(Exception e) {
+				log.error("Failed to send alert digest of " + alerts.size() + " alerts to " + group.getKey() + 
+						", keeping them for the next digest: " + e.getMessage(), e);
+				requeue(group.getKey(), group.getValue());
+			}
+		}
+		
+		return sent;
+	}
+	
+	
+	/**
+	 * Puts the alerts of a digest that failed to send back with the pending alerts, ahead of any 
+	 * added since.  A newer alert for the same endpoint replaces the failed one, so there's still 
+	 * only one alert per endpoint.
+	 * 
+	 * @param subscribers The subscribers the digest was for
+	 * @param failed The digest's alerts, by endpoint
+	 */
+	private synchronized void requeue(String subscribers, Map<String, PendingAlert> failed) {
+		Map<String, PendingAlert> newer = pending.get(subscribers);
+		if(newer != null) {
+			for(PendingAlert alert : newer.values()) {
+				failed.remove(alert.endpoint);
+				failed.put(alert.endpoint, alert);
+			}
+		}
+		
+		pending.put(subscribers, failed);
+	}
+	
+	
+	/**
+	 * Builds the subject of a digest, counting each kind of alert, e.g. "3 DOWN, 1 RECOVERED"
+	 * 
+	 * @param alerts The alerts in the digest
+	 * @return The subject
+	 */
+	private static String subject(List<PendingAlert> alerts) {
+		int[] counts = count(alerts);
+		
+		StringBuilder subject = new StringBuilder();
+		for(Kind kind : Kind.values()) {
+			if(counts[kind.ordinal()] > 0) {
+				if(subject.length() > 0) {
+					subject.append(", ");
+				}
+				subject.append(counts[kind.ordinal()]).append(' ').append(kind.heading);
+			}
+		}
+		
+		return subject.toString();
+	}
+	
+	
+	/**
+	 * Builds the body of a digest, listing the alerts under a heading for each kind
+	 * 
+	 * @param alerts The alerts in the digest
+	 * @return The body
+	 */
+	private static String message(List<PendingAlert> alerts) {
+		int[] counts = count(alerts);
+		
+		StringBuilder message = new StringBuilder();
+		message.append("ALERT DIGEST - ").append(new Timestamp(System.currentTimeMillis()).toString()).append("\n");
+		
+		for(Kind kind : Kind.values()) {
+			if(counts[kind.ordinal()] == 0) {
+				continue;
+			}
+			
+			message.append("\n").append(kind.heading).append(" (").append(counts[kind.ordinal()]).append("):\n");
+			for(PendingAlert alert : alerts) {
+				if(alert.kind == kind) {
+					message.append("  ").append(alert.endpoint).append(": ").append(alert.summary).append("\n");
+				}
+			}
+		}
+		
+		message.append("\n\n- HostPingAlert");
+		return message.toString();
+	}
+	
+	
+	/**
+	 * @param alerts The alerts
+	 * @return The number of alerts of each kind, indexed by ordinal
+	 */
+	private static int[] count(List<PendingAlert> alerts) {
+		int[] counts = new int[Kind.values().length];
+		for(PendingAlert alert : alerts) {
+			counts[alert.kind.ordinal()]++;
+		}
+		return counts;
+	}
+	
+	
+	/**
+	 * An alert waiting to be sent
+	 */
+	private static class PendingAlert {
+		
+		/** The endpoint the alert is about */
+		private final String endpoint;
+		
+		/** The kind of alert */
+		private final Kind kind;
+		
+		/** One line description of the alert */
+		private final String summary;
+		
+		private PendingAlert(String endpoint, Kind kind, String summary) {
+			this.endpoint = endpoint;
+			this.kind = kind;
+			this.summary = summary;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+/**
+ * When an endpoint's probes call for an alert, reminder or recovery.  Consecutive failure and success
+ * thresholds keep a single lost packet from alerting, and a single lucky probe from recovering.  An 
+ * endpoint whose recent probes flip between up and down more than flapHighPercent of the time is 
+ * flapping, and isn't alerted or recovered on until they flip less than flapLowPercent of the time.
+ */
+public final class AlertPolicy {
+
+	/** Most probes the flap window can hold, one bit each */
+	public static final int MAX_FLAP_WINDOW = 64;
+	
+	/** Alerts on the first failure and recovers on the first success, without flap detection */
+	public static final AlertPolicy IMMEDIATE = new AlertPolicy(1, 1, 0, 0, 0, 0);
+	
+	/** Consecutive failures before an endpoint is alerted on */
+	private final int failuresToAlert;
+	
+	/** Consecutive successes before an alerted endpoint is recovered */
+	private final int successesToRecover;
+	
+	/** Time (in ms) between reminders */
+	private final long reminderMillis;
+	
+	/** Number of recent probes flaps are detected over, less than 2 disables flap detection */
+	private final int flapWindow;
+	
+	/** Percentage of the window's probes flipping state at or above which an endpoint is flapping */
+	private final int flapHighPercent;
+	
+	/** Percentage of the window's probes flipping state below which a flapping endpoint has settled */
+	private final int flapLowPercent;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param failuresToAlert Consecutive failures before an endpoint is alerted on, at least 1
+	 * @param successesToRecover Consecutive successes before an alerted endpoint is recovered, at least 1
+	 * @param reminderMillis Time (in ms) between reminders
+	 * @param flapWindow Number of recent probes flaps are detected over, up to MAX_FLAP_WINDOW.  Less
+	 * 		  than 2 disables flap detection.
+	 * @param flapHighPercent Percentage of flips at or above which an endpoint is flapping, 0 disables 
+	 * 		  flap detection
+	 * @param flapLowPercent Percentage of flips below which a flapping endpoint has settled
+	 */
+	public AlertPolicy(int failuresToAlert, int successesToRecover, long reminderMillis, 
+			int flapWindow, int flapHighPercent, int flapLowPercent) {
+		this.failuresToAlert = Math.max(1, failuresToAlert);
+		this.successesToRecover = Math.max(1, successesToRecover);
+		this.reminderMillis = reminderMillis;
+		this.flapWindow = (flapHighPercent > 0 && flapWindow >= 2) ? Math.min(flapWindow, MAX_FLAP_WINDOW) : 0;
+		this.flapHighPercent = flapHighPercent;
+		this.flapLowPercent = Math.min(flapLowPercent, flapHighPercent);
+	}
+	
+	
+	/**
+	 * @param reminderMillis Time (in ms) between reminders
+	 * @return This policy, with a different reminder interval
+	 */
+	public AlertPolicy withReminderMillis(long reminderMillis) {
+		return new AlertPolicy(failuresToAlert, successesToRecover, reminderMillis, flapWindow, flapHighPercent, flapLowPercent);
+	}
+	
+	
+	/**
+	 * @param outcomes Recent probe outcomes, one bit each, the latest in the lowest bit
+	 * @param samples Number of outcomes held
+	 * @return Percentage of the window's probes that flipped state from the one before
+	 */
+	public int flapPercent(long outcomes, int samples) {
+		if(flapWindow == 0 || samples < 2) {
+			return 0;
+		}
+		
+		long adjacent = (samples >= MAX_FLAP_WINDOW) ? -1L >>> 1 : (1L << (samples - 1)) - 1;
+		int flips = Long.bitCount((outcomes ^ (outcomes >>> 1)) & adjacent);
+		
+		return flips * 100 / (flapWindow - 1);
+	}
+	
+	public int getFailuresToAlert() {
+		return failuresToAlert;
+	}
+	
+	public int getSuccessesToRecover() {
+		return successesToRecover;
+	}
+	
+	public long getReminderMillis() {
+		return reminderMillis;
+	}
+	
+	public int getFlapWindow() {
+		return flapWindow;
+	}
+	
+	public int getFlapHighPercent() {
+		return flapHighPercent;
+	}
+	
+	public int getFlapLowPercent() {
+		return flapLowPercent;
+	}
+}
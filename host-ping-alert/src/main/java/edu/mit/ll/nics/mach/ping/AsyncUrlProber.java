@@ -0,0 +1,513 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.io.UncheckedIOException;
+
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import java.nio.ByteBuffer;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+
+import java.time.Duration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+/**
+ * URL probe engine built on the non-blocking java.net.http.HttpClient.  Requests are multiplexed
+ * over a shared connection pool by the client's selector, with HTTP/2 used where the server supports 
+ * it, so thousands of page checks can be in flight on a handful of threads.
+ * 
+ * <p>The number of requests in flight is capped by maxInFlight, which keeps a large sweep from opening 
+ * every connection at once.  Probes wait for a free slot without holding the caller's thread, in the 
+ * order they were started, and the future a probe returns covers its wait, so a caller waiting on it
+ * with a deadline counts the wait against the deadline too.</p>
+ * 
+ * <p>Response bodies are streamed into a BodyConsumer as they arrive, and the rest of the body is
+ * skipped once the consumer has seen enough of it.  gzip encoded bodies are decompressed on the fly.
+ * A request is given TIMEOUTS_PER_REQUEST timeouts in all, one each to connect, receive the response 
+ * headers and read the body, so a server that stalls mid-body can't hold a slot forever.</p>
+ * 
+ * <p>A request's slot is freed as soon as its response is in.  The outcome is then handed to the
+ * ResponseHandler on the handler executor, so handling it (sending an alert, say) never holds up
+ * the client's threads, or the requests waiting on them.</p>
+ */
+public class AsyncUrlProber {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(AsyncUrlProber.class);
+	
+	/** Number of timeouts a request is given in all, body included, before it's abandoned */
+	public static final int TIMEOUTS_PER_REQUEST = 3;
+	
+	/** Client shared by every probe, pooling connections per origin */
+	private final HttpClient client;
+	
+	/** Threads the client runs response handling on */
+	private final ExecutorService executor;
+	
+	/** Runs the handlers' onResponse and onFailure */
+	private final Executor handlerExecutor;
+	
+	/** Maximum number of requests in flight at once */
+	private final int maxInFlight;
+	
+	/** Requests waiting for a slot, in the order they were started */
+	private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<CompletableFuture<Void>>();
+	
+	/** Number of requests in flight, guarded by waiting */
+	private int inFlight;
+	
+	/** Cleared once shut down */
+	private volatile boolean running = true;
+	
+	/** Time (in ms) allowed to connect, and separately to receive a response */
+	private final int timeout;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param timeout Time (in ms) allowed to connect, and separately to receive a response
+	 * @param maxInFlight Maximum number of requests in flight at once
+	 * @param threads Number of threads handling responses
+	 * @param handlerExecutor Runs the handlers' onResponse and onFailure
+	 */
+	public AsyncUrlProber(int timeout, int maxInFlight, int threads, Executor handlerExecutor) {
+		this.timeout = timeout;
+		this.handlerExecutor = handlerExecutor;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ProbeThreadFactory("host-ping-http"));
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofMillis(timeout))
+				.executor(executor)
+				.build();
+	}
+	
+	
+	/**
+	 * Starts a request for the URL once a slot is free, calling the handler on the handler executor when 
+	 * the body consumer is done with the response, or the request fails
+	 * 
+	 * @param url The URL to check
+	 * @param method The request method, GET or HEAD
+	 * @param headers Headers to send with the request
+	 * @param handler Handler for the outcome, and source of the body consumer
+	 * @return A future completed after the handler has been called.  Completed exceptionally with an 
+	 * 		   IllegalStateException, without calling the handler, if shut down while waiting for a slot.
+	 */
+	public <B extends BodyConsumer> CompletableFuture<Void> probe(final URL url, String method, 
+			Map<String, String> headers, final ResponseHandler<B> handler) {
+		
+		final HttpRequest request;
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI())
+					.timeout(Duration.ofMillis(timeout))
+					.method(method, HttpRequest.BodyPublishers.noBody());
+			
+			for(Map.Entry<String, String> header : headers.entrySet()) {
+				builder.header(header.getKey(), header.getValue());
+			}
+			
+			request = builder.build();
+		} catch(URISyntaxException | IllegalArgumentException e) {
+			handler.onFailure(url, e);
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		Function<Void, CompletionStage<Void>> send = new Function<Void, CompletionStage<Void>>() {
+			@Override
+			public CompletionStage<Void> apply(Void free) {
+				return send(url, request, handler);
+			}
+		};
+		
+		// A slot freed by another request is handed over on that request's thread, so the send is moved off it
+		CompletableFuture<Void> slot = acquire();
+		return slot.isDone() ? slot.thenCompose(send) : slot.thenComposeAsync(send, executor);
+	}
+	
+	
+	/**
+	 * Sends a request holding a slot, giving the slot back once the response is in
+	 * 
+	 * @param url The URL to check
+	 * @param request The request
+	 * @param handler Handler for the outcome, and source of the body consumer
+	 * @return A future completed after the handler has been called
+	 */
+	private <B extends BodyConsumer> CompletableFuture<Void> send(final URL url, HttpRequest request, 
+			final ResponseHandler<B> handler) {
+		try {
+			// The body being read, so it can be cancelled if the request runs out of time
+			final AtomicReference<ConsumingSubscriber<B>> reading = new AtomicReference<ConsumingSubscriber<B>>();
+			
+			HttpResponse.BodyHandler<B> bodyHandler = new HttpResponse.BodyHandler<B>() {
+				@Override
+				public HttpResponse.BodySubscriber<B> apply(HttpResponse.ResponseInfo info) {
+					B body = handler.createBody(url, info.statusCode(), info.headers());
+					
+					String encoding = info.headers().firstValue("Content-Encoding").orElse("");
+					ConsumingSubscriber<B> subscriber = "gzip".equalsIgnoreCase(encoding.trim()) ? 
+							new ConsumingSubscriber<B>(body, new GzipBodyConsumer(body)) : new ConsumingSubscriber<B>(body, body);
+					
+					reading.set(subscriber);
+					return subscriber;
+				}
+			};
+			
+			handler.onSend(url);
+			
+			final long deadline = (long)TIMEOUTS_PER_REQUEST * timeout;
+			return client.sendAsync(request, bodyHandler)
+				.orTimeout(deadline, TimeUnit.MILLISECONDS)
+				.whenComplete(new BiConsumer<HttpResponse<B>, Throwable>() {
+					@Override
+					public void accept(HttpResponse<B> response, Throwable failure) {
+						release();
+						
+						// Stop reading a body the server stalled on, freeing its connection
+						ConsumingSubscriber<B> subscriber = reading.get();
+						if(failure != null && subscriber != null) {
+							subscriber.cancel(failure);
+						}
+					}
+				})
+				.handleAsync(new BiFunction<HttpResponse<B>, Throwable, Void>() {
+					@Override
+					public Void apply(HttpResponse<B> response, Throwable failure) {
+						try {
+							if(failure != null) {
+								Throwable cause = unwrap(failure);
+								if(cause instanceof TimeoutException) {
+									cause = new HttpTimeoutException("request not completed within " + deadline + "ms");
+								}
+								handler.onFailure(url, cause);
+							} else {
+								handler.onResponse(url, response.statusCode(), response.body());
+							}
+						} catch(Exception e) {
+							log.error("Caught unhandled exception handling response from URL: " + url, e);
+						}
+						
+						return null;
+					}
+				}, handlerExecutor);
+		} catch(RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Stops the response handling threads.  Requests in flight are abandoned, and those waiting for
+	 * a slot are cancelled.
+	 */
+	public void shutdown() {
+		running = false;
+		executor.shutdownNow();
+		
+		List<CompletableFuture<Void>> cancelled;
+		synchronized(waiting) {
+			cancelled = new ArrayList<CompletableFuture<Void>>(waiting);
+			waiting.clear();
+		}
+		
+		for(CompletableFuture<Void> slot : cancelled) {
+			slot.completeExceptionally(new IllegalStateException("Async URL prober has been shut down"));
+		}
+	}
+	
+	
+	/**
+	 * @return Number of requests waiting for a slot
+	 */
+	public int getWaiting() {
+		synchronized(waiting) {
+			return waiting.size();
+		}
+	}
+	
+	
+	/**
+	 * Asks for a slot for a request
+	 * 
+	 * @return A future completed once the request may be sent, which must then release its slot when 
+	 * 		   the response is in.  Completed exceptionally with an IllegalStateException if shut down first.
+	 */
+	private CompletableFuture<Void> acquire() {
+		CompletableFuture<Void> slot = new CompletableFuture<Void>();
+		if(!running) {
+			slot.completeExceptionally(new IllegalStateException("Async URL prober has been shut down"));
+			return slot;
+		}
+		
+		synchronized(waiting) {
+			waiting.add(slot);
+		}
+		
+		dispatch();
+		return slot;
+	}
+	
+	
+	/**
+	 * Gives back the slot of a request whose response is in, letting the next one waiting be sent
+	 */
+	private void release() {
+		synchronized(waiting) {
+			inFlight = Math.max(0, inFlight - 1);
+		}
+		
+		dispatch();
+	}
+	
+	
+	/**
+	 * Hands free slots to the requests waiting for them, in the order they were started
+	 */
+	private void dispatch() {
+		List<CompletableFuture<Void>> started = null;
+		
+		synchronized(waiting) {
+			while(!waiting.isEmpty() && inFlight < maxInFlight) {
+				CompletableFuture<Void> slot = waiting.poll();
+				if(slot.isDone()) {
+					// Cancelled while waiting
+					continue;
+				}
+				
+				inFlight++;
+				if(started == null) {
+					started = new ArrayList<CompletableFuture<Void>>();
+				}
+				started.add(slot);
+			}
+		}
+		
+		if(started == null) {
+			return;
+		}
+		
+		// Completed outside the lock, since the requests may be sent on this thread
+		for(CompletableFuture<Void> slot : started) {
+			if(!slot.complete(null)) {
+				// Cancelled after it was taken off the queue
+				release();
+			}
+		}
+	}
+	
+	
+	/**
+	 * @param failure Failure passed to a completion stage
+	 * @return The underlying cause, if the failure is a wrapper around it
+	 */
+	private static Throwable unwrap(Throwable failure) {
+		Throwable cause = failure;
+		while(cause.getCause() != null && (cause instanceof CompletionException || 
+				cause instanceof ExecutionException || cause instanceof UncheckedIOException)) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+	
+	
+	/**
+	 * Feeds a response body to a BodyConsumer, cancelling the rest of the body once the consumer 
+	 * doesn't want any more of it
+	 */
+	private static class ConsumingSubscriber<B extends BodyConsumer> implements HttpResponse.BodySubscriber<B> {
+		
+		/** The consumer, completing the body */
+		private final B body;
+		
+		/** What the raw bytes are fed to, either the consumer itself, or a decoder in front of it */
+		private final BodyConsumer feed;
+		
+		/** Completed once the consumer is done */
+		private final CompletableFuture<B> result = new CompletableFuture<B>();
+		
+		/** Subscription to the body */
+		private Flow.Subscription subscription;
+		
+		/** Set once the body is no longer wanted */
+		private volatile boolean cancelled;
+		
+		
+		private ConsumingSubscriber(B body, BodyConsumer feed) {
+			this.body = body;
+			this.feed = feed;
+		}
+		
+		@Override
+		public CompletionStage<B> getBody() {
+			return result;
+		}
+		
+		@Override
+		public synchronized void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if(cancelled) {
+				subscription.cancel();
+				return;
+			}
+			subscription.request(1);
+		}
+		
+		/**
+		 * Stops reading the body, failing it
+		 * 
+		 * @param cause Why it's no longer wanted
+		 */
+		private synchronized void cancel(Throwable cause) {
+			cancelled = true;
+			if(subscription != null) {
+				subscription.cancel();
+			}
+			result.completeExceptionally(cause);
+		}
+		
+		@Override
+		public void onNext(List<ByteBuffer> buffers) {
+			if(result.isDone()) {
+				return;
+			}
+			
+			boolean more = true;
+			try {
+				for(ByteBuffer buffer : buffers) {
+					more = feed.update(buffer);
+					if(!more) {
+						break;
+					}
+				}
+			} catch(RuntimeException e) {
+				subscription.cancel();
+				result.completeExceptionally(e);
+				return;
+			}
+			
+			if(more) {
+				subscription.request(1);
+			} else {
+				// Stop downloading what we don't need
+				subscription.cancel();
+				feed.finish();
+				result.complete(body);
+			}
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			result.completeExceptionally(throwable);
+		}
+		
+		@Override
+		public void onComplete() {
+			if(!result.isDone()) {
+				feed.finish();
+				result.complete(body);
+			}
+		}
+	}
+	
+	
+	/** Receives the outcome of a probe */
+	public interface ResponseHandler<B extends BodyConsumer> {
+		
+		/**
+		 * Called once the request has a slot, just before it's sent
+		 * 
+		 * @param url The URL being checked
+		 */
+		void onSend(URL url);
+		
+		/**
+		 * Called when the response headers arrive, to create the consumer the body is fed to
+		 * 
+		 * @param url The URL being checked
+		 * @param statusCode The HTTP status code of the response
+		 * @param headers The response headers
+		 * @return The consumer for the (decompressed) body
+		 */
+		B createBody(URL url, int statusCode, HttpHeaders headers);
+		
+		/**
+		 * Called on the handler executor when the body consumer is done with the response
+		 * 
+		 * @param url The URL that was checked
+		 * @param statusCode The HTTP status code of the response
+		 * @param body The body consumer
+		 */
+		void onResponse(URL url, int statusCode, B body);
+		
+		/**
+		 * Called on the handler executor when the request failed without a response, or straight
+		 * away if the request couldn't be built
+		 * 
+		 * @param url The URL that was checked
+		 * @param cause The reason the request failed
+		 */
+		void onFailure(URL url, Throwable cause);
+	}
+}
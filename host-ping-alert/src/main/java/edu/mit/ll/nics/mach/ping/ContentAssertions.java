@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.regex.Pattern;
+
+/**
+ * The strings and patterns a page is required to contain, and those it must not contain.  Literal
+ * strings, required and forbidden alike, are compiled into a single Aho-Corasick automaton, so 
+ * they're all checked in one pass over the page no matter how many there are.  Regexes are
+ * checked separately.
+ * 
+ * <p>Immutable, and shared by every check of the page.</p>
+ */
+public class ContentAssertions {
+
+	/** Automaton over every literal, required then forbidden, or null if there are none */
+	private final AhoCorasick literals;
+	
+	/** Number of required literals, which come first in the automaton */
+	private final int requiredLiteralCount;
+	
+	/** Patterns the page must contain */
+	private final List<Pattern> requiredPatterns;
+	
+	/** Patterns the page must not contain */
+	private final List<Pattern> forbiddenPatterns;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param required Strings the page must contain
+	 * @param forbidden Strings the page must not contain
+	 * @param requiredPatterns Patterns the page must contain
+	 * @param forbiddenPatterns Patterns the page must not contain
+	 */
+	public ContentAssertions(List<String> required, List<String> forbidden, 
+			List<Pattern> requiredPatterns, List<Pattern> forbiddenPatterns) {
+		
+		List<String> all = new ArrayList<String>(required);
+		all.addAll(forbidden);
+		
+		this.literals = all.isEmpty() ? null : new AhoCorasick(all);
+		this.requiredLiteralCount = required.size();
+		this.requiredPatterns = Collections.unmodifiableList(new ArrayList<Pattern>(requiredPatterns));
+		this.forbiddenPatterns = Collections.unmodifiableList(new ArrayList<Pattern>(forbiddenPatterns));
+	}
+	
+	
+	/**
+	 * Creates assertions requiring a single pattern, as set by the pagePattern property
+	 * 
+	 * @param pattern The pattern the page must contain
+	 * @return The assertions, or null if the pattern is null
+	 */
+	public static ContentAssertions forPattern(Pattern pattern) {
+		if(pattern == null) {
+			return null;
+		}
+		
+		return new ContentAssertions(Collections.<String>emptyList(), Collections.<String>emptyList(), 
+				Collections.singletonList(pattern), Collections.<Pattern>emptyList());
+	}
+	
+	
+	/**
+	 * @return The automaton over every literal, required ones first, or null if there are no literals
+	 */
+	public AhoCorasick getLiterals() {
+		return literals;
+	}
+	
+	/**
+	 * @param index Index of a literal in the automaton
+	 * @return true if the literal is required, false if it's forbidden
+	 */
+	public boolean isRequiredLiteral(int index) {
+		return index < requiredLiteralCount;
+	}
+	
+	/**
+	 * @return The number of required literals
+	 */
+	public int getRequiredLiteralCount() {
+		return requiredLiteralCount;
+	}
+	
+	public List<Pattern> getRequiredPatterns() {
+		return requiredPatterns;
+	}
+	
+	public List<Pattern> getForbiddenPatterns() {
+		return forbiddenPatterns;
+	}
+	
+	/**
+	 * @return true if there's anything the page must not contain, meaning the whole page has to be read
+	 */
+	public boolean hasForbidden() {
+		return (literals != null && literals.size() > requiredLiteralCount) || !forbiddenPatterns.isEmpty();
+	}
+}
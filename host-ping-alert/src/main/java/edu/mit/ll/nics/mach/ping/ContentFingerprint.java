@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.List;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming SHA-256 fingerprint of a page's normalized text, built a character at a time as the
+ * page is read, without keeping the page.  The text is taken a line at a time: regions matching
+ * the exclude patterns, such as timestamps and session tokens, are removed, runs of whitespace are
+ * collapsed to a single space, and the line is trimmed, so reformatting and blank lines don't
+ * change the fingerprint.
+ * 
+ * <p>Memory is fixed, a line is held until it ends or reaches MAX_LINE_CHARS, so an exclude pattern
+ * only matches within a line, or within a MAX_LINE_CHARS piece of a longer one.</p>
+ */
+public class ContentFingerprint {
+
+	/** Most characters of a line held before it's hashed */
+	public static final int MAX_LINE_CHARS = 4096;
+	
+	/** Hex digits */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/** Reused matchers over the line for the exclude patterns */
+	private final Matcher[] excludes;
+	
+	/** The current line */
+	private final StringBuilder line = new StringBuilder();
+	
+	/** Digest of the lines so far */
+	private final MessageDigest digest;
+	
+	/** Normalized characters waiting to be digested, two bytes each */
+	private final byte[] pending = new byte[512];
+	
+	/** Number of bytes in pending */
+	private int pendingBytes;
+	
+	/** The fingerprint, once finished */
+	private String fingerprint;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param excludes Patterns of regions left out of the fingerprint, may be empty
+	 */
+	public ContentFingerprint(List<Pattern> excludes) {
+		this.excludes = new Matcher[excludes.size()];
+		for(int i = 0; i < this.excludes.length; i++) {
+			this.excludes[i] = excludes.get(i).matcher(line);
+		}
+		
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	
+	/**
+	 * Adds the next character of the page
+	 * 
+	 * @param c The character
+	 */
+	public void update(char c) {
+		if(c == '\n' || c == '\r') {
+			endLine();
+			return;
+		}
+		
+		line.append(c);
+		if(line.length() >= MAX_LINE_CHARS) {
+			endLine();
+		}
+	}
+	
+	
+	/**
+	 * Ends the page, if it hasn't been already
+	 * 
+	 * @return The fingerprint, as hex
+	 */
+	public String finish() {
+		if(fingerprint != null) {
+			return fingerprint;
+		}
+		
+		endLine();
+		digest.update(pending, 0, pendingBytes);
+		pendingBytes = 0;
+		
+		byte[] hash = digest.digest();
+		char[] hex = new char[hash.length * 2];
+		for(int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+		}
+		
+		fingerprint = new String(hex);
+		return fingerprint;
+	}
+	
+	
+	/**
+	 * Removes the excluded regions from the line, then digests what's left, normalized
+	 */
+	private void endLine() {
+		if(line.length() == 0) {
+			return;
+		}
+		
+		for(Matcher exclude : excludes) {
+			int from = 0;
+			while(from <= line.length() && exclude.find(from)) {
+				if(exclude.end() == exclude.start()) {
+					// Nothing to remove, try the next position
+					from = exclude.end() + 1;
+					continue;
+				}
+				
+				from = exclude.start();
+				line.delete(exclude.start(), exclude.end());
+			}
+		}
+		
+		boolean space = false;
+		boolean any = false;
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if(Character.isWhitespace(c)) {
+				space = any;
+				continue;
+			}
+			
+			if(space) {
+				digest(' ');
+				space = false;
+			}
+			digest(c);
+			any = true;
+		}
+		
+		// Ends the line, so text moving between lines changes the fingerprint
+		if(any) {
+			digest('\n');
+		}
+		
+		line.setLength(0);
+	}
+	
+	
+	/**
+	 * @param c A normalized character to digest
+	 */
+	private void digest(char c) {
+		pending[pendingBytes++] = (byte)(c >> 8);
+		pending[pendingBytes++] = (byte)c;
+		
+		if(pendingBytes == pending.length) {
+			digest.update(pending, 0, pendingBytes);
+			pendingBytes = 0;
+		}
+	}
+}
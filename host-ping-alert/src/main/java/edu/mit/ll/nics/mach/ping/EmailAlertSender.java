@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import edu.mit.ll.nics.common.alert.EmailAlert;
+import edu.mit.ll.nics.common.alert.EmailAlertFactory;
+
+/**
+ * Sends alerts as emails, through the emailConsumer endpoint
+ */
+public class EmailAlertSender implements AlertSender {
+
+	/** Factory the emails are created with */
+	private final EmailAlertFactory emailAlertFactory;
+	
+	/** Camel endpoint the emails are sent to */
+	private final String emailConsumer;
+	
+	/** The email address shown as the sender */
+	private final String fromEmail;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param emailAlertFactory Factory the emails are created with
+	 * @param emailConsumer Camel endpoint the emails are sent to
+	 * @param fromEmail The email address shown as the sender
+	 */
+	public EmailAlertSender(EmailAlertFactory emailAlertFactory, String emailConsumer, String fromEmail) {
+		this.emailAlertFactory = emailAlertFactory;
+		this.emailConsumer = emailConsumer;
+		this.fromEmail = fromEmail;
+	}
+	
+	
+	@Override
+	public void send(String subscribers, String subject, String message) throws Exception {
+		EmailAlert emailAlert = emailAlertFactory.createEmailAlert(emailConsumer, subscribers, fromEmail, subject);
+		emailAlert.sendString(message, true /*force sending*/);
+	}
+}
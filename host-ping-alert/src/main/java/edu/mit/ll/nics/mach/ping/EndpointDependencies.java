@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Dependencies between endpoints, such as the pages served through a gateway or load balancer,
+ * given as a comma delimited list of child-&gt;parent pairs:
+ *
+ * <pre>
+ * http://nics.example.com/login.seam-&gt;gateway.example.com,nics.example.com:5432-&gt;gateway.example.com
+ * </pre>
+ *
+ * <p>An endpoint may have more than one parent, and parents may have parents of their own.  A
+ * dependency that would make an endpoint depend on itself is ignored.</p>
+ */
+public class EndpointDependencies {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(EndpointDependencies.class);
+	
+	/** Separates a child from its parent */
+	public static final String SEPARATOR = "->";
+	
+	/** Map of endpoints to their parents */
+	private final Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+	
+	/** Map of endpoints to their children */
+	private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+	
+	
+	/**
+	 * Parses dependencies
+	 *
+	 * @param dependencies Comma delimited list of child-&gt;parent pairs, may be null
+	 * @return The dependencies
+	 */
+	public static EndpointDependencies parse(String dependencies) {
+		EndpointDependencies parsed = new EndpointDependencies();
+		
+		if(dependencies == null || dependencies.trim().isEmpty()) {
+			return parsed;
+		}
+		
+		for(String entry : dependencies.split(",")) {
+			int split = entry.indexOf(SEPARATOR);
+			if(split <= 0) {
+				log.warn("Invalid dependencies entry, expected child" + SEPARATOR + "parent: " + entry);
+				continue;
+			}
+			
+			String child = entry.substring(0, split).trim();
+			String parent = entry.substring(split + SEPARATOR.length()).trim();
+			if(child.isEmpty() || parent.isEmpty()) {
+				log.warn("Invalid dependencies entry, expected child" + SEPARATOR + "parent: " + entry);
+				continue;
+			}
+			
+			parsed.add(child, parent);
+		}
+		
+		return parsed;
+	}
+	
+	
+	/**
+	 * Adds a dependency, unless it would make the parent depend on the child
+	 *
+	 * @param child The dependent endpoint
+	 * @param parent The endpoint it depends on
+	 * @return Whether it was added
+	 */
+	public boolean add(String child, String parent) {
+		if(child.equals(parent) || ancestorsOf(parent).contains(child)) {
+			log.warn("Ignoring dependency of " + child + " on " + parent + ", since " + parent + " depends on " + child);
+			return false;
+		}
+		
+		edges(parents, child).add(parent);
+		edges(children, parent).add(child);
+		return true;
+	}
+	
+	
+	/**
+	 * @return Whether there are any dependencies
+	 */
+	public boolean isEmpty() {
+		return parents.isEmpty();
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return Its direct parents
+	 */
+	public Set<String> parentsOf(String endpoint) {
+		Set<String> direct = parents.get(endpoint);
+		return (direct != null) ? Collections.unmodifiableSet(direct) : Collections.<String>emptySet();
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return Every endpoint depending on it, directly or through other endpoints
+	 */
+	public Set<String> dependentsOf(String endpoint) {
+		return reachable(children, endpoint);
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return Every endpoint it depends on, directly or through other endpoints
+	 */
+	public Set<String> ancestorsOf(String endpoint) {
+		return reachable(parents, endpoint);
+	}
+	
+	
+	/**
+	 * Splits endpoints into the waves they're probed in, so each endpoint is probed after its parents.
+	 * The first wave holds the endpoints without any parents being probed, the next those whose parents
+	 * are all in the first wave, and so on.
+	 *
+	 * @param endpoints The endpoints being probed
+	 * @return The waves, in order
+	 */
+	public List<Set<String>> waves(Collection<String> endpoints) {
+		Map<String, Integer> depths = new LinkedHashMap<String, Integer>();
+		for(String endpoint : endpoints) {
+			depth(endpoint, endpoints, depths);
+		}
+		
+		List<Set<String>> waves = new ArrayList<Set<String>>();
+		for(Map.Entry<String, Integer> entry : depths.entrySet()) {
+			if(!endpoints.contains(entry.getKey())) {
+				continue;
+			}
+			
+			while(waves.size() <= entry.getValue()) {
+				waves.add(new LinkedHashSet<String>());
+			}
+			waves.get(entry.getValue()).add(entry.getKey());
+		}
+		
+		return waves;
+	}
+	
+	
+	/**
+	 * Gets an endpoint's depth, the length of the longest chain of probed parents above it
+	 *
+	 * @param endpoint The endpoint
+	 * @param endpoints The endpoints being probed
+	 * @param depths Depths worked out so far
+	 * @return The endpoint's depth
+	 */
+	private int depth(String endpoint, Collection<String> endpoints, Map<String, Integer> depths) {
+		Integer known = depths.get(endpoint);
+		if(known != null) {
+			return known;
+		}
+		
+		int depth = 0;
+		for(String parent : parentsOf(endpoint)) {
+			if(endpoints.contains(parent)) {
+				depth = Math.max(depth, depth(parent, endpoints, depths) + 1);
+			}
+		}
+		
+		depths.put(endpoint, depth);
+		return depth;
+	}
+	
+	
+	/**
+	 * @param edges Map of endpoints to the endpoints they lead to
+	 * @param endpoint The endpoint to start at
+	 * @return Every endpoint reachable from it
+	 */
+	private static Set<String> reachable(Map<String, Set<String>> edges, String endpoint) {
+		Set<String> reached = new LinkedHashSet<String>();
+		List<String> pending = new ArrayList<String>();
+		pending.add(endpoint);
+		
+		while(!pending.isEmpty()) {
+			Set<String> next = edges.get(pending.remove(pending.size() - 1));
+			if(next == null) {
+				continue;
+			}
+			
+			for(String reachedEndpoint : next) {
+				if(reached.add(reachedEndpoint)) {
+					pending.add(reachedEndpoint);
+				}
+			}
+		}
+		
+		return reached;
+	}
+	
+	
+	/**
+	 * @param edges Map of endpoints to the endpoints they lead to
+	 * @param endpoint The endpoint
+	 * @return The endpoint's edges, created if it doesn't have any yet
+	 */
+	private static Set<String> edges(Map<String, Set<String>> edges, String endpoint) {
+		Set<String> set = edges.get(endpoint);
+		if(set == null) {
+			set = new LinkedHashSet<String>();
+			edges.put(endpoint, set);
+		}
+		return set;
+	}
+}
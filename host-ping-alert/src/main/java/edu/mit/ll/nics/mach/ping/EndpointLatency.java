@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+/**
+ * Latency histograms of an endpoint's probes, one per phase of the probe
+ */
+public class EndpointLatency implements EndpointLatencyMXBean {
+
+	/** The phases of a probe that are timed */
+	public enum Phase {
+		DNS,
+		CONNECT,
+		TTFB,
+		BODY
+	}
+	
+	/** Number of slots each histogram's window is split into */
+	private static final int SLOTS = 5;
+	
+	/** The endpoint */
+	private final String endpoint;
+	
+	/** Time (in ms) covered by the histograms */
+	private final long windowMillis;
+	
+	/** Histograms, indexed by phase ordinal */
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param endpoint The endpoint
+	 * @param windowMillis Time (in ms) covered by the histograms
+	 */
+	public EndpointLatency(String endpoint, long windowMillis) {
+		this.endpoint = endpoint;
+		this.windowMillis = windowMillis;
+		
+		for(int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram(windowMillis, SLOTS);
+		}
+	}
+	
+	
+	/**
+	 * Records the time a phase of a probe took
+	 * 
+	 * @param phase The phase
+	 * @param nanos Time (in ns) it took
+	 */
+	public void record(Phase phase, long nanos) {
+		histograms[phase.ordinal()].record(nanos, System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * @param phase The phase
+	 * @return Snapshot of the phase's latencies over the window
+	 */
+	public LatencySnapshot snapshot(Phase phase) {
+		return histograms[phase.ordinal()].snapshot(System.currentTimeMillis());
+	}
+	
+	
+	@Override
+	public String getEndpoint() {
+		return endpoint;
+	}
+	
+	@Override
+	public long getWindowSeconds() {
+		return windowMillis / 1000;
+	}
+	
+	@Override
+	public LatencySnapshot getDns() {
+		return snapshot(Phase.DNS);
+	}
+	
+	@Override
+	public LatencySnapshot getConnect() {
+		return snapshot(Phase.CONNECT);
+	}
+	
+	@Override
+	public LatencySnapshot getTimeToFirstByte() {
+		return snapshot(Phase.TTFB);
+	}
+	
+	@Override
+	public LatencySnapshot getBody() {
+		return snapshot(Phase.BODY);
+	}
+}
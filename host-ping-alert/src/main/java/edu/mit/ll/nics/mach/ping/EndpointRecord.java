@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The alerting state of a single endpoint.  The state and its timestamps are held in one immutable
+ * Status, swapped atomically with compare-and-set, so probe results for any number of endpoints
+ * can be recorded concurrently without a lock.  Each transition reports whether an alert, reminder
+ * or recovery message is due, and only the thread whose transition won sends it.  When they're due
+ * is decided by an AlertPolicy.
+ */
+public class EndpointRecord {
+
+	/** The states an endpoint can be in */
+	public enum State {
+		/** Not probed yet */
+		UNKNOWN,
+		/** Responding */
+		UP,
+		/** Failing, but not for failuresToAlert probes yet, or the alert couldn't be delivered */
+		DOWN,
+		/** Failing, and an alert has been delivered */
+		ALERTED,
+		/** Responding again after an alert, and the recovery message is due */
+		RECOVERED
+	}
+	
+	/** The messages a transition can call for */
+	public enum Transition {
+		NONE,
+		ALERT,
+		REMINDER,
+		RECOVERY,
+		/** Started flapping, so it won't be alerted or recovered on until it settles */
+		FLAPPING,
+		/** Stopped flapping, whether up or down */
+		SETTLED
+	}
+	
+	/** Status of an endpoint that hasn't been probed yet */
+	private static final Status INITIAL = new Status(State.UNKNOWN, 0, 0, 0);
+	
+	/** The endpoint */
+	private final String endpoint;
+	
+	/** The endpoint's current status */
+	private final AtomicReference<Status> status;
+	
+	
+	/**
+	 * Constructor, for an endpoint that hasn't been probed yet
+	 * 
+	 * @param endpoint The endpoint
+	 */
+	public EndpointRecord(String endpoint) {
+		this(endpoint, INITIAL);
+	}
+	
+	
+	/**
+	 * Constructor, for an endpoint whose status was saved before a restart
+	 * 
+	 * @param endpoint The endpoint
+	 * @param status The saved status
+	 */
+	public EndpointRecord(String endpoint, Status status) {
+		this.endpoint = endpoint;
+		this.status = new AtomicReference<Status>(status);
+	}
+	
+	
+	/**
+	 * Records a successful probe, alerting on the first failure and recovering on the first success
+	 * 
+	 * @param now Time (in ms since the epoch) of the probe
+	 * @return The change made
+	 */
+	public Change succeeded(long now) {
+		return observe(now, true, AlertPolicy.IMMEDIATE);
+	}
+	
+	
+	/**
+	 * Records a successful probe.  An endpoint that was alerted on moves to RECOVERED, calling for
+	 * a recovery message, once it's succeeded successesToRecover times in a row.  Anything else 
+	 * moves to UP.
+	 * 
+	 * @param now Time (in ms since the epoch) of the probe
+	 * @param policy When to alert and recover
+	 * @return The change made
+	 */
+	public Change succeeded(long now, AlertPolicy policy) {
+		return observe(now, true, policy);
+	}
+	
+	
+	/**
+	 * Records a failed probe, alerting on the first failure and recovering on the first success
+	 * 
+	 * @param now Time (in ms since the epoch) of the probe
+	 * @param reminderMillis Time (in ms) between reminders
+	 * @return The change made
+	 */
+	public Change failed(long now, long reminderMillis) {
+		return observe(now, false, AlertPolicy.IMMEDIATE.withReminderMillis(reminderMillis));
+	}
+	
+	
+	/**
+	 * Records a failed probe.  An endpoint that wasn't already alerted on moves to DOWN, then to 
+	 * ALERTED once it's failed failuresToAlert times in a row, calling for an alert.  One that was 
+	 * calls for a reminder once reminderMillis have passed since the last alert or reminder, and is 
+	 * otherwise left as it is.
+	 * 
+	 * @param now Time (in ms since the epoch) of the probe
+	 * @param policy When to alert and recover
+	 * @return The change made
+	 */
+	public Change failed(long now, AlertPolicy policy) {
+		return observe(now, false, policy);
+	}
+	
+	
+	/**
+	 * Records a probe.  While an endpoint is flapping its state follows its probes, but no alerts,
+	 * reminders or recoveries are called for, just a FLAPPING message when it starts and a SETTLED 
+	 * one when it stops.  A flapping endpoint that settles while failing is left ALERTED.
+	 * 
+	 * @param now Time (in ms since the epoch) of the probe
+	 * @param up Whether the probe succeeded
+	 * @param policy When to alert and recover
+	 * @return The change made
+	 */
+	private Change observe(long now, boolean up, AlertPolicy policy) {
+		while(true) {
+			Status before = status.get();
+			
+			int window = policy.getFlapWindow();
+			long outcomes = (before.outcomes << 1) | (up ? 0 : 1);
+			if(window > 0 && window < AlertPolicy.MAX_FLAP_WINDOW) {
+				outcomes &= (1L << window) - 1;
+			}
+			int samples = Math.min(before.samples + 1, window);
+			int failures = up ? 0 : before.failures + 1;
+			int successes = up ? before.successes + 1 : 0;
+			long lastResponse = up ? now : before.lastResponse;
+			
+			int flapPercent = policy.flapPercent(outcomes, samples);
+			boolean flapping = (window > 0) && 
+					(before.flapping ? flapPercent >= policy.getFlapLowPercent() : flapPercent >= policy.getFlapHighPercent());
+			
+			Status after;
+			Transition transition;
+			if(flapping) {
+				// Stays ALERTED if it was, so it's still recovered on if it settles up
+				State state = (before.state == State.ALERTED) ? State.ALERTED : (up ? State.UP : State.DOWN);
+				long since = (state == before.state) ? before.since : now;
+				
+				transition = before.flapping ? Transition.NONE : Transition.FLAPPING;
+				after = new Status(state, since, lastResponse, (transition == Transition.FLAPPING) ? now : before.lastAlert, 
+						failures, successes, outcomes, samples, true);
+			} else if(before.flapping) {
+				transition = Transition.SETTLED;
+				after = new Status(up ? State.UP : State.ALERTED, now, lastResponse, now, 
+						failures, successes, outcomes, samples, false);
+			} else if(up) {
+				if(before.state == State.ALERTED && successes < policy.getSuccessesToRecover()) {
+					after = new Status(State.ALERTED, before.since, lastResponse, before.lastAlert, 
+							failures, successes, outcomes, samples, false);
+					transition = Transition.NONE;
+				} else if(before.state == State.ALERTED) {
+					after = new Status(State.RECOVERED, now, lastResponse, before.lastAlert, 
+							failures, successes, outcomes, samples, false);
+					transition = Transition.RECOVERY;
+				} else {
+					after = new Status(State.UP, (before.state == State.UP) ? before.since : now, lastResponse, before.lastAlert, 
+							failures, successes, outcomes, samples, false);
+					transition = Transition.NONE;
+				}
+			} else {
+				if(before.state == State.ALERTED) {
+					boolean remind = now - before.lastAlert >= policy.getReminderMillis();
+					after = new Status(State.ALERTED, before.since, lastResponse, remind ? now : before.lastAlert, 
+							failures, successes, outcomes, samples, false);
+					transition = remind ? Transition.REMINDER : Transition.NONE;
+				} else {
+					// The outage started with its first failure, not the one confirming it
+					long since = (before.state == State.DOWN) ? before.since : now;
+					boolean alert = failures >= policy.getFailuresToAlert();
+					after = new Status(alert ? State.ALERTED : State.DOWN, since, lastResponse, alert ? now : before.lastAlert, 
+							failures, successes, outcomes, samples, false);
+					transition = alert ? Transition.ALERT : Transition.NONE;
+				}
+			}
+			
+			if(status.compareAndSet(before, after)) {
+				return new Change(transition, before, after);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Backs out an alert or reminder that couldn't be delivered, so it's due again on the next
+	 * failed probe.  A SETTLED message for an endpoint that settled down is backed out like an alert, 
+	 * leaving it DOWN until its failures call for one.  Does nothing if the status has changed since.
+	 * 
+	 * @param change The change that called for the alert
+	 * @return Whether the change was backed out
+	 */
+	public boolean undeliverable(Change change) {
+		Status restored;
+		if(change.transition == Transition.ALERT || (change.transition == Transition.SETTLED && change.after.isDown())) {
+			restored = new Status(State.DOWN, change.after.since, change.after.lastResponse, change.before.lastAlert, 
+					change.after.failures, change.after.successes, change.after.outcomes, change.after.samples, false);
+		} else if(change.transition == Transition.REMINDER) {
+			restored = new Status(State.ALERTED, change.after.since, change.after.lastResponse, change.before.lastAlert, 
+					change.after.failures, change.after.successes, change.after.outcomes, change.after.samples, false);
+		} else {
+			return false;
+		}
+		
+		return status.compareAndSet(change.after, restored);
+	}
+	
+	
+	/**
+	 * @return The endpoint
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+	
+	
+	/**
+	 * @return The endpoint's current status
+	 */
+	public Status getStatus() {
+		return status.get();
+	}
+	
+	
+	/**
+	 * Immutable snapshot of an endpoint's state
+	 */
+	public static final class Status {
+		
+		/** The state */
+		private final State state;
+		
+		/** Time (in ms since the epoch) the state was entered.  Reminders don't change it */
+		private final long since;
+		
+		/** Time (in ms since the epoch) of the last successful probe, 0 if never */
+		private final long lastResponse;
+		
+		/** Time (in ms since the epoch) of the last alert or reminder, 0 if never */
+		private final long lastAlert;
+		
+		/** Consecutive failed probes, 0 after a success */
+		private final int failures;
+		
+		/** Consecutive successful probes, 0 after a failure */
+		private final int successes;
+		
+		/** Outcomes of the recent probes flaps are detected over, 1 for a failure, the latest in the lowest bit */
+		private final long outcomes;
+		
+		/** Number of outcomes held */
+		private final int samples;
+		
+		/** Whether the endpoint is flapping */
+		private final boolean flapping;
+		
+		Status(State state, long since, long lastResponse, long lastAlert) {
+			this(state, since, lastResponse, lastAlert, 0, 0, 0, 0, false);
+		}
+		
+		Status(State state, long since, long lastResponse, long lastAlert, 
+				int failures, int successes, long outcomes, int samples, boolean flapping) {
+			this.state = state;
+			this.since = since;
+			this.lastResponse = lastResponse;
+			this.lastAlert = lastAlert;
+			this.failures = failures;
+			this.successes = successes;
+			this.outcomes = outcomes;
+			this.samples = samples;
+			this.flapping = flapping;
+		}
+		
+		public State getState() {
+			return state;
+		}
+		
+		public long getSince() {
+			return since;
+		}
+		
+		public long getLastResponse() {
+			return lastResponse;
+		}
+		
+		public long getLastAlert() {
+			return lastAlert;
+		}
+		
+		public int getFailures() {
+			return failures;
+		}
+		
+		public int getSuccesses() {
+			return successes;
+		}
+		
+		public boolean isFlapping() {
+			return flapping;
+		}
+		
+		/**
+		 * @return Whether the endpoint is failing, whether or not its alert was delivered
+		 */
+		public boolean isDown() {
+			return state == State.DOWN || state == State.ALERTED;
+		}
+	}
+	
+	
+	/**
+	 * A transition between two statuses
+	 */
+	public static final class Change {
+		
+		/** The message the transition calls for */
+		private final Transition transition;
+		
+		/** Status before the transition */
+		private final Status before;
+		
+		/** Status after the transition */
+		private final Status after;
+		
+		private Change(Transition transition, Status before, Status after) {
+			this.transition = transition;
+			this.before = before;
+			this.after = after;
+		}
+		
+		public Transition getTransition() {
+			return transition;
+		}
+		
+		public Status getBefore() {
+			return before;
+		}
+		
+		public Status getAfter() {
+			return after;
+		}
+	}
+}
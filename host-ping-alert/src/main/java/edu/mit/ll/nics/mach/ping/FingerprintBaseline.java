@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+/**
+ * A page's learned content fingerprint.  The baseline is learned once the same fingerprint has been
+ * seen a number of times in a row, so a page that changes on every request never gets one.  After
+ * that, a different fingerprint has drifted from the baseline, until the page goes back to it, or, 
+ * if relearning is enabled, the changed page has stayed the same long enough to be accepted as the 
+ * new baseline.
+ */
+public class FingerprintBaseline {
+
+	/** What a fingerprint meant for the page */
+	public enum Verdict {
+		/** No baseline yet */
+		LEARNING,
+		/** The baseline was just learned */
+		LEARNED,
+		/** Same as the baseline */
+		MATCHED,
+		/** Different from the baseline */
+		DRIFTED,
+		/** Different from the old baseline, and accepted as the new one */
+		RELEARNED
+	}
+	
+	/** The learned fingerprint, null until it's learned */
+	private String baseline;
+	
+	/** Fingerprint seen in a row, other than the baseline */
+	private String candidate;
+	
+	/** Number of times in a row the candidate's been seen */
+	private int candidateCount;
+	
+	
+	/**
+	 * Records a page's fingerprint
+	 * 
+	 * @param fingerprint The fingerprint
+	 * @param learn Number of times in a row a fingerprint's seen before it's learned
+	 * @param relearn Number of times in a row a drifted fingerprint's seen before it replaces the 
+	 * 		  baseline, 0 to never replace it
+	 * @return What the fingerprint meant
+	 */
+	public synchronized Verdict observe(String fingerprint, int learn, int relearn) {
+		if(baseline != null && baseline.equals(fingerprint)) {
+			candidate = null;
+			candidateCount = 0;
+			return Verdict.MATCHED;
+		}
+		
+		if(fingerprint.equals(candidate)) {
+			candidateCount++;
+		} else {
+			candidate = fingerprint;
+			candidateCount = 1;
+		}
+		
+		if(baseline == null) {
+			if(candidateCount < Math.max(1, learn)) {
+				return Verdict.LEARNING;
+			}
+			
+			baseline = fingerprint;
+			candidate = null;
+			candidateCount = 0;
+			return Verdict.LEARNED;
+		}
+		
+		if(relearn > 0 && candidateCount >= relearn) {
+			baseline = fingerprint;
+			candidate = null;
+			candidateCount = 0;
+			return Verdict.RELEARNED;
+		}
+		
+		return Verdict.DRIFTED;
+	}
+	
+	
+	/**
+	 * @return The learned fingerprint, or null if it hasn't been learned yet
+	 */
+	public synchronized String getBaseline() {
+		return baseline;
+	}
+}
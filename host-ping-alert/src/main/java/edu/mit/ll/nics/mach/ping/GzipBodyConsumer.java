@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a gzip encoded body as it arrives, passing the inflated bytes on to another
+ * consumer.  Only a fixed size output buffer is used, and inflating stops as soon as the downstream
+ * consumer doesn't want any more, so a large (or malicious) compressed body is never expanded in full.
+ * 
+ * <p>Malformed input is reported by throwing an UncheckedIOException wrapping a ZipException.</p>
+ */
+public class GzipBodyConsumer implements BodyConsumer {
+
+	/** gzip header flag: extra field present */
+	private static final int FEXTRA = 4;
+	
+	/** gzip header flag: file name present */
+	private static final int FNAME = 8;
+	
+	/** gzip header flag: comment present */
+	private static final int FCOMMENT = 16;
+	
+	/** gzip header flag: header CRC present */
+	private static final int FHCRC = 2;
+	
+	/** Parsing stages */
+	private enum Stage { HEADER, EXTRA_LENGTH, EXTRA, NAME, COMMENT, HEADER_CRC, BODY, TRAILER }
+	
+	/** Consumer of the inflated bytes */
+	private final BodyConsumer downstream;
+	
+	/** Raw deflate inflater, the gzip wrapper is parsed here */
+	private final Inflater inflater = new Inflater(true);
+	
+	/** Inflated bytes waiting to be passed on */
+	private final ByteBuffer out = ByteBuffer.allocate(8192);
+	
+	/** Current parsing stage */
+	private Stage stage = Stage.HEADER;
+	
+	/** Number of bytes of the fixed 10 byte header read */
+	private int headerRead;
+	
+	/** Header flags */
+	private int flags;
+	
+	/** Bytes left to skip in the current stage, or to read of the extra field's length */
+	private int remaining;
+	
+	/** Whether or not the downstream consumer wants more */
+	private boolean wanted = true;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param downstream Consumer of the inflated bytes
+	 */
+	public GzipBodyConsumer(BodyConsumer downstream) {
+		this.downstream = downstream;
+	}
+	
+	
+	@Override
+	public boolean update(ByteBuffer bytes) {
+		while(wanted && bytes.hasRemaining()) {
+			switch(stage) {
+				case HEADER:
+					readHeader(bytes.get() & 0xff);
+					break;
+				case EXTRA_LENGTH:
+					// Two bytes, little endian
+					remaining |= (bytes.get() & 0xff) << (8 * headerRead++);
+					if(headerRead == 2) {
+						stage = Stage.EXTRA;
+					}
+					break;
+				case EXTRA:
+				case HEADER_CRC:
+					int skip = Math.min(remaining, bytes.remaining());
+					bytes.position(bytes.position() + skip);
+					remaining -= skip;
+					if(remaining == 0) {
+						nextStage();
+					}
+					break;
+				case NAME:
+				case COMMENT:
+					if(bytes.get() == 0) {
+						nextStage();
+					}
+					break;
+				case BODY:
+					inflate(bytes);
+					break;
+				case TRAILER:
+					// CRC and length aren't checked
+					bytes.position(bytes.limit());
+					break;
+			}
+		}
+		
+		return wanted;
+	}
+	
+	
+	@Override
+	public void finish() {
+		inflater.end();
+		downstream.finish();
+	}
+	
+	
+	/**
+	 * Reads the next byte of the fixed header
+	 * 
+	 * @param b The byte
+	 */
+	private void readHeader(int b) {
+		if((headerRead == 0 && b != 0x1f) || (headerRead == 1 && b != 0x8b)) {
+			throw new UncheckedIOException(new ZipException("Not in GZIP format"));
+		}
+		if(headerRead == 2 && b != 8) {
+			throw new UncheckedIOException(new ZipException("Unsupported compression method"));
+		}
+		if(headerRead == 3) {
+			flags = b;
+		}
+		
+		if(++headerRead == 10) {
+			headerRead = 0;
+			nextStage();
+		}
+	}
+	
+	
+	/**
+	 * Moves on to the next stage of the header, skipping any whose flag isn't set
+	 */
+	private void nextStage() {
+		// The optional fields, in the order they appear
+		if(stage.compareTo(Stage.EXTRA_LENGTH) < 0 && (flags & FEXTRA) != 0) {
+			stage = Stage.EXTRA_LENGTH;
+			remaining = 0;
+		} else if(stage.compareTo(Stage.NAME) < 0 && (flags & FNAME) != 0) {
+			stage = Stage.NAME;
+		} else if(stage.compareTo(Stage.COMMENT) < 0 && (flags & FCOMMENT) != 0) {
+			stage = Stage.COMMENT;
+		} else if(stage.compareTo(Stage.HEADER_CRC) < 0 && (flags & FHCRC) != 0) {
+			stage = Stage.HEADER_CRC;
+			remaining = 2;
+		} else {
+			stage = Stage.BODY;
+		}
+	}
+	
+	
+	/**
+	 * Inflates the bytes, passing the output downstream
+	 * 
+	 * @param bytes Compressed bytes
+	 */
+	private void inflate(ByteBuffer bytes) {
+		inflater.setInput(bytes);
+		
+		try {
+			// Inflated until no more comes out, since the inflater may still be holding output 
+			// after it's taken the last of the input
+			while(wanted && !inflater.finished()) {
+				out.clear();
+				inflater.inflate(out);
+				out.flip();
+				
+				if(out.hasRemaining()) {
+					wanted = downstream.update(out);
+				} else if(inflater.needsDictionary()) {
+					throw new ZipException("Preset dictionaries aren't supported");
+				} else {
+					break;
+				}
+			}
+		} catch(DataFormatException dfe) {
+			throw new UncheckedIOException(new ZipException(dfe.getMessage()));
+		} catch(ZipException ze) {
+			throw new UncheckedIOException(ze);
+		}
+		
+		if(inflater.finished()) {
+			stage = Stage.TRAILER;
+		}
+	}
+}
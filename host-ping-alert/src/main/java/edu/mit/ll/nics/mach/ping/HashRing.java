@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.nio.charset.StandardCharsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable consistent hash ring, assigning keys to members.  Each member is placed on the ring at
+ * a number of points, and a key belongs to the member at the first point at or after the key's hash.
+ * When a member joins or leaves, only the keys between its points and the ones before them move,
+ * about 1/N of them, and the rest stay where they were.
+ */
+public class HashRing {
+
+	/** Hashes of the points, sorted */
+	private final long[] points;
+	
+	/** Member at each point */
+	private final String[] owners;
+	
+	/** The members, sorted */
+	private final List<String> members;
+	
+	
+	/**
+	 * Constructor
+	 *
+	 * @param members The members
+	 * @param virtualNodes Number of points each member is placed at.  More spread the keys more evenly.
+	 */
+	public HashRing(Collection<String> members, int virtualNodes) {
+		List<String> sorted = new ArrayList<String>(members);
+		Collections.sort(sorted);
+		this.members = Collections.unmodifiableList(sorted);
+		
+		int perMember = Math.max(1, virtualNodes);
+		long[] hashes = new long[sorted.size() * perMember];
+		String[] owned = new String[hashes.length];
+		
+		// Sorted by hash, then member, so every node builds the same ring from the same members
+		Point[] unsorted = new Point[hashes.length];
+		int i = 0;
+		for(String member : sorted) {
+			for(int node = 0; node < perMember; node++) {
+				unsorted[i++] = new Point(hash(member + "#" + node), member);
+			}
+		}
+		Arrays.sort(unsorted);
+		
+		for(i = 0; i < unsorted.length; i++) {
+			hashes[i] = unsorted[i].hash;
+			owned[i] = unsorted[i].member;
+		}
+		
+		this.points = hashes;
+		this.owners = owned;
+	}
+	
+	
+	/**
+	 * @param key The key
+	 * @return The member the key belongs to, or null if there aren't any members
+	 */
+	public String ownerOf(String key) {
+		if(points.length == 0) {
+			return null;
+		}
+		
+		int index = Arrays.binarySearch(points, hash(key));
+		if(index < 0) {
+			index = -index - 1;
+		}
+		
+		return owners[(index == points.length) ? 0 : index];
+	}
+	
+	
+	/**
+	 * @return The members, sorted
+	 */
+	public List<String> getMembers() {
+		return members;
+	}
+	
+	
+	/**
+	 * @param key The key
+	 * @return The first 64 bits of the key's MD5, which spreads similar keys (like URLs differing
+	 * 		   in a digit) evenly around the ring
+	 */
+	static long hash(String key) {
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch(NoSuchAlgorithmException e) {
+			// Every JVM is required to support MD5
+			throw new IllegalStateException(e);
+		}
+		
+		byte[] digest = md5.digest(key.getBytes(StandardCharsets.UTF_8));
+		
+		long hash = 0;
+		for(int i = 0; i < 8; i++) {
+			hash = (hash << 8) | (digest[i] & 0xFF);
+		}
+		return hash;
+	}
+	
+	
+	/**
+	 * A member's point on the ring
+	 */
+	private static final class Point implements Comparable<Point> {
+	
+		private final long hash;
+		
+		private final String member;
+		
+		private Point(long hash, String member) {
+			this.hash = hash;
+			this.member = member;
+		}
+		
+		@Override
+		public int compareTo(Point other) {
+			int compared = Long.compare(hash, other.hash);
+			return (compared != 0) ? compared : member.compareTo(other.member);
+		}
+	}
+}
@@ -30,36 +30,66 @@
 package edu.mit.ll.nics.mach.ping;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.UnknownHostException;
 
+import java.net.http.HttpHeaders;
+import java.net.http.HttpTimeoutException;
+
 import java.sql.Timestamp;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import java.util.zip.GZIPInputStream;
+
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 
+import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
-import edu.mit.ll.nics.common.alert.EmailAlert;
 import edu.mit.ll.nics.common.alert.EmailAlertFactory;
 
 /**
@@ -85,6 +115,23 @@ public class HostPingAlert implements Processor {
 	 */
 	private String log4jProperties = "config/log4j.properties";
 	
+	/**
+	 * Specifies whether the root logger's appenders are written to by a background thread, so 
+	 * probes don't wait on log I/O
+	 * <p>Default: true</p>
+	 */
+	private boolean asyncLogging = true;
+	
+	/**
+	 * Time (in seconds) between logging the table of every endpoint's last successful ping.  0 logs 
+	 * it every cycle.
+	 * <p>Default: 300</p>
+	 */
+	private int statusInterval = 300;
+	
+	/** Time (in ms since the epoch) the table of last successful pings was last logged */
+	private long lastStatusTable;
+	
 	/** A comma delimited list of email addresses to send to */
 	private String subscribers;
 	
@@ -101,6 +148,24 @@ public class HostPingAlert implements Processor {
 	/** Comma delimited list of web page urls to hit */
 	private String pages;
 	
+	/** 
+	 * Comma delimited list of services to check, as host:port.  A service is up if a TCP
+	 * connection can be opened to it.
+	 */
+	private String services;
+	
+	/**
+	 * Properties file listing the endpoints, watched so hosts, pages, services and dependencies can
+	 * be added or removed without a restart.  Only the endpoints added or removed are touched, the rest 
+	 * keep their alert state and history.  Keys missing from the file leave those endpoints as they are. 
+	 * May be host-ping-alert.properties itself.
+	 * <p>Default: "" <empty string>, the endpoints aren't reloaded</p>
+	 */
+	private String inventoryFile = "";
+	
+	/** Watches the inventoryFile, null if it isn't set */
+	private InventoryWatcher inventoryWatcher;
+	
 	/** 
 	 * URL/Page pattern to search for in response
 	 * 
@@ -108,11 +173,100 @@ public class HostPingAlert implements Processor {
 	 */
 	private String pagePattern = "";
 	
-	/** Map of endpoints to last successful ping time */
-	private Map<String, Long> endpointResponseTimes = new ConcurrentHashMap<String, Long>();
+	/** Map of endpoints to their alerting state, last successful ping time, and last alert time */
+	private Map<String, EndpointRecord> endpointRecords = new ConcurrentHashMap<String, EndpointRecord>();
+	
+	/**
+	 * File the endpoints' state is journaled to, so it survives restarts.  Replayed at startup, so
+	 * endpoints still on alert aren't alerted on again, and last successful pings are remembered.
+	 * <p>Default: "" <empty string>, disabled</p>
+	 */
+	private String stateJournal = "";
+	
+	/**
+	 * Size (in bytes) of the state journal.  It's compacted each time it fills up.
+	 * <p>Default: 4194304</p>
+	 */
+	private int stateJournalSize = 4194304;
+	
+	/** Journal of the endpoints' state, null if stateJournal isn't set */
+	private StateJournal journal;
+	
+	/**
+	 * Comma delimited list of child->parent pairs, declaring endpoints that depend on others, such as
+	 * pages served through a gateway.  Parents are probed before their children, and while a parent 
+	 * is down its children aren't probed or alerted on, so only the parent's alert is sent.
+	 * @see EndpointDependencies
+	 */
+	private String dependencies;
+	
+	/** Dependencies parsed from the dependencies property */
+	private EndpointDependencies endpointDependencies;
+	
+	/** The endpoints split into the waves they're swept in, parents first.  Null to sweep them all at once */
+	private List<Set<String>> probeWaves;
+	
+	/** Map of endpoints not being probed to the parent that's down */
+	private Map<String, String> suppressedEndpoints = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * Whether to split the endpoints between the HostPingAlert nodes alive, as coordinated by the
+	 * shardCoordinator, so each is probed by one node.  Endpoints depending on others are probed by 
+	 * the node probing their parent.
+	 * <p>Default: false</p>
+	 */
+	private boolean clusterEnabled = false;
+	
+	/** Tracks the nodes alive from their heartbeats, and the endpoints each owns */
+	private ShardCoordinator shardCoordinator;
+	
+	/** Publishes every probe's result, in batches flushed at the end of each sweep.  May be null. */
+	private ResultPublisher resultPublisher;
+	
+	/** Version of the shardCoordinator's ring the endpoint records were last released at */
+	private int shardVersion;
+	
+	/** Map of endpoints to the key their owner is picked by, their root parent if they have one */
+	private Map<String, String> shardKeys = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * Number of probes kept in each endpoint's history, for uptime and outage queries.  Each probe 
+	 * takes 8 bytes, allocated up front, so the default is a week of one minute probes in ~80KB
+	 * per endpoint.  0 disables the history.
+	 * <p>Default: 10080</p>
+	 */
+	private int historySize = 10080;
+	
+	/** Map of endpoints to the history of their probes */
+	private Map<String, ProbeHistory> probeHistories = new ConcurrentHashMap<String, ProbeHistory>();
+	
+	/**
+	 * Time (in seconds) a sweep waits for its probes.  Probes still outstanding at the deadline are
+	 * left to finish in the background, and their endpoints skipped until they have, so an endpoint is
+	 * never probed twice at once, and a slow endpoint can't hold up the next sweep.  Should be less than
+	 * the timer's period.  0 waits for every probe.  Not used with the scheduler.
+	 * <p>Default: 55</p>
+	 */
+	private int sweepDeadline = 55;
+	
+	/** System.nanoTime() the pipeline route's current cycle has until, set by dueEndpoints() */
+	private volatile long cycleDeadline;
+	
+	/** 
+	 * Map of endpoints to their probes that were still running at a sweep's deadline, and with the 
+	 * scheduler or pipeline, their pending retries, so they aren't probed again until those are done, 
+	 * or are overdue
+	 */
+	private Map<String, CarriedOverProbe> carriedOverProbes = new ConcurrentHashMap<String, CarriedOverProbe>();
+	
+	/** Sweep overrun, lag and skipped probe counts, published over JMX */
+	private SweepMetrics sweepMetrics;
+	
+	/** Time (in ms since the epoch) the next timer cycle is due, 0 before the first */
+	private long nextCycleDue;
 	
-	/** Map of endpoints to last time alert was sent for it */
-	private Map<String, Long> addressAlertTimes = new ConcurrentHashMap<String, Long>();
+	/** Time (in ms since the epoch) the last cycle finished */
+	private long lastCycleEnd;
 		
 	/** 
 	 * emailConsumer endpoint
@@ -122,7 +276,8 @@ public class HostPingAlert implements Processor {
 	
 	/** 
 	 * The amount of time (in ms) for the isReachable call is given before it's decided
-	 * the host isn't reachable
+	 * the host isn't reachable.  Page checks are given this long per read of the body, and 
+	 * AsyncUrlProber.TIMEOUTS_PER_REQUEST times this long in all.
 	 * <p>Default: 10000</p>
 	 */
 	private int timeout = 10000;
@@ -139,15 +294,120 @@ public class HostPingAlert implements Processor {
 	 */
 	private int minsBetweenReminders = 60;
 	
+	/**
+	 * Consecutive failed probes before an endpoint is alerted on.  After a failure the endpoint is
+	 * probed again within the same cycle, confirmRetryDelay ms later, doubling each retry, so an outage
+	 * is confirmed in seconds rather than over several cycles.
+	 * <p>Default: 3</p>
+	 */
+	private int failuresToAlert = 3;
+	
+	/**
+	 * Consecutive successful probes before an endpoint on alert is recovered
+	 * <p>Default: 2</p>
+	 */
+	private int successesToRecover = 2;
+	
+	/**
+	 * Time (in ms) before the first retry confirming a failure, doubling for each retry after it.
+	 * 0 disables the retries, so failures are only confirmed by later cycles.
+	 * <p>Default: 1000</p>
+	 */
+	private int confirmRetryDelay = 1000;
+	
+	/**
+	 * Number of recent probes flapping is detected over, up to 64
+	 * <p>Default: 21</p>
+	 */
+	private int flapWindow = 21;
+	
+	/**
+	 * Percentage of the flapWindow's probes flipping between up and down at or above which an
+	 * endpoint is flapping.  A flapping endpoint gets one email saying so, and none after it until
+	 * it settles.  0 disables flap detection.
+	 * <p>Default: 40</p>
+	 */
+	private int flapHighPercent = 40;
+	
+	/**
+	 * Percentage of the flapWindow's probes flipping below which a flapping endpoint has settled
+	 * <p>Default: 20</p>
+	 */
+	private int flapLowPercent = 20;
+	
+	/** Policy built from the thresholds above */
+	private AlertPolicy alertPolicy;
+	
+	/** Map of endpoints to the retries confirming their failures, waited for by the sweep */
+	private Map<String, Future<?>> pendingRetries = new ConcurrentHashMap<String, Future<?>>();
+	
 	/** Reusable EmailAlertFactory */
 	private EmailAlertFactory emailAlertFactory;
 	
-	/** List of addresses to process... populated from the 'hosts' property */	
-	private List<InetAddress> addresses;
+	/** Sender alerts are delivered with.  Emails through the emailConsumer, unless set otherwise */
+	private AlertSender alertSender;
+	
+	/**
+	 * Specifies whether alerts are gathered into a digest, sent as one message per group of
+	 * subscribers, instead of sending an email for every endpoint
+	 * <p>Default: false</p>
+	 */
+	private boolean digestEnabled = false;
+	
+	/**
+	 * Time (in seconds) alerts are gathered for before the digest is sent.  0 sends the digest at 
+	 * the end of each sweep, or each time the route fires when the scheduler is enabled.
+	 * <p>Default: 0</p>
+	 */
+	private int digestWindow = 0;
+	
+	/** Digest alerts are gathered in, null if digestEnabled is false */
+	private AlertDigest alertDigest;
+	
+	/** Time (in ms since the epoch) the digest was last sent */
+	private long lastDigestFlush;
+	
+	/** List of host names/IPs to process... populated from the 'hosts' property */	
+	private List<String> hostNames;
+	
+	/** URLs to process, by their endpoint name (the URL's string form), populated by the 'pages' property */
+	private Map<String, URL> urls;
+	
+	/** List of service addresses to process, populated by the 'services' property.  Unresolved, the
+	 *  hostResolver resolves them before each check */
+	private List<InetSocketAddress> serviceAddresses;
+	
+	/**
+	 * Time (in seconds) resolved host addresses are cached before they're looked up again.  They're
+	 * re-resolved in the background before they expire.
+	 * <p>Default: 300</p>
+	 */
+	private int dnsCacheTtl = 300;
+	
+	/**
+	 * Time (in seconds) failed host lookups are cached before they're retried
+	 * <p>Default: 30</p>
+	 */
+	private int dnsNegativeTtl = 30;
+	
+	/**
+	 * Maximum number of host lookups run at the same time
+	 * <p>Default: 4</p>
+	 */
+	private int dnsThreads = 4;
+	
+	/** Resolves and caches the addresses of hosts and services */
+	private HostResolver hostResolver;
+	
+	/**
+	 * Time (in seconds) covered by the latency percentiles published over JMX
+	 * <p>Default: 300</p>
+	 */
+	private int latencyWindow = 300;
+	
+	/** Latencies of each endpoint's probes, by phase */
+	private LatencyMetrics latencyMetrics;
 	
-	/** List of URLS to process, populated by the 'pages' property */
-	private List<URL> urls;
-
 	/** Specifies whether or not to log the HTML response in the debug level log 
 	 * <p>Default: false</p> 
 	 */
@@ -159,6 +419,71 @@ public class HostPingAlert implements Processor {
 	/** Specifies whether or not the urlPattern object has been initialized */
 	private boolean isPatternInitialized;
 	
+	/**
+	 * File giving checks for individual pages, such as strings and patterns each page must or must 
+	 * not contain.  Pages without a section in the file are checked for the pagePattern.
+	 * 
+	 * <p>Default: "" <empty string>, disabled</p>
+	 * @see PageChecks
+	 */
+	private String pageChecksFile = "";
+	
+	/** Map of URLs to their checks, loaded from the pageChecksFile */
+	private Map<String, PageCheck> pageChecks = new HashMap<String, PageCheck>();
+	
+	/** Assertions built from the pagePattern, for pages without their own.  Null if no pagePattern was set. */
+	private ContentAssertions defaultAssertions;
+	
+	/**
+	 * Request method used to check pages, unless overridden in the pageChecksFile.  HEAD only checks
+	 * that the page responds, without downloading it or checking its content.
+	 * <p>Default: GET</p>
+	 */
+	private String pageMethod = "GET";
+	
+	/**
+	 * Specifies whether pages are checked with conditional GETs, unless overridden in the pageChecksFile.
+	 * The ETag/Last-Modified of the last response that passed its checks is sent back, and a 
+	 * 304 Not Modified response counts as a success without downloading the page again.
+	 * <p>Default: false</p>
+	 */
+	private boolean conditionalGet = false;
+	
+	/**
+	 * Specifies whether gzip encoded responses are accepted, unless overridden in the pageChecksFile.
+	 * Responses are decompressed as they're read.
+	 * <p>Default: true</p>
+	 */
+	private boolean acceptGzip = true;
+	
+	/** Map of URLs to the validators of their last response that passed its checks, for conditional GETs */
+	private Map<String, Validators> pageValidators = new ConcurrentHashMap<String, Validators>();
+	
+	/**
+	 * Specifies whether pages are fingerprinted, unless overridden in the pageChecksFile.  A hash of
+	 * each page's normalized content, less any fingerprint-exclude regions, is learned as its baseline, 
+	 * and a page that no longer matches it fails its check, catching changes and defacement the content 
+	 * checks don't look for.  Baselines are kept in memory, and relearned after a restart.
+	 * <p>Default: false</p>
+	 */
+	private boolean fingerprint = false;
+	
+	/**
+	 * Number of times in a row a page's fingerprint must be seen before it's learned as the baseline
+	 * <p>Default: 3</p>
+	 */
+	private int fingerprintLearn = 3;
+	
+	/**
+	 * Number of times in a row a changed fingerprint must be seen before it replaces the baseline,
+	 * or 0 to keep alerting until the page goes back to its baseline
+	 * <p>Default: 0</p>
+	 */
+	private int fingerprintRelearn = 0;
+	
+	/** Map of URLs to their learned fingerprints */
+	private Map<String, FingerprintBaseline> fingerprintBaselines = new ConcurrentHashMap<String, FingerprintBaseline>();
+	
 	/** 
 	 * Specifies whether or not to use a proxy
 	 * <p>Default: false</p>  
@@ -171,13 +496,138 @@ public class HostPingAlert implements Processor {
 	/** Proxy port */
 	private String proxyPort;
 	
+	/**
+	 * The maximum number of probes (pings and URL checks) allowed to run at the same time
+	 * <p>Default: 20</p>
+	 */
+	private int probeThreads = 20;
+	
+	/** Pool the probes are run on, sized by the probeThreads property */
+	private ExecutorService probeExecutor;
+	
+	/**
+	 * Specifies whether each endpoint is probed on its own interval by an internal scheduler, 
+	 * rather than every endpoint being swept each time the route's timer fires.  When enabled, 
+	 * the timer only reports the last successful pings.
+	 * <p>Default: false</p>
+	 */
+	private boolean schedulerEnabled = false;
+	
+	/**
+	 * Specifies whether the endpoints are probed by the pipeline route, which splits them into an
+	 * exchange each, probed in parallel by probe() and evaluated by evaluate(), rather than swept by
+	 * process().  When enabled, process() only reports the last successful pings.
+	 * <p>Default: false</p>
+	 */
+	private boolean pipelineEnabled = false;
+	
+	/** Map of endpoints being probed by probe() to the futures their results are handed to */
+	private Map<String, CompletableFuture<ProbeResult>> capturedProbes = new ConcurrentHashMap<String, CompletableFuture<ProbeResult>>();
+	
+	/**
+	 * Time (in seconds) between probes of an endpoint when using the scheduler, unless 
+	 * overridden in endpointIntervals
+	 * <p>Default: 60</p>
+	 */
+	private int defaultInterval = 60;
+	
+	/** 
+	 * Comma delimited list of endpoint=seconds pairs, overriding the defaultInterval for 
+	 * individual hosts/URLs when using the scheduler
+	 */
+	private String endpointIntervals;
+	
+	/**
+	 * Maximum random shift applied to each scheduled probe, as a percentage of the endpoint's interval
+	 * <p>Default: 10</p>
+	 */
+	private int scheduleJitterPercent = 10;
+	
+	/** Schedules the probes when schedulerEnabled is set */
+	private ProbeScheduler probeScheduler;
+	
+	/**
+	 * The engine used to check URLs, either "blocking", using an HttpURLConnection per check on the
+	 * probe pool, or "async", using the non-blocking HttpClient to multiplex many checks over a few threads
+	 * <p>Default: blocking</p>
+	 */
+	private String httpEngine = HTTP_ENGINE_BLOCKING;
+	
+	/**
+	 * Maximum number of URL checks in flight at once with the async httpEngine
+	 * <p>Default: 1000</p>
+	 */
+	private int maxInFlightPages = 1000;
+	
+	/**
+	 * Number of threads reading responses with the async httpEngine.  Checking them, and sending
+	 * any alert, is done on the probe pool.
+	 * <p>Default: 4</p>
+	 */
+	private int asyncHttpThreads = 4;
+	
+	/** Checks URLs when the async httpEngine is used */
+	private AsyncUrlProber asyncUrlProber;
+	
+	/**
+	 * Maximum number of page checks running at once against each server, 0 for no limit.  Servers
+	 * are told apart by IP, so pages on different host names or ports of the same server share it.
+	 * <p>Default: 4</p>
+	 */
+	private int maxProbesPerOrigin = 4;
+	
+	/**
+	 * Page checks started a second against each server, on average, 0 for no limit
+	 * <p>Default: 10</p>
+	 */
+	private double originProbeRate = 10;
+	
+	/**
+	 * Number of page checks that may start at once against a server that's been idle, before the
+	 * originProbeRate spaces them out
+	 * <p>Default: 10</p>
+	 */
+	private int originProbeBurst = 10;
+	
+	/** Holds back page checks so each server sees at most maxProbesPerOrigin at the originProbeRate, null if unlimited */
+	private OriginThrottle originThrottle;
+	
+	/** Checks services on a single selector thread, null if there are no services */
+	private TcpConnectProber tcpConnectProber;
+	
+	/**
+	 * Maximum number of bytes of a page read when checking it for the pagePattern.  Reading stops
+	 * as soon as the pattern is found.
+	 * <p>Default: 1048576 (1MB)</p>
+	 */
+	private long maxBodyBytes = 1048576;
+	
+	/**
+	 * Longest match (in characters) of the pagePattern guaranteed to be found, since pages are
+	 * searched in chunks as they're read, rather than all at once
+	 * <p>Default: 4096</p>
+	 */
+	private int maxMatchLength = 4096;
+	
+	/** httpEngine value for HttpURLConnection based checks */
+	public static final String HTTP_ENGINE_BLOCKING = "blocking";
+	
+	/** httpEngine value for HttpClient based checks */
+	public static final String HTTP_ENGINE_ASYNC = "async";
+	
+	/** Name of the AsyncAppender the root logger's appenders are moved behind */
+	private static final String ASYNC_APPENDER = "host-ping-alert-async";
+	
+	/** Messages the AsyncAppender holds before logging blocks */
+	private static final int ASYNC_LOG_BUFFER = 1024;
+	
 	
 	/**
 	 * Constructor
 	 */
 	public HostPingAlert() {
 	}
-
+	
 	/**
 	 * Init method specified in the bean definition in the Spring xml configuration file.
 	 * This is called AFTER all properties have been set by the Spring context
@@ -186,6 +636,10 @@ public class HostPingAlert implements Processor {
 	private void init() {
 		PropertyConfigurator.configure(log4jProperties);
 		
+		if(asyncLogging) {
+			initAsyncLogging();
+		}
+		
 		if(proxyEnabled) {
 			
 			if((proxyHost != null && !proxyHost.isEmpty()) &&
@@ -201,300 +655,2023 @@ public class HostPingAlert implements Processor {
 	}
 	
 	/**
-	 * Initializes InetAddress objects for any hosts/IPs given in the 'hosts' property, and
-	 * populates the local addresses map
+	 * Moves the root logger's appenders behind an AsyncAppender, which writes to them on its own 
+	 * thread.  It blocks when its buffer is full rather than dropping messages.
 	 */
-	private void initInetAddresses() {
-		
-		if(hosts == null || hosts.isEmpty()) {
-			log.info("Hosts property was empty, so not initializing any host endpoints to monitor");
+	private void initAsyncLogging() {
+		Logger root = Logger.getRootLogger();
+		if(root.getAppender(ASYNC_APPENDER) != null) {
 			return;
 		}
 		
-		String[] strHosts = hosts.split(",");
+		AsyncAppender async = new AsyncAppender();
+		async.setName(ASYNC_APPENDER);
+		async.setBufferSize(ASYNC_LOG_BUFFER);
 		
-		if(strHosts == null || strHosts.length == 0) {
-			log.info("Invalid hosts property... didn't contain comma delimited list of hosts/ips to ping: " + hosts);
+		Enumeration<?> appenders = root.getAllAppenders();
+		while(appenders.hasMoreElements()) {
+			async.addAppender((Appender)appenders.nextElement());
 		}
 		
-		log.info("Initializing hosts list: '" + hosts + "'");
-		
-		addresses = new ArrayList<InetAddress>();
-		
-		InetAddress addy = null;
-		for(String url : strHosts) {
-			try {
-				addy = InetAddress.getByName(url);
-				addresses.add(addy);
-			} catch(UnknownHostException uhe) {
-				log.error("Unknown host: " + url + ".  Could not resolve host name to an IP. Not tracking this host.");
-			} catch(Exception e) {
-				log.error("Caught unhandled exception while resolving host/ip. Not tracking this host: " 
-						+ url + ".: " + e.getMessage(),e);
-			}
-		}
+		root.removeAllAppenders();
+		root.addAppender(async);
 	}
 	
-	
 	/**
-	 * Initializes a list of URLs from the 'pages' property
+	 * Destroy method specified in the bean definition in the Spring xml configuration file.
+	 * Shuts down the probe pool, interrupting any probes still in progress.
 	 */
-	private void initUrls() {
-		urls = new ArrayList<URL>();
-		String[] strUrls = pages.split(",");
+	@SuppressWarnings("unused")
+	private void destroy() {
+		if(probeScheduler != null) {
+			probeScheduler.stop();
+		}
 		
-		if(strUrls == null || strUrls.length == 0) {
-			log.info("Invalid pages property... didn't contain comma delimited list of URLs to ping: " + pages);
-			log.info("Terminating...");
-			System.exit(1);
+		if(alertDigest != null) {
+			alertDigest.flush();
 		}
 		
-		URL url = null;
+		flushResults();
 		
-		for(String strUrl : strUrls) {
-			try {
-				url = new URL(strUrl);
-				urls.add(url);
-			} catch (MalformedURLException e) {
-				log.error("malformed url, not adding to tracking: " + strUrl, e);
-			} catch (Exception e) {
-				log.error("Caught unhandled exception ("+ e.getMessage() +") while initializing URL object for url: '" + strUrl + 
-						"'.  Not tracking URL: " + strUrl, e);
-			}
+		if(probeExecutor != null) {
+			probeExecutor.shutdownNow();
+		}
+		
+		if(asyncUrlProber != null) {
+			asyncUrlProber.shutdown();
+		}
+		
+		if(originThrottle != null) {
+			originThrottle.shutdown();
+		}
+		
+		if(tcpConnectProber != null) {
+			tcpConnectProber.shutdown();
+		}
+		
+		if(hostResolver != null) {
+			hostResolver.shutdown();
+		}
+		
+		if(latencyMetrics != null) {
+			latencyMetrics.unregister();
+		}
+		
+		if(sweepMetrics != null) {
+			sweepMetrics.unregister();
+		}
+		
+		if(journal != null) {
+			journal.close();
+		}
+		
+		if(inventoryWatcher != null) {
+			inventoryWatcher.close();
 		}
 	}
 	
-	
 	/**
-	 * Initializes the urlPattern for use in checking responses.  If
-	 * @pagePattern is not set, then urlPattern will be null
+	 * Initializes the pool the probes are run on, and the async URL engine if it's enabled
 	 */
-	private void initPattern() {
-		if(pagePattern != null && !pagePattern.isEmpty()) {
-			urlPattern = Pattern.compile(pagePattern);
-		} else {
-			urlPattern = null;
+	private void initProbeExecutor() {
+		if(probeThreads < 1) {
+			log.warn("Invalid probeThreads value (" + probeThreads + "), running probes on a single thread");
+			probeThreads = 1;
 		}
 		
-		isPatternInitialized = true;
-	}
-	
-	
-	@Override
-	public void process(final Exchange exchange) throws Exception {
-		// TODO: possibly move to constructor if the pagePattern variable is set by then... don't want
-		// to call this on every process call
-		if(!isPatternInitialized) {
-			initPattern();
+		log.info("Initializing probe pool with " + probeThreads + " threads");
+		
+		probeExecutor = Executors.newFixedThreadPool(probeThreads, new ProbeThreadFactory("host-ping-probe"));
+		
+		if(HTTP_ENGINE_ASYNC.equalsIgnoreCase(httpEngine)) {
+			log.info("Using async URL engine with up to " + maxInFlightPages + " checks in flight on " + 
+					asyncHttpThreads + " threads");
+			asyncUrlProber = new AsyncUrlProber(timeout, maxInFlightPages, asyncHttpThreads, probeExecutor);
+		} else if(!HTTP_ENGINE_BLOCKING.equalsIgnoreCase(httpEngine)) {
+			log.warn("Unknown httpEngine '" + httpEngine + "', using " + HTTP_ENGINE_BLOCKING);
 		}
 		
-		printLastPings();
-				
-		if(addresses == null) {
-			initInetAddresses();
+		if(maxProbesPerOrigin > 0 || originProbeRate > 0) {
+			log.info("Limiting page checks to " + ((maxProbesPerOrigin > 0) ? maxProbesPerOrigin : "unlimited") + 
+					" at once and " + ((originProbeRate > 0) ? originProbeRate + "/s" : "unlimited") + " per server");
+			originThrottle = new OriginThrottle(maxProbesPerOrigin, originProbeRate, originProbeBurst);
 		}
 		
-		if(urls == null) {
-			initUrls();
+		if(serviceAddresses != null && !serviceAddresses.isEmpty()) {
+			initTcpConnectProber();
 		}
-				
-		pollAddresses();
-		pollPages();
 	}
 	
 	
 	/**
-	 * Prints the url/host name, and its last successful response time, if available
+	 * Opens the selector the services are checked on
 	 */
-	private void printLastPings() {
-		StringBuilder sb = new StringBuilder();
-		sb.append("\nLast successful pings:\n");
-		
-		if(endpointResponseTimes.isEmpty()) {
-			log.info("No successful pings yet...");
-		} else {
-			for(Entry<String, Long> entry : endpointResponseTimes.entrySet()) {
-				sb.append(entry.getKey() + " : " + new Timestamp(entry.getValue()).toString() + "\n");
-			}
-			
+	private void initTcpConnectProber() {
+		try {
+			tcpConnectProber = new TcpConnectProber(timeout);
+		} catch(IOException ioe) {
+			log.error("Couldn't open selector for service checks, not checking services: " + ioe.getMessage(), ioe);
+		}
+	}
+	
+	/**
+	 * Initializes the list of hosts/IPs given in the 'hosts' property, and starts resolving them
+	 * in the background, so they're usually cached by the time they're first pinged
+	 */
+	private void initHosts() {
+		
+		hostNames = new ArrayList<String>();
+		
+		if(hosts == null || hosts.trim().isEmpty()) {
+			log.info("Hosts property was empty, so not initializing any host endpoints to monitor");
+			return;
+		}
+		
+		log.info("Initializing hosts list: '" + hosts + "'");
+		
+		hostNames = parseHosts(hosts);
+	}
+	
+	
+	/**
+	 * Parses a list of hosts, and starts resolving them in the background
+	 * 
+	 * @param hosts Comma delimited list of hostnames/IPs
+	 * @return The hosts
+	 */
+	private List<String> parseHosts(String hosts) {
+		List<String> parsed = new ArrayList<String>();
+		
+		for(String host : hosts.split(",")) {
+			host = host.trim();
+			if(host.isEmpty()) {
+				continue;
+			}
+			
+			parsed.add(host);
+			hostResolver.resolve(host);
+		}
+		
+		return parsed;
+	}
+	
+	
+	/**
+	 * Initializes addresses for any services given in the 'services' property
+	 */
+	private void initServices() {
+		serviceAddresses = new ArrayList<InetSocketAddress>();
+		
+		if(services == null || services.trim().isEmpty()) {
+			log.info("Services property was empty, so not initializing any service endpoints to monitor");
+			return;
+		}
+		
+		log.info("Initializing services list: '" + services + "'");
+		
+		serviceAddresses = parseServices(services);
+	}
+	
+	
+	/**
+	 * Parses a list of services, and starts resolving their hosts in the background
+	 * 
+	 * @param services Comma delimited list of host:port services
+	 * @return The services' unresolved addresses
+	 */
+	private List<InetSocketAddress> parseServices(String services) {
+		List<InetSocketAddress> parsed = new ArrayList<InetSocketAddress>();
+		
+		for(String service : services.split(",")) {
+			try {
+				InetSocketAddress address = TcpConnectProber.parseService(service);
+				parsed.add(address);
+				hostResolver.resolve(address.getHostString());
+			} catch(IllegalArgumentException iae) {
+				log.error("Invalid service, not tracking: " + iae.getMessage());
+			}
+		}
+		
+		return parsed;
+	}
+	
+	
+	/**
+	 * Opens the state journal, restoring the state of the endpoints being monitored, then
+	 * rewrites it with just those endpoints
+	 */
+	private void initJournal() {
+		long start = System.nanoTime();
+		
+		journal = new StateJournal(stateJournal.trim(), stateJournalSize);
+		
+		try {
+			Map<String, EndpointRecord.Status> saved = journal.open();
+			
+			for(String endpoint : endpointNames()) {
+				EndpointRecord.Status status = saved.get(endpoint);
+				if(status != null) {
+					endpointRecords.put(endpoint, new EndpointRecord(endpoint, status));
+				}
+			}
+			
+			journal.rewrite(endpointRecords.values());
+			
+			log.info("Restored the state of " + endpointRecords.size() + " endpoints from " + stateJournal + " in " + 
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+		} catch(IOException ioe) {
+			log.error("Couldn't open state journal " + stateJournal + ", not saving endpoint state: " + ioe.getMessage(), ioe);
+			journal = null;
+		}
+	}
+	
+	
+	/**
+	 * Starts watching the inventoryFile, and loads the endpoints from it
+	 */
+	private void initInventoryWatcher() {
+		try {
+			inventoryWatcher = new InventoryWatcher(inventoryFile.trim());
+		} catch(IOException ioe) {
+			log.error("Couldn't watch inventory file " + inventoryFile + ", not reloading endpoints: " + ioe.getMessage(), ioe);
+			return;
+		}
+		
+		reloadInventory();
+	}
+	
+	
+	/**
+	 * Reloads the endpoints from the inventoryFile, adding and removing just the endpoints that changed.
+	 * Run at the start of a cycle, so the endpoint lists are never changed during a sweep.  The lists
+	 * are replaced rather than modified, in case printLastPings or a probe is iterating over them.
+	 */
+	private void reloadInventory() {
+		Properties inventory;
+		try {
+			inventory = inventoryWatcher.load();
+		} catch(IOException ioe) {
+			log.error("Couldn't read inventory file " + inventoryWatcher.getFile() + ", keeping the current endpoints: " + 
+					ioe.getMessage(), ioe);
+			return;
+		}
+		
+		Set<String> before = endpointNames();
+		
+		String reloaded = inventory.getProperty("hosts");
+		if(reloaded != null && !reloaded.trim().equals(hosts == null ? "" : hosts.trim())) {
+			hosts = reloaded.trim();
+			hostNames = parseHosts(hosts);
+		}
+		
+		reloaded = inventory.getProperty("pages");
+		if(reloaded != null && !reloaded.trim().equals(pages == null ? "" : pages.trim())) {
+			pages = reloaded.trim();
+			urls = pages.isEmpty() ? new LinkedHashMap<String, URL>() : parseUrls(pages.split(","));
+		}
+		
+		reloaded = inventory.getProperty("services");
+		if(reloaded != null && !reloaded.trim().equals(services == null ? "" : services.trim())) {
+			services = reloaded.trim();
+			serviceAddresses = services.isEmpty() ? new ArrayList<InetSocketAddress>() : parseServices(services);
+			
+			if(tcpConnectProber == null && probeExecutor != null && !serviceAddresses.isEmpty()) {
+				initTcpConnectProber();
+			}
+		}
+		
+		reloaded = inventory.getProperty("dependencies");
+		boolean dependenciesChanged = reloaded != null && !reloaded.trim().equals(dependencies == null ? "" : dependencies.trim());
+		if(dependenciesChanged) {
+			dependencies = reloaded.trim();
+			shardKeys.clear();
+		}
+		
+		Set<String> after = endpointNames();
+		
+		List<String> removed = new ArrayList<String>();
+		for(String endpoint : before) {
+			if(!after.contains(endpoint)) {
+				forget(endpoint);
+				removed.add(endpoint);
+			}
+		}
+		
+		List<String> added = new ArrayList<String>();
+		for(String endpoint : after) {
+			if(!before.contains(endpoint)) {
+				added.add(endpoint);
+			}
+		}
+		
+		if(probeScheduler != null && !added.isEmpty()) {
+			scheduleAdded(added);
+		}
+		
+		if((dependenciesChanged || !added.isEmpty() || !removed.isEmpty()) && endpointDependencies != null) {
+			initDependencies();
+		}
+		
+		if(!removed.isEmpty() && journal != null) {
+			try {
+				journal.rewrite(endpointRecords.values());
+			} catch(IOException ioe) {
+				log.error("Couldn't compact state journal: " + ioe.getMessage(), ioe);
+			}
+		}
+		
+		if(!added.isEmpty() || !removed.isEmpty()) {
+			log.info("Reloaded endpoints from " + inventoryWatcher.getFile() + ", added " + added + ", removed " + removed);
+		}
+	}
+	
+	
+	/**
+	 * Schedules the endpoints added by a reload
+	 * 
+	 * @param added The names of the endpoints added
+	 */
+	private void scheduleAdded(List<String> added) {
+		Map<String, Long> intervals = parseEndpointIntervals();
+		long defaultMillis = defaultInterval * 1000L;
+		
+		for(String host : hostNames) {
+			if(added.contains(host)) {
+				scheduleHost(host, intervals, defaultMillis);
+			}
+		}
+		
+		for(Entry<String, URL> page : urls.entrySet()) {
+			if(added.contains(page.getKey())) {
+				scheduleUrl(page.getKey(), page.getValue(), intervals, defaultMillis);
+			}
+		}
+		
+		if(tcpConnectProber != null) {
+			for(InetSocketAddress address : serviceAddresses) {
+				if(added.contains(serviceName(address))) {
+					scheduleService(address, intervals, defaultMillis);
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stops probing an endpoint that's no longer monitored, and forgets its state
+	 * 
+	 * @param endpoint The endpoint
+	 */
+	private void forget(String endpoint) {
+		if(probeScheduler != null) {
+			probeScheduler.cancel(endpoint);
+		}
+		
+		EndpointRecord record = endpointRecords.remove(endpoint);
+		if(record != null && record.getStatus().isDown()) {
+			log.info("No longer monitoring " + endpoint + ", which was down");
+		}
+		
+		probeHistories.remove(endpoint);
+		fingerprintBaselines.remove(endpoint);
+		carriedOverProbes.remove(endpoint);
+		pendingRetries.remove(endpoint);
+		suppressedEndpoints.remove(endpoint);
+		shardKeys.remove(endpoint);
+		
+		if(latencyMetrics != null) {
+			latencyMetrics.remove(endpoint);
+		}
+	}
+	
+	
+	/**
+	 * @return The names of every host, URL and service being monitored
+	 */
+	private Set<String> endpointNames() {
+		Set<String> endpoints = new LinkedHashSet<String>(hostNames);
+		endpoints.addAll(urls.keySet());
+		for(InetSocketAddress address : serviceAddresses) {
+			endpoints.add(serviceName(address));
+		}
+		
+		return endpoints;
+	}
+	
+	
+	/**
+	 * Parses the dependencies property, and works out the waves the endpoints are swept in
+	 */
+	private void initDependencies() {
+		endpointDependencies = EndpointDependencies.parse(dependencies);
+		
+		if(endpointDependencies.isEmpty()) {
+			probeWaves = null;
+			return;
+		}
+		
+		probeWaves = endpointDependencies.waves(endpointNames());
+		log.info("Sweeping endpoints in " + probeWaves.size() + " waves, so parents are probed before the endpoints depending on them");
+	}
+	
+	
+	/**
+	 * Checks whether an endpoint depends on one that's down, in which case it's not probed or alerted on
+	 * 
+	 * @param endpoint The endpoint
+	 * @return true if it should be skipped
+	 */
+	private boolean parentDown(String endpoint) {
+		String parent = downParent(endpoint);
+		
+		if(parent == null) {
+			if(suppressedEndpoints.remove(endpoint) != null) {
+				log.info("Resuming probes of " + endpoint + ", the endpoints it depends on are back up");
+			}
+			return false;
+		}
+		
+		if(suppressedEndpoints.put(endpoint, parent) == null) {
+			log.info("Not probing " + endpoint + ", unreachable due to parent " + parent + " being down");
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Checks whether an endpoint shouldn't be probed, either because another node owns it, or because
+	 * it depends on one that's down
+	 * 
+	 * @param endpoint The endpoint
+	 * @return true if it should be skipped
+	 */
+	private boolean skipped(String endpoint) {
+		return !owned(endpoint) || parentDown(endpoint);
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return Whether this node probes the endpoint, always true unless clusterEnabled
+	 */
+	private boolean owned(String endpoint) {
+		if(!clusterEnabled || shardCoordinator == null) {
+			return true;
+		}
+		
+		return shardCoordinator.owns(shardKey(endpoint));
+	}
+	
+	
+	/**
+	 * Gets the key an endpoint's owner is picked by.  Endpoints are owned by the same node as their 
+	 * root parent, so a parent's outage suppresses its dependents on the node that saw it.
+	 * 
+	 * @param endpoint The endpoint
+	 * @return Its first root parent, or the endpoint itself if it has no parents
+	 */
+	private String shardKey(String endpoint) {
+		String key = shardKeys.get(endpoint);
+		if(key != null) {
+			return key;
+		}
+		
+		String root = null;
+		if(endpointDependencies != null) {
+			for(String ancestor : endpointDependencies.ancestorsOf(endpoint)) {
+				if(endpointDependencies.parentsOf(ancestor).isEmpty() && (root == null || ancestor.compareTo(root) < 0)) {
+					root = ancestor;
+				}
+			}
+		}
+		
+		key = (root != null) ? root : endpoint;
+		shardKeys.put(endpoint, key);
+		return key;
+	}
+	
+	
+	/**
+	 * Forgets the state of the endpoints another node has taken over once the nodes alive change, so 
+	 * if one comes back to this node later it's not alerted or recovered on from stale state
+	 */
+	private void releaseEndpoints() {
+		if(!clusterEnabled || shardCoordinator == null || shardCoordinator.getVersion() == shardVersion || 
+				shardCoordinator.isWarmingUp(System.currentTimeMillis())) {
+			return;
+		}
+		
+		shardVersion = shardCoordinator.getVersion();
+		
+		int owned = 0;
+		int released = 0;
+		for(String endpoint : endpointNames()) {
+			if(owned(endpoint)) {
+				owned++;
+			} else {
+				suppressedEndpoints.remove(endpoint);
+				if(endpointRecords.remove(endpoint) != null) {
+					released++;
+				}
+			}
+		}
+		
+		log.info("Node " + shardCoordinator.getNodeId() + " of " + shardCoordinator.getMembers().size() + " probing " + 
+				owned + " endpoints" + ((released > 0) ? ", released " + released + " taken over by other nodes" : ""));
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return The parent it's unreachable due to, either a direct parent that's down, or the one 
+	 * 		   a parent is unreachable due to.  Null if none of its parents are down.
+	 */
+	private String downParent(String endpoint) {
+		for(String parent : endpointDependencies.parentsOf(endpoint)) {
+			String suppressedBy = suppressedEndpoints.get(parent);
+			if(suppressedBy != null) {
+				return suppressedBy;
+			}
+			
+			EndpointRecord record = endpointRecords.get(parent);
+			if(record != null && record.getStatus().isDown()) {
+				return parent;
+			}
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Appends an endpoint's current state to the journal, if it's enabled
+	 * 
+	 * @param record The endpoint's record
+	 */
+	private void journal(EndpointRecord record) {
+		if(journal == null) {
+			return;
+		}
+		
+		try {
+			journal.append(record);
+		} catch(IOException ioe) {
+			log.error("Couldn't compact state journal: " + ioe.getMessage(), ioe);
+		}
+	}
+	
+	
+	/**
+	 * Initializes a list of URLs from the 'pages' property
+	 */
+	private void initUrls() {
+		String[] strUrls = pages.split(",");
+		
+		if(strUrls == null || strUrls.length == 0) {
+			log.info("Invalid pages property... didn't contain comma delimited list of URLs to ping: " + pages);
+			log.info("Terminating...");
+			System.exit(1);
+		}
+		
+		urls = parseUrls(strUrls);
+	}
+	
+	
+	/**
+	 * Parses a list of URLs, leaving out any that are malformed
+	 * 
+	 * @param strUrls The URLs
+	 * @return The parsed URLs, by their endpoint name
+	 */
+	private Map<String, URL> parseUrls(String[] strUrls) {
+		Map<String, URL> parsed = new LinkedHashMap<String, URL>();
+		
+		URL url = null;
+		
+		for(String strUrl : strUrls) {
+			try {
+				url = new URL(strUrl);
+				// URL.toString() builds a new string each call, so the name is kept for the checks to use
+				parsed.put(url.toString(), url);
+				hostResolver.resolve(url.getHost());
+			} catch (MalformedURLException e) {
+				log.error("malformed url, not adding to tracking: " + strUrl, e);
+			} catch (Exception e) {
+				log.error("Caught unhandled exception ("+ e.getMessage() +") while initializing URL object for url: '" + strUrl + 
+						"'.  Not tracking URL: " + strUrl, e);
+			}
+		}
+		
+		return parsed;
+	}
+	
+	
+	/**
+	 * Initializes the urlPattern for use in checking responses.  If
+	 * @pagePattern is not set, then urlPattern will be null
+	 */
+	private void initPattern() {
+		if(pagePattern != null && !pagePattern.isEmpty()) {
+			urlPattern = Pattern.compile(pagePattern);
+		} else {
+			urlPattern = null;
+		}
+		
+		defaultAssertions = ContentAssertions.forPattern(urlPattern);
+		
+		initPageChecks();
+		
+		isPatternInitialized = true;
+	}
+	
+	
+	/**
+	 * Loads the checks for individual pages from the pageChecksFile, if one was set
+	 */
+	private void initPageChecks() {
+		if(pageChecksFile == null || pageChecksFile.isEmpty()) {
+			return;
+		}
+		
+		try {
+			pageChecks = PageChecks.load(pageChecksFile);
+			log.info("Loaded checks for " + pageChecks.size() + " pages from " + pageChecksFile);
+		} catch(IOException ioe) {
+			log.error("Couldn't read pageChecksFile '" + pageChecksFile + "', checking every page for the " +
+					"pagePattern: " + ioe.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * Gets the assertions a page's content is checked against
+	 * 
+	 * @param page The page's URL
+	 * @return The page's own assertions if it has any, otherwise those for the pagePattern, which may be null
+	 */
+	private ContentAssertions assertionsFor(String page) {
+		PageCheck check = pageChecks.get(page);
+		if(check != null && check.hasAssertions()) {
+			return check.getAssertions();
+		}
+		
+		return defaultAssertions;
+	}
+	
+	
+	/**
+	 * @param page The page's URL
+	 * @return A fingerprint for the page's body, or null if it isn't fingerprinted
+	 */
+	private ContentFingerprint fingerprintFor(String page) {
+		PageCheck check = pageChecks.get(page);
+		
+		boolean enabled = (check != null && check.getFingerprint() != null) ? check.getFingerprint() : fingerprint;
+		if(!enabled) {
+			return null;
+		}
+		
+		return new ContentFingerprint((check != null) ? check.getFingerprintExcludes() : Collections.<Pattern>emptyList());
+	}
+	
+	
+	/**
+	 * @param page The page's URL
+	 * @return The request method the page is checked with
+	 */
+	private String methodFor(String page) {
+		PageCheck check = pageChecks.get(page);
+		return (check != null && check.getMethod() != null) ? check.getMethod() : pageMethod;
+	}
+	
+	
+	/**
+	 * Builds the headers sent when checking a page, for gzip encoding and conditional GETs as configured.
+	 * Both are only asked for with GET, since a HEAD response has no body to encode or validate.
+	 * 
+	 * @param page The page's URL
+	 * @param method The request method
+	 * @return Map of header names to values
+	 */
+	private Map<String, String> requestHeaders(String page, String method) {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		PageCheck check = pageChecks.get(page);
+		
+		boolean gzip = (check != null && check.getGzip() != null) ? check.getGzip() : acceptGzip;
+		if(gzip && "GET".equals(method)) {
+			headers.put("Accept-Encoding", "gzip");
+		}
+		
+		boolean conditional = (check != null && check.getConditional() != null) ? check.getConditional() : conditionalGet;
+		Validators validators = pageValidators.get(page);
+		if(conditional && validators != null && "GET".equals(method)) {
+			if(validators.etag != null) {
+				headers.put("If-None-Match", validators.etag);
+			}
+			if(validators.lastModified != null) {
+				headers.put("If-Modified-Since", validators.lastModified);
+			}
+		}
+		
+		return headers;
+	}
+	
+	
+	@Override
+	public void process(final Exchange exchange) throws Exception {
+		if(pipelineEnabled) {
+			// The pipeline route does the probing
+			printLastPings();
+			return;
+		}
+		
+		initSweepMetrics();
+		
+		if(behindSchedule(exchange)) {
+			return;
+		}
+		
+		try {
+			cycle();
+		} finally {
+			lastCycleEnd = System.currentTimeMillis();
+		}
+	}
+	
+	
+	/**
+	 * Runs a cycle, initializing anything not yet initialized, then sweeping every endpoint, or 
+	 * with the scheduler, just flushing the digest and journal
+	 * 
+	 * @throws Exception If the sweep fails
+	 */
+	private void cycle() throws Exception {
+		printLastPings();
+		prepare();
+		
+		if(schedulerEnabled) {
+			if(probeScheduler == null) {
+				initScheduler();
+			}
+			flushDigest();
+			flushResults();
+			syncJournal();
+			return;
+		}
+		
+		long start = System.currentTimeMillis();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(sweepDeadline);
+		
+		int probed = 0;
+		int carriedOver = 0;
+		int skippedWaves = 0;
+		for(Set<String> wave : (probeWaves != null) ? probeWaves : Collections.<Set<String>>singletonList(null)) {
+			if(carriedOver > 0) {
+				// Past the deadline, so the rest of the waves wait for the next sweep
+				skippedWaves += wave.size();
+				continue;
+			}
+			
+			Map<String, Future<?>> probes = new LinkedHashMap<String, Future<?>>();
+			probes.putAll(pollAddresses(wave));
+			probes.putAll(pollPages(wave));
+			probes.putAll(pollServices(wave));
+			
+			// Each wave's outcome decides which of the next wave's endpoints are skipped
+			carriedOver = awaitProbes(probes, deadline);
+			probed += probes.size();
+		}
+		
+		long elapsed = System.currentTimeMillis() - start;
+		sweepMetrics.sweep(elapsed, carriedOver);
+		sweepMetrics.skippedProbes(skippedWaves);
+		
+		if(carriedOver > 0) {
+			log.warn("Sweep hit its " + sweepDeadline + "s deadline with " + carriedOver + " of " + probed + 
+					" probes outstanding, leaving them to finish in the background" + 
+					((skippedWaves > 0) ? ", and skipping " + skippedWaves + " endpoints in later waves" : ""));
+		}
+		
+		log.debug("Completed " + probed + " probes in " + elapsed + "ms" + 
+				(suppressedEndpoints.isEmpty() ? "" : ", skipped " + suppressedEndpoints.size() + " whose parents are down") + 
+				(carriedOverProbes.isEmpty() ? "" : ", " + carriedOverProbes.size() + " still running from earlier sweeps"));
+		
+		flushDigest();
+		flushResults();
+		syncJournal();
+	}
+	
+	
+	/**
+	 * Starts a cycle of the pipeline route, initializing anything not yet initialized.  The route
+	 * splits the waves, one after another, then each wave's endpoints into an exchange each, probed
+	 * in parallel by probe() and evaluated by evaluate(), and calls completeCycle() once every wave
+	 * is done.  An endpoint that depends on one that's down is skipped by probe(), once its wave
+	 * comes round.  The cycle's sweepDeadline is counted from here.
+	 * 
+	 * @return The endpoints this node probes, in the waves they're probed in
+	 * @throws Exception If initialization fails
+	 */
+	public List<List<String>> dueEndpoints() throws Exception {
+		initSweepMetrics();
+		prepare();
+		
+		cycleDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(sweepDeadline);
+		
+		List<List<String>> due = new ArrayList<List<String>>();
+		for(Set<String> wave : (probeWaves != null) ? probeWaves : Collections.singletonList(endpointNames())) {
+			List<String> endpoints = new ArrayList<String>();
+			for(String endpoint : wave) {
+				if(owned(endpoint) && !stillRunning(endpoint)) {
+					endpoints.add(endpoint);
+				}
+			}
+			
+			if(!endpoints.isEmpty()) {
+				due.add(endpoints);
+			}
+		}
+		
+		return due;
+	}
+	
+	
+	/**
+	 * Probes an endpoint for the pipeline route, waiting for its result until the cycle's deadline, 
+	 * sweepDeadline seconds after dueEndpoints() started it.  The result is handed back rather than 
+	 * evaluated, so the route decides where it goes.  A probe still running at the deadline is left 
+	 * to finish in the background, evaluating its own result, and its endpoint is skipped until it 
+	 * has.  Once the deadline has passed, the cycle's remaining endpoints aren't probed, and wait for
+	 * the next cycle.
+	 * 
+	 * @param endpoint The endpoint, as given in the 'hosts', 'pages' or 'services' property
+	 * @return Its result, or null if it was skipped or is still running
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public ProbeResult probe(String endpoint) throws InterruptedException {
+		if(sweepDeadline > 0 && cycleDeadline - System.nanoTime() <= 0) {
+			log.debug("Cycle past its " + sweepDeadline + "s deadline, leaving " + endpoint + " for the next one");
+			sweepMetrics.skippedProbes(1);
+			return null;
+		}
+		
+		CompletableFuture<ProbeResult> result = new CompletableFuture<ProbeResult>();
+		capturedProbes.put(endpoint, result);
+		
+		try {
+			CompletableFuture<Void> probe = startProbe(endpoint);
+			
+			try {
+				if(sweepDeadline > 0) {
+					probe.get(Math.max(0, cycleDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				} else {
+					probe.get();
+				}
+			} catch(TimeoutException te) {
+				log.warn("Probe of " + endpoint + " still running at the cycle's " + sweepDeadline + 
+						"s deadline, leaving it to finish in the background");
+				carryOver(endpoint, probe, 0);
+				return null;
+			} catch(ExecutionException ee) {
+				log.error("Caught unhandled exception probing " + endpoint, ee.getCause());
+			}
+		} finally {
+			capturedProbes.remove(endpoint, result);
+		}
+		
+		return result.getNow(null);
+	}
+	
+	
+	/**
+	 * Evaluates a probe's result for the pipeline route, recording it and sending any alert, 
+	 * reminder or recovery it calls for
+	 * 
+	 * @param result The result
+	 */
+	public void evaluate(ProbeResult result) {
+		if(result.isUp()) {
+			recordSuccess(result.getEndpoint(), result.getType(), result.getNanos());
+		} else {
+			recordFailure(result.getEndpoint(), result.getType(), result.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * Ends a cycle of the pipeline route, once every endpoint's result has been evaluated, flushing 
+	 * the digest, results and journal
+	 */
+	public void completeCycle() {
+		flushDigest();
+		flushResults();
+		syncJournal();
+	}
+	
+	
+	/**
+	 * Hands a result to the probe() waiting for it, if there is one
+	 * 
+	 * @param result The result
+	 * @return Whether it was handed on, otherwise it's for the caller to evaluate
+	 */
+	private boolean capture(ProbeResult result) {
+		if(capturedProbes.isEmpty()) {
+			return false;
+		}
+		
+		// Removed, so a retry confirming a failure is evaluated as it finishes
+		CompletableFuture<ProbeResult> waiting = capturedProbes.remove(result.getEndpoint());
+		return waiting != null && waiting.complete(result);
+	}
+	
+	
+	/**
+	 * Initializes anything not yet initialized, and applies any changes to the endpoints, the
+	 * inventoryFile's or the cluster's, before probing them
+	 * 
+	 * @throws Exception If initialization fails
+	 */
+	private void prepare() throws Exception {
+		// TODO: possibly move to constructor if the pagePattern variable is set by then... don't want
+		// to call this on every process call
+		if(!isPatternInitialized) {
+			initPattern();
+		}
+		
+		if(latencyMetrics == null) {
+			latencyMetrics = new LatencyMetrics(latencyWindow * 1000L, true);
+		}
+		
+		if(hostResolver == null) {
+			log.info("Caching host lookups for " + dnsCacheTtl + "s, failed lookups for " + dnsNegativeTtl + "s");
+			hostResolver = new HostResolver(dnsCacheTtl * 1000L, dnsNegativeTtl * 1000L, dnsThreads);
+		}
+		
+		if(hostNames == null) {
+			initHosts();
+		}
+		
+		if(urls == null) {
+			initUrls();
+		}
+		
+		if(serviceAddresses == null) {
+			initServices();
+		}
+		
+		if(inventoryWatcher == null && inventoryFile != null && !inventoryFile.trim().isEmpty()) {
+			initInventoryWatcher();
+		} else if(inventoryWatcher != null && inventoryWatcher.takeChange()) {
+			reloadInventory();
+		}
+		
+		if(journal == null && stateJournal != null && !stateJournal.trim().isEmpty()) {
+			initJournal();
+		}
+		
+		if(probeExecutor == null) {
+			initProbeExecutor();
+		} else if(tcpConnectProber != null && !tcpConnectProber.isRunning()) {
+			log.error("Connect prober stopped, restarting it for the service checks");
+			initTcpConnectProber();
+		}
+		
+		if(endpointDependencies == null) {
+			initDependencies();
+		}
+		
+		releaseEndpoints();
+		
+		if(alertSender == null) {
+			alertSender = new EmailAlertSender(emailAlertFactory, emailConsumer, fromEmail);
+		}
+		
+		if(digestEnabled && alertDigest == null) {
+			alertDigest = new AlertDigest(alertSender);
+			lastDigestFlush = System.currentTimeMillis();
+		}
+	}
+	
+	
+	/**
+	 * Creates and registers the sweep metrics, if they haven't been already
+	 */
+	private void initSweepMetrics() {
+		if(sweepMetrics == null) {
+			sweepMetrics = new SweepMetrics();
+			sweepMetrics.register();
+		}
+	}
+	
+	
+	/**
+	 * Carries an endpoint's probe over past a sweep's deadline, keeping the endpoint from being probed 
+	 * again until it's finished, or overdue
+	 * 
+	 * @param endpoint The endpoint
+	 * @param probe The probe, or pending retry
+	 * @param delay Milliseconds before a pending retry starts, 0 for a running probe
+	 */
+	private void carryOver(String endpoint, Future<?> probe, long delay) {
+		long limit = delay + (long)AsyncUrlProber.TIMEOUTS_PER_REQUEST * timeout;
+		carriedOverProbes.put(endpoint, new CarriedOverProbe(probe, limit));
+	}
+	
+	
+	/**
+	 * Checks whether an endpoint's probe from an earlier sweep, carried over past that sweep's deadline, 
+	 * is still running, in which case it's not probed again until it's finished.  A probe that's still 
+	 * running past its limit is abandoned and reported as a failure, and the endpoint is probed again.
+	 * 
+	 * @param endpoint The endpoint
+	 * @return true if it should be skipped
+	 */
+	private boolean stillRunning(String endpoint) {
+		CarriedOverProbe carried = carriedOverProbes.get(endpoint);
+		if(carried == null) {
+			return false;
+		}
+		
+		if(carried.probe.isDone()) {
+			carriedOverProbes.remove(endpoint, carried);
+			return false;
+		}
+		
+		if(System.nanoTime() - carried.overdueAt >= 0) {
+			log.error("Probe of " + endpoint + " still hadn't finished " + carried.limit + "ms after it was carried over, abandoning it");
+			carriedOverProbes.remove(endpoint, carried);
+			carried.probe.cancel(true);
+			sendAlert(endpoint, endpointType(endpoint), "still hadn't responded after " + carried.limit + "ms");
+			return false;
+		}
+		
+		sweepMetrics.skippedProbes(1);
+		return true;
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return The type of endpoint it is
+	 */
+	private EndpointType endpointType(String endpoint) {
+		if(hostNames.contains(endpoint)) {
+			return EndpointType.HOST;
+		}
+		return urls.containsKey(endpoint) ? EndpointType.URL : EndpointType.SERVICE;
+	}
+	
+	
+	/**
+	 * Checks whether the timer fired a whole period or more after this cycle was due, as a fixed rate 
+	 * timer does to catch up after a cycle overruns its period, in which case the cycle is skipped 
+	 * rather than sweeping again straight away.  Only known when the exchange came from a timer.
+	 * 
+	 * @param exchange The exchange that triggered the cycle, may be null
+	 * @return true if the cycle should be skipped
+	 */
+	private boolean behindSchedule(Exchange exchange) {
+		Long period = (exchange != null) ? exchange.getProperty(Exchange.TIMER_PERIOD, Long.class) : null;
+		if(period == null || period <= 0) {
+			return false;
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		// A late cycle that isn't straight after the last one, like after the route was stopped, isn't 
+		// catching up, so the schedule's started again from now
+		if(nextCycleDue == 0 || (now - nextCycleDue >= period && now - lastCycleEnd >= period / 2)) {
+			nextCycleDue = now;
+		}
+		
+		long lag = Math.max(0, now - nextCycleDue);
+		nextCycleDue += period;
+		sweepMetrics.lag(lag);
+		
+		if(lag < period) {
+			return false;
+		}
+		
+		sweepMetrics.skippedCycle();
+		log.warn("Skipping cycle, it started " + lag + "ms late, a whole " + period + "ms timer period behind");
+		return true;
+	}
+	
+	
+	/**
+	 * Publishes the probe results batched since the last flush, if they're published
+	 */
+	private void flushResults() {
+		if(resultPublisher != null) {
+			resultPublisher.flush();
+		}
+	}
+	
+	
+	/**
+	 * Forces the state journal to disk, if it's enabled
+	 */
+	private void syncJournal() {
+		if(journal != null) {
+			journal.sync();
+		}
+	}
+	
+	
+	/**
+	 * Sends the alert digest, if it's enabled and the digestWindow has passed
+	 */
+	private void flushDigest() {
+		if(alertDigest == null) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		if(now - lastDigestFlush < digestWindow * 1000L) {
+			return;
+		}
+		
+		lastDigestFlush = now;
+		
+		int alerts = alertDigest.size();
+		if(alerts > 0) {
+			log.info("Sending alert digest of " + alerts + " alerts");
+			alertDigest.flush();
+		}
+	}
+	
+	
+	/**
+	 * Schedules every host and URL on its own interval, and starts the scheduler
+	 */
+	private void initScheduler() {
+		Map<String, Long> intervals = parseEndpointIntervals();
+		long defaultMillis = defaultInterval * 1000L;
+		
+		probeScheduler = new ProbeScheduler(probeExecutor, scheduleJitterPercent);
+		
+		if(hostNames != null) {
+			for(String host : hostNames) {
+				scheduleHost(host, intervals, defaultMillis);
+			}
+		}
+		
+		if(urls != null) {
+			for(Entry<String, URL> page : urls.entrySet()) {
+				scheduleUrl(page.getKey(), page.getValue(), intervals, defaultMillis);
+			}
+		}
+		
+		if(tcpConnectProber != null) {
+			for(InetSocketAddress address : serviceAddresses) {
+				scheduleService(address, intervals, defaultMillis);
+			}
+		}
+		
+		probeScheduler.start();
+	}
+	
+	
+	/**
+	 * Schedules a host's pings
+	 * 
+	 * @param host The host
+	 * @param intervals Map of endpoints to their interval in ms
+	 * @param defaultMillis Interval (in ms) of endpoints without their own
+	 */
+	private void scheduleHost(final String host, Map<String, Long> intervals, long defaultMillis) {
+		Long interval = intervals.get(host);
+		
+		probeScheduler.schedule(host, (interval != null) ? interval : defaultMillis, 
+			new Runnable() {
+				@Override
+				public void run() {
+					if(!skipped(host) && !stillRunning(host)) {
+						hostReachable(host);
+					}
+				}
+			});
+	}
+	
+	
+	/**
+	 * Schedules a page's checks
+	 * 
+	 * @param page The page's endpoint name
+	 * @param url The page
+	 * @param intervals Map of endpoints to their interval in ms
+	 * @param defaultMillis Interval (in ms) of endpoints without their own
+	 */
+	private void scheduleUrl(final String page, final URL url, Map<String, Long> intervals, long defaultMillis) {
+		Long interval = intervals.get(page);
+		
+		if(asyncUrlProber != null || originThrottle != null) {
+			probeScheduler.schedule(page, (interval != null) ? interval : defaultMillis, 
+				new ProbeScheduler.AsyncProbe() {
+					@Override
+					public CompletableFuture<?> start() {
+						return (skipped(page) || stillRunning(page)) ? 
+								CompletableFuture.completedFuture(null) : checkUrl(page, url);
+					}
+				});
+		} else {
+			probeScheduler.schedule(page, (interval != null) ? interval : defaultMillis, 
+				new Runnable() {
+					@Override
+					public void run() {
+						if(!skipped(page) && !stillRunning(page)) {
+							urlReachable(page, url);
+						}
+					}
+				});
+		}
+	}
+	
+	
+	/**
+	 * Schedules a service's checks
+	 * 
+	 * @param address The service's address
+	 * @param intervals Map of endpoints to their interval in ms
+	 * @param defaultMillis Interval (in ms) of endpoints without their own
+	 */
+	private void scheduleService(final InetSocketAddress address, Map<String, Long> intervals, long defaultMillis) {
+		Long interval = intervals.get(serviceName(address));
+		
+		probeScheduler.schedule(serviceName(address), (interval != null) ? interval : defaultMillis, 
+			new ProbeScheduler.AsyncProbe() {
+				@Override
+				public CompletableFuture<?> start() {
+					return (skipped(serviceName(address)) || stillRunning(serviceName(address))) ? 
+							CompletableFuture.completedFuture(null) : serviceReachableAsync(address);
+				}
+			});
+	}
+	
+	
+	/**
+	 * Parses the endpointIntervals property
+	 * 
+	 * @return Map of endpoints to their interval in ms
+	 */
+	private Map<String, Long> parseEndpointIntervals() {
+		Map<String, Long> intervals = new HashMap<String, Long>();
+		
+		if(endpointIntervals == null || endpointIntervals.trim().isEmpty()) {
+			return intervals;
+		}
+		
+		for(String entry : endpointIntervals.split(",")) {
+			// Split on the last '=', since URLs may contain them in the query string
+			int split = entry.lastIndexOf('=');
+			if(split <= 0) {
+				log.warn("Invalid endpointIntervals entry, expected endpoint=seconds: " + entry);
+				continue;
+			}
+			
+			try {
+				long seconds = Long.parseLong(entry.substring(split + 1).trim());
+				if(seconds <= 0) {
+					log.warn("Interval must be greater than 0, ignoring endpointIntervals entry: " + entry);
+					continue;
+				}
+				
+				intervals.put(entry.substring(0, split).trim(), seconds * 1000);
+			} catch(NumberFormatException nfe) {
+				log.warn("Invalid interval in endpointIntervals entry, expected endpoint=seconds: " + entry);
+			}
+		}
+		
+		return intervals;
+	}
+	
+	
+	/**
+	 * Gets the name a service is tracked and alerted as
+	 * 
+	 * @param address The service's address
+	 * @return host:port, with the host as given in the 'services' property
+	 */
+	private String serviceName(InetSocketAddress address) {
+		return address.getHostString() + ":" + address.getPort();
+	}
+	
+	
+	/**
+	 * Waits for every submitted probe to finish, or the sweepDeadline to pass, so a sweep takes as long 
+	 * as its slowest probe, and doesn't overlap with the next one.  Probes still outstanding at the 
+	 * deadline are carried over, left to finish in the background while their endpoints are skipped.
+	 * Retries confirming failures are waited for the same way.
+	 * 
+	 * @param probes The probes submitted to the probe pool for this sweep, by endpoint
+	 * @param deadline The System.nanoTime() of the deadline, unused if sweepDeadline is 0
+	 * @return Number of probes carried over
+	 * @throws InterruptedException If interrupted while waiting, in which case the
+	 * 		   remaining probes are cancelled
+	 */
+	private int awaitProbes(Map<String, Future<?>> probes, long deadline) throws InterruptedException {
+		int carriedOver = 0;
+		
+		Map<String, Future<?>> waiting = probes;
+		try {
+			while(!waiting.isEmpty()) {
+				for(Map.Entry<String, Future<?>> probe : waiting.entrySet()) {
+					try {
+						if(sweepDeadline > 0) {
+							probe.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+						} else {
+							probe.getValue().get();
+						}
+					} catch(TimeoutException te) {
+						carryOver(probe.getKey(), probe.getValue(), 0);
+						carriedOver++;
+					} catch(ExecutionException ee) {
+						log.error("Caught unhandled exception from probe: " + ee.getCause().getMessage(), ee.getCause());
+					}
+				}
+				
+				// Retries confirming the failures, which may have scheduled retries of their own
+				waiting = takeRetries();
+			}
+		} catch(InterruptedException ie) {
+			for(Future<?> probe : probes.values()) {
+				probe.cancel(true);
+			}
+			for(Future<?> probe : waiting.values()) {
+				probe.cancel(true);
+			}
+			throw ie;
+		}
+		
+		return carriedOver;
+	}
+	
+	
+	/**
+	 * Prints the url/host name, and its last successful response time, if available, along with
+	 * its availability over the last 24 hours, every statusInterval seconds
+	 */
+	private void printLastPings() {
+		long now = System.currentTimeMillis();
+		if(!log.isInfoEnabled() || now - lastStatusTable < statusInterval * 1000L) {
+			return;
+		}
+		
+		lastStatusTable = now;
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append("\nLast successful pings:\n");
+		
+		boolean anyPings = false;
+		for(EndpointRecord record : endpointRecords.values()) {
+			long lastResponse = record.getStatus().getLastResponse();
+			if(lastResponse > 0) {
+				sb.append(record.getEndpoint()).append(" : ").append(new Timestamp(lastResponse));
+				
+				ProbeHistory history = probeHistories.get(record.getEndpoint());
+				double availability = (history != null) ? history.availability(now - TimeUnit.DAYS.toMillis(1), now + 1) : Double.NaN;
+				if(!Double.isNaN(availability)) {
+					sb.append(String.format(" (%.2f%% up over the last 24h)", availability));
+				}
+				
+				sb.append("\n");
+				anyPings = true;
+			}
+		}
+		
+		if(!anyPings) {
+			log.info("No successful pings yet...");
+		} else {
 			sb.append("\n");
 			log.info(sb.toString());
 		}
+		
+		if(!suppressedEndpoints.isEmpty()) {
+			log.info("Not probing " + suppressedEndpoints.size() + " endpoints whose parents are down: " + suppressedEndpoints);
+		}
 	}
 	
 	
 	/**
-	 * Polls all specified addresses, and checks if they're reachable, triggering
-	 * an alerts to be queued if needed
+	 * Submits a probe for each specified address to the probe pool, to check if they're reachable,
+	 * triggering an alerts to be queued if needed
+	 * 
+	 * @param wave The endpoints to probe, null for all of them
+	 * @return The submitted probes, by endpoint
 	 */
-	private void pollAddresses() {
+	private Map<String, Future<?>> pollAddresses(Set<String> wave) {
+		
+		Map<String, Future<?>> probes = new LinkedHashMap<String, Future<?>>();
 		
-		if(addresses == null) {
+		if(hostNames == null) {
 			log.debug("No addresses to poll... returning");
+			return probes;
+		}
+		
+		for(final String host : hostNames) {
+			if((wave != null && !wave.contains(host)) || skipped(host) || stillRunning(host)) {
+				continue;
+			}
+			
+			Runnable pollThread = new Runnable(){
+				@Override
+				public void run() {
+					hostReachable(host);
+				}
+			};
+			probes.put(host, probeExecutor.submit(pollThread));
+		}
+		
+		return probes;
+	}
+	
+	
+	/**
+	 * Checks to see if the given host is reachable.  If not, an alert is queued.  If it is
+	 * reachable, a timestamp is recorded for a successful pinging of the host.  If the host
+	 * can't be resolved, a DNS alert is queued instead.
+	 * 
+	 * @param host The host name or IP, as given in the 'hosts' property
+	 */
+	private void hostReachable(String host) {
+		
+		long start = System.nanoTime();
+		
+		InetAddress address = resolveHost(host);
+		if(address == null) {
 			return;
 		}
 		
-		for(final InetAddress addy : addresses) {
+		long resolved = System.nanoTime();
+		latencyMetrics.record(host, EndpointLatency.Phase.DNS, resolved - start);
+		
+		try{			
+			if(!address.isReachable(null /*null is any interface*/, 
+					maxhops, timeout /*timeout*/)) {
+				
+				sendAlert(host, EndpointType.HOST, "failed to respond to PING");
+			} else {
+				long responded = System.nanoTime();
+				latencyMetrics.record(host, EndpointLatency.Phase.CONNECT, responded - resolved);
+				if(log.isDebugEnabled()) {
+					log.debug("HOST RESPONDED: " + host + " (" + address.getHostAddress() + ")");
+				}
+				updateTimestamp(host, EndpointType.HOST, responded - start);
+			}
+			
+		} catch (Exception e){
+			log.error("Caught unhandled exception pinging host: " + e.getMessage(), e);  
+		}
+	}
+	
+	
+	/**
+	 * Gets the address of a host from the hostResolver, waiting up to the timeout if it isn't
+	 * cached.  If it can't be resolved, a DNS alert is queued.
+	 * 
+	 * @param host The host name or IP
+	 * @return The address, or null if it couldn't be resolved
+	 */
+	private InetAddress resolveHost(String host) {
+		try {
+			return hostResolver.resolve(host).get(timeout, TimeUnit.MILLISECONDS);
+		} catch(ExecutionException ee) {
+			dnsFailed(host, ee.getCause());
+		} catch(TimeoutException te) {
+			dnsFailed(host, te);
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Queues a DNS alert for an endpoint whose host couldn't be resolved
+	 * 
+	 * @param endpoint The endpoint
+	 * @param cause Why it couldn't be resolved
+	 */
+	private void dnsFailed(String endpoint, Throwable cause) {
+		if(cause instanceof TimeoutException) {
+			sendAlert(endpoint, EndpointType.DNS, "timed out after " + timeout + "ms waiting to be resolved");
+		} else {
+			sendAlert(endpoint, EndpointType.DNS, "could not be resolved (" + cause.getMessage() + ")");
+		}
+	}
+	
+	
+	/**
+	 * Starts a connect for each specified service on the selector thread, checking to see if the 
+	 * service is reachable, triggering alerts, and successfully pinged timestamps to be updated.
+	 * 
+	 * @param wave The endpoints to probe, null for all of them
+	 * @return The started probes, by endpoint
+	 */
+	private Map<String, Future<?>> pollServices(Set<String> wave) {
+		
+		Map<String, Future<?>> probes = new LinkedHashMap<String, Future<?>>();
+		
+		if(tcpConnectProber == null) {
+			log.debug("No services to poll... returning");
+			return probes;
+		}
+		
+		for(InetSocketAddress address : serviceAddresses) {
+			String service = serviceName(address);
+			if((wave != null && !wave.contains(service)) || skipped(service) || stillRunning(service)) {
+				continue;
+			}
+			
+			probes.put(service, serviceReachableAsync(address));
+		}
+		
+		return probes;
+	}
+	
+	
+	/**
+	 * Starts connecting to the service.  If the connection is refused or times out, an alert is
+	 * triggered.  If it connects, a timestamp is added for this endpoint.  The outcome is handled on
+	 * the probe pool, keeping alerts off the selector thread.
+	 * 
+	 * @param address The service to check
+	 * @return A future completed once the outcome has been handled
+	 */
+	private CompletableFuture<Void> serviceReachableAsync(final InetSocketAddress address) {
+		final String service = serviceName(address);
+		final long start = System.nanoTime();
+		
+		// Copied, so the timeout doesn't fail a lookup shared with other checks
+		CompletableFuture<InetAddress> resolved = hostResolver.resolve(address.getHostString()).copy()
+				.orTimeout(timeout, TimeUnit.MILLISECONDS);
+		
+		return resolved.thenCompose(new Function<InetAddress, CompletionStage<Long>>() {
+			@Override
+			public CompletionStage<Long> apply(InetAddress resolvedAddress) {
+				latencyMetrics.record(service, EndpointLatency.Phase.DNS, System.nanoTime() - start);
+				return tcpConnectProber.connect(new InetSocketAddress(resolvedAddress, address.getPort()));
+			}
+		}).handleAsync(new BiFunction<Long, Throwable, Void>() {
+			@Override
+			public Void apply(Long connectNanos, Throwable cause) {
+				if(cause instanceof CompletionException && cause.getCause() != null) {
+					cause = cause.getCause();
+				}
+				
+				if(cause == null) {
+					latencyMetrics.record(service, EndpointLatency.Phase.CONNECT, connectNanos);
+					if(log.isDebugEnabled()) {
+						log.debug("SERVICE RESPONDED: " + service + " connected in " + 
+								TimeUnit.NANOSECONDS.toMicros(connectNanos) / 1000.0 + "ms");
+					}
+					updateTimestamp(service, EndpointType.SERVICE, System.nanoTime() - start);
+				} else if(cause instanceof UnknownHostException || cause instanceof TimeoutException) {
+					dnsFailed(service, cause);
+				} else if(cause instanceof SocketTimeoutException) {
+					sendAlert(service, EndpointType.SERVICE, "timed out after " + timeout + "ms waiting to connect");
+				} else {
+					sendAlert(service, EndpointType.SERVICE, "refused the connection (" + cause.getMessage() + ")");
+				}
+				return null;
+			}
+		}, probeExecutor);
+	}
+	
+	
+	/**
+	 * Submits a probe for each specified URL to the probe pool, checking to see if the URL is
+	 * reachable, triggering alerts, and successfully pinged timestamps to be updated.
+	 * 
+	 * @param wave The endpoints to probe, null for all of them
+	 * @return The submitted probes, by endpoint
+	 */
+	private Map<String, Future<?>> pollPages(Set<String> wave) {
+		
+		Map<String, Future<?>> probes = new LinkedHashMap<String, Future<?>>();
+				
+		if(urls == null) {
+			log.debug("No URLs to poll... returning");
+			return probes;
+		}
+		
+		for(Entry<String, URL> entry : urls.entrySet()) {
+			final String page = entry.getKey();
+			final URL url = entry.getValue();
+			if((wave != null && !wave.contains(page)) || skipped(page) || stillRunning(page)) {
+				continue;
+			}
+			
+			if(asyncUrlProber != null || originThrottle != null) {
+				probes.put(page, checkUrl(page, url));
+				continue;
+			}
 			
 			Runnable pollThread = new Runnable(){
 				@Override
 				public void run() {
-					hostReachable(addy);
+					urlReachable(page, url);
 				}
 			};
-			pollThread.run();			
+			probes.put(page, probeExecutor.submit(pollThread));
+		}
+		
+		return probes;
+	}
+	
+	
+	/**
+	 * Starts a check of the URL with the async engine, or on the probe pool with the blocking one,
+	 * once the originThrottle lets it
+	 * 
+	 * @param page The page's endpoint name
+	 * @param url The URL to check status on
+	 * @return A future completed once the outcome has been handled
+	 */
+	private CompletableFuture<Void> checkUrl(final String page, final URL url) {
+		if(originThrottle == null) {
+			return urlReachableAsync(page, url);
+		}
+		
+		final String origin = originOf(url);
+		final CompletableFuture<Void> checked = new CompletableFuture<Void>();
+		
+		Runnable check = new Runnable() {
+			@Override
+			public void run() {
+				if(asyncUrlProber == null) {
+					try {
+						urlReachable(page, url);
+					} finally {
+						originThrottle.release(origin);
+						checked.complete(null);
+					}
+					return;
+				}
+				
+				CompletableFuture<Void> probe;
+				try {
+					probe = urlReachableAsync(page, url);
+				} catch(RuntimeException e) {
+					originThrottle.release(origin);
+					throw e;
+				}
+				
+				probe.whenComplete(new BiConsumer<Void, Throwable>() {
+					@Override
+					public void accept(Void result, Throwable failure) {
+						originThrottle.release(origin);
+						checked.complete(null);
+					}
+				});
+			}
+		};
+		
+		// A check waiting its turn starts on whichever thread frees the slot or token, so it's moved 
+		// onto the probe pool, but an async check let through straight away starts here as before
+		CompletableFuture<Void> turn = originThrottle.acquire(origin);
+		CompletableFuture<Void> started = (asyncUrlProber != null && turn.isDone()) ? 
+				turn.thenRun(check) : turn.thenRunAsync(check, probeExecutor);
+		
+		started.exceptionally(new Function<Throwable, Void>() {
+			@Override
+			public Void apply(Throwable failure) {
+				checked.completeExceptionally(failure);
+				return null;
+			}
+		});
+		
+		return checked;
+	}
+	
+	
+	/**
+	 * @param url The page's URL
+	 * @return The server the page's checks are throttled by, its IP if it's been resolved, 
+	 * 		   otherwise its host name
+	 */
+	private String originOf(URL url) {
+		CompletableFuture<InetAddress> address = hostResolver.resolve(url.getHost());
+		if(address.isDone() && !address.isCompletedExceptionally()) {
+			return address.join().getHostAddress();
+		}
+		
+		return url.getHost().toLowerCase();
+	}
+	
+	
+	/**
+	 * Attempts to reach the URL.  If the URL is unreachable, an alert is triggered.
+	 * If the URL is reached successfully, a timestamp is added for this endpoint
+	 * 
+	 * @param page The page's endpoint name
+	 * @param url The URL to check status on
+	 */
+	private void urlReachable(String page, URL url) {
+		
+		HttpURLConnection conn = null;
+		try{
+			String method = methodFor(page);
+			long start = System.nanoTime();
+			
+			conn = (HttpURLConnection)url.openConnection();
+			conn.setConnectTimeout(timeout);
+			conn.setReadTimeout(timeout);
+			conn.setInstanceFollowRedirects(true); // No effect since it defaults to true?
+			conn.setRequestMethod(method);
+			
+			for(Entry<String, String> header : requestHeaders(page, method).entrySet()) {
+				conn.setRequestProperty(header.getKey(), header.getValue());
+			}
+			
+			InputStream in;
+			try {
+				in = conn.getInputStream();
+			} catch(IOException ioe) {
+				// Read off the error response, so the connection goes back in the keep-alive pool
+				discard(conn.getErrorStream());
+				throw ioe;
+			}
+			
+			// HttpURLConnection resolves and connects inside getInputStream(), so they're included
+			latencyMetrics.record(page, EndpointLatency.Phase.TTFB, System.nanoTime() - start);
+			
+			int responseCode = conn.getResponseCode();
+			StreamingPatternMatcher body = newBodyMatcher(page, method, responseCode, conn.getContentType());
+			
+			// Closing, rather than disconnecting, leaves the connection in the keep-alive pool
+			try {
+				// A HEAD response may echo the encoding, but has no body, not even a gzip header
+				// The read timeout only bounds each read, so a server trickling out its body is cut off too
+				in = new DeadlineInputStream(in, start + 
+						TimeUnit.MILLISECONDS.toNanos((long)AsyncUrlProber.TIMEOUTS_PER_REQUEST * timeout));
+				
+				if(responseCode == HttpURLConnection.HTTP_OK && "GET".equals(method) && 
+						"gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+					in = new GZIPInputStream(in);
+				}
+				body.readFrom(in);
+			} finally {
+				in.close();
+			}
+			
+			long elapsed = System.nanoTime() - start;
+			latencyMetrics.record(page, EndpointLatency.Phase.BODY, elapsed);
+			
+			checkUrlResponse(page, responseCode, body, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), elapsed);
+			
+		} catch(Exception e) {
+			urlFailed(page, e);
+		}
+	}
+	
+	
+	/**
+	 * Reads and closes an error response, up to maxBodyBytes
+	 * 
+	 * @param in The error stream, may be null
+	 */
+	private void discard(InputStream in) {
+		if(in == null) {
+			return;
+		}
+		
+		try {
+			byte[] buf = new byte[4096];
+			long total = 0;
+			int read;
+			while(total < maxBodyBytes && (read = in.read(buf)) != -1) {
+				total += read;
+			}
+			in.close();
+		} catch(IOException ioe) {
+			log.debug("Couldn't read error response: " + ioe.getMessage());
 		}
 	}
 	
 	
 	/**
-	 * Checks to see if the given address is reachable.  If not, an alert is queued.  If it is
-	 * reachable, a timestamp is recorded for a successful pinging of the address.
+	 * Starts an asynchronous check of the URL on the asyncUrlProber, with the same outcomes
+	 * as urlReachable
+	 * 
+	 * @param page The page's endpoint name
+	 * @param url The URL to check status on
+	 * @return A future completed once the outcome has been handled
+	 */
+	private CompletableFuture<Void> urlReachableAsync(final String page, URL url) {
+		final String method = methodFor(page);
+		
+		return asyncUrlProber.probe(url, method, requestHeaders(page, method), 
+				new AsyncUrlProber.ResponseHandler<StreamingPatternMatcher>() {
+			
+			/** Validators of the response */
+			private String etag, lastModified;
+			
+			/** System.nanoTime() the request was sent */
+			private long start;
+			
+			@Override
+			public void onSend(URL url) {
+				start = System.nanoTime();
+			}
+			
+			@Override
+			public StreamingPatternMatcher createBody(URL url, int statusCode, HttpHeaders headers) {
+				latencyMetrics.record(page, EndpointLatency.Phase.TTFB, System.nanoTime() - start);
+				
+				etag = headers.firstValue("ETag").orElse(null);
+				lastModified = headers.firstValue("Last-Modified").orElse(null);
+				
+				return newBodyMatcher(page, method, statusCode, headers.firstValue("Content-Type").orElse(null));
+			}
+			
+			@Override
+			public void onResponse(URL url, int statusCode, StreamingPatternMatcher body) {
+				long elapsed = System.nanoTime() - start;
+				latencyMetrics.record(page, EndpointLatency.Phase.BODY, elapsed);
+				checkUrlResponse(page, statusCode, body, etag, lastModified, elapsed);
+			}
+			
+			@Override
+			public void onFailure(URL url, Throwable cause) {
+				urlFailed(page, cause);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Creates the matcher a response body is streamed into.  Only successful responses to a GET are
+	 * checked against the page's assertions, and fingerprinted, the start of any other response is 
+	 * kept for the alert message.  The start of a checked response is only kept to be logged.
+	 * 
+	 * @param page The page's URL
+	 * @param method The request method
+	 * @param responseCode The HTTP response code
+	 * @param contentType The Content-Type header of the response, may be null
+	 * @return The matcher
+	 */
+	private StreamingPatternMatcher newBodyMatcher(String page, String method, int responseCode, String contentType) {
+		boolean checkContent = responseCode == HttpURLConnection.HTTP_OK && "GET".equals(method);
+		
+		return new StreamingPatternMatcher(checkContent ? assertionsFor(page) : null, 
+				checkContent ? fingerprintFor(page) : null, 
+				maxBodyBytes, maxMatchLength, StreamingPatternMatcher.charsetOf(contentType), 
+				showResponseInDebug && log.isDebugEnabled());
+	}
+	
+	
+	/**
+	 * Checks the response received from a URL, triggering an alert if the response code or content
+	 * wasn't as expected, or updating the timestamp for the URL if it was
 	 * 
-	 * @param address
+	 * @param page The URL that was checked
+	 * @param responseCode The HTTP response code
+	 * @param body The matcher the response body was streamed into
+	 * @param etag The ETag header of the response, may be null
+	 * @param lastModified The Last-Modified header of the response, may be null
+	 * @param nanos Time (in ns) the check took
 	 */
-	private void hostReachable(InetAddress address) {
+	private void checkUrlResponse(String page, int responseCode, StreamingPatternMatcher body, 
+			String etag, String lastModified, long nanos) {
+		
+		if(log.isDebugEnabled()) {
+			log.debug(page + ": response code: " + responseCode + ", read " + body.getBytesRead() + " bytes");
+			
+			if(showResponseInDebug) {
+				log.debug("\nCONTENT\n=================\n" + body.getExcerpt() + "\n===================\n\n");
+			}
+		}
+		
+		if(responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+			pageValidators.remove(page);
+		}
 		
-		try{			
-			if(!address.isReachable(null /*null is any interface*/, 
-					maxhops, timeout /*timeout*/)) {
+		if(responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			// Only sent in reply to a conditional GET, so the page is the same one that last passed its checks
+			if(log.isDebugEnabled()) {
+				log.debug(page + ": not modified since last check");
+			}
+			report(new ProbeResult(page, EndpointType.URL, true, null, nanos, responseCode));
+			
+		} else if(responseCode == HttpURLConnection.HTTP_OK) {
+			
+			String drift = (body.isMatched() && body.getFingerprint() != null) ? 
+					checkFingerprint(page, body.getFingerprint()) : null;
+			
+			if(drift != null) {
+				pageValidators.remove(page);
+				report(new ProbeResult(page, EndpointType.URL, false, drift, nanos, responseCode));
 				
-				sendAlert(address.getHostAddress(), EndpointType.HOST, "failed to respond to PING");
+			} else if(body.isMatched()) {
+				if(body.getMatch() != null && log.isDebugEnabled()) {
+					log.debug("Matched: " + body.getMatch());
+				}
+				
+				if(etag != null || lastModified != null) {
+					pageValidators.put(page, new Validators(etag, lastModified));
+				} else {
+					pageValidators.remove(page);
+				}
+				
+				report(new ProbeResult(page, EndpointType.URL, true, null, nanos, responseCode));
 			} else {
-				log.debug("HOST RESPONDED: " + address.getHostAddress());
-				updateTimestamp(address.getHostAddress(), EndpointType.HOST);
+				pageValidators.remove(page);
+				report(new ProbeResult(page, EndpointType.URL, false, 
+						"got a successful response, but " + body.getFailures() +
+						(body.isTruncated() ? " in the first " + maxBodyBytes + " bytes" : ""), nanos, responseCode));
 			}
+		
+		} else if(responseCode == HttpURLConnection.HTTP_MOVED_PERM) {
+			// Hit a redirect, and needs to manually re-request from the new url?
+			log.debug("Unfollowable redirect (due to protocol change?).");
+			report(new ProbeResult(page, EndpointType.URL, false, 
+					"couldn't follow redirect: \n\n" + body.getExcerpt() + "\n\n", nanos, responseCode));
 			
-		} catch (Exception e){
-			log.error("Caught unhandled exception pinging host: " + e.getMessage(), e);  
+		} else if(responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+			// TODO: Doesn't actually show up here for the blocking engine... an IOException is 
+			// thrown first, which mentions the 503/unavailable
+			log.debug("reported service unavailable");
+			report(new ProbeResult(page, EndpointType.URL, false, "reported service unavailable", nanos, responseCode));
+			
+		} else {
+			report(new ProbeResult(page, EndpointType.URL, false, "received response other than 200: " + 
+					responseCode + "\n\n" + body.getExcerpt() + "\n\n", nanos, responseCode));
 		}
 	}
 	
 	
 	/**
-	 * Polls all specified URLs, checking to see if the URL is reachable, triggering
-	 * alerts, and successfully pinged timestamps to be updated.
+	 * Checks a page's fingerprint against its learned baseline
+	 * 
+	 * @param page The page's URL
+	 * @param fingerprint The fingerprint of the response
+	 * @return Why the page failed, or null if it still matches its baseline, or doesn't have one yet
 	 */
-	private void pollPages() {
-				
-		if(urls == null) {
-			log.debug("No URLs to poll... returning");
-			return;
+	private String checkFingerprint(String page, String fingerprint) {
+		FingerprintBaseline baseline = fingerprintBaselines.get(page);
+		if(baseline == null) {
+			FingerprintBaseline added = new FingerprintBaseline();
+			baseline = fingerprintBaselines.putIfAbsent(page, added);
+			if(baseline == null) {
+				baseline = added;
+			}
 		}
 		
-		for(final URL url : urls) {
-			
-			Runnable pollThread = new Runnable(){
-				@Override
-				public void run() {
-					urlReachable(url);
-				}
-			};
-			pollThread.run();			
+		String learned = baseline.getBaseline();
+		
+		switch(baseline.observe(fingerprint, fingerprintLearn, fingerprintRelearn)) {
+			case LEARNED:
+				log.info(page + ": learned content fingerprint " + fingerprint);
+				return null;
+				
+			case RELEARNED:
+				log.info(page + ": accepted changed content as its new fingerprint " + fingerprint + 
+						", was " + learned);
+				return null;
+				
+			case DRIFTED:
+				return "content changed from its learned fingerprint " + learned + " to " + fingerprint;
+				
+			default:
+				return null;
 		}
 	}
 	
 	
 	/**
-	 * Attempts to reach the URL.  If the URL is unreachable, an alert is triggered.
-	 * If the URL is reached successfully, a timestamp is added for this endpoint
+	 * Triggers an alert for a URL that couldn't be checked
 	 * 
-	 * @param url The URL to check status on
+	 * @param page The URL that was checked
+	 * @param cause The reason no response was received
 	 */
-	private void urlReachable(URL url) {
+	private void urlFailed(String page, Throwable cause) {
 		
-		// TODO:  Refactor to limit calls to sendAlert to one place, and set the
-		//			parameters up beforehand
-		HttpURLConnection conn = null;
-		try{
-			conn = (HttpURLConnection)url.openConnection();
-			conn.setConnectTimeout(timeout);
-			conn.setInstanceFollowRedirects(true); // No effect since it defaults to true?
-			
-			String response = null;
-			response = parseStream(conn.getInputStream());
-			
-			log.debug(url.toString() + ": response code: " + conn.getResponseCode());
+		if(cause instanceof MalformedURLException) {
+			log.error("Malformed URL: " + page);
 			
-			if(showResponseInDebug) {
-				log.debug("\nCONTENT\n=================\n" + response + "\n===================\n\n");
-			}
+		} else if(cause instanceof SocketTimeoutException || cause instanceof HttpTimeoutException) {
+			log.error("Socket timed out connecting to: " + page);
+			sendAlert(page, EndpointType.URL, "timed out");
 			
-			if(conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
-				
-				boolean matches = matchesPattern(response);
-				
-				if(matches) {
-					updateTimestamp(url.toString(), EndpointType.URL);
-				} else {
-					sendAlert(url.toString(), EndpointType.URL, 
-							"got a successful response, but page didn't contain the specified pattern(" + pagePattern + ")");
-				}
+		} else if(cause instanceof IOException) {
+			log.error("Caught IO Exception while attempting to reach URL: " + page);
 			
-			} else if(conn.getResponseCode() == HttpURLConnection.HTTP_MOVED_PERM) {
-				// Hit a redirect, and needs to manually re-request from the new url?
-				log.debug("Unfollowable redirect (due to protocol change?).");
-				sendAlert(url.toString(), EndpointType.URL, 
-						"couldn't follow redirect: \n\n" + response + "\n\n");
-				
-			} else if(conn.getResponseCode() == HttpURLConnection.HTTP_UNAVAILABLE) {
-				// TODO: Doesn't actually show up here... an IOException is thrown first, which mentions the 503/unavailable
-				log.debug("reported service unavailable");
-				sendAlert(url.toString(), EndpointType.URL, "reported service unavailable");
-				
+			String message = "";
+			if(cause.getMessage() != null && cause.getMessage().contains("503")) {
+				message = "reported service unavailable\n\n";
 			} else {
-				if(showResponseInDebug) {
-					log.debug("\nCONTENT\n=================\n" + response + "\n===================\n\n");
-				}				
-				sendAlert(url.toString(), EndpointType.URL, "received response other than 200: " + 
-						conn.getResponseCode() + "\n\n" + response + "\n\n");
+				message = "exception reading response, state unknown:\n\n";
 			}
-		} catch (MalformedURLException e) {
-			log.error("Malformed URL: " + url);
-		} catch (SocketTimeoutException ste) {
-			log.error("Socket timed out connecting to: " + url);
 			
-			try {
-				sendAlert(url.toString(), EndpointType.URL, "timed out");
-			} catch (Exception e) {
-				log.error("Caught unhandled exception trying to send alert due to a socket timeout for URL: " + url, e);
-			}
-	    } catch (IOException ioe) {
-	    	log.error("Caught IO Exception while attempting to reach URL: " + url);
-	    		    	
-	    	String message = "";
-	    	if(ioe.getMessage().contains("503")) {
-	    		message = "reported service unavailable\n\n";
-	    	} else {
-	    		message = "exception reading response, state unknown:\n\n";
-	    	}
-	    	
-	    	try {
-				sendAlert(url.toString(), EndpointType.URL, message +
-						ioe.getMessage());
-			} catch (Exception e) {
-				log.error("Caught unhandled exception trying to send alert for URL: " + url, e);
-			}
-	    } catch(Exception e) {
-	    	log.error("Caught unhanlded exception attempting to reach URL: " + url, e);
-	    	try {
-				sendAlert(url.toString(), EndpointType.URL, 
-					"Caught unhandled exception attempting to reach host: " + e.getMessage());
-			} catch (Exception ee) {
-				log.error("Caught unhandled exception trying to send alert for URL: " + url, ee);
-			}
-	    }
-		
-		 // TODO: put final call to sendAlert here in a try catch
-		try {
-			//sendAlert(,,);
-		} catch(Exception e) {
+			sendAlert(page, EndpointType.URL, message + cause.getMessage());
 			
-		}
-		
-		if(conn != null){
-			log.info("Disconnecting.....");
-			conn.disconnect();
+		} else {
+			log.error("Caught unhanlded exception attempting to reach URL: " + page, cause);
+			sendAlert(page, EndpointType.URL, 
+					"Caught unhandled exception attempting to reach host: " + cause.getMessage());
 		}
 	}
 	
@@ -504,10 +2681,13 @@ public class HostPingAlert implements Processor {
 	 * set, this function returns true, since there's nothing to match, letting the validity
 	 * of the response be inferred from the actual response code.
 	 * 
+	 * <p>Note: URL checks stream the response through a StreamingPatternMatcher instead, this is
+	 * for checking a response that's already been read in full.</p>
+	 * 
 	 * @param response The content of the response from the HTTP url request
 	 * @return true if pattern is found, or if no pattern was set, false otherwise
 	 */
-	private boolean matchesPattern(String response) {
+	public boolean matchesPattern(String response) {
 		boolean matches = false;
 		
 		if(urlPattern != null) {
@@ -531,64 +2711,142 @@ public class HostPingAlert implements Processor {
 	
 	
 	/**
-	 * Single access point for updating an addressTimestamp.  If the endpoint was "on alert", then
-	 * an email is sent out saying that we've heard from the endpoint again.
+	 * Gets the record of an endpoint, creating it the first time the endpoint is seen
 	 * 
-	 * @param endpoint
-	 * @param type
+	 * @param endpoint The endpoint
+	 * @return The endpoint's record
+	 */
+	private EndpointRecord record(String endpoint) {
+		EndpointRecord record = endpointRecords.get(endpoint);
+		if(record == null) {
+			EndpointRecord created = new EndpointRecord(endpoint);
+			record = endpointRecords.putIfAbsent(endpoint, created);
+			if(record == null) {
+				record = created;
+			}
+		}
+		
+		return record;
+	}
+	
+	
+	/**
+	 * Records a probe in the endpoint's history, creating it the first time the endpoint is seen
+	 * 
+	 * @param endpoint The endpoint
+	 * @param now Time (in ms since the epoch) the probe finished
+	 * @param outcome The probe's outcome
+	 * @param nanos Time (in ns) the probe took, 0 if not known
 	 */
-	private synchronized void updateTimestamp(String endpoint, EndpointType type) {
+	private void recordHistory(String endpoint, long now, ProbeHistory.Outcome outcome, long nanos) {
+		if(historySize <= 0) {
+			return;
+		}
 		
-		log.info("Adding/updating timestamp for " + type.toString() + " endpoint: " + endpoint);
+		ProbeHistory history = probeHistories.get(endpoint);
+		if(history == null) {
+			ProbeHistory created = new ProbeHistory(historySize);
+			history = probeHistories.putIfAbsent(endpoint, created);
+			if(history == null) {
+				history = created;
+			}
+		}
 		
-		long lastAlert = -1;
-		long lastResponse = -1; // TODO: Handle case were there has been no response and no alerts yet, using this value
+		history.record(now, outcome, nanos);
+	}
+	
+	
+	/**
+	 * Gets the history of an endpoint's probes, for querying its uptime, outages and latency
+	 * 
+	 * @param endpoint The endpoint, as given in the 'hosts', 'pages' or 'services' property
+	 * @return The endpoint's history, or null if it hasn't been probed or historySize is 0
+	 */
+	public ProbeHistory getHistory(String endpoint) {
+		return probeHistories.get(endpoint);
+	}
+	
+	
+	/**
+	 * Single access point for a successful probe
+	 * 
+	 * @param endpoint
+	 * @param type
+	 * @param nanos Time (in ns) the probe took
+	 */
+	private void updateTimestamp(String endpoint, EndpointType type, long nanos) {
+		report(new ProbeResult(endpoint, type, true, null, nanos));
+	}
+	
+	
+	/**
+	 * Publishes a probe's result, if results are published, then hands it to the probe() waiting for 
+	 * it in the pipeline route, otherwise evaluates it straight away
+	 * 
+	 * @param result The result
+	 */
+	private void report(ProbeResult result) {
+		if(resultPublisher != null) {
+			resultPublisher.publish(result);
+		}
 		
-		if(addressAlertTimes.containsKey(endpoint)) {
-			lastAlert = addressAlertTimes.get(endpoint);
+		if(!capture(result)) {
+			evaluate(result);
 		}
+	}
+	
+	
+	/**
+	 * Records a successful probe.  If the endpoint was "on alert", then an email is sent out 
+	 * saying that we've heard from the endpoint again.
+	 * 
+	 * @param endpoint
+	 * @param type
+	 * @param nanos Time (in ns) the probe took
+	 */
+	private void recordSuccess(String endpoint, EndpointType type, long nanos) {
 		
-		if(endpointResponseTimes.containsKey(endpoint)) {
-			lastResponse = endpointResponseTimes.get(endpoint);
+		if(log.isDebugEnabled()) {
+			log.debug("Adding/updating timestamp for " + type.toString() + " endpoint: " + endpoint);
 		}
 		
-		if(addressAlertTimes.containsKey(endpoint) ) { 
-						
-			// If the last alert time for this endpoint was more recent than the last
-			// successful ping, then send an email saying we heard from the endpoint again
-			if( lastAlert == -1  || (addressAlertTimes.get(endpoint) > endpointResponseTimes.get(endpoint)) ) {
-
-				// send alert
-				try {
-					
-					long elapsed = System.currentTimeMillis() - addressAlertTimes.get(endpoint);
-										
-					long hours = elapsed / (1000*60*60);
-					long mins = (elapsed % (1000*60*60)) / (1000*60);
-					long seconds = ((elapsed % (1000*60*60)) % (1000*60)) / 1000;
-					
-					sendAlert(endpoint, type, 
-							"\n\nAn endpoint that was previously unable to be reached has successfully been pinged." +
-							"\n\nTime elapsed since alert: " + hours + "h" + mins + "m" + seconds + "s", true /* override */);
-				} catch (Exception e) {
-					log.error("There was an unhandled exception while trying to send an email after hearing from a " + 
-							"previously down endpoint: " + e.getMessage(), e);
-				}
-			} else {
-				log.debug("last alert time("+addressAlertTimes.get(endpoint)+
-						") < last timestamp("+endpointResponseTimes.get(endpoint)+")\n\nNOT sending got response after alert email!");
-			}
-		} else {
+		long now = System.currentTimeMillis();
+		recordHistory(endpoint, now, ProbeHistory.Outcome.UP, nanos);
+		
+		EndpointRecord record = record(endpoint);
+		EndpointRecord.Change change = record.succeeded(now, alertPolicy());
+		journal(record);
+		
+		if(change.getTransition() == EndpointRecord.Transition.FLAPPING) {
+			deliverAlert(endpoint, type, "responded, after failing", change);
+			
+		} else if(change.getTransition() == EndpointRecord.Transition.SETTLED) {
+			deliverAlert(endpoint, type, "has stopped flapping, and is up", change);
+			
+		} else if(change.getTransition() == EndpointRecord.Transition.RECOVERY) {
+			
+			// Time since the endpoint was first alerted on, reminders don't reset it
+			long elapsed = change.getAfter().getSince() - change.getBefore().getSince();
+			
+			long hours = elapsed / (1000*60*60);
+			long mins = (elapsed % (1000*60*60)) / (1000*60);
+			long seconds = ((elapsed % (1000*60*60)) % (1000*60)) / 1000;
+			
+			deliverAlert(endpoint, type, 
+					"\n\nAn endpoint that was previously unable to be reached has successfully been pinged." +
+					"\n\nTime elapsed since alert: " + hours + "h" + mins + "m" + seconds + "s", change);
+			
+		} else if(change.getBefore().getState() == EndpointRecord.State.UNKNOWN) {
 			log.debug("Endpoint " + endpoint + " hadn't previously alerted, and hasn't yet received a response timestamp");
 		}
-		
-		endpointResponseTimes.put(endpoint, System.currentTimeMillis());
 	}
 	
 	
 	/**
 	 * Parses the response from the URL into a String.
 	 * 
+	 * <p>Note: Buffers the whole response, URL checks stream it through a StreamingPatternMatcher instead.</p>
+	 * 
 	 * @param is The input stream from the HttpUrlConnection 
 	 * @return The content of the response if processed successfully, null otherwise
 	 */
@@ -613,107 +2871,330 @@ public class HostPingAlert implements Processor {
 	
 	
 	/**
-	 * Utility method for calling sendAlert, and defaulting to false on the override argument
+	 * Single access point for a failed probe
 	 * 
-	 * @see sendAlert
+	 * @param host The endpoint
+	 * @param type The type of endpoint
+	 * @param message Description of the failure
 	 */
-	public synchronized void sendAlert(String host, EndpointType type, String message) {
-		try {
-			sendAlert(host, type, message, false);
-		} catch(Exception e) {
-			log.error("Unhandled exception while calling sendAlert with default override parameter", e);
-		}
+	public void sendAlert(String host, EndpointType type, String message) {
+		report(new ProbeResult(host, type, false, message, 0));
 	}
 	
 	
 	/**
-	 * Send email alert
+	 * Records a failed probe, and sends an alert if the endpoint is going on alert, or a reminder
+	 * if it's been on alert for minsBetweenReminders since the last one
 	 * 
-	 * @param host
-	 * @param type
-	 * @param message
-	 * @param override
-	 * @throws Exception
+	 * @param host The endpoint
+	 * @param type The type of endpoint
+	 * @param message Description of the failure
 	 */
-	public synchronized void sendAlert(String host, EndpointType type, String message, boolean override) throws Exception {
+	private void recordFailure(String host, EndpointType type, String message) {
 		
-		log.info("Send alert requested for host: " + host);
-		
-		long lastHostAlert = -1; 
+		if(log.isDebugEnabled()) {
+			log.debug("Send alert requested for host: " + host);
+		}
 		
 		long now = System.currentTimeMillis();
+		long reminderThreshold = minsBetweenReminders*60*1000L;
 		
-		String alertMessage = "";
+		recordHistory(host, now, (type == EndpointType.DNS) ? ProbeHistory.Outcome.UNRESOLVED : ProbeHistory.Outcome.DOWN, 0);
 		
-		if(addressAlertTimes.containsKey(host)) {			
-			lastHostAlert = addressAlertTimes.get(host);
-			log.debug("Last time endpoint '" + host + "' was on alert: " + lastHostAlert);
-		} else {
-			log.debug("Host: " + host + " going on alert for first time");
-			addressAlertTimes.put(host, now);
+		EndpointRecord record = record(host);
+		EndpointRecord.Change change = record.failed(now, alertPolicy());
+		if(change.getTransition() != EndpointRecord.Transition.NONE) {
+			journal(record);
 		}
 		
-		long timeSinceLastAlert = now - lastHostAlert;
-		long reminderThreshold = minsBetweenReminders*60*1000;
+		switch(change.getTransition()) {
+			case ALERT:
+				log.debug("Host: " + host + " going on alert");
+				break;
+			case REMINDER:
+				log.debug("Sending reminder, last time endpoint '" + host + "' was on alert: " + 
+						change.getBefore().getLastAlert());
+				break;
+			case FLAPPING:
+				log.info("Endpoint " + host + " is flapping, holding its alerts until it settles");
+				break;
+			case SETTLED:
+				log.info("Endpoint " + host + " has stopped flapping, and is down");
+				break;
+			default:
+				if(change.getAfter().getState() == EndpointRecord.State.DOWN && !change.getAfter().isFlapping()) {
+					log.debug("Endpoint " + host + " failed " + change.getAfter().getFailures() + " of the " + 
+							failuresToAlert + " times in a row needed to alert");
+					confirmFailure(host, change.getAfter().getFailures());
+					return;
+				}
+				
+				if(change.getAfter().isFlapping()) {
+					log.debug("Endpoint " + host + " is still flapping, not alerting");
+					return;
+				}
 				
-		if(lastHostAlert == -1) {
-			log.debug("First time alert, bypassing reminder threshold");
-		} else if( (timeSinceLastAlert < reminderThreshold) && !override ) {			
+				long timeSinceLastAlert = now - change.getBefore().getLastAlert();
 				log.debug("Not sending a reminder alert until threshold is reached (Time since last alert: " 
 						+ timeSinceLastAlert + ", MS until next reminder will be sent: " 
 						+ (reminderThreshold - timeSinceLastAlert));
-				return;			
-		} else {
-			// Going to send reminder
-			// Not a reminder when override is true, since it'll be an email saying the endpoint is back up
-			if(!override) {
-				alertMessage = "REMINDER! Endpoint still on alert!\n\n";
-			}
+				return;
+		}
+		
+		deliverAlert(host, type, message, change);
+	}
+	
+	
+	/**
+	 * Sends an alert, reminder or recovery email, or adds it to the digest if that's enabled.  If 
+	 * an alert or reminder can't be sent, it's backed out of the endpoint's record so it's sent 
+	 * again on the next failed probe.
+	 * 
+	 * @param host The endpoint
+	 * @param type The type of endpoint
+	 * @param message Description of the failure, or the recovery
+	 * @param change The transition calling for the email
+	 */
+	private void deliverAlert(String host, EndpointType type, String message, EndpointRecord.Change change) {
+		
+		String alertMessage = "";
+		if(change.getTransition() == EndpointRecord.Transition.REMINDER) {
+			alertMessage = "REMINDER! Endpoint still on alert!\n\n";
 		}
 		
+		long hostTime = change.getBefore().getLastResponse();
+		
+		boolean flap = change.getTransition() == EndpointRecord.Transition.FLAPPING || 
+				change.getTransition() == EndpointRecord.Transition.SETTLED;
+		
 		try {
 			
-			long hostTime = 0;
-			if(endpointResponseTimes.containsKey(host)) {
-				hostTime = endpointResponseTimes.get(host);
+			if(flap) {
+				alertMessage += flapMessage(host, message, change);
 			} else {
-				// Shouldn't happen?  Timestamps are being looped by host, so host should be there
-				log.debug("Expected host: '" + host + "' to be in endpointResponseTimes, but wasn't!");
-			}
-			
-			switch(type) {
-				case HOST:					
-				
-					alertMessage += "ALERT!\n\nHost (" + host + ") failed to respond to a PING at " +
+				switch(type) {
+					case HOST:					
+					
+						alertMessage += "ALERT!\n\nHost (" + host + ") failed to respond to a PING at " +
+								new Timestamp(System.currentTimeMillis()).toString() + "." + 
+								"\n\nTime host was last successfully pinged: " + 
+								((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER") + ".";
+						break;
+					case URL:
+						
+						alertMessage += "ALERT!\n\nURL '" + host + "' " + message + 
+							"\n\nTime URL was last successfully reached: " + 
+							((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER");
+						
+						break;
+					case DNS:
+						
+						alertMessage += "ALERT!\n\nEndpoint (" + host + ") " + message + " at " + 
 							new Timestamp(System.currentTimeMillis()).toString() + "." + 
-							"\n\nTime host was last successfully pinged: " + 
-							((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER")
-							+ ".\n\n\n- HostPingAlert";
-					break;
-				case URL:
+							"\n\nTime endpoint was last successfully reached: " + 
+							((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER") + ".";
+						
+						break;
+					case SERVICE:
+						
+						alertMessage += "ALERT!\n\nService (" + host + ") " + message + " at " + 
+							new Timestamp(System.currentTimeMillis()).toString() + "." + 
+							"\n\nTime service was last successfully reached: " + 
+							((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER") + ".";
+						
+						break;
 					
-					alertMessage += "ALERT!\n\nURL '" + host + "' " + message + 
-						"\n\nTime URL was last successfully reached: " + 
-						((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER")	+ 
-						"\n\n\n- HostPingAlert";
+					default:
 					
-					break;
-				
-				default:
-				
+				}
 			}
 			
+			// Endpoints behind it aren't probed or alerted on while it's down, so they're listed here instead
+			Set<String> dependents = (endpointDependencies == null || !change.getAfter().isDown() || 
+					change.getTransition() == EndpointRecord.Transition.FLAPPING) ? 
+					Collections.<String>emptySet() : endpointDependencies.dependentsOf(host);
+			if(!dependents.isEmpty()) {
+				alertMessage += "\n\nEndpoints depending on it, which won't be checked until it's back up:\n";
+				for(String dependent : dependents) {
+					alertMessage += "  " + dependent + "\n";
+				}
+			}
 			
-			EmailAlert emailAlert = emailAlertFactory.createEmailAlert(emailConsumer, subscribers, 
-					fromEmail, shortenUrlForSubject(host));			
+			alertMessage += "\n\n\n- HostPingAlert";
 			
-			log.info("Sending email alert for endpoint: " + host);
-			addressAlertTimes.put(host, now);
-			emailAlert.sendString(alertMessage, true /*force sending*/);
+			if(alertDigest != null) {
+				AlertDigest.Kind kind;
+				switch(change.getTransition()) {
+					case RECOVERY:
+						kind = AlertDigest.Kind.RECOVERED;
+						break;
+					case REMINDER:
+						kind = AlertDigest.Kind.REMINDER;
+						break;
+					case SETTLED:
+						kind = change.getAfter().isDown() ? AlertDigest.Kind.DOWN : AlertDigest.Kind.RECOVERED;
+						break;
+					default:
+						kind = AlertDigest.Kind.DOWN;
+				}
+				
+				String summary = (kind == AlertDigest.Kind.RECOVERED) ? message : type.toString() + " " + message + 
+					", last reached: " + ((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER");
+				if(change.getTransition() == EndpointRecord.Transition.FLAPPING) {
+					summary = "FLAPPING, alerts held until it settles: " + summary;
+				}
+				if(!dependents.isEmpty()) {
+					summary += ", " + dependents.size() + " endpoints depending on it not checked";
+				}
+				
+				log.info("Adding alert for endpoint " + host + " to digest");
+				alertDigest.add(subscribers, host, kind, summary);
+			} else {
+				log.info("Sending email alert for endpoint: " + host);
+				alertSender.send(subscribers, shortenUrlForSubject(host), alertMessage);
+			}
 			
 		} catch (Exception e) {
-			throw e;
+			log.error("Unhandled exception sending alert for endpoint " + host + ": " + e.getMessage(), e);
+			
+			EndpointRecord record = record(host);
+			if(record.undeliverable(change)) {
+				journal(record);
+				log.debug("Alert for endpoint " + host + " will be sent again on its next failure");
+			}
+		}
+	}
+	
+	
+	/**
+	 * Builds the message sent when an endpoint starts or stops flapping
+	 * 
+	 * @param host The endpoint
+	 * @param message Description of the probe that started or stopped it flapping
+	 * @param change The FLAPPING or SETTLED transition
+	 * @return The message
+	 */
+	private String flapMessage(String host, String message, EndpointRecord.Change change) {
+		long hostTime = change.getAfter().getLastResponse();
+		String lastReached = "\n\nTime endpoint was last successfully reached: " + 
+				((hostTime > 0) ? new Timestamp(hostTime).toString() : "NEVER") + ".";
+		
+		if(change.getTransition() == EndpointRecord.Transition.FLAPPING) {
+			return "FLAPPING!\n\nEndpoint (" + host + ") has been changing between up and down over its last " + 
+					flapWindow + " probes, and most recently " + message + " at " + 
+					new Timestamp(System.currentTimeMillis()).toString() + "." + 
+					"\n\nNo alerts or recoveries will be sent for it until it settles." + lastReached;
+		}
+		
+		return "SETTLED!\n\nEndpoint (" + host + ") has stopped flapping, " + 
+				(change.getAfter().isDown() ? "and is down: it " + message : "and is up") + "." + lastReached;
+	}
+	
+	
+	/**
+	 * @return The policy deciding when endpoints are alerted and recovered on
+	 */
+	private AlertPolicy alertPolicy() {
+		if(alertPolicy == null) {
+			alertPolicy = new AlertPolicy(failuresToAlert, successesToRecover, minsBetweenReminders*60*1000L, 
+					flapWindow, flapHighPercent, flapLowPercent);
+		}
+		return alertPolicy;
+	}
+	
+	
+	/**
+	 * Probes an endpoint again, after a failure that hasn't reached failuresToAlert, backing off
+	 * confirmRetryDelay ms for the first retry, and twice as long for each retry after it.  In a 
+	 * sweep the retries are waited for along with the probes, so an outage is confirmed within the 
+	 * cycle it started in.  With the scheduler or pipeline, the endpoint's other probes are skipped 
+	 * until its retry is done, so it's never probed twice at once.
+	 * 
+	 * @param endpoint The endpoint
+	 * @param failures Number of times it's failed in a row
+	 */
+	private void confirmFailure(final String endpoint, int failures) {
+		if(confirmRetryDelay <= 0 || probeExecutor == null || probeExecutor.isShutdown()) {
+			return;
+		}
+		
+		long delay = (long)confirmRetryDelay << Math.min(failures - 1, 10);
+		Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, probeExecutor);
+		
+		CompletableFuture<Void> retry = CompletableFuture.supplyAsync(new Supplier<CompletableFuture<Void>>() {
+			@Override
+			public CompletableFuture<Void> get() {
+				return startProbe(endpoint);
+			}
+		}, delayed).thenCompose(new Function<CompletableFuture<Void>, CompletionStage<Void>>() {
+			@Override
+			public CompletionStage<Void> apply(CompletableFuture<Void> probe) {
+				return probe;
+			}
+		});
+		
+		if(!schedulerEnabled && !pipelineEnabled) {
+			pendingRetries.put(endpoint, retry);
+		} else {
+			// Keeps the endpoint's scheduled runs, or the pipeline's next cycles, off it until the retry is done
+			carryOver(endpoint, retry, delay);
+		}
+	}
+	
+	
+	/**
+	 * Probes an endpoint, running a ping or unthrottled blocking page check on the calling thread, 
+	 * or starting an async or throttled page check or TCP connect
+	 * 
+	 * @param endpoint The endpoint
+	 * @return A future completed once the probe's outcome has been handled
+	 */
+	private CompletableFuture<Void> startProbe(String endpoint) {
+		// Its parent may have gone down, or it may have been removed or moved to another node since
+		if(skipped(endpoint)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		if(hostNames.contains(endpoint)) {
+			hostReachable(endpoint);
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		URL url = urls.get(endpoint);
+		if(url != null) {
+			if(asyncUrlProber != null || originThrottle != null) {
+				return checkUrl(endpoint, url);
+			}
+			urlReachable(endpoint, url);
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		if(tcpConnectProber != null) {
+			for(InetSocketAddress address : serviceAddresses) {
+				if(serviceName(address).equals(endpoint)) {
+					return serviceReachableAsync(address);
+				}
+			}
 		}
+		
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	
+	/**
+	 * @return The retries scheduled since this was last called, by endpoint
+	 */
+	private Map<String, Future<?>> takeRetries() {
+		Map<String, Future<?>> retries = new LinkedHashMap<String, Future<?>>();
+		
+		for(String endpoint : pendingRetries.keySet()) {
+			Future<?> retry = pendingRetries.remove(endpoint);
+			if(retry != null) {
+				retries.put(endpoint, retry);
+			}
+		}
+		
+		return retries;
 	}
 	
 	
@@ -733,15 +3214,86 @@ public class HostPingAlert implements Processor {
 				subject = betweenSlashes[0];
 			}
 		}
-				
-		return subject;
+				
+		return subject;
+	}
+	
+	
+	/** A probe carried over past a sweep's deadline */
+	private static class CarriedOverProbe {
+		
+		/** The probe, or pending retry */
+		private final Future<?> probe;
+		
+		/** Milliseconds it's given from when it was carried over */
+		private final long limit;
+		
+		/** System.nanoTime() it's abandoned at if it's still running */
+		private final long overdueAt;
+		
+		private CarriedOverProbe(Future<?> probe, long limit) {
+			this.probe = probe;
+			this.limit = limit;
+			this.overdueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limit);
+		}
+	}
+	
+	
+	/** Stream that times out once a deadline passes, however steadily the bytes are arriving */
+	private static class DeadlineInputStream extends FilterInputStream {
+		
+		/** System.nanoTime() reads stop at */
+		private final long deadline;
+		
+		private DeadlineInputStream(InputStream in, long deadline) {
+			super(in);
+			this.deadline = deadline;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			checkDeadline();
+			return super.read();
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkDeadline();
+			return super.read(b, off, len);
+		}
+		
+		/** Throws once the deadline has passed */
+		private void checkDeadline() throws SocketTimeoutException {
+			if(System.nanoTime() - deadline >= 0) {
+				throw new SocketTimeoutException("Body not read within its deadline");
+			}
+		}
+	}
+	
+	
+	/** Validators of a page's last response that passed its checks, sent back on conditional GETs */
+	private static class Validators {
+		
+		/** ETag header, may be null */
+		private final String etag;
+		
+		/** Last-Modified header, may be null */
+		private final String lastModified;
+		
+		private Validators(String etag, String lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
 	}
 	
 	
 	/** An enumeration for the endpoints supported, and to distinguish one from the other */
 	public enum EndpointType {
 		HOST,
-		URL
+		URL,
+		SERVICE,
+		/** A host or service whose name couldn't be resolved */
+		DNS
 	}	
 	
 	
@@ -750,25 +3302,41 @@ public class HostPingAlert implements Processor {
 	public String getRouteName() {
 		return routeName;
 	}
-
+	
 	public void setRouteName(String routeName) {
 		this.routeName = routeName;
 	}
-
+	
 	
 	public String getLog4jProperties() {
 		return log4jProperties;
 	}
-
+	
 	public void setLog4jProperties(String log4jProperties) {
 		this.log4jProperties = log4jProperties;
 	}	
+	
+	public final boolean isAsyncLogging() {
+		return asyncLogging;
+	}
+	
+	public final void setAsyncLogging(boolean asyncLogging) {
+		this.asyncLogging = asyncLogging;
+	}
+	
+	public final int getStatusInterval() {
+		return statusInterval;
+	}
+	
+	public final void setStatusInterval(int statusInterval) {
+		this.statusInterval = statusInterval;
+	}
 		
 	
 	public final String getSubscribers() {
 		return subscribers;
 	}
-
+	
 	public final void setSubscribers(String subscribers) {
 		this.subscribers = subscribers;
 	}
@@ -777,16 +3345,16 @@ public class HostPingAlert implements Processor {
 	public String getFromEmail() {
 		return fromEmail;
 	}
-
+	
 	public void setFromEmail(String fromEmail) {
 		this.fromEmail = fromEmail;
 	}
-
+	
 	
 	public final String getHosts() {
 		return hosts;
 	}
-
+	
 	public final void setHosts(String hosts) {
 		this.hosts = hosts;
 	}
@@ -795,96 +3363,454 @@ public class HostPingAlert implements Processor {
 	public String getPages() {
 		return pages;
 	}
-
+	
 	public void setPages(String pages) {
 		this.pages = pages;
 	}
-
+	
+	
+	public String getServices() {
+		return services;
+	}
+	
+	public void setServices(String services) {
+		this.services = services;
+	}
+	
+	public final int getDnsCacheTtl() {
+		return dnsCacheTtl;
+	}
+	
+	public final void setDnsCacheTtl(int dnsCacheTtl) {
+		this.dnsCacheTtl = dnsCacheTtl;
+	}
+	
+	public final int getDnsNegativeTtl() {
+		return dnsNegativeTtl;
+	}
+	
+	public final void setDnsNegativeTtl(int dnsNegativeTtl) {
+		this.dnsNegativeTtl = dnsNegativeTtl;
+	}
+	
+	public final int getDnsThreads() {
+		return dnsThreads;
+	}
+	
+	public final void setDnsThreads(int dnsThreads) {
+		this.dnsThreads = dnsThreads;
+	}
+	
+	public String getStateJournal() {
+		return stateJournal;
+	}
+	
+	public void setStateJournal(String stateJournal) {
+		this.stateJournal = stateJournal;
+	}
+	
+	public final int getStateJournalSize() {
+		return stateJournalSize;
+	}
+	
+	public final void setStateJournalSize(int stateJournalSize) {
+		this.stateJournalSize = stateJournalSize;
+	}
+	
+	public String getInventoryFile() {
+		return inventoryFile;
+	}
+	
+	public void setInventoryFile(String inventoryFile) {
+		this.inventoryFile = inventoryFile;
+	}
+	
+	public String getDependencies() {
+		return dependencies;
+	}
+	
+	public void setDependencies(String dependencies) {
+		this.dependencies = dependencies;
+	}
+	
+	public final boolean isClusterEnabled() {
+		return clusterEnabled;
+	}
+	
+	public final void setClusterEnabled(boolean clusterEnabled) {
+		this.clusterEnabled = clusterEnabled;
+	}
+	
+	public ShardCoordinator getShardCoordinator() {
+		return shardCoordinator;
+	}
+	
+	public void setShardCoordinator(ShardCoordinator shardCoordinator) {
+		this.shardCoordinator = shardCoordinator;
+	}
+	
+	public ResultPublisher getResultPublisher() {
+		return resultPublisher;
+	}
+	
+	public void setResultPublisher(ResultPublisher resultPublisher) {
+		this.resultPublisher = resultPublisher;
+	}
+	
+	public final int getSweepDeadline() {
+		return sweepDeadline;
+	}
+	
+	public final void setSweepDeadline(int sweepDeadline) {
+		this.sweepDeadline = sweepDeadline;
+	}
+	
+	public final int getHistorySize() {
+		return historySize;
+	}
+	
+	public final void setHistorySize(int historySize) {
+		this.historySize = historySize;
+	}
+	
+	public final int getLatencyWindow() {
+		return latencyWindow;
+	}
+	
+	public final void setLatencyWindow(int latencyWindow) {
+		this.latencyWindow = latencyWindow;
+	}
 	
 	public String getPagePattern() {
 		return pagePattern;
 	}
-
+	
 	public void setPagePattern(String pagePattern) {
 		this.pagePattern = pagePattern;
 	}
-
+	
 	
 	public final String getEmailConsumer() {
 		return emailConsumer;
 	}
-
+	
 	public final void setEmailConsumer(String emailConsumer) {
 		this.emailConsumer = emailConsumer;
 	}
-
+	
 	
 	public final int getTimeout() {
 		return timeout;
 	}
-
+	
 	public final void setTimeout(int timeout) {
 		this.timeout = timeout;
 	}
-
+	
 	
 	public final int getMaxhops() {
 		return maxhops;
 	}
-
+	
 	public final void setMaxhops(int maxhops) {
 		this.maxhops = maxhops;
 	}
-
+	
 	
 	public final int getMinsBetweenReminders() {
 		return minsBetweenReminders;
 	}
-
+	
 	public final void setMinsBetweenReminders(int minsBetweenReminders) {
 		this.minsBetweenReminders = minsBetweenReminders;
+		this.alertPolicy = null;
 	}
-
+	
+	public final int getFailuresToAlert() {
+		return failuresToAlert;
+	}
+	
+	public final void setFailuresToAlert(int failuresToAlert) {
+		this.failuresToAlert = failuresToAlert;
+		this.alertPolicy = null;
+	}
+	
+	public final int getSuccessesToRecover() {
+		return successesToRecover;
+	}
+	
+	public final void setSuccessesToRecover(int successesToRecover) {
+		this.successesToRecover = successesToRecover;
+		this.alertPolicy = null;
+	}
+	
+	public final int getConfirmRetryDelay() {
+		return confirmRetryDelay;
+	}
+	
+	public final void setConfirmRetryDelay(int confirmRetryDelay) {
+		this.confirmRetryDelay = confirmRetryDelay;
+	}
+	
+	public final int getFlapWindow() {
+		return flapWindow;
+	}
+	
+	public final void setFlapWindow(int flapWindow) {
+		this.flapWindow = flapWindow;
+		this.alertPolicy = null;
+	}
+	
+	public final int getFlapHighPercent() {
+		return flapHighPercent;
+	}
+	
+	public final void setFlapHighPercent(int flapHighPercent) {
+		this.flapHighPercent = flapHighPercent;
+		this.alertPolicy = null;
+	}
+	
+	public final int getFlapLowPercent() {
+		return flapLowPercent;
+	}
+	
+	public final void setFlapLowPercent(int flapLowPercent) {
+		this.flapLowPercent = flapLowPercent;
+		this.alertPolicy = null;
+	}
+	
 	
 	public boolean isShowResponseInDebug() {
 		return showResponseInDebug;
 	}
-
+	
 	public void setShowResponseInDebug(boolean showResponseInDebug) {
 		this.showResponseInDebug = showResponseInDebug;
 	}
-
-
+	
+	
 	public final boolean isProxyEnabled() {
 		return proxyEnabled;
 	}
-
+	
 	public final void setProxyEnabled(boolean proxyEnabled) {
 		this.proxyEnabled = proxyEnabled;
 	}
-
-
+	
+	
 	public final String getProxyHost() {
 		return proxyHost;
 	}
-
+	
 	public final void setProxyHost(String proxyHost) {
 		this.proxyHost = proxyHost;
 	}
-
-
+	
+	
 	public final String getProxyPort() {
 		return proxyPort;
 	}
-
+	
 	public final void setProxyPort(String proxyPort) {
 		this.proxyPort = proxyPort;
 	}
-
+	
+	public final int getProbeThreads() {
+		return probeThreads;
+	}
+	
+	public final void setProbeThreads(int probeThreads) {
+		this.probeThreads = probeThreads;
+	}
+	
+	public final boolean isSchedulerEnabled() {
+		return schedulerEnabled;
+	}
+	
+	public final void setSchedulerEnabled(boolean schedulerEnabled) {
+		this.schedulerEnabled = schedulerEnabled;
+	}
+	
+	public final boolean isPipelineEnabled() {
+		return pipelineEnabled;
+	}
+	
+	public final void setPipelineEnabled(boolean pipelineEnabled) {
+		this.pipelineEnabled = pipelineEnabled;
+	}
+	
+	public final int getDefaultInterval() {
+		return defaultInterval;
+	}
+	
+	public final void setDefaultInterval(int defaultInterval) {
+		this.defaultInterval = defaultInterval;
+	}
+	
+	public final String getEndpointIntervals() {
+		return endpointIntervals;
+	}
+	
+	public final void setEndpointIntervals(String endpointIntervals) {
+		this.endpointIntervals = endpointIntervals;
+	}
+	
+	public final int getScheduleJitterPercent() {
+		return scheduleJitterPercent;
+	}
+	
+	public final void setScheduleJitterPercent(int scheduleJitterPercent) {
+		this.scheduleJitterPercent = scheduleJitterPercent;
+	}
+	
+	public final String getHttpEngine() {
+		return httpEngine;
+	}
+	
+	public final void setHttpEngine(String httpEngine) {
+		this.httpEngine = httpEngine;
+	}
+	
+	public final int getMaxInFlightPages() {
+		return maxInFlightPages;
+	}
+	
+	public final void setMaxInFlightPages(int maxInFlightPages) {
+		this.maxInFlightPages = maxInFlightPages;
+	}
+	
+	public final int getAsyncHttpThreads() {
+		return asyncHttpThreads;
+	}
+	
+	public final void setAsyncHttpThreads(int asyncHttpThreads) {
+		this.asyncHttpThreads = asyncHttpThreads;
+	}
+	
+	public final int getMaxProbesPerOrigin() {
+		return maxProbesPerOrigin;
+	}
+	
+	public final void setMaxProbesPerOrigin(int maxProbesPerOrigin) {
+		this.maxProbesPerOrigin = maxProbesPerOrigin;
+	}
+	
+	public final double getOriginProbeRate() {
+		return originProbeRate;
+	}
+	
+	public final void setOriginProbeRate(double originProbeRate) {
+		this.originProbeRate = originProbeRate;
+	}
+	
+	public final int getOriginProbeBurst() {
+		return originProbeBurst;
+	}
+	
+	public final void setOriginProbeBurst(int originProbeBurst) {
+		this.originProbeBurst = originProbeBurst;
+	}
+	
+	public String getPageChecksFile() {
+		return pageChecksFile;
+	}
+	
+	public void setPageChecksFile(String pageChecksFile) {
+		this.pageChecksFile = pageChecksFile;
+	}
+	
+	public String getPageMethod() {
+		return pageMethod;
+	}
+	
+	public void setPageMethod(String pageMethod) {
+		this.pageMethod = PageChecks.parseMethod(pageMethod);
+	}
+	
+	public boolean isConditionalGet() {
+		return conditionalGet;
+	}
+	
+	public void setConditionalGet(boolean conditionalGet) {
+		this.conditionalGet = conditionalGet;
+	}
+	
+	public boolean isAcceptGzip() {
+		return acceptGzip;
+	}
+	
+	public void setAcceptGzip(boolean acceptGzip) {
+		this.acceptGzip = acceptGzip;
+	}
+	
+	public final boolean isFingerprint() {
+		return fingerprint;
+	}
+	
+	public final void setFingerprint(boolean fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+	
+	public final int getFingerprintLearn() {
+		return fingerprintLearn;
+	}
+	
+	public final void setFingerprintLearn(int fingerprintLearn) {
+		this.fingerprintLearn = fingerprintLearn;
+	}
+	
+	public final int getFingerprintRelearn() {
+		return fingerprintRelearn;
+	}
+	
+	public final void setFingerprintRelearn(int fingerprintRelearn) {
+		this.fingerprintRelearn = fingerprintRelearn;
+	}
+	
+	public final long getMaxBodyBytes() {
+		return maxBodyBytes;
+	}
+	
+	public final void setMaxBodyBytes(long maxBodyBytes) {
+		this.maxBodyBytes = maxBodyBytes;
+	}
+	
+	public final int getMaxMatchLength() {
+		return maxMatchLength;
+	}
+	
+	public final void setMaxMatchLength(int maxMatchLength) {
+		this.maxMatchLength = maxMatchLength;
+	}
+	
+	public AlertSender getAlertSender() {
+		return alertSender;
+	}
+	
+	public void setAlertSender(AlertSender alertSender) {
+		this.alertSender = alertSender;
+	}
+	
+	public final boolean isDigestEnabled() {
+		return digestEnabled;
+	}
+	
+	public final void setDigestEnabled(boolean digestEnabled) {
+		this.digestEnabled = digestEnabled;
+	}
+	
+	public final int getDigestWindow() {
+		return digestWindow;
+	}
+	
+	public final void setDigestWindow(int digestWindow) {
+		this.digestWindow = digestWindow;
+	}
+	
 	public final EmailAlertFactory getEmailAlertFactory() {
 		return this.emailAlertFactory;
 	}
-
+	
 	public final void setEmailAlertFactory(EmailAlertFactory emailAlertFactory) {
 		this.emailAlertFactory = emailAlertFactory;
 	}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.Map;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Resolves host names in the background, caching the results.  Lookups run in parallel on a small
+ * pool of their own, since InetAddress.getByName blocks, and concurrent requests for the same host
+ * share a single lookup.
+ * 
+ * <p>The JDK doesn't expose the TTLs of the records it resolves, so cached addresses live for a 
+ * configured TTL.  Once an address is past the refresh point of its TTL it's still returned, but is 
+ * re-resolved in the background, so a host whose IP changes is picked up without a probe ever waiting 
+ * on a lookup.  If a re-resolution fails, the cached address is used until it expires.  Failed lookups 
+ * are cached for a separate, usually shorter, TTL.</p>
+ */
+public class HostResolver {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(HostResolver.class);
+	
+	/** Fraction of the TTL after which a cached address is re-resolved in the background */
+	public static final double REFRESH_FRACTION = 0.75;
+	
+	/** Cache of host names to their last lookup */
+	private final Map<String, CachedLookup> cache = new ConcurrentHashMap<String, CachedLookup>();
+	
+	/** Lookups in progress, by host name */
+	private final Map<String, CompletableFuture<InetAddress>> inFlight = 
+			new ConcurrentHashMap<String, CompletableFuture<InetAddress>>();
+	
+	/** Threads lookups are run on */
+	private final ExecutorService executor;
+	
+	/** Time (in ms) a resolved address is cached */
+	private final long ttl;
+	
+	/** Time (in ms) a failed lookup is cached */
+	private final long negativeTtl;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ttl Time (in ms) a resolved address is cached
+	 * @param negativeTtl Time (in ms) a failed lookup is cached
+	 * @param threads Number of lookups run in parallel
+	 */
+	public HostResolver(long ttl, long negativeTtl, int threads) {
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ProbeThreadFactory("host-ping-dns"));
+	}
+	
+	
+	/**
+	 * Resolves the host, from the cache if it's there and hasn't expired
+	 * 
+	 * @param host The host name or IP
+	 * @return A future completed with the address, or exceptionally with an UnknownHostException
+	 */
+	public CompletableFuture<InetAddress> resolve(String host) {
+		long now = System.currentTimeMillis();
+		
+		CachedLookup cached = cache.get(host);
+		if(cached != null && now < cached.expires) {
+			if(cached.address != null && now >= cached.refreshAt) {
+				lookup(host);
+			}
+			return cached.toFuture();
+		}
+		
+		return lookup(host);
+	}
+	
+	
+	/**
+	 * Starts a lookup for the host, unless one is already in progress
+	 * 
+	 * @param host The host name or IP
+	 * @return The lookup
+	 */
+	private CompletableFuture<InetAddress> lookup(final String host) {
+		final CompletableFuture<InetAddress> future = new CompletableFuture<InetAddress>();
+		
+		CompletableFuture<InetAddress> existing = inFlight.putIfAbsent(host, future);
+		if(existing != null) {
+			return existing;
+		}
+		
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					InetAddress address = null;
+					UnknownHostException failure = null;
+					
+					try {
+						address = lookupAddress(host);
+					} catch(UnknownHostException uhe) {
+						failure = uhe;
+					} catch(RuntimeException re) {
+						failure = new UnknownHostException(host + ": " + re.getMessage());
+					}
+					
+					inFlight.remove(host, future);
+					
+					if(failure == null) {
+						cacheAddress(host, address);
+						future.complete(address);
+					} else {
+						InetAddress cached = cacheFailure(host, failure);
+						if(cached != null) {
+							future.complete(cached);
+						} else {
+							future.completeExceptionally(failure);
+						}
+					}
+				}
+			});
+		} catch(RejectedExecutionException ree) {
+			inFlight.remove(host, future);
+			future.completeExceptionally(new UnknownHostException(host + ": resolver has been shut down"));
+		}
+		
+		return future;
+	}
+	
+	
+	/**
+	 * Caches a resolved address
+	 * 
+	 * @param host The host name
+	 * @param address The address it resolved to
+	 */
+	private void cacheAddress(String host, InetAddress address) {
+		long now = System.currentTimeMillis();
+		
+		CachedLookup previous = cache.put(host, new CachedLookup(address, null, now + (long)(ttl * REFRESH_FRACTION), 
+				now + ttl));
+		
+		if(previous != null && previous.address != null && !previous.address.equals(address)) {
+			log.info("Address of host " + host + " changed from " + previous.address.getHostAddress() + " to " + 
+					address.getHostAddress());
+		}
+	}
+	
+	
+	/**
+	 * Caches a failed lookup, unless there's a cached address that hasn't expired yet
+	 * 
+	 * @param host The host name
+	 * @param failure Why the lookup failed
+	 * @return The cached address if it's still valid, otherwise null
+	 */
+	private InetAddress cacheFailure(String host, UnknownHostException failure) {
+		long now = System.currentTimeMillis();
+		
+		CachedLookup cached = cache.get(host);
+		if(cached != null && cached.address != null && now < cached.expires) {
+			log.warn("Couldn't re-resolve host " + host + ", using cached address " + 
+					cached.address.getHostAddress() + " until it expires: " + failure.getMessage());
+			return cached.address;
+		}
+		
+		cache.put(host, new CachedLookup(null, failure, now + negativeTtl, now + negativeTtl));
+		return null;
+	}
+	
+	
+	/**
+	 * Looks up the address of a host, blocking until it's resolved
+	 * 
+	 * @param host The host name or IP
+	 * @return The address
+	 * @throws UnknownHostException If the host couldn't be resolved
+	 */
+	protected InetAddress lookupAddress(String host) throws UnknownHostException {
+		return InetAddress.getByName(host);
+	}
+	
+	
+	/**
+	 * Stops the lookup threads
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	
+	/**
+	 * A cached lookup, either an address or the reason it failed
+	 */
+	private static class CachedLookup {
+		
+		/** The resolved address, null if the lookup failed */
+		private final InetAddress address;
+		
+		/** Why the lookup failed, null if it succeeded */
+		private final UnknownHostException failure;
+		
+		/** Time (in ms since the epoch) after which the address is re-resolved in the background */
+		private final long refreshAt;
+		
+		/** Time (in ms since the epoch) the lookup expires */
+		private final long expires;
+		
+		private CachedLookup(InetAddress address, UnknownHostException failure, long refreshAt, long expires) {
+			this.address = address;
+			this.failure = failure;
+			this.refreshAt = refreshAt;
+			this.expires = expires;
+		}
+		
+		private CompletableFuture<InetAddress> toFuture() {
+			if(address != null) {
+				return CompletableFuture.completedFuture(address);
+			}
+			
+			CompletableFuture<InetAddress> future = new CompletableFuture<InetAddress>();
+			future.completeExceptionally(failure);
+			return future;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import java.util.Properties;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches the file the endpoints being monitored are listed in, so they can be reloaded without a
+ * restart.  A WatchService on the file's directory flags each change, and the monitor picks it up
+ * at the start of its next cycle with {@link #takeChange()}, so endpoints are never added or removed
+ * in the middle of a sweep.
+ *
+ * <p>The file is a properties file, with the same hosts, pages and services keys as
+ * host-ping-alert.properties, so it may be host-ping-alert.properties itself.</p>
+ */
+public class InventoryWatcher {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(InventoryWatcher.class);
+	
+	/** The file being watched */
+	private final Path file;
+	
+	/** Service watching the file's directory */
+	private final WatchService watchService;
+	
+	/** Set when the file changes, cleared when the change is taken */
+	private final AtomicBoolean changed = new AtomicBoolean();
+	
+	/** Thread waiting on the watchService */
+	private final Thread watcher;
+	
+	
+	/**
+	 * Constructor, starts watching the file
+	 * 
+	 * @param filename The file to watch
+	 * @throws IOException If the file's directory can't be watched
+	 */
+	public InventoryWatcher(String filename) throws IOException {
+		file = Paths.get(filename).toAbsolutePath().normalize();
+		
+		watchService = FileSystems.getDefault().newWatchService();
+		file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, 
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		
+		watcher = new ProbeThreadFactory("host-ping-inventory").newThread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		});
+		watcher.start();
+		
+		log.info("Watching " + file + " for endpoint changes");
+	}
+	
+	
+	/**
+	 * Waits for changes to the file, until the watcher is closed
+	 */
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey key = watchService.take();
+				
+				for(WatchEvent<?> event : key.pollEvents()) {
+					// Editors often replace the file rather than writing it in place, so creates count too
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+						if(!changed.getAndSet(true)) {
+							log.debug(file + " changed, reloading endpoints at the start of the next cycle");
+						}
+					}
+				}
+				
+				if(!key.reset()) {
+					log.warn("No longer able to watch " + file.getParent() + ", endpoints won't be reloaded");
+					return;
+				}
+			}
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch(ClosedWatchServiceException cwse) {
+			// Closed
+		}
+	}
+	
+	
+	/**
+	 * @return Whether the file has changed since this was last called, clearing the change
+	 */
+	public boolean takeChange() {
+		return changed.getAndSet(false);
+	}
+	
+	
+	/**
+	 * Reads the file
+	 * 
+	 * @return The file's properties
+	 * @throws IOException If it can't be read
+	 */
+	public Properties load() throws IOException {
+		Properties properties = new Properties();
+		
+		InputStream in = Files.newInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		
+		return properties;
+	}
+	
+	
+	/**
+	 * @return The file being watched
+	 */
+	public Path getFile() {
+		return file;
+	}
+	
+	
+	/**
+	 * Stops watching the file
+	 */
+	public void close() {
+		try {
+			watchService.close();
+		} catch(IOException ioe) {
+			log.debug("Error closing watch service: " + ioe.getMessage());
+		}
+		watcher.interrupt();
+	}
+}
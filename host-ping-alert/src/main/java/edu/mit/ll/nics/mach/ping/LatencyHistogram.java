@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram of latencies over a rolling window.  Latencies are counted in logarithmic
+ * buckets, 8 per power of two microseconds, so percentiles are accurate to within 12.5% across 
+ * everything from microseconds to minutes.
+ * 
+ * <p>The window is split into slots, and each slot counts the latencies recorded during its share of
+ * the window.  A slot is cleared and reused once it falls out of the window, so the window rolls
+ * forward a slot at a time.  Recording only increments counters in place, so it doesn't allocate
+ * or lock.  A latency recorded by one thread while another is clearing the same slot may be lost,
+ * which is fine for monitoring.</p>
+ */
+public class LatencyHistogram {
+
+	/** Latencies below this many microseconds get a bucket each */
+	private static final int LINEAR_BUCKETS = 16;
+	
+	/** log2 of the number of buckets per power of two above the linear buckets */
+	private static final int SUB_BUCKET_BITS = 3;
+	
+	/** Largest power of two microseconds counted, larger latencies are counted in the last bucket */
+	private static final int MAX_EXPONENT = 30;
+	
+	/** Number of buckets */
+	static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * (1 << SUB_BUCKET_BITS);
+	
+	/** Number of slots the window is split into */
+	private final int slots;
+	
+	/** Time (in ms) covered by each slot */
+	private final long slotMillis;
+	
+	/** Counts, BUCKETS per slot */
+	private final AtomicIntegerArray counts;
+	
+	/** Largest latency (in us) recorded in each slot */
+	private final AtomicLongArray maxes;
+	
+	/** Index of the period each slot is counting, as time / slotMillis */
+	private final AtomicLongArray periods;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param windowMillis Time (in ms) covered by the window
+	 * @param slots Number of slots the window is split into
+	 */
+	public LatencyHistogram(long windowMillis, int slots) {
+		this.slots = Math.max(1, slots);
+		this.slotMillis = Math.max(1, windowMillis / this.slots);
+		this.counts = new AtomicIntegerArray(this.slots * BUCKETS);
+		this.maxes = new AtomicLongArray(this.slots);
+		this.periods = new AtomicLongArray(this.slots);
+		
+		for(int i = 0; i < this.slots; i++) {
+			periods.set(i, -1);
+		}
+	}
+	
+	
+	/**
+	 * Records a latency
+	 * 
+	 * @param nanos The latency (in ns)
+	 * @param nowMillis The current time (in ms since the epoch)
+	 */
+	public void record(long nanos, long nowMillis) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		
+		long period = nowMillis / slotMillis;
+		int slot = (int)(period % slots);
+		
+		long held = periods.get(slot);
+		if(held < period && periods.compareAndSet(slot, held, period)) {
+			// This slot last counted a period that has fallen out of the window
+			int base = slot * BUCKETS;
+			for(int i = 0; i < BUCKETS; i++) {
+				counts.set(base + i, 0);
+			}
+			maxes.set(slot, 0);
+		}
+		
+		counts.incrementAndGet(slot * BUCKETS + bucket(micros));
+		
+		long max;
+		while((max = maxes.get(slot)) < micros && !maxes.compareAndSet(slot, max, micros)) {
+			// retry
+		}
+	}
+	
+	
+	/**
+	 * Takes a snapshot of the latencies recorded within the window
+	 * 
+	 * @param nowMillis The current time (in ms since the epoch)
+	 * @return The snapshot
+	 */
+	public LatencySnapshot snapshot(long nowMillis) {
+		long period = nowMillis / slotMillis;
+		
+		long[] merged = new long[BUCKETS];
+		long total = 0;
+		long max = 0;
+		
+		for(int slot = 0; slot < slots; slot++) {
+			long held = periods.get(slot);
+			if(held < 0 || held <= period - slots || held > period) {
+				continue;
+			}
+			
+			int base = slot * BUCKETS;
+			for(int i = 0; i < BUCKETS; i++) {
+				int count = counts.get(base + i);
+				merged[i] += count;
+				total += count;
+			}
+			max = Math.max(max, maxes.get(slot));
+		}
+		
+		return new LatencySnapshot(total, millis(percentile(merged, total, 0.50, max)), 
+				millis(percentile(merged, total, 0.95, max)), millis(percentile(merged, total, 0.99, max)), 
+				millis(max));
+	}
+	
+	
+	/**
+	 * Gets the bucket a latency is counted in
+	 * 
+	 * @param micros The latency (in us)
+	 * @return The bucket index
+	 */
+	static int bucket(long micros) {
+		if(micros < LINEAR_BUCKETS) {
+			return (int)micros;
+		}
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		
+		int sub = (int)(micros >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+		return LINEAR_BUCKETS + (exponent - 4) * (1 << SUB_BUCKET_BITS) + sub;
+	}
+	
+	
+	/**
+	 * Gets the largest latency counted in a bucket
+	 * 
+	 * @param bucket The bucket index
+	 * @return The latency (in us)
+	 */
+	static long upperBound(int bucket) {
+		if(bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		
+		int exponent = (bucket - LINEAR_BUCKETS) / (1 << SUB_BUCKET_BITS) + 4;
+		int sub = (bucket - LINEAR_BUCKETS) % (1 << SUB_BUCKET_BITS);
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		
+		return ((1 << SUB_BUCKET_BITS) + sub) * width + width - 1;
+	}
+	
+	
+	/**
+	 * Gets a percentile from merged counts
+	 * 
+	 * @param counts The merged counts
+	 * @param total The total of the counts
+	 * @param fraction The percentile, as a fraction
+	 * @param max The largest latency recorded, the percentile never exceeds it
+	 * @return The percentile (in us), 0 if nothing was recorded
+	 */
+	private static long percentile(long[] counts, long total, double fraction, long max) {
+		if(total == 0) {
+			return 0;
+		}
+		
+		long rank = (long)Math.ceil(fraction * total);
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		
+		return max;
+	}
+	
+	
+	/**
+	 * @param micros Time (in us)
+	 * @return Time (in ms)
+	 */
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Latencies of every endpoint's probes.  Each endpoint's latencies are registered with the
+ * platform MBean server the first time one is recorded, as
+ * <code>edu.mit.ll.nics.mach.ping:type=EndpointLatency,endpoint="..."</code>
+ */
+public class LatencyMetrics {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(LatencyMetrics.class);
+	
+	/** Domain of the MBeans */
+	public static final String DOMAIN = "edu.mit.ll.nics.mach.ping";
+	
+	/** Latencies, by endpoint */
+	private final Map<String, EndpointLatency> endpoints = new ConcurrentHashMap<String, EndpointLatency>();
+	
+	/** Time (in ms) covered by the histograms */
+	private final long windowMillis;
+	
+	/** Server the MBeans are registered with, null to not register them */
+	private final MBeanServer server;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param windowMillis Time (in ms) covered by the histograms
+	 * @param registerMBeans Whether to register the endpoints' latencies with the platform MBean server
+	 */
+	public LatencyMetrics(long windowMillis, boolean registerMBeans) {
+		this.windowMillis = windowMillis;
+		this.server = registerMBeans ? ManagementFactory.getPlatformMBeanServer() : null;
+	}
+	
+	
+	/**
+	 * Records the time a phase of an endpoint's probe took
+	 * 
+	 * @param endpoint The endpoint
+	 * @param phase The phase
+	 * @param nanos Time (in ns) it took
+	 */
+	public void record(String endpoint, EndpointLatency.Phase phase, long nanos) {
+		get(endpoint).record(phase, nanos);
+	}
+	
+	
+	/**
+	 * Gets the latencies of an endpoint, creating and registering them the first time
+	 * 
+	 * @param endpoint The endpoint
+	 * @return The endpoint's latencies
+	 */
+	public EndpointLatency get(String endpoint) {
+		EndpointLatency latency = endpoints.get(endpoint);
+		if(latency != null) {
+			return latency;
+		}
+		
+		EndpointLatency created = new EndpointLatency(endpoint, windowMillis);
+		latency = endpoints.putIfAbsent(endpoint, created);
+		if(latency != null) {
+			return latency;
+		}
+		
+		if(server != null) {
+			try {
+				server.registerMBean(created, objectName(endpoint));
+			} catch(JMException e) {
+				log.warn("Couldn't register latency MBean for endpoint " + endpoint + ": " + e.getMessage());
+			}
+		}
+		
+		return created;
+	}
+	
+	
+	/**
+	 * Forgets an endpoint's latencies, once it's no longer monitored, and unregisters its MBean
+	 * 
+	 * @param endpoint The endpoint
+	 */
+	public void remove(String endpoint) {
+		if(endpoints.remove(endpoint) != null) {
+			unregister(endpoint);
+		}
+	}
+	
+	
+	/**
+	 * Unregisters every endpoint's MBean
+	 */
+	public void unregister() {
+		for(String endpoint : endpoints.keySet()) {
+			unregister(endpoint);
+		}
+	}
+	
+	
+	/**
+	 * Unregisters an endpoint's MBean
+	 * 
+	 * @param endpoint The endpoint
+	 */
+	private void unregister(String endpoint) {
+		if(server == null) {
+			return;
+		}
+		
+		try {
+			ObjectName name = objectName(endpoint);
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch(JMException e) {
+			log.debug("Couldn't unregister latency MBean for endpoint " + endpoint + ": " + e.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return The name the endpoint's latencies are registered as
+	 * @throws JMException If the name is invalid
+	 */
+	public static ObjectName objectName(String endpoint) throws JMException {
+		return new ObjectName(DOMAIN + ":type=EndpointLatency,endpoint=" + ObjectName.quote(endpoint));
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Percentiles of the latencies recorded in a LatencyHistogram's window.  Exposed over JMX as
+ * composite data.
+ */
+public class LatencySnapshot {
+
+	/** Number of latencies recorded */
+	private final long count;
+	
+	/** Median latency (in ms) */
+	private final double p50;
+	
+	/** 95th percentile latency (in ms) */
+	private final double p95;
+	
+	/** 99th percentile latency (in ms) */
+	private final double p99;
+	
+	/** Largest latency (in ms) */
+	private final double max;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param count Number of latencies recorded
+	 * @param p50 Median latency (in ms)
+	 * @param p95 95th percentile latency (in ms)
+	 * @param p99 99th percentile latency (in ms)
+	 * @param max Largest latency (in ms)
+	 */
+	public LatencySnapshot(long count, double p50, double p95, double p99, double max) {
+		this.count = count;
+		this.p50 = p50;
+		this.p95 = p95;
+		this.p99 = p99;
+		this.max = max;
+	}
+	
+	
+	/**
+	 * Rebuilds a snapshot from its JMX composite data
+	 * 
+	 * @param data The composite data
+	 * @return The snapshot
+	 */
+	public static LatencySnapshot from(CompositeData data) {
+		return new LatencySnapshot((Long)data.get("count"), (Double)data.get("p50"), (Double)data.get("p95"), 
+				(Double)data.get("p99"), (Double)data.get("max"));
+	}
+	
+	
+	public long getCount() {
+		return count;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP95() {
+		return p95;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getMax() {
+		return max;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "count=" + count + ", p50=" + p50 + "ms, p95=" + p95 + "ms, p99=" + p99 + "ms, max=" + max + "ms";
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps probes from piling onto one server.  Each origin may have up to maxInFlight probes running
+ * at once, and its probes are spread out by a token bucket, refilled at rate tokens a second up to
+ * burst tokens.  A probe takes a token when it starts.
+ * 
+ * <p>Probes wait for their turn without holding a thread.  acquire returns a future completed once 
+ * the origin has a free slot and a token, and the probe gives its slot back with release when it's 
+ * done.  Waiting probes start in the order they asked, and other origins' probes never wait behind 
+ * them, so the sweep as a whole runs as fast as it did unthrottled unless most of it is on one origin.</p>
+ * 
+ * <p>Futures are completed on the thread releasing a slot, or the throttle's timer thread once a 
+ * token is due, so callers should move anything slow onto their own executor.</p>
+ */
+public class OriginThrottle {
+
+	/** Maximum number of probes running at once per origin, 0 for no limit */
+	private final int maxInFlight;
+	
+	/** Tokens added a second, 0 for no limit */
+	private final double rate;
+	
+	/** Most tokens an origin can build up */
+	private final double burst;
+	
+	/** Wakes origins waiting for a token, null without a rate */
+	private final ScheduledExecutorService timer;
+	
+	/** Map of origins to their state */
+	private final Map<String, Origin> origins = new ConcurrentHashMap<String, Origin>();
+	
+	/** Cleared once shut down */
+	private volatile boolean running = true;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxInFlight Maximum number of probes running at once per origin, 0 for no limit
+	 * @param rate Probes started a second per origin, on average, 0 for no limit
+	 * @param burst Number of probes an origin may start at once, after being idle
+	 */
+	public OriginThrottle(int maxInFlight, double rate, int burst) {
+		this.maxInFlight = Math.max(0, maxInFlight);
+		this.rate = Math.max(0, rate);
+		this.burst = Math.max(1, burst);
+		this.timer = (this.rate > 0) ? 
+				Executors.newSingleThreadScheduledExecutor(new ProbeThreadFactory("host-ping-throttle")) : null;
+	}
+	
+	
+	/**
+	 * Asks to start a probe of the origin
+	 * 
+	 * @param origin The origin
+	 * @return A future completed once the probe may start, which must then release its slot when 
+	 * 		   it's done.  Completed exceptionally with an IllegalStateException if shut down first.
+	 */
+	public CompletableFuture<Void> acquire(String origin) {
+		CompletableFuture<Void> turn = new CompletableFuture<Void>();
+		if(!running) {
+			turn.completeExceptionally(new IllegalStateException("Origin throttle has been shut down"));
+			return turn;
+		}
+		
+		Origin state = origins.get(origin);
+		if(state == null) {
+			Origin added = new Origin(burst);
+			state = origins.putIfAbsent(origin, added);
+			if(state == null) {
+				state = added;
+			}
+		}
+		
+		synchronized(state) {
+			state.waiting.add(turn);
+		}
+		
+		dispatch(origin, state);
+		return turn;
+	}
+	
+	
+	/**
+	 * Gives back the slot of a probe that's done, letting the next one waiting start
+	 * 
+	 * @param origin The origin the probe was of
+	 */
+	public void release(String origin) {
+		Origin state = origins.get(origin);
+		if(state == null) {
+			return;
+		}
+		
+		synchronized(state) {
+			state.inFlight = Math.max(0, state.inFlight - 1);
+		}
+		
+		dispatch(origin, state);
+	}
+	
+	
+	/**
+	 * @return Number of probes waiting for their turn, across every origin
+	 */
+	public int getWaiting() {
+		int waiting = 0;
+		for(Origin state : origins.values()) {
+			synchronized(state) {
+				waiting += state.waiting.size();
+			}
+		}
+		return waiting;
+	}
+	
+	
+	/**
+	 * Stops the timer, and cancels every probe still waiting
+	 */
+	public void shutdown() {
+		running = false;
+		
+		if(timer != null) {
+			timer.shutdownNow();
+		}
+		
+		for(Origin state : origins.values()) {
+			List<CompletableFuture<Void>> cancelled;
+			synchronized(state) {
+				cancelled = new ArrayList<CompletableFuture<Void>>(state.waiting);
+				state.waiting.clear();
+			}
+			
+			for(CompletableFuture<Void> turn : cancelled) {
+				turn.completeExceptionally(new IllegalStateException("Origin throttle has been shut down"));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Starts as many of the origin's waiting probes as its slots and tokens allow, and if any are
+	 * left waiting on a token, wakes the origin again once it's due
+	 * 
+	 * @param origin The origin
+	 * @param state Its state
+	 */
+	private void dispatch(final String origin, final Origin state) {
+		List<CompletableFuture<Void>> started = null;
+		
+		synchronized(state) {
+			refill(state, System.nanoTime());
+			
+			while(!state.waiting.isEmpty() && (maxInFlight == 0 || state.inFlight < maxInFlight)) {
+				if(rate > 0 && state.tokens < 1) {
+					scheduleWakeup(origin, state);
+					break;
+				}
+				
+				CompletableFuture<Void> turn = state.waiting.poll();
+				if(turn.isDone()) {
+					// Cancelled while waiting
+					continue;
+				}
+				
+				state.inFlight++;
+				if(rate > 0) {
+					state.tokens--;
+				}
+				
+				if(started == null) {
+					started = new ArrayList<CompletableFuture<Void>>();
+				}
+				started.add(turn);
+			}
+		}
+		
+		if(started == null) {
+			return;
+		}
+		
+		// Completed outside the lock, since the probes may start on this thread
+		for(CompletableFuture<Void> turn : started) {
+			if(!turn.complete(null)) {
+				// Cancelled after it was taken off the queue
+				release(origin);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Adds the tokens earned since the origin was last refilled
+	 * 
+	 * @param state The origin's state
+	 * @param now The current System.nanoTime()
+	 */
+	private void refill(Origin state, long now) {
+		if(rate == 0) {
+			return;
+		}
+		
+		double earned = (now - state.refilledNanos) * rate / TimeUnit.SECONDS.toNanos(1);
+		state.tokens = Math.min(burst, state.tokens + earned);
+		state.refilledNanos = now;
+	}
+	
+	
+	/**
+	 * Wakes the origin once its next token is due, unless a wakeup is already scheduled.  
+	 * Called holding the origin's lock.
+	 * 
+	 * @param origin The origin
+	 * @param state Its state
+	 */
+	private void scheduleWakeup(final String origin, final Origin state) {
+		if(state.wakeupScheduled || !running) {
+			return;
+		}
+		
+		long wait = (long)Math.ceil((1 - state.tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+		
+		try {
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized(state) {
+						state.wakeupScheduled = false;
+					}
+					dispatch(origin, state);
+				}
+			}, Math.max(1, wait), TimeUnit.NANOSECONDS);
+			state.wakeupScheduled = true;
+		} catch(RejectedExecutionException ree) {
+			// Shutting down
+		}
+	}
+	
+	
+	/** An origin's slots, tokens and waiting probes */
+	private static final class Origin {
+		
+		/** Probes waiting for their turn, in the order they asked */
+		private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<CompletableFuture<Void>>();
+		
+		/** Number of probes running */
+		private int inFlight;
+		
+		/** Tokens available */
+		private double tokens;
+		
+		/** System.nanoTime() the tokens were last refilled */
+		private long refilledNanos = System.nanoTime();
+		
+		/** Whether the timer will wake the origin for its next token */
+		private boolean wakeupScheduled;
+		
+		
+		private Origin(double tokens) {
+			this.tokens = tokens;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.regex.Pattern;
+
+/**
+ * Settings for checking an individual page, as given by its section in the pageChecksFile
+ */
+public class PageCheck {
+
+	/** The page's URL */
+	private final String url;
+	
+	/** Strings the page must contain */
+	private final List<String> required = new ArrayList<String>();
+	
+	/** Strings the page must not contain */
+	private final List<String> forbidden = new ArrayList<String>();
+	
+	/** Patterns the page must contain */
+	private final List<Pattern> requiredPatterns = new ArrayList<Pattern>();
+	
+	/** Patterns the page must not contain */
+	private final List<Pattern> forbiddenPatterns = new ArrayList<Pattern>();
+	
+	/** Compiled assertions, built on first use */
+	private ContentAssertions assertions;
+	
+	/** Request method, GET or HEAD, or null for the pageMethod default */
+	private String method;
+	
+	/** Whether or not to make conditional requests, or null for the conditionalGet default */
+	private Boolean conditional;
+	
+	/** Whether or not to accept gzip encoded responses, or null for the acceptGzip default */
+	private Boolean gzip;
+	
+	/** Whether or not to fingerprint the page, or null for the fingerprint default */
+	private Boolean fingerprint;
+	
+	/** Patterns of regions left out of the page's fingerprint */
+	private final List<Pattern> fingerprintExcludes = new ArrayList<Pattern>();
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param url The page's URL
+	 */
+	public PageCheck(String url) {
+		this.url = url;
+	}
+	
+	
+	public String getUrl() {
+		return url;
+	}
+	
+	public void addRequired(String text) {
+		required.add(text);
+		assertions = null;
+	}
+	
+	public void addForbidden(String text) {
+		forbidden.add(text);
+		assertions = null;
+	}
+	
+	public void addRequiredPattern(Pattern pattern) {
+		requiredPatterns.add(pattern);
+		assertions = null;
+	}
+	
+	public void addForbiddenPattern(Pattern pattern) {
+		forbiddenPatterns.add(pattern);
+		assertions = null;
+	}
+	
+	/**
+	 * @return true if the section gave any assertions about the page's content
+	 */
+	public boolean hasAssertions() {
+		return !required.isEmpty() || !forbidden.isEmpty() || !requiredPatterns.isEmpty() || 
+				!forbiddenPatterns.isEmpty();
+	}
+	
+	public String getMethod() {
+		return method;
+	}
+	
+	public void setMethod(String method) {
+		this.method = method;
+	}
+	
+	public Boolean getConditional() {
+		return conditional;
+	}
+	
+	public void setConditional(Boolean conditional) {
+		this.conditional = conditional;
+	}
+	
+	public Boolean getGzip() {
+		return gzip;
+	}
+	
+	public void setGzip(Boolean gzip) {
+		this.gzip = gzip;
+	}
+	
+	public Boolean getFingerprint() {
+		return fingerprint;
+	}
+	
+	public void setFingerprint(Boolean fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+	
+	public List<Pattern> getFingerprintExcludes() {
+		return fingerprintExcludes;
+	}
+	
+	public void addFingerprintExclude(Pattern pattern) {
+		fingerprintExcludes.add(pattern);
+	}
+	
+	/**
+	 * @return The page's content assertions, compiled into a single automaton for the literals
+	 */
+	public synchronized ContentAssertions getAssertions() {
+		if(assertions == null) {
+			assertions = new ContentAssertions(required, forbidden, requiredPatterns, forbiddenPatterns);
+		}
+		return assertions;
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads the pageChecksFile, which gives settings for individual pages in sections headed by
+ * the page's URL, as listed in the 'pages' property:
+ * 
+ * <pre>
+ * # Comment
+ * [http://nics.example.com/sadisplay/login.seam]
+ * require = Welcome to NICS
+ * forbid = Exception
+ * require-regex = Version \d+\.\d+
+ * forbid-regex = (?i)internal server error
+ * conditional = true
+ * gzip = true
+ * fingerprint = true
+ * fingerprint-exclude = \d{2}:\d{2}:\d{2}
+ * 
+ * [http://nics.example.com/ping]
+ * method = HEAD
+ * </pre>
+ * 
+ * <p>The content directives may be repeated.  require/forbid take literal strings, which are checked all
+ * at once, require-regex/forbid-regex take Java regexes.  method, conditional, gzip and fingerprint 
+ * override the pageMethod, conditionalGet, acceptGzip and fingerprint properties for the page.  
+ * fingerprint-exclude, which may be repeated, takes a Java regex of text left out of the page's 
+ * fingerprint.</p>
+ */
+public class PageChecks {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(PageChecks.class);
+	
+	
+	/**
+	 * Loads page checks from a file
+	 * 
+	 * @param filename The file to read
+	 * @return Map of URLs to their checks
+	 * @throws IOException If the file couldn't be read
+	 */
+	public static Map<String, PageCheck> load(String filename) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8);
+		try {
+			return parse(reader, filename);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	
+	/**
+	 * Parses page checks
+	 * 
+	 * @param reader Source of the checks
+	 * @param source Name of the source, for log messages
+	 * @return Map of URLs to their checks
+	 * @throws IOException If the checks couldn't be read
+	 */
+	public static Map<String, PageCheck> parse(Reader reader, String source) throws IOException {
+		Map<String, PageCheck> checks = new LinkedHashMap<String, PageCheck>();
+		BufferedReader in = new BufferedReader(reader);
+		
+		PageCheck current = null;
+		String line;
+		int lineNumber = 0;
+		
+		while((line = in.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			
+			if(line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			
+			if(line.startsWith("[") && line.endsWith("]")) {
+				String url = line.substring(1, line.length() - 1).trim();
+				current = checks.get(url);
+				if(current == null) {
+					current = new PageCheck(url);
+					checks.put(url, current);
+				}
+				continue;
+			}
+			
+			int split = line.indexOf('=');
+			if(split <= 0 || current == null) {
+				log.warn(source + ":" + lineNumber + ": expected [url] or directive = value, ignoring: " + line);
+				continue;
+			}
+			
+			String directive = line.substring(0, split).trim().toLowerCase();
+			String value = line.substring(split + 1).trim();
+			
+			if(value.isEmpty()) {
+				log.warn(source + ":" + lineNumber + ": empty value for " + directive + ", ignoring");
+				continue;
+			}
+			
+			try {
+				if(!apply(current, directive, value)) {
+					log.warn(source + ":" + lineNumber + ": unknown directive '" + directive + "', ignoring");
+				}
+			} catch(IllegalArgumentException iae) {
+				log.warn(source + ":" + lineNumber + ": invalid value for " + directive + ", ignoring: " + 
+						iae.getMessage());
+			}
+		}
+		
+		return checks;
+	}
+	
+	
+	/**
+	 * Applies a directive to a page's checks
+	 * 
+	 * @param check The page's checks
+	 * @param directive The directive name, lower case
+	 * @param value The directive's value
+	 * @return false if the directive isn't known
+	 */
+	private static boolean apply(PageCheck check, String directive, String value) {
+		if("require".equals(directive)) {
+			check.addRequired(value);
+		} else if("forbid".equals(directive)) {
+			check.addForbidden(value);
+		} else if("require-regex".equals(directive)) {
+			check.addRequiredPattern(Pattern.compile(value));
+		} else if("forbid-regex".equals(directive)) {
+			check.addForbiddenPattern(Pattern.compile(value));
+		} else if("method".equals(directive)) {
+			check.setMethod(parseMethod(value));
+		} else if("conditional".equals(directive)) {
+			check.setConditional(parseBoolean(value));
+		} else if("gzip".equals(directive)) {
+			check.setGzip(parseBoolean(value));
+		} else if("fingerprint".equals(directive)) {
+			check.setFingerprint(parseBoolean(value));
+		} else if("fingerprint-exclude".equals(directive)) {
+			check.addFingerprintExclude(Pattern.compile(value));
+		} else {
+			return false;
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Parses a request method
+	 * 
+	 * @param value The method
+	 * @return The method, upper case
+	 * @throws IllegalArgumentException If the method isn't GET or HEAD
+	 */
+	public static String parseMethod(String value) {
+		String method = value.trim().toUpperCase();
+		if(!"GET".equals(method) && !"HEAD".equals(method)) {
+			throw new IllegalArgumentException("method must be GET or HEAD: " + value);
+		}
+		return method;
+	}
+	
+	
+	/**
+	 * Parses a true/false value, strictly, so a typo isn't silently taken as false
+	 * 
+	 * @param value The value
+	 * @return The value as a boolean
+	 * @throws IllegalArgumentException If the value isn't true or false
+	 */
+	private static Boolean parseBoolean(String value) {
+		if("true".equalsIgnoreCase(value)) {
+			return Boolean.TRUE;
+		} else if("false".equalsIgnoreCase(value)) {
+			return Boolean.FALSE;
+		}
+		throw new IllegalArgumentException("expected true or false: " + value);
+	}
+}
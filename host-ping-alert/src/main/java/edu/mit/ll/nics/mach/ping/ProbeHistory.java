@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed size history of an endpoint's probes, oldest overwritten first.  Each probe is packed into
+ * a single long, so the history is one primitive array allocated up front, taking 8 bytes per
+ * probe no matter what's recorded.  A week of probes at one minute intervals is 10080 probes,
+ * about 80KB per endpoint.
+ *
+ * <p>Each probe keeps the time it finished (in seconds since the epoch, in the top 32 bits), its
+ * outcome (4 bits) and latency (in us, 28 bits, so latencies over ~268s are clamped).  Queries scan
+ * back from the newest probe, so they only touch the probes in the range asked for.</p>
+ */
+public class ProbeHistory {
+
+	/** Outcomes of a probe, stored by their code */
+	public enum Outcome {
+		/** Responded */
+		UP(0),
+		/** Failed to respond, or responded with an error */
+		DOWN(1),
+		/** Its host couldn't be resolved */
+		UNRESOLVED(2);
+		
+		private final int code;
+		
+		private Outcome(int code) {
+			this.code = code;
+		}
+		
+		public int getCode() {
+			return code;
+		}
+		
+		/** Outcomes, by code */
+		private static final Outcome[] BY_CODE = values();
+		
+		static Outcome forCode(int code) {
+			return (code < BY_CODE.length) ? BY_CODE[code] : DOWN;
+		}
+	}
+	
+	/** Bits given to the latency */
+	private static final int LATENCY_BITS = 28;
+	
+	/** Largest latency (in us) that can be stored */
+	static final long MAX_LATENCY_MICROS = (1L << LATENCY_BITS) - 1;
+	
+	/** Mask of the outcome and latency, below the time */
+	private static final long LOW_MASK = 0xFFFFFFFFL;
+	
+	/** The probes, packed, in a ring */
+	private final long[] probes;
+	
+	/** Index the next probe is written to */
+	private int next;
+	
+	/** Number of probes held, up to the capacity */
+	private int size;
+	
+	
+	/**
+	 * Constructor
+	 *
+	 * @param capacity Number of probes held before the oldest are overwritten
+	 */
+	public ProbeHistory(int capacity) {
+		this.probes = new long[Math.max(1, capacity)];
+	}
+	
+	
+	/**
+	 * Records a probe
+	 *
+	 * @param nowMillis Time (in ms since the epoch) the probe finished
+	 * @param outcome The outcome
+	 * @param nanos Time (in ns) the probe took, 0 if not known
+	 */
+	public synchronized void record(long nowMillis, Outcome outcome, long nanos) {
+		long micros = Math.min(MAX_LATENCY_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+		long seconds = (nowMillis / 1000) & LOW_MASK;
+		
+		probes[next] = (seconds << 32) | ((long)outcome.code << LATENCY_BITS) | micros;
+		
+		next = (next + 1) % probes.length;
+		if(size < probes.length) {
+			size++;
+		}
+	}
+	
+	
+	/**
+	 * Gets the percentage of probes that were up
+	 *
+	 * @param fromMillis Start (in ms since the epoch) of the range, inclusive
+	 * @param toMillis End (in ms since the epoch) of the range, exclusive
+	 * @return Percentage (0-100) of the probes in the range that were up, NaN if there weren't any
+	 */
+	public synchronized double availability(long fromMillis, long toMillis) {
+		int total = 0;
+		int up = 0;
+		
+		for(int i = 0; i < size; i++) {
+			long probe = probes[index(i)];
+			long millis = millis(probe);
+			if(millis < fromMillis) {
+				break;
+			}
+			if(millis >= toMillis) {
+				continue;
+			}
+			
+			total++;
+			if(outcome(probe) == Outcome.UP) {
+				up++;
+			}
+		}
+		
+		return (total == 0) ? Double.NaN : up * 100.0 / total;
+	}
+	
+	
+	/**
+	 * Gets the outages during a range, oldest first.  An outage starts at the first probe that
+	 * wasn't up, and ends at the next one that was.
+	 *
+	 * @param fromMillis Start (in ms since the epoch) of the range, inclusive
+	 * @param toMillis End (in ms since the epoch) of the range, exclusive
+	 * @return The outages
+	 */
+	public synchronized List<Outage> outages(long fromMillis, long toMillis) {
+		List<Outage> outages = new ArrayList<Outage>();
+		
+		// Scanning newest first, so each outage's end is seen before its start
+		long end = -1;
+		long start = -1;
+		Outcome cause = null;
+		
+		for(int i = 0; i < size; i++) {
+			long probe = probes[index(i)];
+			long millis = millis(probe);
+			if(millis < fromMillis) {
+				break;
+			}
+			if(millis >= toMillis) {
+				continue;
+			}
+			
+			Outcome outcome = outcome(probe);
+			if(outcome == Outcome.UP) {
+				if(start >= 0) {
+					outages.add(0, new Outage(start, end, cause));
+					start = -1;
+				}
+				end = millis;
+			} else {
+				if(start < 0) {
+					cause = outcome;
+				}
+				start = millis;
+			}
+		}
+		
+		if(start >= 0) {
+			outages.add(0, new Outage(start, end, cause));
+		}
+		
+		return outages;
+	}
+	
+	
+	/**
+	 * Gets the average latency of the probes that were up, over a range split into equal buckets
+	 *
+	 * @param fromMillis Start (in ms since the epoch) of the range, inclusive
+	 * @param toMillis End (in ms since the epoch) of the range, exclusive
+	 * @param buckets Number of buckets the range is split into
+	 * @return Average latency (in ms) of each bucket, oldest first, NaN for buckets without any probes up
+	 */
+	public synchronized double[] latencyTrend(long fromMillis, long toMillis, int buckets) {
+		double[] totals = new double[Math.max(1, buckets)];
+		int[] counts = new int[totals.length];
+		long bucketMillis = Math.max(1, (toMillis - fromMillis + totals.length - 1) / totals.length);
+		
+		for(int i = 0; i < size; i++) {
+			long probe = probes[index(i)];
+			long millis = millis(probe);
+			if(millis < fromMillis) {
+				break;
+			}
+			if(millis >= toMillis || outcome(probe) != Outcome.UP) {
+				continue;
+			}
+			
+			int bucket = (int)Math.min(totals.length - 1, (millis - fromMillis) / bucketMillis);
+			totals[bucket] += (probe & MAX_LATENCY_MICROS) / 1000.0;
+			counts[bucket]++;
+		}
+		
+		for(int i = 0; i < totals.length; i++) {
+			totals[i] = (counts[i] == 0) ? Double.NaN : totals[i] / counts[i];
+		}
+		
+		return totals;
+	}
+	
+	
+	/**
+	 * @return Number of probes held
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	
+	/**
+	 * @return Number of probes held before the oldest are overwritten
+	 */
+	public int capacity() {
+		return probes.length;
+	}
+	
+	
+	/**
+	 * @param age 0 for the newest probe, 1 for the one before it, ...
+	 * @return Index of the probe in the ring
+	 */
+	private int index(int age) {
+		int index = next - 1 - age;
+		return (index < 0) ? index + probes.length : index;
+	}
+	
+	
+	/**
+	 * @param probe A packed probe
+	 * @return Time (in ms since the epoch) it finished
+	 */
+	private static long millis(long probe) {
+		return (probe >>> 32) * 1000;
+	}
+	
+	
+	/**
+	 * @param probe A packed probe
+	 * @return Its outcome
+	 */
+	private static Outcome outcome(long probe) {
+		return Outcome.forCode((int)((probe & LOW_MASK) >>> LATENCY_BITS));
+	}
+	
+	
+	/**
+	 * A period an endpoint wasn't up
+	 */
+	public static final class Outage {
+	
+		/** Time (in ms since the epoch) of the first probe that wasn't up */
+		private final long start;
+		
+		/** Time (in ms since the epoch) of the next probe that was up, -1 if it's still out */
+		private final long end;
+		
+		/** Outcome of the last probe of the outage */
+		private final Outcome outcome;
+		
+		Outage(long start, long end, Outcome outcome) {
+			this.start = start;
+			this.end = end;
+			this.outcome = outcome;
+		}
+		
+		public long getStart() {
+			return start;
+		}
+		
+		public long getEnd() {
+			return end;
+		}
+		
+		public boolean isOngoing() {
+			return end < 0;
+		}
+		
+		public Outcome getOutcome() {
+			return outcome;
+		}
+		
+		/**
+		 * @param nowMillis The current time (in ms since the epoch), used as the end of an ongoing outage
+		 * @return Length (in ms) of the outage
+		 */
+		public long getDuration(long nowMillis) {
+			return ((end < 0) ? nowMillis : end) - start;
+		}
+	}
+}
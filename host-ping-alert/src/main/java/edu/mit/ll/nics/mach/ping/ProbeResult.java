@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import edu.mit.ll.nics.mach.ping.HostPingAlert.EndpointType;
+
+/**
+ * Outcome of a probe, evaluated for alerts, and published by the ResultPublisher.  In the pipeline 
+ * route it's the message each probe hands on to be evaluated.
+ */
+public class ProbeResult {
+
+	/** The endpoint probed */
+	private final String endpoint;
+	
+	/** The type of endpoint */
+	private final EndpointType type;
+	
+	/** Whether it responded */
+	private final boolean up;
+	
+	/** Description of the failure, null if it responded */
+	private final String message;
+	
+	/** Time (in ns) the probe took, 0 if it isn't known */
+	private final long nanos;
+	
+	/** HTTP status of a page's response, 0 if there wasn't one */
+	private final int statusCode;
+	
+	/** Time (in ms since the epoch) the probe finished */
+	private final long time;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param endpoint The endpoint probed
+	 * @param type The type of endpoint
+	 * @param up Whether it responded
+	 * @param message Description of the failure, null if it responded
+	 * @param nanos Time (in ns) the probe took, 0 if it isn't known
+	 */
+	public ProbeResult(String endpoint, EndpointType type, boolean up, String message, long nanos) {
+		this(endpoint, type, up, message, nanos, 0);
+	}
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param endpoint The endpoint probed
+	 * @param type The type of endpoint
+	 * @param up Whether it responded
+	 * @param message Description of the failure, null if it responded
+	 * @param nanos Time (in ns) the probe took, 0 if it isn't known
+	 * @param statusCode HTTP status of a page's response, 0 if there wasn't one
+	 */
+	public ProbeResult(String endpoint, EndpointType type, boolean up, String message, long nanos, int statusCode) {
+		this.endpoint = endpoint;
+		this.type = type;
+		this.up = up;
+		this.message = message;
+		this.nanos = nanos;
+		this.statusCode = statusCode;
+		this.time = System.currentTimeMillis();
+	}
+	
+	
+	/**
+	 * @return The endpoint probed
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+	
+	
+	/**
+	 * @return The type of endpoint
+	 */
+	public EndpointType getType() {
+		return type;
+	}
+	
+	
+	/**
+	 * @return Whether it responded
+	 */
+	public boolean isUp() {
+		return up;
+	}
+	
+	
+	/**
+	 * @return Description of the failure, null if it responded
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	
+	/**
+	 * @return Time (in ns) the probe took, 0 if it isn't known
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+	
+	
+	/**
+	 * @return HTTP status of a page's response, 0 if there wasn't one
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	
+	/**
+	 * @return Time (in ms since the epoch) the probe finished
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return type + " " + endpoint + (up ? " up in " + (nanos / 1000000) + "ms" : " down: " + message);
+	}
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.util.Map;
+import java.util.Random;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Schedules each endpoint's probe on its own interval, instead of sweeping every endpoint at
+ * once.  An endpoint's runs fall on fixed slots, one interval apart, offset from the epoch by a 
+ * phase derived from its name, so probes are spread evenly across time and each endpoint keeps its
+ * slots across restarts.  Every run is shifted from its slot by a random jitter, which doesn't 
+ * carry over to the runs after it.
+ * 
+ * <p>Due probes are taken off a delay queue by a single dispatcher thread and run on the probe pool.
+ * An endpoint is only rescheduled once its probe completes, so the same endpoint is never probed
+ * twice at once.  Asynchronous probes only use the pool to start, and are rescheduled when the
+ * future they return completes.</p>
+ */
+public class ProbeScheduler {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(ProbeScheduler.class);
+	
+	/** Probes ordered by the time they're next due */
+	private final DelayQueue<ScheduledProbe> queue = new DelayQueue<ScheduledProbe>();
+	
+	/** Map of endpoints to their scheduled probe */
+	private final Map<String, ScheduledProbe> probes = new ConcurrentHashMap<String, ScheduledProbe>();
+	
+	/** Pool the probes are run on */
+	private final ExecutorService executor;
+	
+	/** Maximum jitter, as a percentage of an endpoint's interval, applied to each run */
+	private final int jitterPercent;
+	
+	/** Source of jitter */
+	private final Random random = new Random();
+	
+	/** Thread handing due probes off to the executor */
+	private Thread dispatcher;
+	
+	/** Whether or not the scheduler is running */
+	private volatile boolean running;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param executor The pool to run probes on
+	 * @param jitterPercent Maximum jitter applied to each run, as a percentage of the endpoint's interval
+	 */
+	public ProbeScheduler(ExecutorService executor, int jitterPercent) {
+		this.executor = executor;
+		this.jitterPercent = Math.max(0, Math.min(jitterPercent, 100));
+	}
+	
+	
+	/**
+	 * Schedules a probe for the endpoint, replacing any probe already scheduled for it
+	 * 
+	 * @param endpoint The endpoint being probed, used as its key and to derive its phase
+	 * @param intervalMillis Time between runs of the probe
+	 * @param probe The probe to run
+	 */
+	public void schedule(String endpoint, long intervalMillis, Runnable probe) {
+		schedule(new ScheduledProbe(endpoint, intervalMillis, probe, null));
+	}
+	
+	
+	/**
+	 * Schedules an asynchronous probe for the endpoint, replacing any probe already scheduled for it
+	 * 
+	 * @param endpoint The endpoint being probed, used as its key and to derive its phase
+	 * @param intervalMillis Time between runs of the probe
+	 * @param probe The probe to start
+	 */
+	public void schedule(String endpoint, long intervalMillis, AsyncProbe probe) {
+		schedule(new ScheduledProbe(endpoint, intervalMillis, null, probe));
+	}
+	
+	
+	/**
+	 * Puts a new probe on the queue, at its next slot
+	 * 
+	 * @param scheduled The probe to schedule
+	 */
+	private void schedule(ScheduledProbe scheduled) {
+		String endpoint = scheduled.endpoint;
+		long intervalMillis = scheduled.intervalMillis;
+		
+		if(intervalMillis <= 0) {
+			throw new IllegalArgumentException("Invalid interval for endpoint " + endpoint + ": " + intervalMillis);
+		}
+		
+		long now = System.currentTimeMillis();
+		long slot = now - (now % intervalMillis) + phase(endpoint, intervalMillis);
+		if(slot < now) {
+			slot += intervalMillis;
+		}
+		
+		scheduled.slot = slot;
+		scheduled.nextRun = slot + jitter(intervalMillis);
+		
+		ScheduledProbe previous = probes.put(endpoint, scheduled);
+		if(previous != null) {
+			previous.cancelled = true;
+			queue.remove(previous);
+		}
+		
+		queue.put(scheduled);
+		
+		log.debug("Scheduled " + endpoint + " every " + intervalMillis + "ms, first run in " + 
+				(scheduled.nextRun - System.currentTimeMillis()) + "ms");
+	}
+	
+	
+	/**
+	 * Cancels the probe scheduled for the endpoint, if any.  A run already in progress completes, 
+	 * but isn't rescheduled.
+	 * 
+	 * @param endpoint The endpoint to stop probing
+	 * @return true if a probe was scheduled for the endpoint, false otherwise
+	 */
+	public boolean cancel(String endpoint) {
+		ScheduledProbe scheduled = probes.remove(endpoint);
+		if(scheduled == null) {
+			return false;
+		}
+		
+		scheduled.cancelled = true;
+		queue.remove(scheduled);
+		return true;
+	}
+	
+	
+	/**
+	 * Starts the dispatcher thread
+	 */
+	public synchronized void start() {
+		if(running) {
+			return;
+		}
+		
+		running = true;
+		
+		dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "host-ping-scheduler");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+		
+		log.info("Started probe scheduler with " + probes.size() + " endpoints");
+	}
+	
+	
+	/**
+	 * Stops the dispatcher thread.  Probes already handed off to the executor aren't interrupted.
+	 */
+	public synchronized void stop() {
+		running = false;
+		
+		if(dispatcher != null) {
+			dispatcher.interrupt();
+			dispatcher = null;
+		}
+	}
+	
+	
+	/**
+	 * @return The number of endpoints scheduled
+	 */
+	public int size() {
+		return probes.size();
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return Time (in ms since the epoch) the endpoint's probe is next due, or is running for if it's
+	 * 		   running now, -1 if the endpoint isn't scheduled
+	 */
+	public long getNextRun(String endpoint) {
+		ScheduledProbe scheduled = probes.get(endpoint);
+		return (scheduled != null) ? scheduled.nextRun : -1;
+	}
+	
+	
+	/**
+	 * Takes probes off the queue as they come due, and hands them to the executor
+	 */
+	private void dispatch() {
+		while(running) {
+			ScheduledProbe scheduled;
+			try {
+				scheduled = queue.take();
+			} catch(InterruptedException ie) {
+				break;
+			}
+			
+			if(scheduled.cancelled) {
+				continue;
+			}
+			
+			try {
+				executor.execute(scheduled);
+			} catch(RejectedExecutionException ree) {
+				log.warn("Probe pool rejected probe for " + scheduled.endpoint + ", stopping scheduler");
+				running = false;
+			}
+		}
+		
+		log.info("Probe scheduler stopped");
+	}
+	
+	
+	/**
+	 * Puts a probe that just completed back on the queue, at its next slot.  If it ran so long that
+	 * it's missed its next slot, it's run again as soon as possible, and the slots it missed are 
+	 * skipped rather than caught up on.
+	 * 
+	 * @param scheduled The probe that completed
+	 */
+	private void reschedule(ScheduledProbe scheduled) {
+		if(!running || scheduled.cancelled) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		long intervalMillis = scheduled.intervalMillis;
+		
+		long slot = scheduled.slot + intervalMillis;
+		if(slot < now) {
+			slot += (now - slot) / intervalMillis * intervalMillis;
+		}
+		
+		scheduled.slot = slot;
+		scheduled.nextRun = Math.max(slot + jitter(intervalMillis), now);
+		queue.put(scheduled);
+	}
+	
+	
+	/**
+	 * Derives a stable offset into the interval from the endpoint's name, so endpoints sharing an
+	 * interval are spread across it.  An endpoint's slots are the times (in ms since the epoch) whose
+	 * remainder, divided by the interval, is its phase.
+	 * 
+	 * @param endpoint The endpoint name
+	 * @param intervalMillis The endpoint's interval
+	 * @return Offset from 0 (inclusive) to intervalMillis (exclusive)
+	 */
+	public static long phase(String endpoint, long intervalMillis) {
+		// Spread the hash bits, since String hashes of similar URLs are close together
+		long hash = endpoint.hashCode() * 0x9E3779B97F4A7C15L;
+		return ((hash >>> 1) % intervalMillis);
+	}
+	
+	
+	/**
+	 * @param intervalMillis The endpoint's interval
+	 * @return A random offset within +/- jitterPercent of the interval
+	 */
+	private long jitter(long intervalMillis) {
+		long range = intervalMillis * jitterPercent / 100;
+		if(range <= 0) {
+			return 0;
+		}
+		
+		return (long)((random.nextDouble() * 2 - 1) * range);
+	}
+	
+	
+	/** A probe that completes asynchronously, after start returns */
+	public interface AsyncProbe {
+		
+		/**
+		 * Starts the probe
+		 * 
+		 * @return A future completed when the probe is done
+		 */
+		CompletableFuture<?> start();
+	}
+	
+	
+	/** An endpoint's probe, and when it's next due */
+	private class ScheduledProbe implements Delayed, Runnable {
+		
+		/** The endpoint being probed */
+		private final String endpoint;
+		
+		/** Time between runs */
+		private final long intervalMillis;
+		
+		/** The probe, if it's synchronous */
+		private final Runnable probe;
+		
+		/** The probe, if it's asynchronous */
+		private final AsyncProbe asyncProbe;
+		
+		/** Time (in ms since the epoch) of the slot the probe is next due in, before jitter */
+		private volatile long slot;
+		
+		/** Time (in ms since the epoch) the probe is next due */
+		private volatile long nextRun;
+		
+		/** Set when the endpoint is no longer scheduled */
+		private volatile boolean cancelled;
+		
+		
+		private ScheduledProbe(String endpoint, long intervalMillis, Runnable probe, AsyncProbe asyncProbe) {
+			this.endpoint = endpoint;
+			this.intervalMillis = intervalMillis;
+			this.probe = probe;
+			this.asyncProbe = asyncProbe;
+		}
+		
+		@Override
+		public void run() {
+			if(asyncProbe != null) {
+				start();
+				return;
+			}
+			
+			try {
+				probe.run();
+			} catch(Exception e) {
+				log.error("Caught unhandled exception from probe for " + endpoint + ": " + e.getMessage(), e);
+			} finally {
+				reschedule(this);
+			}
+		}
+		
+		/**
+		 * Starts the asynchronous probe, rescheduling it once it completes
+		 */
+		private void start() {
+			CompletableFuture<?> future;
+			try {
+				future = asyncProbe.start();
+			} catch(Exception e) {
+				log.error("Caught unhandled exception starting probe for " + endpoint + ": " + e.getMessage(), e);
+				reschedule(this);
+				return;
+			}
+			
+			future.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable failure) {
+					if(failure != null) {
+						log.error("Probe for " + endpoint + " failed: " + failure.getMessage(), failure);
+					}
+					reschedule(ScheduledProbe.this);
+				}
+			});
+		}
+		
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(nextRun - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+		
+		@Override
+		public int compareTo(Delayed other) {
+			long diff = getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
+			return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+		}
+	}
+}
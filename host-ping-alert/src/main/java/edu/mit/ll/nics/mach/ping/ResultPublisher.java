@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import org.apache.camel.ProducerTemplate;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Publishes probe results to a Camel endpoint, such as a RabbitMQ exchange, for dashboards and 
+ * other consumers.  Results are batched, a message holding a line of JSON per result:
+ * 
+ * <pre>
+ * {"time":1476712800000,"endpoint":"http://nics.example.com/login.seam","type":"URL","up":true,"status":200,"ms":84.2}
+ * {"time":1476712800012,"endpoint":"nics.example.com:5432","type":"SERVICE","up":false,"message":"timed out after 5000ms waiting to connect"}
+ * </pre>
+ * 
+ * <p>A batch is sent once it holds batchSize results, on the thread adding the last of them, and 
+ * whatever's left is sent by flush() at the end of each sweep.  A batch that can't be sent is 
+ * logged and dropped, results aren't retried.</p>
+ */
+public class ResultPublisher {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(ResultPublisher.class);
+	
+	/** Sends the batches */
+	private final ProducerTemplate producer;
+	
+	/** Camel endpoint the batches are sent to, empty to publish nothing */
+	private final String endpoint;
+	
+	/** Most results in a batch */
+	private final int batchSize;
+	
+	/** Results batched so far, a line each */
+	private StringBuilder batch = new StringBuilder();
+	
+	/** Number of results batched so far */
+	private int batched;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param producer Sends the batches
+	 * @param endpoint Camel endpoint the batches are sent to, empty to publish nothing
+	 * @param batchSize Most results in a batch
+	 */
+	public ResultPublisher(ProducerTemplate producer, String endpoint, int batchSize) {
+		this.producer = producer;
+		this.endpoint = (endpoint != null) ? endpoint.trim() : "";
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	
+	/**
+	 * @return Whether results are published, false if the endpoint is empty
+	 */
+	public boolean isEnabled() {
+		return !endpoint.isEmpty();
+	}
+	
+	
+	/**
+	 * Adds a result to the batch, sending the batch if it's full
+	 * 
+	 * @param result The result
+	 */
+	public void publish(ProbeResult result) {
+		if(!isEnabled()) {
+			return;
+		}
+		
+		String full = null;
+		synchronized(this) {
+			encode(result, batch);
+			batch.append('\n');
+			
+			if(++batched >= batchSize) {
+				full = take();
+			}
+		}
+		
+		if(full != null) {
+			send(full);
+		}
+	}
+	
+	
+	/**
+	 * Sends the results batched so far, if there are any
+	 */
+	public void flush() {
+		String partial = null;
+		synchronized(this) {
+			if(batched > 0) {
+				partial = take();
+			}
+		}
+		
+		if(partial != null) {
+			send(partial);
+		}
+	}
+	
+	
+	/**
+	 * Sends a batch to the endpoint
+	 * 
+	 * @param results The batch, a line of JSON per result
+	 */
+	protected void send(String results) {
+		try {
+			producer.sendBody(endpoint, results);
+		} catch(Exception e) {
+			log.warn("Couldn't publish probe results to " + endpoint + ", dropping them: " + e.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * Takes the batch, starting a new one.  Must hold the lock.
+	 * 
+	 * @return The batch
+	 */
+	private String take() {
+		String results = batch.toString();
+		batch = new StringBuilder(results.length());
+		batched = 0;
+		return results;
+	}
+	
+	
+	/**
+	 * Encodes a result as a JSON object, leaving out the status and latency if they aren't known, and 
+	 * the failure message if it responded.  Only the first line of the message is kept.
+	 * 
+	 * @param result The result
+	 * @param sb Where it's appended
+	 */
+	static void encode(ProbeResult result, StringBuilder sb) {
+		sb.append("{\"time\":").append(result.getTime());
+		sb.append(",\"endpoint\":");
+		quote(result.getEndpoint(), sb);
+		sb.append(",\"type\":\"").append(result.getType()).append('"');
+		sb.append(",\"up\":").append(result.isUp());
+		
+		if(result.getStatusCode() > 0) {
+			sb.append(",\"status\":").append(result.getStatusCode());
+		}
+		
+		if(result.getNanos() > 0) {
+			// Tenths of a ms
+			sb.append(",\"ms\":").append(result.getNanos() / 1000000).append('.').append((result.getNanos() / 100000) % 10);
+		}
+		
+		if(!result.isUp() && result.getMessage() != null) {
+			String message = result.getMessage().trim();
+			int newline = message.indexOf('\n');
+			
+			sb.append(",\"message\":");
+			quote((newline >= 0) ? message.substring(0, newline).trim() : message, sb);
+		}
+		
+		sb.append('}');
+	}
+	
+	
+	/**
+	 * Appends a JSON string
+	 * 
+	 * @param value The value
+	 * @param sb Where it's appended
+	 */
+	private static void quote(String value, StringBuilder sb) {
+		sb.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch(c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if(c < 0x20) {
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.lang.management.ManagementFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Divides the endpoints between the HostPingAlert nodes monitoring them.  Each node publishes a
+ * heartbeat carrying its id and how long it's been up, and every node tracks the others from the 
+ * heartbeats it receives, assigning endpoints to the nodes alive with a consistent HashRing.  A node that stops sending
+ * heartbeats for nodeTimeout seconds is dropped, and its endpoints are taken over by the others.
+ *
+ * <p>Heartbeats are published and received by Camel routes, over RabbitMQ, or a vm: endpoint to
+ * run several nodes in one JVM:</p>
+ * <pre>
+ * &lt;from uri="timer://clusterHeartbeat?period=5s"/&gt; &lt;bean ref="shard" method="heartbeat"/&gt; &lt;to uri="..."/&gt;
+ * &lt;from uri="..."/&gt; &lt;bean ref="shard" method="onHeartbeat"/&gt;
+ * </pre>
+ *
+ * <p>A node owns nothing for its first nodeTimeout seconds, while it learns who else is alive, so
+ * it doesn't probe endpoints the others are still covering.  The others keep it off their rings until
+ * then too, so its endpoints pass to it the moment it starts probing, rather than going unwatched 
+ * while it warms up.  A node that restarts is taken off the rings until it's warmed up again.</p>
+ */
+public class ShardCoordinator {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(ShardCoordinator.class);
+	
+	/** Number of points each node is placed at on the ring */
+	private static final int VIRTUAL_NODES = 128;
+	
+	/** Id of this node */
+	private final String nodeId;
+	
+	/** Time (in ms) without a heartbeat before a node is dropped */
+	private final long nodeTimeoutMillis;
+	
+	/** Time (in ms since the epoch) this node started */
+	private final long startMillis;
+	
+	/** Map of the other nodes to the time (in ms since the epoch) their last heartbeat was received */
+	private final Map<String, Long> lastHeartbeats = new ConcurrentHashMap<String, Long>();
+	
+	/** Map of the other nodes to the time (in ms since the epoch) they started, from their last heartbeat */
+	private final Map<String, Long> startTimes = new ConcurrentHashMap<String, Long>();
+	
+	/** Ring of the nodes alive, and warmed up */
+	private volatile HashRing ring;
+	
+	/** Time (in ms since the epoch) the next node still warming up joins the ring, Long.MAX_VALUE if none */
+	private volatile long nextAdmission = Long.MAX_VALUE;
+	
+	/** Incremented each time the ring changes */
+	private volatile int version;
+	
+	
+	/**
+	 * Constructor
+	 *
+	 * @param nodeId Id of this node, unique among the nodes.  Empty to use hostname-pid.
+	 * @param nodeTimeout Time (in seconds) without a heartbeat before a node is dropped
+	 */
+	public ShardCoordinator(String nodeId, int nodeTimeout) {
+		this(nodeId, nodeTimeout, System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * Constructor
+	 *
+	 * @param nodeId Id of this node, unique among the nodes.  Empty to use hostname-pid.
+	 * @param nodeTimeout Time (in seconds) without a heartbeat before a node is dropped
+	 * @param startMillis Time (in ms since the epoch) this node started
+	 */
+	public ShardCoordinator(String nodeId, int nodeTimeout, long startMillis) {
+		this.nodeId = (nodeId == null || nodeId.trim().isEmpty()) ? defaultNodeId() : nodeId.trim();
+		this.nodeTimeoutMillis = TimeUnit.SECONDS.toMillis(nodeTimeout);
+		this.startMillis = startMillis;
+		rebuild(startMillis);
+	}
+	
+	
+	/**
+	 * Called by the heartbeat route each heartbeat period.  Drops nodes that have timed out.
+	 *
+	 * @return The heartbeat to publish, this node's id and uptime
+	 */
+	public String heartbeat() {
+		return heartbeatAt(System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * Drops nodes that have timed out
+	 *
+	 * @param now The current time (in ms since the epoch)
+	 * @return The heartbeat to publish, this node's id and uptime (in ms), separated by a space
+	 */
+	public String heartbeatAt(long now) {
+		refresh(now);
+		return nodeId + " " + Math.max(0, now - startMillis);
+	}
+	
+	
+	/**
+	 * Called by the route receiving heartbeats
+	 *
+	 * @param heartbeat The heartbeat, the id and uptime of the node that sent it
+	 */
+	public void onHeartbeat(String heartbeat) {
+		onHeartbeat(heartbeat, System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * Records a heartbeat, adding its node if it's new.  A node that's been up less than the nodeTimeout
+	 * is only added to the ring once it has, when it stops warming up and starts probing.
+	 *
+	 * @param heartbeat The heartbeat, the id and uptime of the node that sent it
+	 * @param now The current time (in ms since the epoch)
+	 */
+	public void onHeartbeat(String heartbeat, long now) {
+		if(heartbeat == null || heartbeat.trim().isEmpty()) {
+			return;
+		}
+		
+		String node = heartbeat.trim();
+		
+		// A heartbeat without an uptime is from an older node, which probes as soon as it's heard from
+		long uptime = nodeTimeoutMillis;
+		int space = node.lastIndexOf(' ');
+		if(space > 0) {
+			try {
+				uptime = Long.parseLong(node.substring(space + 1));
+				node = node.substring(0, space).trim();
+			} catch(NumberFormatException nfe) {
+				log.debug("No uptime in heartbeat: " + heartbeat);
+			}
+		}
+		
+		if(node.equals(nodeId)) {
+			return;
+		}
+		
+		boolean member = ring.getMembers().contains(node);
+		startTimes.put(node, now - uptime);
+		
+		if(lastHeartbeats.put(node, now) == null) {
+			log.info("Node " + node + " joined" + ((uptime < nodeTimeoutMillis) ? 
+					", handing over its endpoints once it's been up " + nodeTimeoutMillis + "ms" : ", rebalancing endpoints"));
+			rebuild(now);
+		} else if(member && uptime < nodeTimeoutMillis) {
+			log.warn("Node " + node + " restarted, covering its endpoints until it's been up " + nodeTimeoutMillis + "ms");
+			rebuild(now);
+		}
+	}
+	
+	
+	/**
+	 * Drops the nodes that haven't sent a heartbeat within the nodeTimeout
+	 *
+	 * @param now The current time (in ms since the epoch)
+	 */
+	public void refresh(long now) {
+		boolean dropped = false;
+		
+		for(Map.Entry<String, Long> entry : lastHeartbeats.entrySet()) {
+			if(now - entry.getValue() > nodeTimeoutMillis && lastHeartbeats.remove(entry.getKey(), entry.getValue())) {
+				startTimes.remove(entry.getKey());
+				log.warn("No heartbeat from node " + entry.getKey() + " for " + (now - entry.getValue()) +
+						"ms, taking over its endpoints");
+				dropped = true;
+			}
+		}
+		
+		if(dropped || now >= nextAdmission) {
+			rebuild(now);
+		}
+	}
+	
+	
+	/**
+	 * @param key The endpoint, or the key its shard is picked by
+	 * @return Whether this node should probe it
+	 */
+	public boolean owns(String key) {
+		return owns(key, System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * @param key The endpoint, or the key its shard is picked by
+	 * @param now The current time (in ms since the epoch)
+	 * @return Whether this node should probe it, never during the first nodeTimeout after starting
+	 */
+	public boolean owns(String key, long now) {
+		if(isWarmingUp(now)) {
+			return false;
+		}
+		
+		// A node has finished warming up, and is probing its endpoints from now on
+		if(now >= nextAdmission) {
+			rebuild(now);
+		}
+		
+		return nodeId.equals(ring.ownerOf(key));
+	}
+	
+	
+	/**
+	 * @param now The current time (in ms since the epoch)
+	 * @return Whether this node is still within its first nodeTimeout, learning who else is alive
+	 */
+	public boolean isWarmingUp(long now) {
+		return now - startMillis < nodeTimeoutMillis;
+	}
+	
+	
+	/**
+	 * @return Id of this node
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+	
+	
+	/**
+	 * @return The nodes alive, including this one
+	 */
+	public List<String> getMembers() {
+		return ring.getMembers();
+	}
+	
+	
+	/**
+	 * @return Number of times the ring has changed, so callers can tell when endpoints have moved
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	
+	/**
+	 * Rebuilds the ring from this node and the other nodes alive that have been up for the nodeTimeout, 
+	 * if they've changed
+	 *
+	 * @param now The current time (in ms since the epoch)
+	 */
+	private synchronized void rebuild(long now) {
+		TreeSet<String> members = new TreeSet<String>();
+		members.add(nodeId);
+		
+		long next = Long.MAX_VALUE;
+		for(String node : lastHeartbeats.keySet()) {
+			Long started = startTimes.get(node);
+			long admission = (started != null) ? started + nodeTimeoutMillis : now;
+			if(now >= admission) {
+				members.add(node);
+			} else {
+				next = Math.min(next, admission);
+			}
+		}
+		nextAdmission = next;
+		
+		if(ring != null && ring.getMembers().equals(new ArrayList<String>(members))) {
+			return;
+		}
+		
+		ring = new HashRing(members, VIRTUAL_NODES);
+		version++;
+		
+		log.info("Monitoring nodes: " + members + ", this node is " + nodeId);
+	}
+	
+	
+	/**
+	 * @return hostname-pid
+	 */
+	private static String defaultNodeId() {
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch(UnknownHostException uhe) {
+			host = "localhost";
+		}
+		
+		// The runtime's name is pid@hostname
+		String runtime = ManagementFactory.getRuntimeMXBean().getName();
+		int at = runtime.indexOf('@');
+		
+		return host + "-" + ((at > 0) ? runtime.substring(0, at) : runtime);
+	}
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.io.IOException;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only journal of endpoint statuses, so the monitor comes back from a restart knowing when
+ * each endpoint was last reached and which are still on alert.
+ * 
+ * <p>The journal is a memory-mapped file.  Each status change is appended as a record holding its
+ * length and a CRC32 of its contents, and the length is written last, so a record torn by a crash
+ * is ignored when the journal is replayed.  Writes land in the page cache as soon as they're made, 
+ * so they survive the process dying, and sync() forces them to disk.</p>
+ * 
+ * <p>When the journal fills up it's compacted, rewriting the latest status of each endpoint to a new
+ * file that replaces the old one.  If the latest statuses alone don't fit, the journal is grown.</p>
+ * 
+ * <p>Record layout: int length, int crc, then the contents: int endpoint length, endpoint (UTF-8),
+ * byte state ordinal, long since, long lastResponse, long lastAlert.</p>
+ */
+public class StateJournal {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(StateJournal.class);
+	
+	/** Marks the start of a journal, "HPJ" and the format version */
+	private static final int MAGIC = 0x48504A01;
+	
+	/** Bytes before the first record */
+	private static final int HEADER_BYTES = 4;
+	
+	/** Bytes of each record before its contents, the length and the crc */
+	private static final int RECORD_HEADER_BYTES = 8;
+	
+	/** Bytes of a record's contents besides the endpoint */
+	private static final int FIXED_CONTENT_BYTES = 4 + 1 + 8 + 8 + 8;
+	
+	/** Path of the journal */
+	private final Path path;
+	
+	/** Size (in bytes) of the journal */
+	private int capacity;
+	
+	/** The journal's mapping, null until opened */
+	private MappedByteBuffer buffer;
+	
+	/** Position the next record is written at */
+	private int position;
+	
+	/** The latest status appended for each endpoint, written out when compacting */
+	private final Map<String, EndpointRecord.Status> latest = new LinkedHashMap<String, EndpointRecord.Status>();
+	
+	/** Checksum of the records */
+	private final CRC32 crc = new CRC32();
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param filename Path of the journal, created if it doesn't exist
+	 * @param capacity Size (in bytes) of the journal
+	 */
+	public StateJournal(String filename, int capacity) {
+		this.path = Paths.get(filename);
+		this.capacity = Math.max(4096, capacity);
+	}
+	
+	
+	/**
+	 * Opens the journal, replaying any records in it.  Replay stops at the first record that's
+	 * incomplete or fails its CRC.
+	 * 
+	 * @return The latest status of each endpoint in the journal
+	 * @throws IOException If the journal couldn't be opened
+	 */
+	public synchronized Map<String, EndpointRecord.Status> open() throws IOException {
+		if(path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		
+		if(Files.exists(path)) {
+			capacity = (int)Math.max(capacity, Files.size(path));
+		}
+		
+		buffer = map(path, capacity, false);
+		latest.clear();
+		
+		if(buffer.getInt(0) != MAGIC) {
+			if(buffer.getInt(0) != 0) {
+				log.warn("State journal " + path + " isn't a journal, or is from another version, starting a new one");
+			}
+			buffer.putInt(0, MAGIC);
+			position = HEADER_BYTES;
+			return new LinkedHashMap<String, EndpointRecord.Status>();
+		}
+		
+		position = HEADER_BYTES;
+		while(position + RECORD_HEADER_BYTES <= capacity) {
+			int length = buffer.getInt(position);
+			if(length < FIXED_CONTENT_BYTES || position + RECORD_HEADER_BYTES + length > capacity) {
+				break;
+			}
+			
+			int contents = position + RECORD_HEADER_BYTES;
+			if(checksum(contents, length) != buffer.getInt(position + 4)) {
+				log.warn("State journal " + path + " has a damaged record at " + position + ", ignoring the rest of it");
+				break;
+			}
+			
+			int endpointLength = buffer.getInt(contents);
+			if(endpointLength != length - FIXED_CONTENT_BYTES) {
+				break;
+			}
+			
+			int state = buffer.get(contents + 4 + endpointLength);
+			if(state < 0 || state >= EndpointRecord.State.values().length) {
+				break;
+			}
+			
+			byte[] endpoint = new byte[endpointLength];
+			for(int i = 0; i < endpointLength; i++) {
+				endpoint[i] = buffer.get(contents + 4 + i);
+			}
+			
+			int fields = contents + 4 + endpointLength + 1;
+			latest.put(new String(endpoint, StandardCharsets.UTF_8), new EndpointRecord.Status(
+					EndpointRecord.State.values()[state], buffer.getLong(fields), buffer.getLong(fields + 8), 
+					buffer.getLong(fields + 16)));
+			
+			position += RECORD_HEADER_BYTES + length;
+		}
+		
+		return new LinkedHashMap<String, EndpointRecord.Status>(latest);
+	}
+	
+	
+	/**
+	 * Appends the current status of an endpoint.  The status is read once the journal is locked, 
+	 * so the last record appended for an endpoint is always its latest status.
+	 * 
+	 * @param record The endpoint's record
+	 * @throws IOException If the journal had to be compacted, and that failed
+	 */
+	public synchronized void append(EndpointRecord record) throws IOException {
+		if(buffer == null) {
+			return;
+		}
+		
+		EndpointRecord.Status status = record.getStatus();
+		byte[] endpoint = record.getEndpoint().getBytes(StandardCharsets.UTF_8);
+		
+		latest.put(record.getEndpoint(), status);
+		
+		if(position + RECORD_HEADER_BYTES + FIXED_CONTENT_BYTES + endpoint.length > capacity) {
+			compact();
+			return;
+		}
+		
+		position = write(buffer, position, endpoint, status);
+	}
+	
+	
+	/**
+	 * Rewrites the journal with just the given endpoints' current statuses
+	 * 
+	 * @param records The records to keep
+	 * @throws IOException If the journal couldn't be rewritten
+	 */
+	public synchronized void rewrite(Collection<EndpointRecord> records) throws IOException {
+		latest.clear();
+		for(EndpointRecord record : records) {
+			latest.put(record.getEndpoint(), record.getStatus());
+		}
+		
+		compact();
+	}
+	
+	
+	/**
+	 * Writes the latest status of each endpoint to a new journal, and replaces the current one with it
+	 * 
+	 * @throws IOException If the new journal couldn't be written, the current one is left as it is
+	 */
+	private void compact() throws IOException {
+		long start = System.nanoTime();
+		
+		int needed = HEADER_BYTES;
+		for(String endpoint : latest.keySet()) {
+			needed += RECORD_HEADER_BYTES + FIXED_CONTENT_BYTES + endpoint.getBytes(StandardCharsets.UTF_8).length;
+		}
+		
+		// Leave at least as much room for new records as the latest statuses take up
+		while(needed * 2 > capacity) {
+			capacity *= 2;
+		}
+		
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		
+		MappedByteBuffer next = map(compacted, capacity, true);
+		next.putInt(0, MAGIC);
+		
+		int nextPosition = HEADER_BYTES;
+		for(Map.Entry<String, EndpointRecord.Status> entry : latest.entrySet()) {
+			nextPosition = write(next, nextPosition, entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue());
+		}
+		next.force();
+		
+		Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		// The old mapping is released when it's garbage collected
+		buffer = next;
+		position = nextPosition;
+		
+		log.debug("Compacted state journal to " + latest.size() + " endpoints (" + position + " of " + capacity + 
+				" bytes) in " + (System.nanoTime() - start) / 1000 + "us");
+	}
+	
+	
+	/**
+	 * Writes a record
+	 * 
+	 * @param to The mapping to write to
+	 * @param at Position to write at
+	 * @param endpoint The endpoint, as UTF-8
+	 * @param status The endpoint's status
+	 * @return The position after the record
+	 */
+	private int write(MappedByteBuffer to, int at, byte[] endpoint, EndpointRecord.Status status) {
+		int length = FIXED_CONTENT_BYTES + endpoint.length;
+		int contents = at + RECORD_HEADER_BYTES;
+		
+		to.putInt(contents, endpoint.length);
+		for(int i = 0; i < endpoint.length; i++) {
+			to.put(contents + 4 + i, endpoint[i]);
+		}
+		
+		int fields = contents + 4 + endpoint.length;
+		to.put(fields, (byte)status.getState().ordinal());
+		to.putLong(fields + 1, status.getSince());
+		to.putLong(fields + 9, status.getLastResponse());
+		to.putLong(fields + 17, status.getLastAlert());
+		
+		crc.reset();
+		for(int i = contents; i < contents + length; i++) {
+			crc.update(to.get(i));
+		}
+		to.putInt(at + 4, (int)crc.getValue());
+		
+		// Written last, so a torn record reads as the end of the journal
+		to.putInt(at, length);
+		
+		return contents + length;
+	}
+	
+	
+	/**
+	 * @param contents Position of a record's contents
+	 * @param length Length of the contents
+	 * @return CRC32 of the contents
+	 */
+	private int checksum(int contents, int length) {
+		crc.reset();
+		for(int i = contents; i < contents + length; i++) {
+			crc.update(buffer.get(i));
+		}
+		return (int)crc.getValue();
+	}
+	
+	
+	/**
+	 * Forces appended records to disk
+	 */
+	public synchronized void sync() {
+		if(buffer != null) {
+			buffer.force();
+		}
+	}
+	
+	
+	/**
+	 * Forces appended records to disk, and stops appending
+	 */
+	public synchronized void close() {
+		sync();
+		buffer = null;
+	}
+	
+	
+	/**
+	 * Maps a file, creating it or growing it to the given size
+	 * 
+	 * @param file The file
+	 * @param size Size (in bytes) to map
+	 * @param truncate Whether to empty the file first, so it's all zeros
+	 * @return The mapping
+	 * @throws IOException If the file couldn't be mapped
+	 */
+	private static MappedByteBuffer map(Path file, int size, boolean truncate) throws IOException {
+		FileChannel channel = truncate ? 
+			FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, 
+					StandardOpenOption.READ, StandardOpenOption.WRITE) : 
+			FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			// The mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			channel.close();
+		}
+	}
+}
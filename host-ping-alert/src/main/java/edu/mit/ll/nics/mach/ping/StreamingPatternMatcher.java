@@ -0,0 +1,630 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks a response body against a page's ContentAssertions as it's read, without buffering the
+ * whole body.  Reading stops as soon as the outcome is known: when every required string and pattern
+ * has been found and nothing is forbidden, when something forbidden is found, or once maxBodyBytes
+ * have been read.
+ * 
+ * <p>Literal strings are all checked in one pass by the assertions' Aho-Corasick automaton, which
+ * carries its state across chunks.  Regexes are searched in a sliding window, with the last 
+ * maxMatchLength characters of each window carried over into the next, so matches up to maxMatchLength
+ * characters long are found even when they span chunks.  As with the buffered checks, line breaks are
+ * dropped before matching.</p>
+ * 
+ * <p>When the body is fingerprinted, every character, line breaks included, is also fed to a
+ * ContentFingerprint, and the body is read to the end, or maxBodyBytes, whatever the assertions' outcome.</p>
+ * 
+ * <p>A short excerpt from the start of the body is kept for logging and alert messages, when the 
+ * body is only being sampled, or it's asked for.</p>
+ * 
+ * <p>The decoding buffers and window are taken from a shared pool when the first bytes arrive, and
+ * handed back by finish(), rather than allocated for every body.  They're pooled rather than kept per 
+ * thread because an async response's body may be created and fed on different threads.</p>
+ */
+public class StreamingPatternMatcher implements BodyConsumer {
+
+	/** Number of characters kept from the start of the body */
+	public static final int EXCERPT_CHARS = 2048;
+	
+	/** Size of the decoding buffers */
+	private static final int CHUNK_SIZE = 8192;
+	
+	/** Most sets of buffers kept in the pool */
+	private static final int POOLED_BUFFERS = 64;
+	
+	/** Buffer each thread reads streams into, reused across bodies */
+	private static final ThreadLocal<byte[]> READ_BUFFERS = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[CHUNK_SIZE];
+		}
+	};
+	
+	/** Buffers free to be used by the next body, the most recently used first */
+	private static final BlockingDeque<Buffers> BUFFER_POOL = new LinkedBlockingDeque<Buffers>(POOLED_BUFFERS);
+	
+	/** What the body is checked against, or null if the body is only being sampled */
+	private final ContentAssertions assertions;
+	
+	/** Maximum number of bytes read */
+	private final long maxBodyBytes;
+	
+	/** Number of characters carried between windows */
+	private final int maxMatchLength;
+	
+	/** Decoder for the body's charset */
+	private final CharsetDecoder decoder;
+	
+	/** Whether or not the regexes are searched for, in the window */
+	private final boolean regexes;
+	
+	/** Decoding buffers and window, from the pool, or null until the first bytes arrive or after finish */
+	private Buffers buffers;
+	
+	/** Bytes waiting to be decoded, including any partial character from the last chunk */
+	private ByteBuffer byteBuf;
+	
+	/** Decoded characters */
+	private CharBuffer charBuf;
+	
+	/** Text waiting to be searched, starting with the carry over from the last window */
+	private StringBuilder window;
+	
+	/** Text from the start of the body, or null if no excerpt is kept */
+	private final StringBuilder excerpt;
+	
+	/** Fingerprint of the body, or null if it isn't fingerprinted */
+	private final ContentFingerprint fingerprint;
+	
+	/** Automaton over the literals, or null if there are none */
+	private final AhoCorasick literals;
+	
+	/** Current state of the automaton */
+	private int literalState = AhoCorasick.START;
+	
+	/** Which literals have been found */
+	private final boolean[] literalsFound;
+	
+	/** Number of required literals not found yet */
+	private int literalsMissing;
+	
+	/** Reused matchers over the window for the required patterns, null once a pattern is found */
+	private final Matcher[] requiredMatchers;
+	
+	/** Reused matchers over the window for the forbidden patterns */
+	private final Matcher[] forbiddenMatchers;
+	
+	/** Number of required patterns not found yet */
+	private int patternsMissing;
+	
+	/** Number of bytes consumed */
+	private long bytesRead;
+	
+	/** Whether or not the window holds text that hasn't been searched */
+	private boolean unsearched;
+	
+	/** Text matched by the first required pattern found */
+	private String match;
+	
+	/** Description of the forbidden string or pattern found, if any */
+	private String violation;
+	
+	/** Whether or not reading stopped at maxBodyBytes */
+	private boolean truncated;
+	
+	/** Whether or not finish has been called */
+	private boolean finished;
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param pattern Pattern to search for, or null to only sample the start of the body
+	 * @param maxBodyBytes Maximum number of bytes read
+	 * @param maxMatchLength Longest match, in characters, guaranteed to be found across chunks
+	 * @param charset Charset of the body
+	 */
+	public StreamingPatternMatcher(Pattern pattern, long maxBodyBytes, int maxMatchLength, Charset charset) {
+		this(ContentAssertions.forPattern(pattern), maxBodyBytes, maxMatchLength, charset);
+	}
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param assertions What to check the body against, or null to only sample the start of the body
+	 * @param maxBodyBytes Maximum number of bytes read
+	 * @param maxMatchLength Longest match, in characters, guaranteed to be found across chunks
+	 * @param charset Charset of the body
+	 */
+	public StreamingPatternMatcher(ContentAssertions assertions, long maxBodyBytes, int maxMatchLength, 
+			Charset charset) {
+		this(assertions, null, maxBodyBytes, maxMatchLength, charset);
+	}
+	
+	
+	/**
+	 * Constructor, keeping an excerpt whether or not the body is checked
+	 * 
+	 * @param assertions What to check the body against, or null to only sample the start of the body
+	 * @param fingerprint Fingerprint the body is fed to, or null to not fingerprint it
+	 * @param maxBodyBytes Maximum number of bytes read
+	 * @param maxMatchLength Longest match, in characters, guaranteed to be found across chunks
+	 * @param charset Charset of the body
+	 */
+	public StreamingPatternMatcher(ContentAssertions assertions, ContentFingerprint fingerprint, 
+			long maxBodyBytes, int maxMatchLength, Charset charset) {
+		this(assertions, fingerprint, maxBodyBytes, maxMatchLength, charset, true);
+	}
+	
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param assertions What to check the body against, or null to only sample the start of the body
+	 * @param fingerprint Fingerprint the body is fed to, or null to not fingerprint it
+	 * @param maxBodyBytes Maximum number of bytes read
+	 * @param maxMatchLength Longest match, in characters, guaranteed to be found across chunks
+	 * @param charset Charset of the body
+	 * @param keepExcerpt Whether or not to keep an excerpt of a checked body, one is always kept when 
+	 * 		  the body is only being sampled
+	 */
+	public StreamingPatternMatcher(ContentAssertions assertions, ContentFingerprint fingerprint, 
+			long maxBodyBytes, int maxMatchLength, Charset charset, boolean keepExcerpt) {
+		this.assertions = assertions;
+		this.fingerprint = fingerprint;
+		this.maxBodyBytes = maxBodyBytes;
+		this.maxMatchLength = Math.max(1, maxMatchLength);
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		
+		this.excerpt = (keepExcerpt || assertions == null) ? new StringBuilder() : null;
+		
+		// Only the regexes search the window, so it isn't sized for them unless there are any
+		regexes = assertions != null && 
+				(!assertions.getRequiredPatterns().isEmpty() || !assertions.getForbiddenPatterns().isEmpty());
+		
+		// The matchers are pointed at the window when it's searched
+		if(assertions != null) {
+			literals = assertions.getLiterals();
+			literalsFound = new boolean[(literals != null) ? literals.size() : 0];
+			literalsMissing = assertions.getRequiredLiteralCount();
+			
+			List<Pattern> required = assertions.getRequiredPatterns();
+			requiredMatchers = new Matcher[required.size()];
+			for(int i = 0; i < requiredMatchers.length; i++) {
+				requiredMatchers[i] = required.get(i).matcher("");
+			}
+			patternsMissing = requiredMatchers.length;
+			
+			List<Pattern> forbidden = assertions.getForbiddenPatterns();
+			forbiddenMatchers = new Matcher[forbidden.size()];
+			for(int i = 0; i < forbiddenMatchers.length; i++) {
+				forbiddenMatchers[i] = forbidden.get(i).matcher("");
+			}
+		} else {
+			literals = null;
+			literalsFound = new boolean[0];
+			requiredMatchers = new Matcher[0];
+			forbiddenMatchers = new Matcher[0];
+		}
+	}
+	
+	
+	/**
+	 * Reads the stream until the outcome is known, maxBodyBytes have been read, or the stream ends.  The
+	 * stream is not closed.
+	 * 
+	 * @param is The stream to read
+	 * @throws IOException If reading the stream fails
+	 */
+	public void readFrom(InputStream is) throws IOException {
+		byte[] buf = READ_BUFFERS.get();
+		ByteBuffer wrapped = ByteBuffer.wrap(buf);
+		
+		int read;
+		boolean more = true;
+		while(more && (read = is.read(buf)) != -1) {
+			wrapped.clear().limit(read);
+			more = update(wrapped);
+		}
+		
+		finish();
+	}
+	
+	
+	@Override
+	public boolean update(ByteBuffer bytes) {
+		if(finished || isDone()) {
+			return false;
+		}
+		
+		if(buffers == null) {
+			takeBuffers();
+		}
+		
+		while(bytes.hasRemaining() && !isDone()) {
+			
+			long allowed = maxBodyBytes - bytesRead;
+			if(allowed <= 0) {
+				truncated = true;
+				break;
+			}
+			
+			int count = (int)Math.min(Math.min(bytes.remaining(), byteBuf.remaining()), allowed);
+			
+			ByteBuffer slice = bytes.duplicate();
+			slice.limit(slice.position() + count);
+			byteBuf.put(slice);
+			bytes.position(bytes.position() + count);
+			bytesRead += count;
+			
+			byteBuf.flip();
+			decoder.decode(byteBuf, charBuf, false);
+			byteBuf.compact();
+			
+			consumeChars();
+		}
+		
+		if(bytesRead >= maxBodyBytes && !isDone()) {
+			truncated = true;
+		}
+		
+		return !isDone();
+	}
+	
+	
+	@Override
+	public void finish() {
+		if(finished) {
+			return;
+		}
+		finished = true;
+		
+		if(buffers != null && (!isDone() || truncated)) {
+			byteBuf.flip();
+			decoder.decode(byteBuf, charBuf, true);
+			decoder.flush(charBuf);
+			byteBuf.clear();
+			consumeChars();
+			
+			if(unsearched) {
+				search();
+			}
+		}
+		
+		releaseBuffers();
+	}
+	
+	
+	/**
+	 * Takes a set of buffers from the pool, or allocates one if it's empty
+	 */
+	private void takeBuffers() {
+		buffers = BUFFER_POOL.pollFirst();
+		if(buffers == null) {
+			buffers = new Buffers();
+		}
+		
+		byteBuf = buffers.byteBuf;
+		charBuf = buffers.charBuf;
+		window = buffers.window;
+		if(regexes) {
+			window.ensureCapacity(maxMatchLength + CHUNK_SIZE);
+		}
+	}
+	
+	
+	/**
+	 * Hands the buffers back to the pool, dropping them if it's full
+	 */
+	private void releaseBuffers() {
+		if(buffers == null) {
+			return;
+		}
+		
+		buffers.byteBuf.clear();
+		buffers.charBuf.clear();
+		buffers.window.setLength(0);
+		BUFFER_POOL.offerFirst(buffers);
+		
+		buffers = null;
+		byteBuf = null;
+		charBuf = null;
+		window = null;
+	}
+	
+	
+	/**
+	 * @return true if everything required was found and nothing forbidden was, or there were no assertions
+	 */
+	public boolean isMatched() {
+		return violation == null && literalsMissing == 0 && patternsMissing == 0;
+	}
+	
+	
+	/**
+	 * @return The text matched by the first required pattern found, or null if none was
+	 */
+	public String getMatch() {
+		return match;
+	}
+	
+	
+	/**
+	 * @return Description of why the body failed its assertions, or null if it didn't
+	 */
+	public String getFailures() {
+		if(isMatched()) {
+			return null;
+		}
+		
+		List<String> failures = new ArrayList<String>();
+		if(violation != null) {
+			failures.add(violation);
+		}
+		
+		for(int i = 0; i < literalsFound.length; i++) {
+			if(assertions.isRequiredLiteral(i) && !literalsFound[i]) {
+				failures.add("page didn't contain '" + literals.getPattern(i) + "'");
+			}
+		}
+		
+		for(int i = 0; i < requiredMatchers.length; i++) {
+			if(requiredMatchers[i] != null) {
+				failures.add("page didn't contain the specified pattern(" + requiredMatchers[i].pattern() + ")");
+			}
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		for(String failure : failures) {
+			if(sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(failure);
+		}
+		
+		return sb.toString();
+	}
+	
+	
+	/**
+	 * @return Text from the start of the body, up to EXCERPT_CHARS characters, without line breaks, 
+	 * 		   or an empty string if no excerpt was kept
+	 */
+	public String getExcerpt() {
+		return (excerpt != null) ? excerpt.toString() : "";
+	}
+	
+	
+	/**
+	 * @return The body's fingerprint, as hex, or null if it isn't fingerprinted or was cut short by 
+	 * 		   something forbidden
+	 */
+	public String getFingerprint() {
+		return (fingerprint != null && violation == null) ? fingerprint.finish() : null;
+	}
+	
+	
+	/**
+	 * @return The number of bytes consumed
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+	
+	
+	/**
+	 * @return true if reading stopped at maxBodyBytes before everything required was found
+	 */
+	public boolean isTruncated() {
+		return truncated && violation == null && (literalsMissing > 0 || patternsMissing > 0);
+	}
+	
+	
+	/**
+	 * @return true if no more of the body is wanted
+	 */
+	private boolean isDone() {
+		if(violation != null || truncated) {
+			return true;
+		}
+		
+		if(fingerprint != null) {
+			// The whole body is fingerprinted
+			return false;
+		}
+		
+		if(assertions == null) {
+			// Without assertions, only the excerpt is wanted
+			return excerpt.length() >= EXCERPT_CHARS;
+		}
+		
+		return literalsMissing == 0 && patternsMissing == 0 && !assertions.hasForbidden();
+	}
+	
+	
+	/**
+	 * Moves decoded characters into the excerpt and window, dropping line breaks, and searches the
+	 * window once it's full
+	 */
+	private void consumeChars() {
+		charBuf.flip();
+		
+		while(charBuf.hasRemaining()) {
+			char c = charBuf.get();
+			if(fingerprint != null) {
+				fingerprint.update(c);
+			}
+			
+			if(c == '\n' || c == '\r') {
+				continue;
+			}
+			
+			if(excerpt != null && excerpt.length() < EXCERPT_CHARS) {
+				excerpt.append(c);
+			}
+			
+			if(literals != null) {
+				literalState = literals.next(literalState, c);
+				for(int found : literals.matches(literalState)) {
+					literalFound(found);
+				}
+			}
+			
+			if(regexes) {
+				window.append(c);
+				unsearched = true;
+				
+				if(window.length() >= maxMatchLength + CHUNK_SIZE) {
+					search();
+				}
+			}
+			
+			if(isDone()) {
+				break;
+			}
+		}
+		
+		charBuf.clear();
+	}
+	
+	
+	/**
+	 * Records a literal being found
+	 * 
+	 * @param index Index of the literal in the automaton
+	 */
+	private void literalFound(int index) {
+		if(literalsFound[index]) {
+			return;
+		}
+		literalsFound[index] = true;
+		
+		if(assertions.isRequiredLiteral(index)) {
+			literalsMissing--;
+		} else if(violation == null) {
+			violation = "page contained forbidden text '" + literals.getPattern(index) + "'";
+		}
+	}
+	
+	
+	/**
+	 * Searches the window for the patterns not found yet, then drops all but the last maxMatchLength 
+	 * characters of it
+	 */
+	private void search() {
+		unsearched = false;
+		
+		for(int i = 0; i < forbiddenMatchers.length; i++) {
+			if(forbiddenMatchers[i].reset(window).find()) {
+				violation = "page contained forbidden pattern(" + forbiddenMatchers[i].pattern() + ")";
+				return;
+			}
+		}
+		
+		for(int i = 0; i < requiredMatchers.length; i++) {
+			if(requiredMatchers[i] != null && requiredMatchers[i].reset(window).find()) {
+				if(match == null) {
+					match = requiredMatchers[i].group();
+				}
+				requiredMatchers[i] = null;
+				patternsMissing--;
+			}
+		}
+		
+		if(window.length() > maxMatchLength) {
+			window.delete(0, window.length() - maxMatchLength);
+		}
+	}
+	
+	
+	/**
+	 * Gets the charset named in a Content-Type header
+	 * 
+	 * @param contentType The Content-Type header value, may be null
+	 * @return The named charset, or UTF-8 if none was named, or it isn't supported
+	 */
+	public static Charset charsetOf(String contentType) {
+		if(contentType != null) {
+			for(String param : contentType.split(";")) {
+				param = param.trim();
+				if(param.regionMatches(true, 0, "charset=", 0, 8)) {
+					String name = param.substring(8).trim().replace("\"", "");
+					try {
+						return Charset.forName(name);
+					} catch(Exception e) {
+						break;
+					}
+				}
+			}
+		}
+		
+		return StandardCharsets.UTF_8;
+	}
+	
+	
+	/** Decoding buffers and window, reused by one body after another */
+	private static class Buffers {
+		
+		/** Bytes waiting to be decoded */
+		private final ByteBuffer byteBuf = ByteBuffer.allocate(CHUNK_SIZE);
+		
+		/** Decoded characters */
+		private final CharBuffer charBuf = CharBuffer.allocate(CHUNK_SIZE);
+		
+		/** Text waiting to be searched */
+		private final StringBuilder window = new StringBuilder();
+	}
+}
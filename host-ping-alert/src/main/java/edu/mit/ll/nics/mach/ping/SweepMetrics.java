@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counts sweeps overrunning their deadline, probes carried over or skipped, and how late cycles
+ * start, registered with the platform MBean server as
+ * <code>edu.mit.ll.nics.mach.ping:type=SweepMetrics</code>
+ */
+public class SweepMetrics implements SweepMetricsMXBean {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(SweepMetrics.class);
+	
+	private final AtomicLong sweeps = new AtomicLong();
+	
+	private final AtomicLong overruns = new AtomicLong();
+	
+	private final AtomicLong skippedCycles = new AtomicLong();
+	
+	private final AtomicLong carriedOverProbes = new AtomicLong();
+	
+	private final AtomicLong skippedProbes = new AtomicLong();
+	
+	private volatile long lastSweepMillis;
+	
+	private volatile long maxSweepMillis;
+	
+	private volatile long lagMillis;
+	
+	private volatile long maxLagMillis;
+	
+	/** Server the MBean is registered with, null if it isn't */
+	private MBeanServer server;
+	
+	
+	/**
+	 * Records a completed sweep
+	 * 
+	 * @param millis Time (in ms) it took
+	 * @param carriedOver Number of probes still outstanding when it hit the deadline, 0 if it didn't
+	 */
+	public void sweep(long millis, int carriedOver) {
+		sweeps.incrementAndGet();
+		lastSweepMillis = millis;
+		maxSweepMillis = Math.max(maxSweepMillis, millis);
+		
+		if(carriedOver > 0) {
+			overruns.incrementAndGet();
+			carriedOverProbes.addAndGet(carriedOver);
+		}
+	}
+	
+	
+	/**
+	 * Records how late a cycle started
+	 * 
+	 * @param millis Time (in ms) after it was due
+	 */
+	public void lag(long millis) {
+		lagMillis = millis;
+		maxLagMillis = Math.max(maxLagMillis, millis);
+	}
+	
+	
+	/**
+	 * Records a cycle skipped for starting too late
+	 */
+	public void skippedCycle() {
+		skippedCycles.incrementAndGet();
+	}
+	
+	
+	/**
+	 * Records probes that weren't started
+	 * 
+	 * @param count Number of probes
+	 */
+	public void skippedProbes(int count) {
+		skippedProbes.addAndGet(count);
+	}
+	
+	
+	/**
+	 * Registers with the platform MBean server
+	 */
+	public void register() {
+		try {
+			MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+			platform.registerMBean(this, objectName());
+			server = platform;
+		} catch(JMException e) {
+			log.warn("Couldn't register sweep metrics MBean: " + e.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * Unregisters from the platform MBean server, if registered
+	 */
+	public void unregister() {
+		if(server == null) {
+			return;
+		}
+		
+		try {
+			server.unregisterMBean(objectName());
+		} catch(JMException e) {
+			log.debug("Couldn't unregister sweep metrics MBean: " + e.getMessage());
+		}
+		server = null;
+	}
+	
+	
+	/**
+	 * @return The name the metrics are registered as
+	 * @throws JMException If the name is invalid
+	 */
+	public static ObjectName objectName() throws JMException {
+		return new ObjectName(LatencyMetrics.DOMAIN + ":type=SweepMetrics");
+	}
+	
+	
+	@Override
+	public long getSweeps() {
+		return sweeps.get();
+	}
+	
+	@Override
+	public long getOverruns() {
+		return overruns.get();
+	}
+	
+	@Override
+	public long getSkippedCycles() {
+		return skippedCycles.get();
+	}
+	
+	@Override
+	public long getCarriedOverProbes() {
+		return carriedOverProbes.get();
+	}
+	
+	@Override
+	public long getSkippedProbes() {
+		return skippedProbes.get();
+	}
+	
+	@Override
+	public long getLastSweepMillis() {
+		return lastSweepMillis;
+	}
+	
+	@Override
+	public long getMaxSweepMillis() {
+		return maxSweepMillis;
+	}
+	
+	@Override
+	public long getLagMillis() {
+		return lagMillis;
+	}
+	
+	@Override
+	public long getMaxLagMillis() {
+		return maxLagMillis;
+	}
+}
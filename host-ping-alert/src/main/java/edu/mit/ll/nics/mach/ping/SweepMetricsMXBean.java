@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+/**
+ * JMX view of how the sweeps are keeping up with the timer.  Counts are since startup.
+ */
+public interface SweepMetricsMXBean {
+
+	/** @return Number of sweeps run */
+	long getSweeps();
+	
+	/** @return Number of sweeps that hit the sweepDeadline with probes still outstanding */
+	long getOverruns();
+	
+	/** @return Number of timer cycles skipped because they fired a whole period or more late */
+	long getSkippedCycles();
+	
+	/** @return Number of probes still outstanding at a deadline, left to finish in the background */
+	long getCarriedOverProbes();
+	
+	/** @return Number of probes not started, as the endpoint's previous probe was still running, or the deadline had passed */
+	long getSkippedProbes();
+	
+	/** @return Time (in ms) the last sweep took */
+	long getLastSweepMillis();
+	
+	/** @return Longest time (in ms) a sweep has taken */
+	long getMaxSweepMillis();
+	
+	/** @return Time (in ms) the last cycle started after it was due, 0 if the timer's period isn't known */
+	long getLagMillis();
+	
+	/** @return Most time (in ms) a cycle has started after it was due */
+	long getMaxLagMillis();
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Checks services are reachable by opening a TCP connection to their host:port.  Connections are
+ * opened non-blocking and multiplexed on a single selector thread, so hundreds of them can be
+ * in flight at once without a thread each, and the time each one took to connect is measured.
+ * 
+ * <p>A connection is closed as soon as it's established, nothing is sent over it.</p>
+ */
+public class TcpConnectProber implements Runnable {
+
+	/** Logger */
+	private static Logger log = Logger.getLogger(TcpConnectProber.class);
+	
+	/** Selector every pending connection is registered with */
+	private final Selector selector;
+	
+	/** Connections requested, waiting for the selector thread to open them */
+	private final Queue<PendingConnect> requested = new ConcurrentLinkedQueue<PendingConnect>();
+	
+	/** Connections opened, ordered by deadline.  Only accessed by the selector thread */
+	private final PriorityQueue<PendingConnect> deadlines = new PriorityQueue<PendingConnect>();
+	
+	/** Time (in ns) allowed to connect */
+	private final long timeoutNanos;
+	
+	/** The selector thread */
+	private final Thread thread;
+	
+	/** Cleared to stop the selector thread */
+	private volatile boolean running = true;
+	
+	
+	/**
+	 * Constructor, starts the selector thread
+	 * 
+	 * @param timeout Time (in ms) allowed to connect
+	 * @throws IOException If the selector couldn't be opened
+	 */
+	public TcpConnectProber(int timeout) throws IOException {
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.selector = Selector.open();
+		this.thread = new ProbeThreadFactory("host-ping-connect").newThread(this);
+		this.thread.start();
+	}
+	
+	
+	/**
+	 * Starts connecting to the address
+	 * 
+	 * @param address The address to connect to
+	 * @return A future completed with the time (in ns) it took to connect, or exceptionally with
+	 * 		   SocketTimeoutException if it timed out, UnknownHostException if the address isn't
+	 * 		   resolved, or the IOException the connect failed with
+	 */
+	public CompletableFuture<Long> connect(InetSocketAddress address) {
+		CompletableFuture<Long> future = new CompletableFuture<Long>();
+		
+		if(address.isUnresolved()) {
+			future.completeExceptionally(new UnknownHostException(address.getHostString()));
+			return future;
+		}
+		
+		if(!running) {
+			future.completeExceptionally(new IOException("Connect prober has been shut down"));
+			return future;
+		}
+		
+		PendingConnect pending = new PendingConnect(address, future);
+		requested.add(pending);
+		
+		// The selector thread may have stopped after running was checked, and drained the requests already
+		if(!running && requested.remove(pending)) {
+			pending.fail(new IOException("Connect prober has been shut down"));
+			return future;
+		}
+		
+		selector.wakeup();
+		
+		return future;
+	}
+	
+	
+	/**
+	 * Selector loop, opening requested connections, completing established or failed ones,
+	 * and expiring those past their deadline
+	 */
+	@Override
+	public void run() {
+		try {
+			while(running) {
+				openRequested();
+				
+				PendingConnect next = deadlines.peek();
+				long wait = (next == null) ? 0 : 
+					Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime()) + 1);
+				
+				selector.select(wait);
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					finishConnect(key);
+				}
+				
+				expire();
+			}
+		} catch(IOException | ClosedSelectorException e) {
+			log.error("Connect prober selector failed: " + e.getMessage(), e);
+		} catch(RuntimeException e) {
+			log.error("Caught unhandled exception in connect prober selector: " + e.getMessage(), e);
+		} finally {
+			close();
+		}
+	}
+	
+	
+	/**
+	 * Opens the connections requested since the last pass, registering those that don't
+	 * connect immediately with the selector
+	 */
+	private void openRequested() {
+		PendingConnect pending;
+		while((pending = requested.poll()) != null) {
+			pending.start = System.nanoTime();
+			pending.deadline = pending.start + timeoutNanos;
+			
+			try {
+				pending.channel = SocketChannel.open();
+				pending.channel.configureBlocking(false);
+				
+				if(pending.channel.connect(pending.address)) {
+					pending.complete();
+				} else {
+					pending.channel.register(selector, SelectionKey.OP_CONNECT, pending);
+					deadlines.add(pending);
+				}
+			} catch(IOException | RuntimeException e) {
+				pending.fail(e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Completes a connection the selector reported as ready
+	 * 
+	 * @param key The connection's key
+	 */
+	private void finishConnect(SelectionKey key) {
+		PendingConnect pending = (PendingConnect)key.attachment();
+		
+		try {
+			if(pending.channel.finishConnect()) {
+				pending.complete();
+			}
+		} catch(IOException e) {
+			pending.fail(e);
+		}
+	}
+	
+	
+	/**
+	 * Fails every connection past its deadline
+	 */
+	private void expire() {
+		long now = System.nanoTime();
+		
+		PendingConnect pending;
+		while((pending = deadlines.peek()) != null && (pending.isDone() || pending.deadline - now <= 0)) {
+			deadlines.poll();
+			if(!pending.isDone()) {
+				pending.fail(new SocketTimeoutException("connect timed out"));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stops accepting connects, fails any still pending, and closes the selector
+	 */
+	private void close() {
+		// Set here as well as by shutdown(), so connects fail fast if the selector loop died
+		running = false;
+		
+		IOException shutdown = new IOException("Connect prober has been shut down");
+		
+		PendingConnect pending;
+		while((pending = requested.poll()) != null) {
+			pending.fail(shutdown);
+		}
+		while((pending = deadlines.poll()) != null) {
+			pending.fail(shutdown);
+		}
+		
+		try {
+			selector.close();
+		} catch(IOException e) {
+			log.debug("Error closing connect prober selector: " + e.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * @return Whether the selector thread is still running, it stops when shut down, or if it fails
+	 */
+	public boolean isRunning() {
+		return running && thread.isAlive();
+	}
+	
+	
+	/**
+	 * Stops the selector thread, failing any connections still pending
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+		
+		try {
+			thread.join(1000);
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	
+	/**
+	 * Parses a service given as host:port, or [ipv6]:port
+	 * 
+	 * @param service The service
+	 * @return The address, unresolved
+	 * @throws IllegalArgumentException If the service isn't host:port, or the port is invalid
+	 */
+	public static InetSocketAddress parseService(String service) {
+		String trimmed = service.trim();
+		int split = trimmed.lastIndexOf(':');
+		if(split <= 0 || split == trimmed.length() - 1) {
+			throw new IllegalArgumentException("Expected host:port, got '" + service + "'");
+		}
+		
+		String host = trimmed.substring(0, split);
+		if(host.startsWith("[") && host.endsWith("]")) {
+			host = host.substring(1, host.length() - 1);
+		}
+		
+		int port;
+		try {
+			port = Integer.parseInt(trimmed.substring(split + 1));
+		} catch(NumberFormatException nfe) {
+			throw new IllegalArgumentException("Invalid port in '" + service + "'");
+		}
+		
+		// Throws IllegalArgumentException if the port is out of range
+		return InetSocketAddress.createUnresolved(host, port);
+	}
+	
+	
+	/**
+	 * A connection being opened
+	 */
+	private static class PendingConnect implements Comparable<PendingConnect> {
+		
+		/** Address being connected to */
+		private final InetSocketAddress address;
+		
+		/** Future completed with the connect time */
+		private final CompletableFuture<Long> future;
+		
+		/** The connection, null until opened */
+		private SocketChannel channel;
+		
+		/** System.nanoTime() the connection was opened */
+		private long start;
+		
+		/** System.nanoTime() the connection times out */
+		private long deadline;
+		
+		private PendingConnect(InetSocketAddress address, CompletableFuture<Long> future) {
+			this.address = address;
+			this.future = future;
+		}
+		
+		private boolean isDone() {
+			return future.isDone();
+		}
+		
+		private void complete() {
+			long elapsed = System.nanoTime() - start;
+			closeChannel();
+			future.complete(elapsed);
+		}
+		
+		private void fail(Throwable cause) {
+			closeChannel();
+			future.completeExceptionally(cause);
+		}
+		
+		private void closeChannel() {
+			if(channel != null) {
+				try {
+					channel.close();
+				} catch(IOException e) {
+					log.debug("Error closing connection to " + address + ": " + e.getMessage());
+				}
+			}
+		}
+		
+		@Override
+		public int compareTo(PendingConnect other) {
+			return Long.compare(deadline - other.deadline, 0);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.AhoCorasick;
+
+public class AhoCorasickTest {
+
+	/**
+	 * Runs the text through the automaton, collecting "pattern@endIndex" for each match
+	 */
+	private List<String> scan(AhoCorasick automaton, String text) {
+		List<String> found = new ArrayList<String>();
+		int state = AhoCorasick.START;
+		for(int i = 0; i < text.length(); i++) {
+			state = automaton.next(state, text.charAt(i));
+			for(int match : automaton.matches(state)) {
+				found.add(automaton.getPattern(match) + "@" + i);
+			}
+		}
+		return found;
+	}
+	
+	@Test
+	public void TestOverlappingPatterns() {
+		AhoCorasick automaton = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+		
+		List<String> found = scan(automaton, "ushers");
+		
+		Assert.assertEquals(found.size(), 3);
+		Assert.assertTrue(found.contains("she@3"));
+		Assert.assertTrue(found.contains("he@3"));
+		Assert.assertTrue(found.contains("hers@5"));
+	}
+	
+	@Test
+	public void TestFailureTransitions() {
+		AhoCorasick automaton = new AhoCorasick(Arrays.asList("abcd", "bce", "c"));
+		
+		List<String> found = scan(automaton, "xabcex");
+		
+		Assert.assertEquals(found, Arrays.asList("c@3", "bce@4"));
+	}
+	
+	@Test
+	public void TestNoMatches() {
+		AhoCorasick automaton = new AhoCorasick(Arrays.asList("Exception", "Error"));
+		
+		Assert.assertTrue(scan(automaton, "<html>All systems normal</html>").isEmpty());
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.AlertDigest;
+import edu.mit.ll.nics.mach.ping.AlertSender;
+
+public class AlertDigestTest {
+
+	/**
+	 * Sender keeping what it was asked to send
+	 */
+	private static class RecordingSender implements AlertSender {
+		
+		private final List<String[]> sent = new ArrayList<String[]>();
+		
+		@Override
+		public void send(String subscribers, String subject, String message) {
+			sent.add(new String[]{ subscribers, subject, message });
+		}
+	}
+	
+	@Test
+	public void TestOneMessagePerSubscriberGroup() {
+		RecordingSender sender = new RecordingSender();
+		AlertDigest digest = new AlertDigest(sender);
+		
+		digest.add("ops@example.com", "10.0.0.1", AlertDigest.Kind.DOWN, "HOST failed to respond to PING");
+		digest.add("ops@example.com", "10.0.0.2", AlertDigest.Kind.DOWN, "HOST failed to respond to PING");
+		digest.add("ops@example.com", "http://nics/login", AlertDigest.Kind.REMINDER, "URL timed out");
+		digest.add("ops@example.com", "10.0.0.3", AlertDigest.Kind.DOWN, "HOST failed to respond to PING");
+		// Recovered within the window, only the latest alert is kept
+		digest.add("ops@example.com", "10.0.0.3", AlertDigest.Kind.RECOVERED, "reachable again");
+		digest.add("dev@example.com", "db:5432", AlertDigest.Kind.DOWN, "SERVICE refused the connection");
+		
+		Assert.assertEquals(digest.size(), 5);
+		Assert.assertEquals(digest.flush(), 2);
+		Assert.assertEquals(sender.sent.size(), 2);
+		
+		String[] ops = sender.sent.get(0);
+		Assert.assertEquals(ops[0], "ops@example.com");
+		Assert.assertEquals(ops[1], "2 DOWN, 1 STILL DOWN, 1 RECOVERED");
+		Assert.assertTrue(ops[2].contains("  10.0.0.1: HOST failed to respond to PING\n"));
+		Assert.assertTrue(ops[2].contains("RECOVERED (1):\n  10.0.0.3: reachable again\n"));
+		
+		Assert.assertEquals(sender.sent.get(1)[1], "1 DOWN");
+		
+		// Nothing pending, nothing sent
+		Assert.assertEquals(digest.size(), 0);
+		Assert.assertEquals(digest.flush(), 0);
+		Assert.assertEquals(sender.sent.size(), 2);
+	}
+	
+	@Test
+	public void TestFailedDigestKept() {
+		final List<String> failFor = new ArrayList<String>();
+		RecordingSender sender = new RecordingSender() {
+			@Override
+			public void send(String subscribers, String subject, String message) {
+				if(failFor.contains(subscribers)) {
+					throw new IllegalStateException("mail server unavailable");
+				}
+				super.send(subscribers, subject, message);
+			}
+		};
+		AlertDigest digest = new AlertDigest(sender);
+		
+		digest.add("ops@example.com", "10.0.0.1", AlertDigest.Kind.DOWN, "HOST failed to respond to PING");
+		digest.add("ops@example.com", "10.0.0.2", AlertDigest.Kind.RECOVERED, "reachable again");
+		digest.add("dev@example.com", "db:5432", AlertDigest.Kind.DOWN, "SERVICE refused the connection");
+		
+		// Only the group that failed is kept
+		failFor.add("ops@example.com");
+		Assert.assertEquals(digest.flush(), 1);
+		Assert.assertEquals(sender.sent.size(), 1);
+		Assert.assertEquals(digest.size(), 2);
+		
+		// Newer alerts replace the kept ones for the same endpoint
+		digest.add("ops@example.com", "10.0.0.1", AlertDigest.Kind.RECOVERED, "reachable again");
+		digest.add("ops@example.com", "10.0.0.3", AlertDigest.Kind.DOWN, "HOST failed to respond to PING");
+		Assert.assertEquals(digest.size(), 3);
+		
+		failFor.clear();
+		Assert.assertEquals(digest.flush(), 1);
+		Assert.assertEquals(digest.size(), 0);
+		
+		String[] ops = sender.sent.get(1);
+		Assert.assertEquals(ops[0], "ops@example.com");
+		Assert.assertEquals(ops[1], "1 DOWN, 2 RECOVERED");
+		Assert.assertTrue(ops[2].contains("RECOVERED (2):\n  10.0.0.2: reachable again\n  10.0.0.1: reachable again\n"), ops[2]);
+	}
+}
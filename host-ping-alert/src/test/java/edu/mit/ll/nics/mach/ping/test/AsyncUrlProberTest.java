@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+
+import java.net.http.HttpHeaders;
+
+import java.nio.ByteBuffer;
+
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.mit.ll.nics.mach.ping.AsyncUrlProber;
+import edu.mit.ll.nics.mach.ping.BodyConsumer;
+import edu.mit.ll.nics.mach.ping.ProbeThreadFactory;
+
+public class AsyncUrlProberTest {
+
+	/** Counts the bytes of a body */
+	private static class CountingBody implements BodyConsumer {
+		
+		private int length;
+		
+		@Override
+		public boolean update(ByteBuffer bytes) {
+			length += bytes.remaining();
+			bytes.position(bytes.limit());
+			return true;
+		}
+		
+		@Override
+		public void finish() {
+		}
+	}
+	
+	/** Records the outcome of each probe, and the thread it was handled on */
+	private static class RecordingHandler implements AsyncUrlProber.ResponseHandler<CountingBody> {
+		
+		final List<String> outcomes = new CopyOnWriteArrayList<String>();
+		
+		final List<String> threads = new CopyOnWriteArrayList<String>();
+		
+		@Override
+		public void onSend(URL url) {
+		}
+		
+		@Override
+		public CountingBody createBody(URL url, int statusCode, HttpHeaders headers) {
+			return new CountingBody();
+		}
+		
+		@Override
+		public void onResponse(URL url, int statusCode, CountingBody body) {
+			threads.add(Thread.currentThread().getName());
+			outcomes.add(statusCode + ":" + body.length);
+		}
+		
+		@Override
+		public void onFailure(URL url, Throwable cause) {
+			threads.add(Thread.currentThread().getName());
+			outcomes.add(cause.getClass().getSimpleName());
+		}
+	}
+	
+	/**
+	 * @return A server answering /page with a 5 byte body
+	 */
+	private static HttpServer startServer() throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/page", MonitorFixture.respond("hello", 0));
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+	}
+	
+	/**
+	 * @return URL of the server's page
+	 */
+	private static URL pageOf(HttpServer server) throws Exception {
+		return new URL("http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/page");
+	}
+	
+	/**
+	 * Adds /held to the server, answering with a 4 byte body once the latch is released
+	 * 
+	 * @return URL of the page
+	 */
+	private static URL held(HttpServer server, final CountDownLatch release) throws Exception {
+		final HttpHandler respond = MonitorFixture.respond("held", 0);
+		server.createContext("/held", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					release.await(20, TimeUnit.SECONDS);
+				} catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+				respond.handle(exchange);
+			}
+		});
+		return new URL("http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/held");
+	}
+	
+	@Test
+	public void TestHandlersRunOnHandlerExecutor() throws Exception {
+		HttpServer server = startServer();
+		ExecutorService handlers = Executors.newFixedThreadPool(2, new ProbeThreadFactory("test-handler"));
+		AsyncUrlProber prober = new AsyncUrlProber(5000, 10, 2, handlers);
+		
+		try {
+			RecordingHandler handler = new RecordingHandler();
+			prober.probe(pageOf(server), "GET", Collections.<String, String>emptyMap(), handler).get(10, TimeUnit.SECONDS);
+			
+			Assert.assertEquals(handler.outcomes, Collections.singletonList("200:5"));
+			Assert.assertTrue(handler.threads.get(0).startsWith("test-handler"), handler.threads.get(0));
+		} finally {
+			prober.shutdown();
+			handlers.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	@Test
+	public void TestFailureReleasesSlot() throws Exception {
+		// Grab a free port, then close it so nothing is listening
+		ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		final URL url = new URL("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + closed.getLocalPort() + "/");
+		closed.close();
+		
+		ExecutorService handlers = Executors.newFixedThreadPool(2, new ProbeThreadFactory("test-handler"));
+		final AsyncUrlProber prober = new AsyncUrlProber(5000, 1, 1, handlers);
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		
+		try {
+			// With a single slot, a failure that kept it would leave the next probe waiting forever
+			final RecordingHandler handler = new RecordingHandler();
+			Future<?> probes = caller.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for(int i = 0; i < 3; i++) {
+						prober.probe(url, "GET", Collections.<String, String>emptyMap(), handler).get();
+					}
+					return null;
+				}
+			});
+			probes.get(20, TimeUnit.SECONDS);
+			
+			Assert.assertEquals(handler.outcomes.size(), 3);
+			for(String thread : handler.threads) {
+				Assert.assertTrue(thread.startsWith("test-handler"), thread);
+			}
+		} finally {
+			caller.shutdownNow();
+			prober.shutdown();
+			handlers.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void TestSlowHandlerDoesNotHoldSlot() throws Exception {
+		HttpServer server = startServer();
+		ExecutorService handlers = Executors.newFixedThreadPool(2, new ProbeThreadFactory("test-handler"));
+		final AsyncUrlProber prober = new AsyncUrlProber(5000, 1, 1, handlers);
+		
+		try {
+			final CountDownLatch secondHandled = new CountDownLatch(1);
+			RecordingHandler handler = new RecordingHandler() {
+				@Override
+				public void onResponse(URL url, int statusCode, CountingBody body) {
+					super.onResponse(url, statusCode, body);
+					if(outcomes.size() == 1) {
+						// The first response is stuck here until the second is handled
+						try {
+							secondHandled.await(10, TimeUnit.SECONDS);
+						} catch(InterruptedException ie) {
+							Thread.currentThread().interrupt();
+						}
+					} else {
+						secondHandled.countDown();
+					}
+				}
+			};
+			
+			URL url = pageOf(server);
+			prober.probe(url, "GET", Collections.<String, String>emptyMap(), handler);
+			prober.probe(url, "GET", Collections.<String, String>emptyMap(), handler).get(10, TimeUnit.SECONDS);
+			
+			Assert.assertEquals(secondHandled.getCount(), 0);
+		} finally {
+			prober.shutdown();
+			handlers.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	@Test
+	public void TestWaitsForSlotWithoutBlocking() throws Exception {
+		HttpServer server = startServer();
+		ExecutorService handlers = Executors.newFixedThreadPool(2, new ProbeThreadFactory("test-handler"));
+		AsyncUrlProber prober = new AsyncUrlProber(5000, 1, 1, handlers);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		// Lets the held page go eventually, even if starting the second probe blocks until then
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(3000);
+				} catch(InterruptedException ie) {
+					return;
+				}
+				release.countDown();
+			}
+		};
+		releaser.start();
+		
+		try {
+			RecordingHandler handler = new RecordingHandler();
+			CompletableFuture<Void> first = prober.probe(held(server, release), "GET", Collections.<String, String>emptyMap(), handler);
+			
+			// The only slot is taken, so the second probe waits for it, but its caller doesn't
+			long start = System.currentTimeMillis();
+			CompletableFuture<Void> second = prober.probe(pageOf(server), "GET", Collections.<String, String>emptyMap(), handler);
+			Assert.assertTrue(System.currentTimeMillis() - start < 1000, "probe() blocked for " + (System.currentTimeMillis() - start) + "ms");
+			Assert.assertFalse(second.isDone());
+			Assert.assertEquals(prober.getWaiting(), 1);
+			
+			release.countDown();
+			first.get(10, TimeUnit.SECONDS);
+			second.get(10, TimeUnit.SECONDS);
+			Assert.assertEquals(handler.outcomes.size(), 2);
+			Assert.assertTrue(handler.outcomes.contains("200:4"), handler.outcomes.toString());
+			Assert.assertTrue(handler.outcomes.contains("200:5"), handler.outcomes.toString());
+			Assert.assertEquals(prober.getWaiting(), 0);
+		} finally {
+			releaser.interrupt();
+			release.countDown();
+			prober.shutdown();
+			handlers.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	@Test
+	public void TestShutdownFailsWaitingProbes() throws Exception {
+		HttpServer server = startServer();
+		ExecutorService handlers = Executors.newFixedThreadPool(2, new ProbeThreadFactory("test-handler"));
+		AsyncUrlProber prober = new AsyncUrlProber(5000, 1, 1, handlers);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		try {
+			RecordingHandler handler = new RecordingHandler();
+			prober.probe(held(server, release), "GET", Collections.<String, String>emptyMap(), handler);
+			CompletableFuture<Void> waiting = prober.probe(pageOf(server), "GET", Collections.<String, String>emptyMap(), handler);
+			
+			prober.shutdown();
+			try {
+				waiting.get(10, TimeUnit.SECONDS);
+				Assert.fail("Should fail once shut down");
+			} catch(ExecutionException ee) {
+				Assert.assertTrue(ee.getCause() instanceof IllegalStateException, ee.getCause().toString());
+			}
+			Assert.assertEquals(prober.getWaiting(), 0);
+		} finally {
+			release.countDown();
+			handlers.shutdownNow();
+			server.stop(0);
+		}
+	}
+}
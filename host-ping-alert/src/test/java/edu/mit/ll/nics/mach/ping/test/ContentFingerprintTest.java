@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.regex.Pattern;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.ContentAssertions;
+import edu.mit.ll.nics.mach.ping.ContentFingerprint;
+import edu.mit.ll.nics.mach.ping.FingerprintBaseline;
+import edu.mit.ll.nics.mach.ping.FingerprintBaseline.Verdict;
+import edu.mit.ll.nics.mach.ping.StreamingPatternMatcher;
+
+public class ContentFingerprintTest {
+
+	/**
+	 * Fingerprints a page by streaming it through a StreamingPatternMatcher
+	 */
+	private String fingerprint(String page, List<Pattern> excludes) throws IOException {
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(ContentAssertions.forPattern(Pattern.compile("NICS")), 
+				new ContentFingerprint(excludes), 1048576, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8)));
+		
+		Assert.assertTrue(matcher.isMatched());
+		return matcher.getFingerprint();
+	}
+	
+	@Test
+	public void TestIgnoresWhitespace() throws IOException {
+		List<Pattern> none = Collections.emptyList();
+		String fingerprint = fingerprint("<h1>Welcome to NICS</h1>\n<p>Log in</p>\n", none);
+		
+		Assert.assertEquals(fingerprint.length(), 64);
+		Assert.assertEquals(fingerprint("  <h1>Welcome   to NICS</h1>\r\n\r\n\t<p>Log in</p>", none), fingerprint);
+		Assert.assertFalse(fingerprint("<h1>Welcome to NICS</h1>\n<p>Hacked</p>\n", none).equals(fingerprint));
+		
+		// Line breaks still separate words
+		Assert.assertFalse(fingerprint("<h1>Welcome to NICS</h1><p>Log in</p>\n", none).equals(fingerprint));
+	}
+	
+	@Test
+	public void TestExcludes() throws IOException {
+		List<Pattern> excludes = Arrays.asList(Pattern.compile("\\d{2}:\\d{2}:\\d{2}"), 
+				Pattern.compile("jsessionid=[0-9A-F]+"));
+		
+		String fingerprint = fingerprint("NICS at 10:15:42\n<a href=\"/login;jsessionid=0A1B\">Log in</a>\n", excludes);
+		
+		Assert.assertEquals(fingerprint("NICS at 23:01:07\n<a href=\"/login;jsessionid=FF99C0\">Log in</a>\n", excludes), 
+				fingerprint);
+		Assert.assertFalse(fingerprint("NICS at 23:01:07\n<a href=\"/evil;jsessionid=FF99C0\">Log in</a>\n", excludes)
+				.equals(fingerprint));
+	}
+	
+	@Test
+	public void TestReadsWholeBody() throws IOException {
+		List<Pattern> none = Collections.emptyList();
+		
+		// The pattern's found on the first line, but changes further down still change the fingerprint
+		Assert.assertFalse(fingerprint("NICS\n<p>one</p>\n", none).equals(fingerprint("NICS\n<p>two</p>\n", none)));
+	}
+	
+	@Test
+	public void TestBaseline() {
+		FingerprintBaseline baseline = new FingerprintBaseline();
+		
+		Assert.assertEquals(baseline.observe("a", 2, 0), Verdict.LEARNING);
+		Assert.assertEquals(baseline.observe("b", 2, 0), Verdict.LEARNING);
+		Assert.assertEquals(baseline.observe("b", 2, 0), Verdict.LEARNED);
+		Assert.assertEquals(baseline.getBaseline(), "b");
+		
+		Assert.assertEquals(baseline.observe("b", 2, 0), Verdict.MATCHED);
+		for(int i = 0; i < 5; i++) {
+			Assert.assertEquals(baseline.observe("c", 2, 0), Verdict.DRIFTED);
+		}
+		Assert.assertEquals(baseline.observe("b", 2, 0), Verdict.MATCHED);
+	}
+	
+	@Test
+	public void TestRelearn() {
+		FingerprintBaseline baseline = new FingerprintBaseline();
+		Assert.assertEquals(baseline.observe("a", 1, 3), Verdict.LEARNED);
+		
+		Assert.assertEquals(baseline.observe("b", 1, 3), Verdict.DRIFTED);
+		Assert.assertEquals(baseline.observe("b", 1, 3), Verdict.DRIFTED);
+		Assert.assertEquals(baseline.observe("b", 1, 3), Verdict.RELEARNED);
+		Assert.assertEquals(baseline.getBaseline(), "b");
+		Assert.assertEquals(baseline.observe("b", 1, 3), Verdict.MATCHED);
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.EndpointDependencies;
+
+public class EndpointDependenciesTest {
+
+	@Test
+	public void TestParse() {
+		EndpointDependencies dependencies = EndpointDependencies.parse(
+				"http://nics.example.com/login.seam?a=b->lb.example.com, lb.example.com -> gateway.example.com," +
+				"nics.example.com:5432->gateway.example.com,invalid,->gateway.example.com");
+		
+		Assert.assertEquals(dependencies.parentsOf("http://nics.example.com/login.seam?a=b"), set("lb.example.com"));
+		Assert.assertEquals(dependencies.parentsOf("lb.example.com"), set("gateway.example.com"));
+		Assert.assertTrue(dependencies.parentsOf("gateway.example.com").isEmpty());
+		
+		Assert.assertEquals(dependencies.dependentsOf("gateway.example.com"), 
+				set("lb.example.com", "nics.example.com:5432", "http://nics.example.com/login.seam?a=b"));
+		Assert.assertEquals(dependencies.ancestorsOf("http://nics.example.com/login.seam?a=b"), 
+				set("lb.example.com", "gateway.example.com"));
+		
+		Assert.assertTrue(EndpointDependencies.parse(null).isEmpty());
+	}
+	
+	@Test
+	public void TestCyclesIgnored() {
+		EndpointDependencies dependencies = new EndpointDependencies();
+		
+		Assert.assertTrue(dependencies.add("a", "b"));
+		Assert.assertTrue(dependencies.add("b", "c"));
+		Assert.assertFalse(dependencies.add("c", "a"));
+		Assert.assertFalse(dependencies.add("a", "a"));
+		
+		Assert.assertTrue(dependencies.parentsOf("c").isEmpty());
+	}
+	
+	@Test
+	public void TestWaves() {
+		EndpointDependencies dependencies = EndpointDependencies.parse("page1->lb,page2->lb,lb->gateway,page3->gateway,page4->unmonitored");
+		
+		List<Set<String>> waves = dependencies.waves(set("page1", "page2", "page3", "page4", "lb", "gateway", "other"));
+		Assert.assertEquals(waves.size(), 3);
+		// Parents that aren't being probed don't hold up their children
+		Assert.assertEquals(waves.get(0), set("page4", "gateway", "other"));
+		Assert.assertEquals(waves.get(1), set("page3", "lb"));
+		Assert.assertEquals(waves.get(2), set("page1", "page2"));
+	}
+	
+	private static Set<String> set(String... endpoints) {
+		return new LinkedHashSet<String>(Arrays.asList(endpoints));
+	}
+}
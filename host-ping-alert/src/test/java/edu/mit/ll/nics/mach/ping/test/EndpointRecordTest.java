@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.AlertPolicy;
+import edu.mit.ll.nics.mach.ping.EndpointRecord;
+import edu.mit.ll.nics.mach.ping.EndpointRecord.State;
+import edu.mit.ll.nics.mach.ping.EndpointRecord.Transition;
+
+public class EndpointRecordTest {
+
+	@Test
+	public void TestTransitions() {
+		EndpointRecord record = new EndpointRecord("nics.example.com");
+		Assert.assertEquals(record.getStatus().getState(), State.UNKNOWN);
+		
+		Assert.assertEquals(record.succeeded(1000).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.getStatus().getState(), State.UP);
+		
+		Assert.assertEquals(record.failed(2000, 60000).getTransition(), Transition.ALERT);
+		Assert.assertEquals(record.getStatus().getState(), State.ALERTED);
+		Assert.assertEquals(record.getStatus().getLastResponse(), 1000);
+		
+		// Still within the reminder threshold
+		Assert.assertEquals(record.failed(30000, 60000).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.failed(62000, 60000).getTransition(), Transition.REMINDER);
+		Assert.assertEquals(record.getStatus().getSince(), 2000);
+		Assert.assertEquals(record.getStatus().getLastAlert(), 62000);
+		
+		EndpointRecord.Change recovery = record.succeeded(70000);
+		Assert.assertEquals(recovery.getTransition(), Transition.RECOVERY);
+		Assert.assertEquals(recovery.getAfter().getSince() - recovery.getBefore().getSince(), 68000);
+		Assert.assertEquals(record.getStatus().getState(), State.RECOVERED);
+		
+		Assert.assertEquals(record.succeeded(80000).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.getStatus().getState(), State.UP);
+		
+		// A new outage alerts straight away, even within the reminder threshold of the last alert
+		Assert.assertEquals(record.failed(81000, 60000).getTransition(), Transition.ALERT);
+	}
+	
+	@Test
+	public void TestUndeliverableAlert() {
+		EndpointRecord record = new EndpointRecord("nics.example.com");
+		
+		EndpointRecord.Change alert = record.failed(1000, 60000);
+		Assert.assertTrue(record.undeliverable(alert));
+		Assert.assertEquals(record.getStatus().getState(), State.DOWN);
+		
+		// Nobody was told it was down, so no recovery message
+		Assert.assertEquals(record.succeeded(2000).getTransition(), Transition.NONE);
+		
+		// Due again on the next failure
+		record.undeliverable(record.failed(3000, 60000));
+		Assert.assertEquals(record.failed(4000, 60000).getTransition(), Transition.ALERT);
+		
+		// An undeliverable reminder is due again on the next failure
+		EndpointRecord.Change reminder = record.failed(70000, 60000);
+		Assert.assertEquals(reminder.getTransition(), Transition.REMINDER);
+		Assert.assertTrue(record.undeliverable(reminder));
+		Assert.assertEquals(record.failed(71000, 60000).getTransition(), Transition.REMINDER);
+		
+		// An undeliverable SETTLED message for an endpoint that settled down leaves it unalerted
+		AlertPolicy policy = new AlertPolicy(1, 1, 60000, 10, 50, 20);
+		record = new EndpointRecord("nics.example.com");
+		long now = 0;
+		EndpointRecord.Change change;
+		do {
+			change = ((now / 1000) % 2 == 0) ? record.succeeded(now += 1000, policy) : record.failed(now += 1000, policy);
+		} while(change.getTransition() != Transition.FLAPPING && now < 20000);
+		Assert.assertTrue(record.getStatus().isFlapping());
+		
+		do {
+			change = record.failed(now += 1000, policy);
+		} while(change.getTransition() == Transition.NONE && now < 40000);
+		Assert.assertEquals(change.getTransition(), Transition.SETTLED);
+		Assert.assertEquals(record.getStatus().getState(), State.ALERTED);
+		
+		Assert.assertTrue(record.undeliverable(change));
+		Assert.assertEquals(record.getStatus().getState(), State.DOWN);
+		Assert.assertEquals(record.failed(now += 1000, policy).getTransition(), Transition.ALERT);
+		
+		// and recovered on once that alert is out
+		Assert.assertEquals(record.succeeded(now += 1000, policy).getTransition(), Transition.RECOVERY);
+	}
+	
+	@Test
+	public void TestThresholds() {
+		AlertPolicy policy = new AlertPolicy(3, 2, 60000, 0, 0, 0);
+		EndpointRecord record = new EndpointRecord("nics.example.com");
+		
+		Assert.assertEquals(record.succeeded(1000, policy).getTransition(), Transition.NONE);
+		
+		// A one-off failure doesn't alert
+		Assert.assertEquals(record.failed(2000, policy).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.getStatus().getState(), State.DOWN);
+		Assert.assertEquals(record.succeeded(3000, policy).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.getStatus().getState(), State.UP);
+		
+		Assert.assertEquals(record.failed(4000, policy).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.failed(5000, policy).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.getStatus().getFailures(), 2);
+		Assert.assertEquals(record.failed(6000, policy).getTransition(), Transition.ALERT);
+		// The outage started with its first failure
+		Assert.assertEquals(record.getStatus().getSince(), 4000);
+		
+		// Nor does a one-off success recover
+		Assert.assertEquals(record.succeeded(7000, policy).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.getStatus().getState(), State.ALERTED);
+		Assert.assertEquals(record.getStatus().getLastResponse(), 7000);
+		Assert.assertEquals(record.failed(8000, policy).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.succeeded(9000, policy).getTransition(), Transition.NONE);
+		
+		EndpointRecord.Change recovery = record.succeeded(10000, policy);
+		Assert.assertEquals(recovery.getTransition(), Transition.RECOVERY);
+		Assert.assertEquals(recovery.getAfter().getSince() - recovery.getBefore().getSince(), 6000);
+	}
+	
+	@Test
+	public void TestFlapping() {
+		// Flapping once a window of 10 probes has flipped 50% of the time, settled below 20%
+		AlertPolicy policy = new AlertPolicy(1, 1, 60000, 10, 50, 20);
+		EndpointRecord record = new EndpointRecord("nics.example.com");
+		
+		long now = 0;
+		Assert.assertEquals(record.succeeded(now += 1000, policy).getTransition(), Transition.NONE);
+		Assert.assertEquals(record.failed(now += 1000, policy).getTransition(), Transition.ALERT);
+		Assert.assertEquals(record.succeeded(now += 1000, policy).getTransition(), Transition.RECOVERY);
+		Assert.assertEquals(record.failed(now += 1000, policy).getTransition(), Transition.ALERT);
+		Assert.assertEquals(record.succeeded(now += 1000, policy).getTransition(), Transition.RECOVERY);
+		Assert.assertEquals(record.failed(now += 1000, policy).getTransition(), Transition.FLAPPING);
+		Assert.assertTrue(record.getStatus().isFlapping());
+		
+		// Damped, not even reminders are sent
+		for(int i = 0; i < 100; i++) {
+			Assert.assertEquals(record.succeeded(now += 1000, policy).getTransition(), Transition.NONE);
+			Assert.assertEquals(record.failed(now += 61000, policy).getTransition(), Transition.NONE);
+		}
+		
+		// Settles once the window's probes stop flipping, and is recovered on 
+		int probes = 0;
+		EndpointRecord.Change change;
+		do {
+			change = record.succeeded(now += 1000, policy);
+			probes++;
+		} while(change.getTransition() == Transition.NONE && probes < 20);
+		
+		Assert.assertEquals(change.getTransition(), Transition.SETTLED);
+		Assert.assertTrue(probes > 5 && probes < 10, "Settled after " + probes);
+		Assert.assertEquals(record.getStatus().getState(), State.UP);
+		Assert.assertFalse(record.getStatus().isFlapping());
+		
+		// Alerted on as usual again
+		Assert.assertEquals(record.failed(now += 1000, policy).getTransition(), Transition.ALERT);
+	}
+	
+	@Test
+	public void TestConcurrentFailuresAlertOnce() throws InterruptedException {
+		final EndpointRecord record = new EndpointRecord("nics.example.com");
+		final AtomicInteger alerts = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		
+		Thread[] threads = new Thread[8];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch(InterruptedException ie) {
+						return;
+					}
+					for(int j = 0; j < 10000; j++) {
+						if(record.failed(1000, 60000).getTransition() != Transition.NONE) {
+							alerts.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		Assert.assertEquals(alerts.get(), 1);
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Random;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.BodyConsumer;
+import edu.mit.ll.nics.mach.ping.GzipBodyConsumer;
+
+public class GzipBodyConsumerTest {
+
+	/** gzip header flags */
+	private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+	
+	/**
+	 * Collects the inflated bytes
+	 */
+	private static class CollectingConsumer implements BodyConsumer {
+		
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		/** Number of bytes wanted, -1 for all of them */
+		private final int wanted;
+		
+		private boolean finished;
+		
+		private CollectingConsumer(int wanted) {
+			this.wanted = wanted;
+		}
+		
+		@Override
+		public boolean update(ByteBuffer buffer) {
+			while(buffer.hasRemaining()) {
+				bytes.write(buffer.get());
+			}
+			return wanted < 0 || bytes.size() < wanted;
+		}
+		
+		@Override
+		public void finish() {
+			finished = true;
+		}
+	}
+	
+	/**
+	 * Builds a gzip member by hand, with the optional header fields given by the flags
+	 */
+	private byte[] gzip(byte[] body, int flags) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {0x1f, (byte)0x8b, 8, (byte)flags, 0, 0, 0, 0, 0, (byte)0xff});
+		
+		if((flags & FEXTRA) != 0) {
+			byte[] extra = "AP\u0004\u0000data".getBytes(StandardCharsets.ISO_8859_1);
+			out.write(extra.length & 0xff);
+			out.write(extra.length >> 8);
+			out.write(extra);
+		}
+		if((flags & FNAME) != 0) {
+			out.write("index.html".getBytes(StandardCharsets.ISO_8859_1));
+			out.write(0);
+		}
+		if((flags & FCOMMENT) != 0) {
+			out.write("a comment".getBytes(StandardCharsets.ISO_8859_1));
+			out.write(0);
+		}
+		if((flags & FHCRC) != 0) {
+			// Not checked
+			out.write(new byte[] {0x12, 0x34});
+		}
+		
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(body);
+		deflater.finish();
+		byte[] buf = new byte[4096];
+		while(!deflater.finished()) {
+			out.write(buf, 0, deflater.deflate(buf));
+		}
+		deflater.end();
+		
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		writeInt(out, (int)crc.getValue());
+		writeInt(out, body.length);
+		
+		return out.toByteArray();
+	}
+	
+	private void writeInt(ByteArrayOutputStream out, int value) {
+		for(int i = 0; i < 4; i++) {
+			out.write(value >> (8 * i));
+		}
+	}
+	
+	/**
+	 * Feeds the gzipped bytes to a consumer in chunks of the given size
+	 */
+	private CollectingConsumer inflate(byte[] gzipped, int chunk, int wanted) {
+		CollectingConsumer collected = new CollectingConsumer(wanted);
+		GzipBodyConsumer consumer = new GzipBodyConsumer(collected);
+		
+		for(int i = 0; i < gzipped.length; i += chunk) {
+			if(!consumer.update(ByteBuffer.wrap(gzipped, i, Math.min(chunk, gzipped.length - i)))) {
+				break;
+			}
+		}
+		consumer.finish();
+		
+		Assert.assertTrue(collected.finished);
+		return collected;
+	}
+	
+	private byte[] page(int size) {
+		StringBuilder sb = new StringBuilder(size);
+		Random random = new Random(42);
+		while(sb.length() < size) {
+			sb.append("<p>lorem ipsum ").append(random.nextInt(1000)).append("</p>\n");
+		}
+		sb.setLength(size);
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void TestHeaderFields() throws IOException {
+		byte[] body = page(20000);
+		
+		int[] flagSets = {0, FEXTRA, FNAME, FCOMMENT, FHCRC, FEXTRA | FNAME | FCOMMENT | FHCRC, FNAME | FHCRC};
+		for(int flags : flagSets) {
+			byte[] gzipped = gzip(body, flags);
+			
+			// Whole, and split everywhere, including inside each header field
+			for(int chunk : new int[] {gzipped.length, 1, 3, 7, 1000}) {
+				Assert.assertEquals(inflate(gzipped, chunk, -1).bytes.toByteArray(), body, 
+						"flags " + flags + ", chunks of " + chunk);
+			}
+		}
+	}
+	
+	@Test
+	public void TestGZIPOutputStream() throws IOException {
+		byte[] body = page(100000);
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(body);
+		gzip.close();
+		
+		Assert.assertEquals(inflate(compressed.toByteArray(), 8192, -1).bytes.toByteArray(), body);
+	}
+	
+	@Test
+	public void TestHighlyCompressed() throws IOException {
+		// Inflates to many times the output buffer from a handful of input bytes
+		byte[] body = new byte[500000];
+		byte[] gzipped = gzip(body, 0);
+		Assert.assertTrue(gzipped.length < 2000);
+		
+		Assert.assertEquals(inflate(gzipped, gzipped.length, -1).bytes.size(), body.length);
+		Assert.assertEquals(inflate(gzipped, 5, -1).bytes.size(), body.length);
+	}
+	
+	@Test
+	public void TestStopsWhenDownstreamIsDone() throws IOException {
+		byte[] gzipped = gzip(new byte[500000], 0);
+		
+		// Only a buffer or so past what was wanted is inflated
+		int inflated = inflate(gzipped, gzipped.length, 10000).bytes.size();
+		Assert.assertTrue(inflated >= 10000 && inflated <= 10000 + 8192, "inflated " + inflated);
+	}
+	
+	@Test
+	public void TestEmptyBodies() throws IOException {
+		// Compressed empty body
+		byte[] gzipped = gzip(new byte[0], FNAME);
+		Assert.assertEquals(inflate(gzipped, gzipped.length, -1).bytes.size(), 0);
+		Assert.assertEquals(inflate(gzipped, 1, -1).bytes.size(), 0);
+		
+		// No body at all, as for a HEAD
+		Assert.assertEquals(inflate(new byte[0], 1, -1).bytes.size(), 0);
+	}
+	
+	@Test(expectedExceptions = UncheckedIOException.class)
+	public void TestNotGzip() {
+		inflate("<html>not compressed</html>".getBytes(StandardCharsets.UTF_8), 100, -1);
+	}
+}
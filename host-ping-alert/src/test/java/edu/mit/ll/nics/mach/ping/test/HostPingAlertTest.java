@@ -29,10 +29,55 @@
  */
 package edu.mit.ll.nics.mach.ping.test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.lang.management.ManagementFactory;
+
+import java.lang.reflect.Field;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import java.nio.channels.Selector;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.zip.GZIPOutputStream;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import org.apache.camel.Exchange;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
 import edu.mit.ll.nics.mach.ping.HostPingAlert;
+import edu.mit.ll.nics.mach.ping.HostPingAlert.EndpointType;
+import edu.mit.ll.nics.mach.ping.ProbeHistory;
+import edu.mit.ll.nics.mach.ping.ProbeResult;
+import edu.mit.ll.nics.mach.ping.ResultPublisher;
+import edu.mit.ll.nics.mach.ping.SweepMetrics;
+import edu.mit.ll.nics.mach.ping.TcpConnectProber;
 
 public class HostPingAlertTest {
 
@@ -90,4 +135,609 @@ public class HostPingAlertTest {
 		}*/
 	}
 	
+	/**
+	 * Serves a gzip encoded page, claiming the encoding even for HEAD, and notes the request headers
+	 */
+	private static class GzipPage implements HttpHandler {
+		
+		/** Request headers of the last request, by method */
+		private final Map<String, String> acceptEncoding = new ConcurrentHashMap<String, String>();
+		
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			String method = exchange.getRequestMethod();
+			String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			acceptEncoding.put(method, (accept != null) ? accept : "");
+			
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			if("HEAD".equals(method)) {
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+				return;
+			}
+			
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+			out.write("<h1>Welcome to NICS</h1>".getBytes(StandardCharsets.UTF_8));
+			out.close();
+		}
+	}
+	
+	@Test
+	public void TestHeadWithGzipEncoding() throws Exception {
+		for(String engine : new String[] {HostPingAlert.HTTP_ENGINE_BLOCKING, HostPingAlert.HTTP_ENGINE_ASYNC}) {
+			MonitorFixture fixture = new MonitorFixture();
+			try {
+				GzipPage handler = new GzipPage();
+				String page = fixture.page("/ping", handler);
+				
+				HostPingAlert monitor = fixture.getMonitor();
+				monitor.setPages(page);
+				monitor.setPageMethod("HEAD");
+				monitor.setHttpEngine(engine);
+				fixture.sweep();
+				
+				// There's no body to decompress, so a HEAD shouldn't ask for one
+				Assert.assertEquals(handler.acceptEncoding.get("HEAD"), "", engine);
+				
+				List<ProbeResult> results = fixture.getResults(page);
+				Assert.assertEquals(results.size(), 1, engine);
+				Assert.assertTrue(results.get(0).isUp(), engine + ": " + results.get(0).getMessage());
+			} finally {
+				fixture.close();
+			}
+		}
+	}
+	
+	@Test
+	public void TestGzipPage() throws Exception {
+		for(String engine : new String[] {HostPingAlert.HTTP_ENGINE_BLOCKING, HostPingAlert.HTTP_ENGINE_ASYNC}) {
+			MonitorFixture fixture = new MonitorFixture();
+			try {
+				GzipPage handler = new GzipPage();
+				String page = fixture.page("/index.html", handler);
+				
+				HostPingAlert monitor = fixture.getMonitor();
+				monitor.setPages(page);
+				monitor.setPagePattern("Welcome to NICS");
+				monitor.setHttpEngine(engine);
+				fixture.sweep();
+				
+				Assert.assertEquals(handler.acceptEncoding.get("GET"), "gzip", engine);
+				
+				List<ProbeResult> results = fixture.getResults(page);
+				Assert.assertEquals(results.size(), 1, engine);
+				Assert.assertTrue(results.get(0).isUp(), engine + ": " + results.get(0).getMessage());
+			} finally {
+				fixture.close();
+			}
+		}
+	}
+	
+	@Test
+	public void TestConditionalGet() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		try {
+			final Map<String, String> validators = new ConcurrentHashMap<String, String>();
+			String page = fixture.page("/index.html", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+					validators.put("last", (ifNoneMatch != null) ? ifNoneMatch : "");
+					
+					exchange.getResponseHeaders().set("ETag", "\"v1\"");
+					if("\"v1\"".equals(ifNoneMatch)) {
+						exchange.sendResponseHeaders(304, -1);
+						exchange.close();
+						return;
+					}
+					
+					MonitorFixture.respond("<h1>Welcome to NICS</h1>", 0).handle(exchange);
+				}
+			});
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setPages(page);
+			monitor.setPagePattern("Welcome to NICS");
+			monitor.setConditionalGet(true);
+			
+			fixture.sweep();
+			Assert.assertEquals(validators.get("last"), "");
+			
+			fixture.sweep();
+			Assert.assertEquals(validators.get("last"), "\"v1\"");
+			
+			List<ProbeResult> results = fixture.getResults(page);
+			Assert.assertEquals(results.size(), 2);
+			Assert.assertEquals(results.get(0).getStatusCode(), 200);
+			Assert.assertEquals(results.get(1).getStatusCode(), 304);
+			Assert.assertTrue(results.get(1).isUp());
+		} finally {
+			fixture.close();
+		}
+	}
+	
+	@Test
+	public void TestRestartsDeadConnectProber() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		try {
+			String service = InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getLocalPort();
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setServices(service);
+			fixture.sweep();
+			
+			// Kill the connect prober's selector loop
+			Field proberField = HostPingAlert.class.getDeclaredField("tcpConnectProber");
+			proberField.setAccessible(true);
+			TcpConnectProber prober = (TcpConnectProber)proberField.get(monitor);
+			Field selector = TcpConnectProber.class.getDeclaredField("selector");
+			selector.setAccessible(true);
+			((Selector)selector.get(prober)).close();
+			while(prober.isRunning()) {
+				Thread.sleep(10);
+			}
+			
+			// The next sweep starts a new one, and the service is still checked
+			fixture.sweep();
+			Assert.assertNotSame(proberField.get(monitor), prober);
+			
+			List<ProbeResult> results = fixture.getResults(service);
+			Assert.assertEquals(results.size(), 2);
+			Assert.assertTrue(results.get(1).isUp(), results.get(1).getMessage());
+		} finally {
+			server.close();
+			fixture.close();
+		}
+	}
+	
+	@Test
+	public void TestRetryHoldsBackPipelineProbes() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		try {
+			final AtomicBoolean healthy = new AtomicBoolean(false);
+			String page = fixture.page("/flaky", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					exchange.sendResponseHeaders(healthy.get() ? 200 : 500, -1);
+					exchange.close();
+				}
+			});
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setPages(page);
+			monitor.setPipelineEnabled(true);
+			monitor.setConfirmRetryDelay(1000);
+			
+			Assert.assertEquals(monitor.dueEndpoints(), Collections.singletonList(Collections.singletonList(page)));
+			ProbeResult result = monitor.probe(page);
+			Assert.assertFalse(result.isUp());
+			monitor.evaluate(result);
+			monitor.completeCycle();
+			
+			// The failure's retry is pending, so the next cycle leaves the page to it
+			Assert.assertTrue(monitor.dueEndpoints().isEmpty());
+			
+			healthy.set(true);
+			long giveUp = System.currentTimeMillis() + 5000;
+			while(monitor.dueEndpoints().isEmpty() && System.currentTimeMillis() < giveUp) {
+				Thread.sleep(50);
+			}
+			
+			// Only the retry probed it in the meantime
+			List<ProbeResult> results = fixture.getResults(page);
+			Assert.assertEquals(results.size(), 2);
+			Assert.assertTrue(results.get(1).isUp(), results.get(1).getMessage());
+		} finally {
+			fixture.close();
+		}
+	}
+	
+	/**
+	 * @param status Status code to respond with
+	 * @param requests Counts the requests
+	 * @return Handler answering with the status code and no body
+	 */
+	private static HttpHandler status(final int status, final AtomicInteger requests) {
+		return new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+			}
+		};
+	}
+	
+	@Test
+	public void TestPipelineCycle() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		try {
+			AtomicInteger childRequests = new AtomicInteger();
+			String up = fixture.page("/up", status(200, new AtomicInteger()));
+			String gateway = fixture.page("/gateway", status(500, new AtomicInteger()));
+			String child = fixture.page("/child", status(200, childRequests));
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setPages(up + "," + gateway + "," + child);
+			monitor.setDependencies(child + "->" + gateway);
+			monitor.setPipelineEnabled(true);
+			monitor.setFailuresToAlert(1);
+			
+			// Split into waves, parents first
+			List<List<String>> due = monitor.dueEndpoints();
+			Assert.assertEquals(due.size(), 2, due.toString());
+			Assert.assertEquals(due.get(0), Arrays.asList(up, gateway));
+			Assert.assertEquals(due.get(1), Collections.singletonList(child));
+			
+			// Each endpoint probed, and its result evaluated, as the route would
+			List<ProbeResult> evaluated = new ArrayList<ProbeResult>();
+			for(List<String> wave : due) {
+				for(String endpoint : wave) {
+					ProbeResult result = monitor.probe(endpoint);
+					if(result != null) {
+						monitor.evaluate(result);
+						evaluated.add(result);
+					}
+				}
+			}
+			monitor.completeCycle();
+			
+			// The child's parent is down, so it isn't probed, and only the parent is alerted on
+			Assert.assertEquals(evaluated.size(), 2);
+			Assert.assertTrue(evaluated.get(0).isUp());
+			Assert.assertFalse(evaluated.get(1).isUp());
+			Assert.assertEquals(childRequests.get(), 0);
+			Assert.assertEquals(fixture.getAlerts().size(), 1);
+			Assert.assertTrue(fixture.getAlerts().get(0).contains(gateway), fixture.getAlerts().get(0));
+		} finally {
+			fixture.close();
+		}
+	}
+	
+	@Test
+	public void TestEvaluate() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		try {
+			String page = fixture.page("/page", MonitorFixture.respond("ok", 0));
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setPages(page);
+			monitor.setPipelineEnabled(true);
+			monitor.setFailuresToAlert(2);
+			monitor.setSuccessesToRecover(1);
+			monitor.dueEndpoints();
+			
+			// Results from elsewhere are evaluated just the same
+			monitor.evaluate(new ProbeResult(page, EndpointType.URL, false, "timed out", 0, -1));
+			Assert.assertTrue(fixture.getAlerts().isEmpty());
+			
+			monitor.evaluate(new ProbeResult(page, EndpointType.URL, false, "timed out", 0, -1));
+			Assert.assertEquals(fixture.getAlerts().size(), 1);
+			Assert.assertTrue(fixture.getAlerts().get(0).contains("timed out"), fixture.getAlerts().get(0));
+			
+			monitor.evaluate(new ProbeResult(page, EndpointType.URL, true, null, 1000000, 200));
+			Assert.assertEquals(fixture.getAlerts().size(), 2);
+			Assert.assertTrue(fixture.getAlerts().get(1).contains("successfully been pinged"), fixture.getAlerts().get(1));
+			Assert.assertEquals(monitor.getHistory(page).size(), 3);
+		} finally {
+			fixture.close();
+		}
+	}
+	
+	@Test
+	public void TestPipelineCycleDeadline() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		try {
+			AtomicInteger lastRequests = new AtomicInteger();
+			String first = fixture.page("/first", MonitorFixture.respond("ok", 700));
+			String second = fixture.page("/second", MonitorFixture.respond("ok", 700));
+			String last = fixture.page("/last", status(200, lastRequests));
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setPages(first + "," + second + "," + last);
+			monitor.setPipelineEnabled(true);
+			monitor.setHttpEngine(HostPingAlert.HTTP_ENGINE_ASYNC);
+			monitor.setSweepDeadline(1);
+			
+			List<List<String>> due = monitor.dueEndpoints();
+			Assert.assertEquals(due, Collections.singletonList(Arrays.asList(first, second, last)));
+			
+			// Probed one after another, each within the second the whole cycle has
+			Assert.assertNotNull(monitor.probe(first));
+			Assert.assertNull(monitor.probe(second));
+			Assert.assertNull(monitor.probe(last));
+			monitor.completeCycle();
+			
+			// The second was left running, the last not probed at all
+			Assert.assertEquals(lastRequests.get(), 0);
+			long giveUp = System.currentTimeMillis() + 5000;
+			while(fixture.getResults(second).isEmpty() && System.currentTimeMillis() < giveUp) {
+				Thread.sleep(50);
+			}
+			Assert.assertTrue(fixture.getResults(second).get(0).isUp());
+			
+			// Each cycle gets its own deadline
+			Assert.assertEquals(monitor.dueEndpoints(), Collections.singletonList(Arrays.asList(first, second, last)));
+			Assert.assertNotNull(monitor.probe(last), "deadline carried over from the last cycle");
+		} finally {
+			fixture.close();
+		}
+	}
+	
+	/**
+	 * @param attribute Name of the attribute
+	 * @return Its value from the sweep metrics published over JMX
+	 */
+	private static long sweepMetric(String attribute) throws Exception {
+		return (Long)ManagementFactory.getPlatformMBeanServer().getAttribute(SweepMetrics.objectName(), attribute);
+	}
+	
+	/**
+	 * @param delayMillis Time (in ms) to wait before responding
+	 * @param requests Counts the requests
+	 * @return Handler serving a page with a 200 after the delay
+	 */
+	private static HttpHandler slow(final long delayMillis, final AtomicInteger requests) {
+		final HttpHandler respond = MonitorFixture.respond("ok", delayMillis);
+		return new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				respond.handle(exchange);
+			}
+		};
+	}
+	
+	@Test
+	public void TestSweepDeadline() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		try {
+			AtomicInteger slowRequests = new AtomicInteger();
+			String slowPage = fixture.page("/slow", slow(2500, slowRequests));
+			String fastPage = fixture.page("/fast", MonitorFixture.respond("ok", 0));
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setPages(slowPage + "," + fastPage);
+			monitor.setTimeout(5000);
+			monitor.setSweepDeadline(1);
+			
+			// The sweep gives up on the slow page at its deadline, leaving it running
+			long start = System.currentTimeMillis();
+			fixture.sweep();
+			Assert.assertTrue(System.currentTimeMillis() - start < 2000, "sweep took " + (System.currentTimeMillis() - start) + "ms");
+			Assert.assertEquals(fixture.getResults(fastPage).size(), 1);
+			Assert.assertTrue(fixture.getResults(slowPage).isEmpty());
+			Assert.assertEquals(sweepMetric("Sweeps"), 1);
+			Assert.assertEquals(sweepMetric("Overruns"), 1);
+			Assert.assertEquals(sweepMetric("CarriedOverProbes"), 1);
+			
+			// While it's still running, the next sweep skips it
+			fixture.sweep();
+			Assert.assertEquals(slowRequests.get(), 1);
+			Assert.assertEquals(fixture.getResults(fastPage).size(), 2);
+			Assert.assertEquals(sweepMetric("SkippedProbes"), 1);
+			Assert.assertEquals(sweepMetric("Sweeps"), 2);
+			Assert.assertEquals(sweepMetric("Overruns"), 1);
+			
+			// and once it's finished, it's evaluated, and probed again
+			long giveUp = System.currentTimeMillis() + 5000;
+			while(fixture.getResults(slowPage).isEmpty() && System.currentTimeMillis() < giveUp) {
+				Thread.sleep(50);
+			}
+			Assert.assertTrue(fixture.getResults(slowPage).get(0).isUp());
+			
+			fixture.sweep();
+			Assert.assertEquals(slowRequests.get(), 2);
+			Assert.assertEquals(sweepMetric("SkippedProbes"), 1);
+		} finally {
+			fixture.close();
+		}
+	}
+	
+	/**
+	 * @param pauseMillis Time (in ms) to wait between each byte of the body
+	 * @param requests Counts the requests
+	 * @return Handler sending a 200's headers, then a body that never ends
+	 */
+	private static HttpHandler trickle(final long pauseMillis, final AtomicInteger requests) {
+		return new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					while(true) {
+						out.write('x');
+						out.flush();
+						Thread.sleep(pauseMillis);
+					}
+				} catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				} catch(IOException ioe) {
+					// The client gave up
+				}
+			}
+		};
+	}
+	
+	@Test
+	public void TestStalledBody() throws Exception {
+		for(String engine : new String[] {HostPingAlert.HTTP_ENGINE_BLOCKING, HostPingAlert.HTTP_ENGINE_ASYNC}) {
+			// One server stops sending partway through the body, the other never stops
+			for(long pause : new long[] {60000, 100}) {
+				MonitorFixture fixture = new MonitorFixture();
+				try {
+					String page = fixture.page("/stalled", trickle(pause, new AtomicInteger()));
+					
+					HostPingAlert monitor = fixture.getMonitor();
+					monitor.setPages(page);
+					monitor.setHttpEngine(engine);
+					monitor.setTimeout(300);
+					monitor.setSweepDeadline(0);
+					
+					// The sweep waits for every probe, so it only finishes if the body is cut off
+					long start = System.currentTimeMillis();
+					fixture.sweep();
+					long elapsed = System.currentTimeMillis() - start;
+					Assert.assertTrue(elapsed < 3000, engine + " took " + elapsed + "ms");
+					
+					List<ProbeResult> results = fixture.getResults(page);
+					Assert.assertFalse(results.isEmpty(), engine);
+					Assert.assertFalse(results.get(0).isUp(), engine);
+					Assert.assertEquals(results.get(0).getMessage(), "timed out", engine);
+				} finally {
+					fixture.close();
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void TestAbandonsOverdueProbe() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		final CountDownLatch stuck = new CountDownLatch(1);
+		try {
+			AtomicInteger requests = new AtomicInteger();
+			String page = fixture.page("/ok", slow(0, requests));
+			
+			// Publishing the first result hangs, holding up its probe however the page responds
+			final List<ProbeResult> results = Collections.synchronizedList(new ArrayList<ProbeResult>());
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setResultPublisher(new ResultPublisher(null, "capture", 1) {
+				@Override
+				public void publish(ProbeResult result) {
+					results.add(result);
+					if(results.size() == 1) {
+						try {
+							stuck.await();
+						} catch(InterruptedException ie) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}
+			});
+			monitor.setPages(page);
+			monitor.setTimeout(300);
+			monitor.setSweepDeadline(1);
+			
+			// It's carried over at the deadline, and skipped while it's within its limit
+			fixture.sweep();
+			fixture.sweep();
+			Assert.assertEquals(requests.get(), 1);
+			Assert.assertEquals(results.size(), 1);
+			
+			// Once it's overdue, it's failed, and the page probed again
+			Thread.sleep(3 * 300);
+			fixture.sweep();
+			Assert.assertEquals(requests.get(), 2);
+			Assert.assertEquals(results.size(), 3);
+			Assert.assertFalse(results.get(1).isUp());
+			Assert.assertEquals(results.get(1).getMessage(), "still hadn't responded after 900ms");
+			Assert.assertTrue(results.get(2).isUp());
+		} finally {
+			stuck.countDown();
+			fixture.close();
+		}
+	}
+	
+	@Test
+	public void TestSkipsCycleBehindSchedule() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		try {
+			AtomicInteger requests = new AtomicInteger();
+			String page = fixture.page("/slow", slow(700, requests));
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setPages(page);
+			monitor.setSweepDeadline(0);
+			
+			Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+			exchange.setProperty(Exchange.TIMER_PERIOD, 300L);
+			
+			// The sweep overruns two 300ms periods, so a fixed rate timer fires again straight away
+			monitor.process(exchange);
+			Assert.assertEquals(requests.get(), 1);
+			
+			// That cycle is a whole period late, so it's skipped
+			monitor.process(exchange);
+			Assert.assertEquals(requests.get(), 1);
+			Assert.assertEquals(sweepMetric("SkippedCycles"), 1);
+			Assert.assertTrue(sweepMetric("MaxLagMillis") >= 300, "lag " + sweepMetric("MaxLagMillis"));
+			
+			// The one after it has caught up
+			monitor.process(exchange);
+			Assert.assertEquals(requests.get(), 2);
+			Assert.assertEquals(sweepMetric("SkippedCycles"), 1);
+			
+			// Without a timer, there's no schedule to be behind
+			monitor.process(null);
+			Assert.assertEquals(requests.get(), 3);
+		} finally {
+			fixture.close();
+		}
+	}
+	
+	@Test
+	public void TestReloadInventory() throws Exception {
+		MonitorFixture fixture = new MonitorFixture();
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		File dir = Files.createTempDirectory("inventory").toFile();
+		File file = new File(dir, "inventory.properties");
+		try {
+			AtomicInteger removedRequests = new AtomicInteger();
+			String kept = fixture.page("/kept", MonitorFixture.respond("ok", 0));
+			String removed = fixture.page("/removed", slow(0, removedRequests));
+			String added = fixture.page("/added", MonitorFixture.respond("ok", 0));
+			String down = fixture.page("/down", status(500, new AtomicInteger()));
+			String service = InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getLocalPort();
+			
+			// The services aren't in the file, so they're left as configured
+			Files.write(file.toPath(), ("pages=" + kept + "," + removed + "," + down + "\n").getBytes(StandardCharsets.ISO_8859_1));
+			
+			HostPingAlert monitor = fixture.getMonitor();
+			monitor.setServices(service);
+			monitor.setInventoryFile(file.getPath());
+			monitor.setFailuresToAlert(1);
+			fixture.sweep();
+			
+			ProbeHistory keptHistory = monitor.getHistory(kept);
+			ProbeHistory downHistory = monitor.getHistory(down);
+			ProbeHistory serviceHistory = monitor.getHistory(service);
+			Assert.assertNotNull(monitor.getHistory(removed));
+			Assert.assertEquals(fixture.getAlerts().size(), 1);
+			
+			Files.write(file.toPath(), ("pages=" + kept + "," + added + "," + down + "\n").getBytes(StandardCharsets.ISO_8859_1));
+			
+			// The change is picked up at the start of a sweep, once the watcher has seen it
+			int sweeps = 1;
+			long giveUp = System.currentTimeMillis() + 20000;
+			while(monitor.getHistory(added) == null && System.currentTimeMillis() < giveUp) {
+				Thread.sleep(50);
+				fixture.sweep();
+				sweeps++;
+			}
+			Assert.assertNotNull(monitor.getHistory(added));
+			
+			// Only the added and removed pages are touched, the rest keep their histories and state
+			Assert.assertNull(monitor.getHistory(removed));
+			Assert.assertEquals(removedRequests.get(), sweeps - 1);
+			Assert.assertSame(monitor.getHistory(kept), keptHistory);
+			Assert.assertEquals(keptHistory.size(), sweeps);
+			Assert.assertSame(monitor.getHistory(down), downHistory);
+			Assert.assertEquals(downHistory.size(), sweeps);
+			Assert.assertSame(monitor.getHistory(service), serviceHistory);
+			Assert.assertEquals(serviceHistory.size(), sweeps);
+			
+			// The down page is still down from before, so it isn't alerted on again
+			Assert.assertEquals(fixture.getAlerts().size(), 1);
+		} finally {
+			fixture.close();
+			server.close();
+			file.delete();
+			dir.delete();
+		}
+	}
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.HostResolver;
+
+public class HostResolverTest {
+
+	/**
+	 * Resolver answering from a settable address instead of DNS, counting lookups
+	 */
+	private static class FakeResolver extends HostResolver {
+		
+		private final AtomicInteger lookups = new AtomicInteger();
+		
+		private volatile InetAddress answer;
+		
+		private FakeResolver(long ttl, long negativeTtl) {
+			super(ttl, negativeTtl, 2);
+		}
+		
+		@Override
+		protected InetAddress lookupAddress(String host) throws UnknownHostException {
+			lookups.incrementAndGet();
+			if(answer == null) {
+				throw new UnknownHostException(host);
+			}
+			return answer;
+		}
+	}
+	
+	@Test
+	public void TestCachesAddress() throws Exception {
+		FakeResolver resolver = new FakeResolver(60000, 60000);
+		try {
+			resolver.answer = InetAddress.getByAddress("nics", new byte[]{ 10, 0, 0, 1 });
+			
+			Assert.assertEquals(resolver.resolve("nics").get(5, TimeUnit.SECONDS), resolver.answer);
+			
+			CompletableFuture<InetAddress> cached = resolver.resolve("nics");
+			Assert.assertTrue(cached.isDone(), "Second resolve should come from the cache");
+			Assert.assertEquals(cached.get(), resolver.answer);
+			Assert.assertEquals(resolver.lookups.get(), 1);
+		} finally {
+			resolver.shutdown();
+		}
+	}
+	
+	@Test
+	public void TestRefreshesBeforeExpiry() throws Exception {
+		FakeResolver resolver = new FakeResolver(1000, 1000);
+		try {
+			InetAddress first = InetAddress.getByAddress("nics", new byte[]{ 10, 0, 0, 1 });
+			InetAddress second = InetAddress.getByAddress("nics", new byte[]{ 10, 0, 0, 2 });
+			
+			resolver.answer = first;
+			resolver.resolve("nics").get(5, TimeUnit.SECONDS);
+			
+			// Past the refresh point, but not expired, the cached address is returned while it's re-resolved
+			resolver.answer = second;
+			Thread.sleep((long)(1000 * HostResolver.REFRESH_FRACTION) + 10);
+			Assert.assertEquals(resolver.resolve("nics").get(), first);
+			
+			long deadline = System.currentTimeMillis() + 5000;
+			while(!resolver.resolve("nics").get(5, TimeUnit.SECONDS).equals(second) && 
+					System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			Assert.assertEquals(resolver.resolve("nics").get(5, TimeUnit.SECONDS), second);
+		} finally {
+			resolver.shutdown();
+		}
+	}
+	
+	@Test
+	public void TestCachesFailures() throws Exception {
+		FakeResolver resolver = new FakeResolver(60000, 60000);
+		try {
+			for(int i = 0; i < 3; i++) {
+				try {
+					resolver.resolve("missing").get(5, TimeUnit.SECONDS);
+					Assert.fail("Expected lookup to fail");
+				} catch(ExecutionException ee) {
+					Assert.assertTrue(ee.getCause() instanceof UnknownHostException);
+				}
+			}
+			Assert.assertEquals(resolver.lookups.get(), 1);
+		} finally {
+			resolver.shutdown();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.InventoryWatcher;
+
+public class InventoryWatcherTest {
+
+	@Test
+	public void TestChangeDetected() throws Exception {
+		File dir = File.createTempFile("inventory", "");
+		dir.delete();
+		dir.mkdir();
+		File file = new File(dir, "inventory.properties");
+		write(file, "hosts=a.example.com,b.example.com\n");
+		
+		InventoryWatcher watcher = new InventoryWatcher(file.getPath());
+		try {
+			Assert.assertFalse(watcher.takeChange());
+			Assert.assertEquals(watcher.load().getProperty("hosts"), "a.example.com,b.example.com");
+			
+			// Other files in the directory are ignored.  A watcher of the other file seeing it change 
+			// shows the change has been delivered, rather than waiting some fixed time for it
+			File other = new File(dir, "other.properties");
+			write(other, "");
+			InventoryWatcher otherWatcher = new InventoryWatcher(other.getPath());
+			try {
+				write(other, "hosts=c.example.com\n");
+				Assert.assertTrue(awaitChange(otherWatcher));
+			} finally {
+				otherWatcher.close();
+			}
+			Assert.assertFalse(watcher.takeChange());
+			
+			write(file, "hosts=a.example.com\npages=http://nics.example.com/login.seam\n");
+			Assert.assertTrue(awaitChange(watcher));
+			Assert.assertFalse(watcher.takeChange());
+			
+			Properties inventory = watcher.load();
+			Assert.assertEquals(inventory.getProperty("hosts"), "a.example.com");
+			Assert.assertEquals(inventory.getProperty("pages"), "http://nics.example.com/login.seam");
+			Assert.assertNull(inventory.getProperty("services"));
+		} finally {
+			watcher.close();
+			for(File created : dir.listFiles()) {
+				created.delete();
+			}
+			dir.delete();
+		}
+	}
+	
+	private static boolean awaitChange(InventoryWatcher watcher) throws InterruptedException {
+		// Some platforms poll for changes rather than being notified
+		long deadline = System.currentTimeMillis() + 20000;
+		while(System.currentTimeMillis() < deadline) {
+			if(watcher.takeChange()) {
+				return true;
+			}
+			Thread.sleep(50);
+		}
+		return false;
+	}
+	
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(StandardCharsets.ISO_8859_1));
+		} finally {
+			out.close();
+		}
+	}
+}
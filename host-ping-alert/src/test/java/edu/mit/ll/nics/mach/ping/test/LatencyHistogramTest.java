@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.EndpointLatency;
+import edu.mit.ll.nics.mach.ping.LatencyHistogram;
+import edu.mit.ll.nics.mach.ping.LatencyMetrics;
+import edu.mit.ll.nics.mach.ping.LatencySnapshot;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void TestPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram(60000, 6);
+		long now = 1000000;
+		
+		// 1ms to 1000ms, evenly
+		for(int ms = 1; ms <= 1000; ms++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(ms), now);
+		}
+		
+		LatencySnapshot snapshot = histogram.snapshot(now);
+		Assert.assertEquals(snapshot.getCount(), 1000);
+		Assert.assertEquals(snapshot.getMax(), 1000.0);
+		assertWithin(snapshot.getP50(), 500);
+		assertWithin(snapshot.getP95(), 950);
+		assertWithin(snapshot.getP99(), 990);
+	}
+	
+	@Test
+	public void TestSmallAndLargeLatencies() {
+		LatencyHistogram histogram = new LatencyHistogram(60000, 6);
+		
+		histogram.record(0, 0);
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(7), 0);
+		histogram.record(TimeUnit.HOURS.toNanos(2), 0);
+		
+		LatencySnapshot snapshot = histogram.snapshot(0);
+		Assert.assertEquals(snapshot.getCount(), 3);
+		Assert.assertEquals(snapshot.getP50(), 0.007);
+		Assert.assertEquals(snapshot.getMax(), (double)TimeUnit.HOURS.toMillis(2));
+	}
+	
+	@Test
+	public void TestWindowRolls() {
+		LatencyHistogram histogram = new LatencyHistogram(60000, 6);
+		
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(900), 0);
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(10), 30000);
+		
+		Assert.assertEquals(histogram.snapshot(30000).getCount(), 2);
+		
+		// The first slot has fallen out of the window
+		LatencySnapshot snapshot = histogram.snapshot(65000);
+		Assert.assertEquals(snapshot.getCount(), 1);
+		Assert.assertEquals(snapshot.getMax(), 10.0);
+		
+		// and is reused
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(20), 61000);
+		snapshot = histogram.snapshot(65000);
+		Assert.assertEquals(snapshot.getCount(), 2);
+		Assert.assertEquals(snapshot.getMax(), 20.0);
+		
+		Assert.assertEquals(histogram.snapshot(200000).getCount(), 0);
+	}
+	
+	@Test
+	public void TestPublishedOverJmx() throws Exception {
+		LatencyMetrics metrics = new LatencyMetrics(60000, true);
+		try {
+			metrics.record("http://nics.example.com/", EndpointLatency.Phase.TTFB, TimeUnit.MILLISECONDS.toNanos(42));
+			
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = LatencyMetrics.objectName("http://nics.example.com/");
+			
+			CompositeData ttfb = (CompositeData)server.getAttribute(name, "TimeToFirstByte");
+			Assert.assertEquals(ttfb.get("count"), 1L);
+			Assert.assertEquals(LatencySnapshot.from(ttfb).getMax(), 42.0);
+			
+			CompositeData dns = (CompositeData)server.getAttribute(name, "Dns");
+			Assert.assertEquals(dns.get("count"), 0L);
+		} finally {
+			metrics.unregister();
+		}
+	}
+	
+	/**
+	 * Asserts a percentile is within the histogram's 12.5% accuracy
+	 */
+	private void assertWithin(double actual, double expected) {
+		Assert.assertTrue(Math.abs(actual - expected) <= expected * 0.125, "Expected ~" + expected + ", got " + actual);
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.lang.reflect.Method;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.mit.ll.nics.mach.ping.AlertSender;
+import edu.mit.ll.nics.mach.ping.HostPingAlert;
+import edu.mit.ll.nics.mach.ping.ProbeResult;
+import edu.mit.ll.nics.mach.ping.ResultPublisher;
+
+/**
+ * A HostPingAlert checking pages served on loopback, keeping every probe result and alert it 
+ * sends.  Pages are added with page(), then the monitor is set up and swept as needed, and 
+ * close() shuts both down.
+ */
+public class MonitorFixture {
+
+	/** Serves the pages */
+	private final HttpServer server;
+	
+	/** Threads the pages are served on */
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	/** The monitor */
+	private final HostPingAlert monitor = new HostPingAlert();
+	
+	/** Every probe result, in the order they were reported */
+	private final List<ProbeResult> results = new ArrayList<ProbeResult>();
+	
+	/** Messages of every alert sent */
+	private final List<String> alerts = new ArrayList<String>();
+	
+	
+	public MonitorFixture() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(executor);
+		server.start();
+		
+		// Set by the Spring context, even when empty
+		monitor.setHosts("");
+		monitor.setPages("");
+		monitor.setServices("");
+		monitor.setSubscribers("test@localhost");
+		monitor.setStateJournal("");
+		monitor.setTimeout(2000);
+		monitor.setConfirmRetryDelay(0);
+		monitor.setAlertSender(new AlertSender() {
+			@Override
+			public void send(String subscribers, String subject, String message) {
+				synchronized(alerts) {
+					alerts.add(message);
+				}
+			}
+		});
+		monitor.setResultPublisher(new ResultPublisher(null, "capture", 1) {
+			@Override
+			public void publish(ProbeResult result) {
+				synchronized(results) {
+					results.add(result);
+				}
+			}
+		});
+	}
+	
+	
+	/**
+	 * Serves a page
+	 * 
+	 * @param path The page's path
+	 * @param handler Handles its requests
+	 * @return The page's URL
+	 */
+	public String page(String path, HttpHandler handler) {
+		server.createContext(path, handler);
+		return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + path;
+	}
+	
+	
+	/**
+	 * @param body Body of the page
+	 * @param delayMillis Time (in ms) to wait before responding
+	 * @return Handler serving the body with a 200
+	 */
+	public static HttpHandler respond(final String body, final long delayMillis) {
+		return new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(delayMillis);
+				} catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+				
+				byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, bytes.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(bytes);
+				out.close();
+			}
+		};
+	}
+	
+	
+	/**
+	 * @return The monitor
+	 */
+	public HostPingAlert getMonitor() {
+		return monitor;
+	}
+	
+	
+	/**
+	 * Runs a sweep, as the timer route would
+	 */
+	public void sweep() throws Exception {
+		monitor.process(null);
+	}
+	
+	
+	/**
+	 * @return The probe results so far
+	 */
+	public List<ProbeResult> getResults() {
+		synchronized(results) {
+			return new ArrayList<ProbeResult>(results);
+		}
+	}
+	
+	
+	/**
+	 * @param endpoint The endpoint
+	 * @return Its probe results so far
+	 */
+	public List<ProbeResult> getResults(String endpoint) {
+		List<ProbeResult> matching = new ArrayList<ProbeResult>();
+		for(ProbeResult result : getResults()) {
+			if(result.getEndpoint().equals(endpoint)) {
+				matching.add(result);
+			}
+		}
+		return matching;
+	}
+	
+	
+	/**
+	 * @return The messages of the alerts sent so far
+	 */
+	public List<String> getAlerts() {
+		synchronized(alerts) {
+			return new ArrayList<String>(alerts);
+		}
+	}
+	
+	
+	/**
+	 * Shuts down the monitor, as the Spring context would, and the server
+	 */
+	public void close() throws Exception {
+		Method destroy = HostPingAlert.class.getDeclaredMethod("destroy");
+		destroy.setAccessible(true);
+		destroy.invoke(monitor);
+		
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.OriginThrottle;
+
+public class OriginThrottleTest {
+
+	@Test
+	public void TestConcurrencyLimit() {
+		OriginThrottle throttle = new OriginThrottle(2, 0, 1);
+		
+		CompletableFuture<Void> first = throttle.acquire("10.0.0.1");
+		CompletableFuture<Void> second = throttle.acquire("10.0.0.1");
+		CompletableFuture<Void> third = throttle.acquire("10.0.0.1");
+		
+		Assert.assertTrue(first.isDone());
+		Assert.assertTrue(second.isDone());
+		Assert.assertFalse(third.isDone());
+		Assert.assertEquals(throttle.getWaiting(), 1);
+		
+		// Other origins don't wait behind it
+		Assert.assertTrue(throttle.acquire("10.0.0.2").isDone());
+		
+		throttle.release("10.0.0.1");
+		Assert.assertTrue(third.isDone());
+		Assert.assertEquals(throttle.getWaiting(), 0);
+		
+		throttle.shutdown();
+	}
+	
+	@Test
+	public void TestRate() throws Exception {
+		OriginThrottle throttle = new OriginThrottle(0, 20, 1);
+		
+		long start = System.nanoTime();
+		CompletableFuture<Void> first = throttle.acquire("10.0.0.1");
+		CompletableFuture<Void> second = throttle.acquire("10.0.0.1");
+		CompletableFuture<Void> third = throttle.acquire("10.0.0.1");
+		
+		Assert.assertTrue(first.isDone());
+		Assert.assertFalse(second.isDone());
+		Assert.assertTrue(throttle.acquire("10.0.0.2").isDone());
+		
+		// A token every 50ms
+		third.get(2, TimeUnit.SECONDS);
+		Assert.assertTrue(second.isDone());
+		Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+		
+		throttle.shutdown();
+	}
+	
+	@Test
+	public void TestSkipsCancelled() {
+		OriginThrottle throttle = new OriginThrottle(1, 0, 1);
+		
+		Assert.assertTrue(throttle.acquire("10.0.0.1").isDone());
+		CompletableFuture<Void> cancelled = throttle.acquire("10.0.0.1");
+		CompletableFuture<Void> next = throttle.acquire("10.0.0.1");
+		cancelled.cancel(false);
+		
+		throttle.release("10.0.0.1");
+		Assert.assertTrue(next.isDone());
+		Assert.assertFalse(next.isCompletedExceptionally());
+		
+		throttle.shutdown();
+	}
+	
+	@Test
+	public void TestShutdown() throws InterruptedException {
+		OriginThrottle throttle = new OriginThrottle(1, 0, 1);
+		
+		throttle.acquire("10.0.0.1");
+		CompletableFuture<Void> waiting = throttle.acquire("10.0.0.1");
+		throttle.shutdown();
+		
+		try {
+			waiting.get();
+			Assert.fail("Waiting probes should be cancelled");
+		} catch(ExecutionException ee) {
+			// Expected
+		}
+		
+		Assert.assertTrue(throttle.acquire("10.0.0.1").isCompletedExceptionally());
+	}
+}
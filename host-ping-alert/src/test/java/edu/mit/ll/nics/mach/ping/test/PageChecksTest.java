@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.PageCheck;
+import edu.mit.ll.nics.mach.ping.PageChecks;
+
+public class PageChecksTest {
+
+	@Test
+	public void TestParsePageChecks() throws IOException {
+		String file = 
+			"# comment\n" +
+			"[http://nics.example.com/login.seam]\n" +
+			"require = Welcome to NICS\n" +
+			"forbid = Exception\n" +
+			"require-regex = Version \\d+\n" +
+			"forbid-regex = ([unclosed\n" +
+			"bogus = value\n" +
+			"\n" +
+			"[http://nics.example.com/other]\n" +
+			"forbid = Error\n" +
+			"fingerprint = true\n" +
+			"fingerprint-exclude = \\d{2}:\\d{2}\n";
+		
+		Map<String, PageCheck> checks = PageChecks.parse(new StringReader(file), "test");
+		
+		Assert.assertEquals(checks.size(), 2);
+		
+		PageCheck login = checks.get("http://nics.example.com/login.seam");
+		Assert.assertEquals(login.getAssertions().getLiterals().size(), 2);
+		Assert.assertEquals(login.getAssertions().getRequiredLiteralCount(), 1);
+		Assert.assertEquals(login.getAssertions().getRequiredPatterns().size(), 1);
+		// The invalid regex is skipped
+		Assert.assertTrue(login.getAssertions().getForbiddenPatterns().isEmpty());
+		
+		PageCheck other = checks.get("http://nics.example.com/other");
+		Assert.assertTrue(other.getAssertions().hasForbidden());
+		Assert.assertEquals(other.getFingerprint(), Boolean.TRUE);
+		Assert.assertEquals(other.getFingerprintExcludes().size(), 1);
+		Assert.assertNull(login.getFingerprint());
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.ProbeHistory;
+import edu.mit.ll.nics.mach.ping.ProbeHistory.Outage;
+import edu.mit.ll.nics.mach.ping.ProbeHistory.Outcome;
+
+public class ProbeHistoryTest {
+
+	/** A minute, in ms */
+	private static final long MINUTE = 60000;
+	
+	@Test
+	public void TestAvailability() {
+		ProbeHistory history = new ProbeHistory(100);
+		
+		// 10 probes a minute apart, the 3rd and 4th down
+		for(int i = 0; i < 10; i++) {
+			history.record(i * MINUTE, (i == 2 || i == 3) ? Outcome.DOWN : Outcome.UP, TimeUnit.MILLISECONDS.toNanos(5));
+		}
+		
+		Assert.assertEquals(history.availability(0, 10 * MINUTE), 80.0);
+		Assert.assertEquals(history.availability(2 * MINUTE, 4 * MINUTE), 0.0);
+		Assert.assertEquals(history.availability(4 * MINUTE, 10 * MINUTE), 100.0);
+		Assert.assertTrue(Double.isNaN(history.availability(20 * MINUTE, 30 * MINUTE)));
+	}
+	
+	@Test
+	public void TestOutages() {
+		ProbeHistory history = new ProbeHistory(100);
+		
+		Outcome[] outcomes = { Outcome.UP, Outcome.DOWN, Outcome.DOWN, Outcome.UP, Outcome.UNRESOLVED, Outcome.UP, Outcome.DOWN };
+		for(int i = 0; i < outcomes.length; i++) {
+			history.record(i * MINUTE, outcomes[i], 0);
+		}
+		
+		List<Outage> outages = history.outages(0, outcomes.length * MINUTE);
+		Assert.assertEquals(outages.size(), 3);
+		
+		Assert.assertEquals(outages.get(0).getStart(), MINUTE);
+		Assert.assertEquals(outages.get(0).getEnd(), 3 * MINUTE);
+		Assert.assertEquals(outages.get(0).getOutcome(), Outcome.DOWN);
+		
+		Assert.assertEquals(outages.get(1).getStart(), 4 * MINUTE);
+		Assert.assertEquals(outages.get(1).getDuration(0), MINUTE);
+		Assert.assertEquals(outages.get(1).getOutcome(), Outcome.UNRESOLVED);
+		
+		Assert.assertTrue(outages.get(2).isOngoing());
+		Assert.assertEquals(outages.get(2).getDuration(10 * MINUTE), 4 * MINUTE);
+	}
+	
+	@Test
+	public void TestLatencyTrend() {
+		ProbeHistory history = new ProbeHistory(100);
+		
+		history.record(0, Outcome.UP, TimeUnit.MILLISECONDS.toNanos(10));
+		history.record(MINUTE, Outcome.UP, TimeUnit.MILLISECONDS.toNanos(20));
+		history.record(2 * MINUTE, Outcome.DOWN, TimeUnit.MILLISECONDS.toNanos(5000));
+		history.record(3 * MINUTE, Outcome.UP, TimeUnit.MILLISECONDS.toNanos(40));
+		
+		double[] trend = history.latencyTrend(0, 4 * MINUTE, 2);
+		Assert.assertEquals(trend.length, 2);
+		Assert.assertEquals(trend[0], 15.0);
+		// Probes that were down don't count toward the latency
+		Assert.assertEquals(trend[1], 40.0);
+		
+		Assert.assertTrue(Double.isNaN(history.latencyTrend(0, 8 * MINUTE, 4)[3]));
+	}
+	
+	@Test
+	public void TestOldestOverwritten() {
+		ProbeHistory history = new ProbeHistory(5);
+		
+		for(int i = 0; i < 12; i++) {
+			history.record(i * MINUTE, (i < 7) ? Outcome.DOWN : Outcome.UP, 0);
+		}
+		
+		Assert.assertEquals(history.size(), 5);
+		Assert.assertEquals(history.capacity(), 5);
+		
+		// Only the last 5 probes, all up, are left
+		Assert.assertEquals(history.availability(0, 12 * MINUTE), 100.0);
+		Assert.assertTrue(history.outages(0, 12 * MINUTE).isEmpty());
+	}
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.ProbeScheduler;
+import edu.mit.ll.nics.mach.ping.ProbeThreadFactory;
+
+public class ProbeSchedulerTest {
+
+	/**
+	 * @param time Time (in ms since the epoch)
+	 * @param slotOffset The slots' offset into the interval
+	 * @param intervalMillis The interval
+	 * @return How far the time is from the nearest slot, negative if it's before it
+	 */
+	private static long offsetFromSlot(long time, long slotOffset, long intervalMillis) {
+		long offset = Math.floorMod(time - slotOffset, intervalMillis);
+		return (offset > intervalMillis / 2) ? offset - intervalMillis : offset;
+	}
+	
+	@Test
+	public void TestPhaseSpread() {
+		// Similar names, as pages on one server would have
+		long interval = 60000;
+		int[] buckets = new int[10];
+		for(int i = 0; i < 1000; i++) {
+			long phase = ProbeScheduler.phase("http://nics.example.com/page" + i + ".seam", interval);
+			Assert.assertTrue(phase >= 0 && phase < interval, "phase " + phase);
+			buckets[(int)(phase * buckets.length / interval)]++;
+		}
+		
+		for(int count : buckets) {
+			Assert.assertTrue(count > 50 && count < 150, "Uneven spread: " + Arrays.toString(buckets));
+		}
+		
+		Assert.assertEquals(ProbeScheduler.phase("nics.example.com", interval), 
+				ProbeScheduler.phase("nics.example.com", interval));
+	}
+	
+	@Test
+	public void TestSlotsKeptAcrossRestarts() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			long interval = 3600000;
+			String endpoint = "nics.example.com";
+			long phase = ProbeScheduler.phase(endpoint, interval);
+			
+			long before = System.currentTimeMillis();
+			ProbeScheduler first = new ProbeScheduler(executor, 0);
+			first.schedule(endpoint, interval, new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			
+			// Another scheduler, as after a restart, puts the endpoint in the same slot
+			ProbeScheduler second = new ProbeScheduler(executor, 0);
+			second.schedule(endpoint, interval, new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			
+			long nextRun = first.getNextRun(endpoint);
+			Assert.assertEquals(nextRun % interval, phase);
+			Assert.assertTrue(nextRun >= before && nextRun < before + interval + 1000, "next run " + nextRun);
+			Assert.assertTrue(Math.abs(second.getNextRun(endpoint) - nextRun) <= interval / 2);
+			Assert.assertEquals(second.getNextRun(endpoint) % interval, phase);
+			
+			Assert.assertEquals(first.getNextRun("unscheduled"), -1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void TestJitterBounds() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			long interval = 1000;
+			ProbeScheduler scheduler = new ProbeScheduler(executor, 10);
+			
+			boolean jittered = false;
+			for(int i = 0; i < 200; i++) {
+				String endpoint = "host" + i;
+				scheduler.schedule(endpoint, interval, new Runnable() {
+					@Override
+					public void run() {
+					}
+				});
+				
+				long offset = offsetFromSlot(scheduler.getNextRun(endpoint), ProbeScheduler.phase(endpoint, interval), interval);
+				Assert.assertTrue(Math.abs(offset) <= 100, endpoint + " jittered by " + offset + "ms");
+				jittered |= offset != 0;
+			}
+			
+			Assert.assertTrue(jittered);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void TestRunsStayOnSlots() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2, new ProbeThreadFactory("test-probe"));
+		final ProbeScheduler scheduler = new ProbeScheduler(executor, 20);
+		
+		try {
+			final String endpoint = "nics.example.com";
+			final long interval = 100;
+			final List<Long> runs = new CopyOnWriteArrayList<Long>();
+			scheduler.schedule(endpoint, interval, new Runnable() {
+				@Override
+				public void run() {
+					runs.add(scheduler.getNextRun(endpoint));
+				}
+			});
+			scheduler.start();
+			
+			long giveUp = System.currentTimeMillis() + 10000;
+			while(runs.size() < 20 && System.currentTimeMillis() < giveUp) {
+				Thread.sleep(20);
+			}
+			Assert.assertTrue(runs.size() >= 20, runs.size() + " runs");
+			
+			// Jitter doesn't add up from one run to the next, each run stays near its own slot
+			long phase = ProbeScheduler.phase(endpoint, interval);
+			for(long run : runs) {
+				Assert.assertTrue(Math.abs(offsetFromSlot(run, phase, interval)) <= 20, "run at " + run + ": " + runs);
+			}
+		} finally {
+			scheduler.stop();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void TestNoOverlap() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4, new ProbeThreadFactory("test-probe"));
+		ProbeScheduler scheduler = new ProbeScheduler(executor, 50);
+		
+		try {
+			// Both probes take longer than their interval
+			final AtomicInteger running = new AtomicInteger();
+			final AtomicInteger overlaps = new AtomicInteger();
+			final AtomicInteger runs = new AtomicInteger();
+			scheduler.schedule("slow", 20, new Runnable() {
+				@Override
+				public void run() {
+					if(running.incrementAndGet() > 1) {
+						overlaps.incrementAndGet();
+					}
+					try {
+						Thread.sleep(60);
+					} catch(InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+					running.decrementAndGet();
+					runs.incrementAndGet();
+				}
+			});
+			
+			final AtomicInteger asyncRunning = new AtomicInteger();
+			final AtomicInteger asyncOverlaps = new AtomicInteger();
+			final AtomicInteger asyncRuns = new AtomicInteger();
+			scheduler.schedule("slow-async", 20, new ProbeScheduler.AsyncProbe() {
+				@Override
+				public CompletableFuture<?> start() {
+					if(asyncRunning.incrementAndGet() > 1) {
+						asyncOverlaps.incrementAndGet();
+					}
+					return CompletableFuture.runAsync(new Runnable() {
+						@Override
+						public void run() {
+							asyncRunning.decrementAndGet();
+							asyncRuns.incrementAndGet();
+						}
+					}, CompletableFuture.delayedExecutor(60, TimeUnit.MILLISECONDS));
+				}
+			});
+			scheduler.start();
+			
+			long giveUp = System.currentTimeMillis() + 10000;
+			while((runs.get() < 5 || asyncRuns.get() < 5) && System.currentTimeMillis() < giveUp) {
+				Thread.sleep(20);
+			}
+			
+			Assert.assertTrue(runs.get() >= 5 && asyncRuns.get() >= 5, runs + " runs, " + asyncRuns + " async runs");
+			Assert.assertEquals(overlaps.get(), 0);
+			Assert.assertEquals(asyncOverlaps.get(), 0);
+		} finally {
+			scheduler.stop();
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.HostPingAlert.EndpointType;
+import edu.mit.ll.nics.mach.ping.ProbeResult;
+import edu.mit.ll.nics.mach.ping.ResultPublisher;
+
+public class ResultPublisherTest {
+
+	@Test
+	public void TestBatching() {
+		CapturingPublisher publisher = new CapturingPublisher("direct:results", 3);
+		Assert.assertTrue(publisher.isEnabled());
+		
+		for(int i = 0; i < 4; i++) {
+			publisher.publish(new ProbeResult("host" + i + ".example.com", EndpointType.HOST, true, null, 1000000));
+		}
+		
+		// Sent once full, the rest waits for the flush
+		Assert.assertEquals(publisher.batches.size(), 1);
+		Assert.assertEquals(publisher.batches.get(0).split("\n").length, 3);
+		
+		publisher.flush();
+		Assert.assertEquals(publisher.batches.size(), 2);
+		Assert.assertEquals(publisher.batches.get(1).split("\n").length, 1);
+		Assert.assertTrue(publisher.batches.get(1).contains("\"endpoint\":\"host3.example.com\""));
+		
+		// Nothing left to send
+		publisher.flush();
+		Assert.assertEquals(publisher.batches.size(), 2);
+	}
+	
+	@Test
+	public void TestEncoding() {
+		CapturingPublisher publisher = new CapturingPublisher("direct:results", 10);
+		
+		ProbeResult up = new ProbeResult("http://nics.example.com/login.seam", EndpointType.URL, true, null, 84250000, 200);
+		ProbeResult down = new ProbeResult("http://nics.example.com/\"quoted\"", EndpointType.URL, false, 
+				"received response other than 200: 500\n\n<html>Error</html>", 0, 500);
+		publisher.publish(up);
+		publisher.publish(down);
+		publisher.flush();
+		
+		String[] lines = publisher.batches.get(0).split("\n");
+		Assert.assertEquals(lines[0], "{\"time\":" + up.getTime() + ",\"endpoint\":\"http://nics.example.com/login.seam\"," + 
+				"\"type\":\"URL\",\"up\":true,\"status\":200,\"ms\":84.2}");
+		
+		// No latency, and only the first line of the message
+		Assert.assertEquals(lines[1], "{\"time\":" + down.getTime() + ",\"endpoint\":\"http://nics.example.com/\\\"quoted\\\"\"," + 
+				"\"type\":\"URL\",\"up\":false,\"status\":500,\"message\":\"received response other than 200: 500\"}");
+	}
+	
+	@Test
+	public void TestDisabled() {
+		CapturingPublisher publisher = new CapturingPublisher("", 1);
+		Assert.assertFalse(publisher.isEnabled());
+		
+		publisher.publish(new ProbeResult("host.example.com", EndpointType.HOST, false, "failed to respond to PING", 0));
+		publisher.flush();
+		Assert.assertTrue(publisher.batches.isEmpty());
+	}
+	
+	/**
+	 * Keeps the batches, instead of sending them
+	 */
+	private static class CapturingPublisher extends ResultPublisher {
+		
+		private final List<String> batches = new ArrayList<String>();
+		
+		private CapturingPublisher(String endpoint, int batchSize) {
+			super(null, endpoint, batchSize);
+		}
+		
+		@Override
+		protected void send(String results) {
+			batches.add(results);
+		}
+	}
+}
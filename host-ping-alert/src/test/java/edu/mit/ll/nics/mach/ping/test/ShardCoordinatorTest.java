@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.HashRing;
+import edu.mit.ll.nics.mach.ping.ShardCoordinator;
+
+public class ShardCoordinatorTest {
+
+	private static final int ENDPOINTS = 3000;
+	
+	private static final int TIMEOUT = 15;
+	
+	private static final long START = 1000000L;
+	
+	@Test
+	public void TestRingBalanced() {
+		HashRing ring = new HashRing(Arrays.asList("node-a", "node-b", "node-c"), 128);
+		
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for(String endpoint : endpoints()) {
+			String owner = ring.ownerOf(endpoint);
+			counts.put(owner, (counts.containsKey(owner) ? counts.get(owner) : 0) + 1);
+		}
+		
+		Assert.assertEquals(counts.size(), 3);
+		for(int count : counts.values()) {
+			// Within 20% of an even split
+			Assert.assertTrue(Math.abs(count - ENDPOINTS / 3) < ENDPOINTS / 15, "Uneven split: " + counts);
+		}
+		
+		Assert.assertNull(new HashRing(new ArrayList<String>(), 128).ownerOf("nics.example.com"));
+	}
+	
+	@Test
+	public void TestRingMovesOnlyDeadNodesKeys() {
+		HashRing before = new HashRing(Arrays.asList("node-a", "node-b", "node-c", "node-d"), 128);
+		HashRing after = new HashRing(Arrays.asList("node-a", "node-b", "node-d"), 128);
+		
+		int moved = 0;
+		for(String endpoint : endpoints()) {
+			String owner = before.ownerOf(endpoint);
+			if(!owner.equals(after.ownerOf(endpoint))) {
+				// Only node-c's endpoints move
+				Assert.assertEquals(owner, "node-c");
+				moved++;
+			}
+		}
+		
+		Assert.assertTrue(moved > ENDPOINTS / 6 && moved < ENDPOINTS / 3, "Moved " + moved);
+	}
+	
+	@Test
+	public void TestNodesAgreeOnOwners() {
+		List<ShardCoordinator> nodes = new ArrayList<ShardCoordinator>();
+		for(String id : Arrays.asList("node-a", "node-b", "node-c")) {
+			nodes.add(new ShardCoordinator(id, TIMEOUT, START));
+		}
+		
+		// Still learning who's alive, so nobody probes anything
+		long now = START + 1000;
+		heartbeats(nodes, now);
+		Assert.assertEquals(owners(nodes, "nics.example.com", now), 0);
+		
+		now = START + TIMEOUT * 1000L;
+		heartbeats(nodes, now);
+		for(ShardCoordinator node : nodes) {
+			Assert.assertEquals(node.getMembers(), Arrays.asList("node-a", "node-b", "node-c"));
+		}
+		for(String endpoint : endpoints()) {
+			Assert.assertEquals(owners(nodes, endpoint, now), 1, endpoint);
+		}
+		
+		// node-b dies, and the others take over its endpoints once it times out
+		ShardCoordinator dead = nodes.remove(1);
+		int version = nodes.get(0).getVersion();
+		
+		now += TIMEOUT * 1000L / 2;
+		heartbeats(nodes, now);
+		Assert.assertEquals(nodes.get(0).getVersion(), version);
+		
+		now += TIMEOUT * 1000L;
+		heartbeats(nodes, now);
+		Assert.assertTrue(nodes.get(0).getVersion() > version);
+		for(ShardCoordinator node : nodes) {
+			node.refresh(now);
+			Assert.assertEquals(node.getMembers(), Arrays.asList("node-a", "node-c"));
+		}
+		for(String endpoint : endpoints()) {
+			Assert.assertEquals(owners(nodes, endpoint, now), 1, endpoint);
+		}
+		
+		// It rejoins
+		nodes.add(dead);
+		heartbeats(nodes, now + 1000);
+		for(String endpoint : endpoints()) {
+			Assert.assertEquals(owners(nodes, endpoint, now + 1000), 1, endpoint);
+		}
+	}
+	
+	@Test
+	public void TestNodeJoinsRunningCluster() {
+		List<ShardCoordinator> nodes = new ArrayList<ShardCoordinator>();
+		for(String id : Arrays.asList("node-a", "node-b", "node-c")) {
+			nodes.add(new ShardCoordinator(id, TIMEOUT, START));
+		}
+		
+		long now = START + TIMEOUT * 1000L;
+		heartbeats(nodes, now);
+		
+		// node-d starts, and every endpoint has one owner while it warms up, and once it's taken over
+		now += 60000;
+		nodes.add(new ShardCoordinator("node-d", TIMEOUT, now));
+		assertOneOwnerEachSecond(nodes, now, 3 * TIMEOUT);
+		
+		now += 3 * TIMEOUT * 1000L;
+		int owned = 0;
+		for(String endpoint : endpoints()) {
+			if(nodes.get(3).owns(endpoint, now)) {
+				owned++;
+			}
+		}
+		Assert.assertTrue(owned > ENDPOINTS / 6, "node-d owns " + owned);
+		for(ShardCoordinator node : nodes) {
+			Assert.assertEquals(node.getMembers(), Arrays.asList("node-a", "node-b", "node-c", "node-d"));
+		}
+		
+		// node-b restarts, and the others cover its endpoints until it's warmed up again
+		nodes.set(1, new ShardCoordinator("node-b", TIMEOUT, now));
+		assertOneOwnerEachSecond(nodes, now, 3 * TIMEOUT);
+	}
+	
+	/**
+	 * Steps through time a second at a time, with a heartbeat every 5 seconds, checking every endpoint
+	 * has exactly one owner at each step
+	 */
+	private static void assertOneOwnerEachSecond(List<ShardCoordinator> nodes, long start, int seconds) {
+		for(int second = 0; second < seconds; second++) {
+			long now = start + second * 1000L;
+			if(second % 5 == 0) {
+				heartbeats(nodes, now);
+			}
+			for(String endpoint : endpoints()) {
+				Assert.assertEquals(owners(nodes, endpoint, now), 1, endpoint + " at " + second + "s");
+			}
+		}
+	}
+	
+	/**
+	 * Delivers each node's heartbeat to every node, like the heartbeat routes over a topic exchange
+	 */
+	private static void heartbeats(List<ShardCoordinator> nodes, long now) {
+		for(ShardCoordinator sender : nodes) {
+			String heartbeat = sender.heartbeatAt(now);
+			for(ShardCoordinator receiver : nodes) {
+				receiver.onHeartbeat(heartbeat, now);
+			}
+		}
+	}
+	
+	private static int owners(List<ShardCoordinator> nodes, String endpoint, long now) {
+		int owners = 0;
+		for(ShardCoordinator node : nodes) {
+			if(node.owns(endpoint, now)) {
+				owners++;
+			}
+		}
+		return owners;
+	}
+	
+	private static List<String> endpoints() {
+		List<String> endpoints = new ArrayList<String>();
+		for(int i = 0; i < ENDPOINTS; i++) {
+			endpoints.add((i % 2 == 0) ? "http://nics" + i + ".example.com/login.seam" : "10.0." + (i / 256) + "." + (i % 256) + ":5432");
+		}
+		return endpoints;
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.EndpointRecord;
+import edu.mit.ll.nics.mach.ping.EndpointRecord.State;
+import edu.mit.ll.nics.mach.ping.StateJournal;
+
+public class StateJournalTest {
+
+	@Test
+	public void TestReplaysLatestStatus() throws IOException {
+		Path dir = Files.createTempDirectory("journal");
+		String file = dir.resolve("state.journal").toString();
+		
+		StateJournal journal = new StateJournal(file, 65536);
+		Assert.assertTrue(journal.open().isEmpty());
+		
+		EndpointRecord host = new EndpointRecord("nics.example.com");
+		EndpointRecord url = new EndpointRecord("http://nics.example.com/login");
+		
+		host.succeeded(1000);
+		journal.append(host);
+		url.failed(2000, 60000);
+		journal.append(url);
+		host.failed(3000, 60000);
+		journal.append(host);
+		journal.close();
+		
+		Map<String, EndpointRecord.Status> replayed = new StateJournal(file, 65536).open();
+		Assert.assertEquals(replayed.size(), 2);
+		
+		EndpointRecord.Status status = replayed.get("nics.example.com");
+		Assert.assertEquals(status.getState(), State.ALERTED);
+		Assert.assertEquals(status.getLastResponse(), 1000);
+		Assert.assertEquals(status.getLastAlert(), 3000);
+		
+		Assert.assertEquals(replayed.get("http://nics.example.com/login").getState(), State.ALERTED);
+	}
+	
+	@Test
+	public void TestIgnoresTornRecord() throws IOException {
+		Path dir = Files.createTempDirectory("journal");
+		String file = dir.resolve("state.journal").toString();
+		
+		StateJournal journal = new StateJournal(file, 65536);
+		journal.open();
+		
+		EndpointRecord record = new EndpointRecord("nics.example.com");
+		record.succeeded(1000);
+		journal.append(record);
+		record.failed(2000, 60000);
+		journal.append(record);
+		journal.close();
+		
+		// Damage the last byte of the second record, as if the write had been cut short
+		int recordLength = 8 + 4 + "nics.example.com".length() + 1 + 24;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(4 + 2 * recordLength - 1);
+			raf.write(0x55);
+		} finally {
+			raf.close();
+		}
+		
+		Map<String, EndpointRecord.Status> replayed = new StateJournal(file, 65536).open();
+		Assert.assertEquals(replayed.get("nics.example.com").getState(), State.UP);
+	}
+	
+	@Test
+	public void TestCompactsWhenFull() throws IOException {
+		Path dir = Files.createTempDirectory("journal");
+		String file = dir.resolve("state.journal").toString();
+		
+		StateJournal journal = new StateJournal(file, 4096);
+		journal.open();
+		
+		EndpointRecord[] records = new EndpointRecord[]{ new EndpointRecord("a.example.com"), 
+				new EndpointRecord("b.example.com"), new EndpointRecord("c.example.com") };
+		
+		// Many times more records than fit
+		for(int i = 1; i <= 1000; i++) {
+			EndpointRecord record = records[i % records.length];
+			record.succeeded(i);
+			journal.append(record);
+		}
+		journal.close();
+		
+		Assert.assertEquals(Files.size(dir.resolve("state.journal")), 4096);
+		
+		Map<String, EndpointRecord.Status> replayed = new StateJournal(file, 4096).open();
+		Assert.assertEquals(replayed.size(), 3);
+		Assert.assertEquals(replayed.get("a.example.com").getLastResponse(), 999);
+		Assert.assertEquals(replayed.get("b.example.com").getLastResponse(), 1000);
+		Assert.assertEquals(replayed.get("c.example.com").getLastResponse(), 998);
+	}
+	
+	@Test
+	public void TestRewriteDropsOtherEndpoints() throws IOException {
+		Path dir = Files.createTempDirectory("journal");
+		String file = dir.resolve("state.journal").toString();
+		
+		StateJournal journal = new StateJournal(file, 65536);
+		journal.open();
+		
+		EndpointRecord kept = new EndpointRecord("kept.example.com");
+		EndpointRecord dropped = new EndpointRecord("dropped.example.com");
+		kept.succeeded(1000);
+		dropped.succeeded(1000);
+		journal.append(kept);
+		journal.append(dropped);
+		
+		journal.rewrite(Arrays.asList(kept));
+		journal.close();
+		
+		Map<String, EndpointRecord.Status> replayed = new StateJournal(file, 65536).open();
+		Assert.assertEquals(replayed.keySet(), Collections.singleton("kept.example.com"));
+	}
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import java.util.regex.Pattern;
+
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.ContentAssertions;
+import edu.mit.ll.nics.mach.ping.GzipBodyConsumer;
+import edu.mit.ll.nics.mach.ping.StreamingPatternMatcher;
+
+public class StreamingPatternMatcherTest {
+
+	/**
+	 * Builds a page of the given size, with the marker at the given offset
+	 */
+	private byte[] page(int size, int markerAt, String marker) {
+		StringBuilder sb = new StringBuilder(size);
+		while(sb.length() < size) {
+			sb.append("<p>lorem ipsum dolor sit amet</p>\n");
+		}
+		sb.setLength(size);
+		if(marker != null) {
+			sb.replace(markerAt, markerAt + marker.length(), marker);
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void TestFindsPatternAcrossChunks() throws IOException {
+		// Lands across the 8K chunks the body is read and searched in
+		byte[] body = page(100000, 8190, "Welcome to NICS");
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(Pattern.compile("Welcome to [A-Z]+"), 
+				1048576, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		
+		Assert.assertTrue(matcher.isMatched());
+		Assert.assertEquals(matcher.getMatch(), "Welcome to NICS");
+		Assert.assertTrue(matcher.getBytesRead() < body.length, "Should stop reading once the pattern is found");
+	}
+	
+	@Test
+	public void TestStopsAtMaxBodyBytes() throws IOException {
+		byte[] body = page(100000, 90000, "Welcome to NICS");
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(Pattern.compile("Welcome"), 
+				50000, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		
+		Assert.assertFalse(matcher.isMatched());
+		Assert.assertTrue(matcher.isTruncated());
+		Assert.assertEquals(matcher.getBytesRead(), 50000);
+	}
+	
+	@Test
+	public void TestDropsLineBreaks() throws IOException {
+		byte[] body = "<b>I'm feeling\r\n lucky</b>".getBytes(StandardCharsets.UTF_8);
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(Pattern.compile("I'm feeling lucky"), 
+				1048576, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		
+		Assert.assertTrue(matcher.isMatched());
+	}
+	
+	@Test
+	public void TestDecodesCharactersSplitAcrossBuffers() {
+		byte[] body = "caf\u00e9 ouvert".getBytes(StandardCharsets.UTF_8);
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(Pattern.compile("caf\u00e9 ouvert"), 
+				1048576, 64, StandardCharsets.UTF_8);
+		
+		// Split in the middle of the two byte e-acute
+		Assert.assertTrue(matcher.update(ByteBuffer.wrap(body, 0, 4)));
+		Assert.assertTrue(matcher.update(ByteBuffer.wrap(body, 4, body.length - 4)));
+		matcher.finish();
+		
+		Assert.assertTrue(matcher.isMatched());
+	}
+	
+	@Test
+	public void TestNoPatternOnlySamplesExcerpt() throws IOException {
+		byte[] body = page(100000, 0, null);
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher((ContentAssertions)null, 
+				1048576, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		
+		Assert.assertTrue(matcher.isMatched());
+		Assert.assertEquals(matcher.getExcerpt().length(), StreamingPatternMatcher.EXCERPT_CHARS);
+		Assert.assertTrue(matcher.getBytesRead() < body.length);
+	}
+	
+	@Test
+	public void TestKeepsExcerptOnlyWhenAsked() throws IOException {
+		byte[] body = page(100000, 60000, "Welcome to NICS");
+		ContentAssertions assertions = ContentAssertions.forPattern(Pattern.compile("Welcome to [A-Z]+"));
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(assertions, null, 
+				1048576, 64, StandardCharsets.UTF_8, false);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		Assert.assertTrue(matcher.isMatched());
+		Assert.assertEquals(matcher.getExcerpt(), "");
+		
+		matcher = new StreamingPatternMatcher(assertions, null, 1048576, 64, StandardCharsets.UTF_8, true);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		Assert.assertTrue(matcher.isMatched());
+		Assert.assertEquals(matcher.getExcerpt().length(), StreamingPatternMatcher.EXCERPT_CHARS);
+	}
+	
+	@Test
+	public void TestReusedBuffersStartEmpty() throws IOException {
+		Pattern pattern = Pattern.compile("Welcome to NICS");
+		
+		// The first body ends partway through the pattern
+		StreamingPatternMatcher first = new StreamingPatternMatcher(pattern, 1048576, 64, StandardCharsets.UTF_8);
+		first.readFrom(new ByteArrayInputStream("<p>Welcome to ".getBytes(StandardCharsets.UTF_8)));
+		Assert.assertFalse(first.isMatched());
+		
+		// The next body to take its buffers doesn't see the end of it
+		StreamingPatternMatcher second = new StreamingPatternMatcher(pattern, 1048576, 64, StandardCharsets.UTF_8);
+		second.readFrom(new ByteArrayInputStream("NICS".getBytes(StandardCharsets.UTF_8)));
+		Assert.assertFalse(second.isMatched());
+		Assert.assertEquals(second.getExcerpt(), "NICS");
+	}
+	
+	@Test
+	public void TestContentAssertions() throws IOException {
+		byte[] body = page(100000, 8185, "Welcome to NICS");
+		
+		ContentAssertions assertions = new ContentAssertions(Arrays.asList("Welcome to NICS", "lorem"), 
+				Arrays.asList("Exception"), Collections.singletonList(Pattern.compile("dolor\\s+sit")), 
+				Collections.<Pattern>emptyList());
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(assertions, 1048576, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		
+		Assert.assertTrue(matcher.isMatched());
+		Assert.assertNull(matcher.getFailures());
+		// Has to read everything to be sure the forbidden text isn't there
+		Assert.assertEquals(matcher.getBytesRead(), body.length);
+	}
+	
+	@Test
+	public void TestForbiddenStopsReading() throws IOException {
+		byte[] body = page(100000, 20000, "NullPointerException");
+		
+		ContentAssertions assertions = new ContentAssertions(Arrays.asList("lorem"), 
+				Arrays.asList("Exception"), Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList());
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(assertions, 1048576, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		
+		Assert.assertFalse(matcher.isMatched());
+		Assert.assertEquals(matcher.getFailures(), "page contained forbidden text 'Exception'");
+		Assert.assertTrue(matcher.getBytesRead() < body.length);
+	}
+	
+	@Test
+	public void TestMissingRequired() throws IOException {
+		byte[] body = page(20000, 0, null);
+		
+		ContentAssertions assertions = new ContentAssertions(Arrays.asList("lorem", "Welcome"), 
+				Collections.<String>emptyList(), Collections.singletonList(Pattern.compile("v\\d")), 
+				Collections.<Pattern>emptyList());
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(assertions, 1048576, 64, StandardCharsets.UTF_8);
+		matcher.readFrom(new ByteArrayInputStream(body));
+		
+		Assert.assertFalse(matcher.isMatched());
+		Assert.assertEquals(matcher.getFailures(), 
+				"page didn't contain 'Welcome', page didn't contain the specified pattern(v\\d)");
+	}
+	
+	@Test
+	public void TestCharsetOf() {
+		Assert.assertEquals(StreamingPatternMatcher.charsetOf("text/html; charset=ISO-8859-1"), 
+				StandardCharsets.ISO_8859_1);
+		Assert.assertEquals(StreamingPatternMatcher.charsetOf("text/html"), StandardCharsets.UTF_8);
+		Assert.assertEquals(StreamingPatternMatcher.charsetOf(null), StandardCharsets.UTF_8);
+		Assert.assertEquals(StreamingPatternMatcher.charsetOf("text/html; charset=bogus"), StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void TestGzipBody() throws IOException {
+		byte[] body = page(100000, 60000, "Welcome to NICS");
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(body);
+		gzip.close();
+		byte[] gzipped = compressed.toByteArray();
+		
+		StreamingPatternMatcher matcher = new StreamingPatternMatcher(Pattern.compile("Welcome to [A-Z]+"), 
+				1048576, 64, StandardCharsets.UTF_8);
+		GzipBodyConsumer consumer = new GzipBodyConsumer(matcher);
+		
+		// Fed in small pieces, so the header and deflate blocks are split up
+		boolean more = true;
+		for(int i = 0; more && i < gzipped.length; i += 7) {
+			more = consumer.update(ByteBuffer.wrap(gzipped, i, Math.min(7, gzipped.length - i)));
+		}
+		consumer.finish();
+		
+		Assert.assertFalse(more, "Should stop once the pattern is found");
+		Assert.assertTrue(matcher.isMatched());
+		Assert.assertEquals(matcher.getMatch(), "Welcome to NICS");
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.SweepMetrics;
+
+public class SweepMetricsTest {
+
+	@Test
+	public void TestCounters() {
+		SweepMetrics metrics = new SweepMetrics();
+		
+		metrics.sweep(1200, 0);
+		metrics.sweep(55000, 3);
+		metrics.sweep(800, 0);
+		Assert.assertEquals(metrics.getSweeps(), 3);
+		Assert.assertEquals(metrics.getOverruns(), 1);
+		Assert.assertEquals(metrics.getCarriedOverProbes(), 3);
+		Assert.assertEquals(metrics.getLastSweepMillis(), 800);
+		Assert.assertEquals(metrics.getMaxSweepMillis(), 55000);
+		
+		metrics.lag(5);
+		metrics.lag(70000);
+		metrics.lag(10);
+		Assert.assertEquals(metrics.getLagMillis(), 10);
+		Assert.assertEquals(metrics.getMaxLagMillis(), 70000);
+		
+		metrics.skippedCycle();
+		metrics.skippedProbes(4);
+		metrics.skippedProbes(1);
+		Assert.assertEquals(metrics.getSkippedCycles(), 1);
+		Assert.assertEquals(metrics.getSkippedProbes(), 5);
+	}
+	
+	@Test
+	public void TestPublishedOverJmx() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		SweepMetrics metrics = new SweepMetrics();
+		metrics.register();
+		try {
+			metrics.sweep(1500, 2);
+			Assert.assertEquals(server.getAttribute(SweepMetrics.objectName(), "Sweeps"), 1L);
+			Assert.assertEquals(server.getAttribute(SweepMetrics.objectName(), "CarriedOverProbes"), 2L);
+			Assert.assertEquals(server.getAttribute(SweepMetrics.objectName(), "MaxSweepMillis"), 1500L);
+		} finally {
+			metrics.unregister();
+		}
+		
+		Assert.assertFalse(server.isRegistered(SweepMetrics.objectName()));
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2008-2016, Massachusetts Institute of Technology (MIT)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.mit.ll.nics.mach.ping.test;
+
+import java.io.IOException;
+
+import java.lang.reflect.Field;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import java.nio.channels.Selector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.mit.ll.nics.mach.ping.TcpConnectProber;
+
+public class TcpConnectProberTest {
+
+	@Test
+	public void TestConnectsToListeningPort() throws Exception {
+		ServerSocket server = new ServerSocket(0, 500, InetAddress.getLoopbackAddress());
+		TcpConnectProber prober = new TcpConnectProber(5000);
+		
+		try {
+			InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			
+			// Many connects in flight on the one selector thread
+			List<CompletableFuture<Long>> connects = new ArrayList<CompletableFuture<Long>>();
+			for(int i = 0; i < 200; i++) {
+				connects.add(prober.connect(address));
+			}
+			
+			for(CompletableFuture<Long> connect : connects) {
+				Assert.assertTrue(connect.get(10, TimeUnit.SECONDS) >= 0);
+			}
+		} finally {
+			prober.shutdown();
+			server.close();
+		}
+	}
+	
+	@Test
+	public void TestRefusedConnection() throws Exception {
+		// Grab a free port, then close it so nothing is listening
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		int port = server.getLocalPort();
+		server.close();
+		
+		TcpConnectProber prober = new TcpConnectProber(5000);
+		try {
+			prober.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)).get(10, TimeUnit.SECONDS);
+			Assert.fail("Expected the connection to be refused");
+		} catch(ExecutionException ee) {
+			Assert.assertTrue(ee.getCause() instanceof IOException);
+		} finally {
+			prober.shutdown();
+		}
+	}
+	
+	@Test
+	public void TestSelectorFailure() throws Exception {
+		TcpConnectProber prober = new TcpConnectProber(5000);
+		Assert.assertTrue(prober.isRunning());
+		
+		// Kill the selector loop from under it
+		Field selector = TcpConnectProber.class.getDeclaredField("selector");
+		selector.setAccessible(true);
+		((Selector)selector.get(prober)).close();
+		
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while(prober.isRunning() && System.currentTimeMillis() < waitUntil) {
+			Thread.sleep(10);
+		}
+		Assert.assertFalse(prober.isRunning());
+		
+		// Later connects fail straight away, rather than waiting on a dead selector forever
+		CompletableFuture<Long> connect = prober.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), 9));
+		Assert.assertTrue(connect.isDone());
+		try {
+			connect.get();
+			Assert.fail("Expected the connect to fail");
+		} catch(ExecutionException ee) {
+			Assert.assertTrue(ee.getCause() instanceof IOException);
+		}
+		
+		prober.shutdown();
+	}
+	
+	@Test
+	public void TestParseService() {
+		InetSocketAddress address = TcpConnectProber.parseService(" 127.0.0.1:8080 ");
+		Assert.assertEquals(address.getHostString(), "127.0.0.1");
+		Assert.assertEquals(address.getPort(), 8080);
+		
+		address = TcpConnectProber.parseService("[::1]:443");
+		Assert.assertEquals(address.getHostString(), "::1");
+		Assert.assertEquals(address.getPort(), 443);
+		
+		String[] invalid = new String[]{ "localhost", "localhost:", ":80", "localhost:http", "localhost:70000" };
+		for(String service : invalid) {
+			try {
+				TcpConnectProber.parseService(service);
+				Assert.fail("Expected '" + service + "' to be rejected");
+			} catch(IllegalArgumentException iae) {
+				// expected
+			}
+		}
+	}
+}